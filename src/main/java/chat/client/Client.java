@@ -39,16 +39,14 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.channels.SocketChannel;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Objects;
 
 import org.apache.log4j.Level;
 
+import chat.client.algorithms.Algorithm;
 import chat.client.algorithms.chat.Action;
 import chat.client.algorithms.chat.ChatMsgContent;
+import chat.common.CausalDeliveryBuffer;
 import chat.common.Log;
 
 /**
@@ -63,6 +61,21 @@ import chat.common.Log;
  * 
  */
 public class Client {
+	/**
+	 * states whether the chat messages carry differential vector clocks, that is
+	 * the entries that have changed since the previous message of the client,
+	 * instead of complete vector clocks (see
+	 * {@link VectorClock#changedSince(VectorClock)}). The clients rebuild the
+	 * complete vector clocks whatever the form they receive.
+	 */
+	private static volatile boolean deltaClocks = true;
+	/**
+	 * states whether the chat messages carry vector clocks. Without vector
+	 * clocks, the messages are delivered as they are received, which is the
+	 * causal order when the servers order the chat messages (see
+	 * {@link chat.server.Server#setCausalOrdering(boolean)}).
+	 */
+	private static volatile boolean vectorClocks = true;
 	/**
 	 * the runnable object of the client that receives the messages from the chat
 	 * server.
@@ -72,6 +85,11 @@ public class Client {
 	 * the thread of the client that receives the messages from the chat server.
 	 */
 	private final Thread threadToRcvMsgs;
+	/**
+	 * the pipeline that decodes the messages received and delivers them to the
+	 * algorithms.
+	 */
+	private final ReceivePipeline receivePipeline;
 	// The following attributes are shared through getters and setters, and must be
 	// accessed into synchronized blocks. We apply the idiom Self Encapsulate Field,
 	// that is we use methods to manipulate these attributes, in order to make
@@ -99,19 +117,25 @@ public class Client {
 	 */
 	private int nbChatMsgContentSent;
 	
-	/**
-	 * bag of message not already C-delivred.
-	 */
-	private Map<ChatMsgContent, VectorClock> msgBag;
-	
 	/**
 	 * vector clock.
 	 */
 	private VectorClock v;
+	/**
+	 * the value of the vector clock that has been sent with the last chat
+	 * message, from which the next differential vector clock is computed.
+	 */
+	private VectorClock lastSentClock;
+	/**
+	 * the messages not already C-delivered, which are delivered in the console
+	 * when their causal dependencies are.
+	 */
+	private CausalDeliveryBuffer<ChatMsgContent> causalDelivery;
 	
 	{
-		msgBag = new HashMap<>();
 		v = new VectorClock();
+		lastSentClock = new VectorClock();
+		causalDelivery = new CausalDeliveryBuffer<>(v, System.out::println);
 	}
 
 	/**
@@ -158,6 +182,10 @@ public class Client {
 		} catch (IOException e) {
 			throw new IllegalStateException("cannot open a connection to the server");
 		}
+		receivePipeline = new ReceivePipeline("client-" + rwChan.socket().getLocalPort(),
+				ReceivePipeline.DEFAULT_CAPACITY,
+				// synchronisation made into the client method that is going to be called
+				(type, content) -> Algorithm.execute(this, type, content));
 		runnableToRcvMsgs = new ReadMessagesFromNetwork(rwChan, this);
 		threadToRcvMsgs = new Thread(runnableToRcvMsgs);
 		assert invariant();
@@ -172,10 +200,34 @@ public class Client {
 	 * @return a boolean stating whether the invariant is maintained.
 	 */
 	public final synchronized boolean invariant() {
-		return runnableToRcvMsgs != null && threadToRcvMsgs != null && nbChatMsgContentReceived >= 0
+		return runnableToRcvMsgs != null && threadToRcvMsgs != null && receivePipeline != null
+				&& nbChatMsgContentReceived >= 0
 				&& nbChatMsgContentSent >= 0;
 	}
 
+	/**
+	 * configures the form of the vector clocks of the chat messages sent by the
+	 * clients.
+	 * 
+	 * @param enabled
+	 *            {@code true} for differential vector clocks, {@code false} for
+	 *            complete vector clocks.
+	 */
+	public static void setDeltaClocks(final boolean enabled) {
+		deltaClocks = enabled;
+	}
+
+	/**
+	 * configures whether the chat messages sent by the clients carry vector
+	 * clocks.
+	 * 
+	 * @param enabled
+	 *            {@code false} when the servers order the chat messages causally.
+	 */
+	public static void setVectorClocks(final boolean enabled) {
+		vectorClocks = enabled;
+	}
+
 	/**
 	 * gets the identity of the client. This method that manipulates a shared
 	 * attribute must be accessed into {@code synchronized} blocks.
@@ -248,10 +300,21 @@ public class Client {
 		assert invariant();
 	}
 
+	/**
+	 * gets the pipeline that decodes the messages received and delivers them to
+	 * the algorithms, e.g. to observe the sizes of its queues.
+	 *
+	 * @return the pipeline.
+	 */
+	public ReceivePipeline getReceivePipeline() {
+		return receivePipeline;
+	}
+
 	/**
 	 * starts the thread that is responsible for reading messages from the server.
 	 */
 	public synchronized void startThreadReadMessagesFromNetwork() {
+		receivePipeline.start();
 		threadToRcvMsgs.start();
 		assert invariant();
 	}
@@ -272,10 +335,16 @@ public class Client {
 		}
 		if (line.equals("quit")) {
 			threadToRcvMsgs.interrupt();
+			receivePipeline.stop();
 			Thread.currentThread().interrupt();
 		} else {
 			synchronized (this) {
-				ChatMsgContent msg = new ChatMsgContent(getIdentity(), getNbChatMsgContentSent(), line, v);
+				boolean delta = deltaClocks;
+				VectorClock clock = null;
+				if (vectorClocks) {
+					clock = delta ? v.changedSince(lastSentClock) : v;
+				}
+				ChatMsgContent msg = new ChatMsgContent(getIdentity(), getNbChatMsgContentSent(), line, clock, delta);
 				if (LOG_ON && DIFFUSION.isInfoEnabled()) {
 					DIFFUSION.info(Log.computeClientLogMessage(this, ", sending chat message: " + msg));
 				}
@@ -286,6 +355,7 @@ public class Client {
 				if (LOG_ON && COMM.isDebugEnabled()) {
 					COMM.debug(sent + " bytes sent.");	
 				}
+				lastSentClock = new VectorClock(v);
 				v.incrementEntry(getIdentity());
 			}
 		}
@@ -294,7 +364,7 @@ public class Client {
 
 	/**
 	 * treats the reception of a chat message: the message is displayed in the
-	 * console.
+	 * console when it is causally deliverable (see {@link CausalDeliveryBuffer}).
 	 * 
 	 * @param content
 	 *            the content of the message.
@@ -307,35 +377,10 @@ public class Client {
 			}
 			int q = content.getSender();
 			if (q != this.getIdentity()) {
-				msgBag.put(content, content.getVectorClock());
+				causalDelivery.receive(content);
 				if (LOG_ON && DIFFUSION.isInfoEnabled()) {
-					DIFFUSION.info(Log.computeClientLogMessage(this, "msgBag size =" + msgBag.size()));
+					DIFFUSION.info(Log.computeClientLogMessage(this, ", " + causalDelivery));
 				}
-
-				HashMap<ChatMsgContent, VectorClock> toremove = new HashMap<>();
-				Boolean flag = true;
-				while (flag) {
-					flag = false;
-					Iterator<Entry<ChatMsgContent, VectorClock>> it = msgBag.entrySet().iterator();
-					while (it.hasNext()) {
-						Entry<ChatMsgContent, VectorClock> iter = it.next();
-						VectorClock vector = iter.getValue();
-						if (this.v.isGreaterOrEquals(vector)) {
-							System.out.println(iter.getKey());
-							this.v.incrementEntry(iter.getKey().getSender());
-							flag = true;
-							toremove.put(iter.getKey(), iter.getValue());
-						}	
-					}
-					Iterator<Entry<ChatMsgContent, VectorClock>> itr = msgBag.entrySet().iterator();
-					while (itr.hasNext()) {
-						Entry<ChatMsgContent, VectorClock> it2 = itr.next();
-						msgBag.remove(it2.getKey(), it2.getValue());
-					}	
-				}
-				if (LOG_ON && DIFFUSION.isInfoEnabled()) {
-					DIFFUSION.info(Log.computeClientLogMessage(this, "msgBag size =" + msgBag.size()));
-				}		
 			}
 			incrementNbChatMsgContentReceived();
 		}
@@ -29,7 +29,7 @@ import java.io.IOException;
 import java.nio.channels.SocketChannel;
 import java.util.Objects;
 
-import chat.client.algorithms.Algorithm;
+import chat.common.EncodedFrame;
 import chat.common.FullDuplexMsgWorker;
 import chat.common.Log;
 import chat.common.ReadMessageStatus;
@@ -37,8 +37,10 @@ import chat.common.ReadMessageStatus;
 /**
  * This class contains the chat client's thread waiting for messages from its
  * server. The constructor initialises the full message worker and the method
- * {@code run} receives messages from the server and dispatch them according to
- * the message type using the method {@code execute} of the class
+ * {@code run} receives messages from the server and submits a copy of their
+ * frames to the reception pipeline of the client (see {@link ReceivePipeline}),
+ * which decodes them and dispatches them according to the message type using
+ * the method {@code execute} of the class
  * {@link chat.client.algorithms.Algorithm}
  * 
  * @author chris
@@ -84,9 +86,10 @@ public class ReadMessagesFromNetwork extends FullDuplexMsgWorker implements Runn
 
 	/**
 	 * organises an infinite loop to receive messages from the chat server and to
-	 * execute the corresponding action. The action is searched for in the
-	 * enumeration {@link chat.client.algorithms.Algorithm} through the method
-	 * {@link chat.client.algorithms.Algorithm#execute(Client, int, Object)}.
+	 * submit them to the reception pipeline of the client. The body of each
+	 * message is copied, since the buffers of the worker are reused by the next
+	 * read; the decoding and the execution of the actions are done by the
+	 * pipeline. The loop waits while the pipeline is full.
 	 */
 	@Override
 	public void run() {
@@ -101,14 +104,16 @@ public class ReadMessagesFromNetwork extends FullDuplexMsgWorker implements Runn
 					break;
 				} else {
 					if (messState == ReadMessageStatus.READDATACOMPLETED) {
-						// synchronisation made into the client method that is going to be called
-						Algorithm.execute(client, getInType(), getData().orElseThrow(
-								() -> new IOException(Log.computeClientLogMessage(client, " receives no data"))));
+						client.getReceivePipeline().submit(EncodedFrame.wrap(getInType(), getInIdentity(),
+								getInSeqNumber(), getRawData().orElseThrow(() -> new IOException(
+										Log.computeClientLogMessage(client, " receives no data")))));
 					}
 				}
 			} catch (IOException e) {
 				COMM.warn(e.getLocalizedMessage());
 				return;
+			} catch (InterruptedException e) {
+				return;
 			}
 			if (LOG_ON && COMM.isTraceEnabled()) {
 				COMM.trace("End of reception of a message");
@@ -0,0 +1,368 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.client;
+
+import static chat.common.Log.COMM;
+import static chat.common.Log.GEN;
+import static chat.common.Log.LOG_ON;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import chat.common.EncodedFrame;
+
+/**
+ * This class defines the reception pipeline of a client. The thread reading
+ * the network only copies the frames and submits them to the pipeline; a first
+ * stage decodes the bodies and a second stage delivers the contents to the
+ * algorithms. The stages are linked by bounded queues: when a stage lags, the
+ * queue before it fills up and the previous stage waits, until the thread
+ * reading the network stops reading and the server is slowed down through TCP.
+ * The order of the messages is kept since each stage is one thread.
+ *
+ * @author agent
+ */
+public class ReceivePipeline {
+	/**
+	 * the default capacity of the queues.
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * This interface defines the delivery of a decoded message.
+	 */
+	@FunctionalInterface
+	public interface Delivery {
+		/**
+		 * delivers a message.
+		 *
+		 * @param type
+		 *            the type of the message.
+		 * @param content
+		 *            the content of the message.
+		 */
+		void deliver(int type, Serializable content);
+	}
+
+	/**
+	 * a message that is decoded and waits for its delivery.
+	 */
+	private static final class Decoded {
+		/**
+		 * the type of the message.
+		 */
+		private final int type;
+		/**
+		 * the content of the message.
+		 */
+		private final Serializable content;
+
+		/**
+		 * constructs a decoded message.
+		 *
+		 * @param type
+		 *            the type of the message.
+		 * @param content
+		 *            the content of the message.
+		 */
+		private Decoded(final int type, final Serializable content) {
+			this.type = type;
+			this.content = content;
+		}
+	}
+
+	/**
+	 * the name used in the logs and in the names of the threads.
+	 */
+	private final String name;
+	/**
+	 * the delivery of the messages.
+	 */
+	private final Delivery delivery;
+	/**
+	 * the frames waiting to be decoded.
+	 */
+	private final BlockingQueue<EncodedFrame> toDecode;
+	/**
+	 * the messages waiting to be delivered.
+	 */
+	private final BlockingQueue<Decoded> toDeliver;
+	/**
+	 * the thread of the decoding stage.
+	 */
+	private final Thread decodingThread;
+	/**
+	 * the thread of the delivery stage.
+	 */
+	private final Thread deliveryThread;
+	/**
+	 * the highest number of frames seen waiting to be decoded.
+	 */
+	private final AtomicInteger maxDecodeQueueSize = new AtomicInteger();
+	/**
+	 * the highest number of messages seen waiting to be delivered.
+	 */
+	private final AtomicInteger maxDeliveryQueueSize = new AtomicInteger();
+	/**
+	 * the number of frames decoded.
+	 */
+	private final AtomicLong nbDecoded = new AtomicLong();
+	/**
+	 * the number of frames that could not be decoded.
+	 */
+	private final AtomicLong nbMalformed = new AtomicLong();
+	/**
+	 * the number of messages delivered.
+	 */
+	private final AtomicLong nbDelivered = new AtomicLong();
+	/**
+	 * the number of messages whose delivery failed.
+	 */
+	private final AtomicLong nbDeliveryFailures = new AtomicLong();
+
+	/**
+	 * constructs the pipeline. The threads of the stages are started with
+	 * {@link #start()}.
+	 *
+	 * @param name
+	 *            the name used in the logs and in the names of the threads.
+	 * @param capacity
+	 *            the capacity of each queue.
+	 * @param delivery
+	 *            the delivery of the messages.
+	 */
+	public ReceivePipeline(final String name, final int capacity, final Delivery delivery) {
+		Objects.requireNonNull(name, "argument name cannot be null");
+		Objects.requireNonNull(delivery, "argument delivery cannot be null");
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.name = name;
+		this.delivery = delivery;
+		this.toDecode = new ArrayBlockingQueue<>(capacity);
+		this.toDeliver = new ArrayBlockingQueue<>(capacity);
+		this.decodingThread = new Thread(this::decode, name + "-decode");
+		this.deliveryThread = new Thread(this::deliver, name + "-deliver");
+		// the stages follow the thread reading the network, which keeps the client alive
+		this.decodingThread.setDaemon(true);
+		this.deliveryThread.setDaemon(true);
+	}
+
+	/**
+	 * starts the threads of the stages.
+	 */
+	public void start() {
+		decodingThread.start();
+		deliveryThread.start();
+	}
+
+	/**
+	 * stops the threads of the stages. The messages still in the queues are
+	 * dropped.
+	 */
+	public void stop() {
+		decodingThread.interrupt();
+		deliveryThread.interrupt();
+	}
+
+	/**
+	 * submits a received frame. The method waits while the decoding stage lags.
+	 * The pipeline takes the reference of the caller to the frame, which is
+	 * released once decoded.
+	 *
+	 * @param frame
+	 *            the frame, which must not share its buffers with the reader.
+	 * @throws InterruptedException
+	 *             the exception thrown when the caller is interrupted while
+	 *             waiting.
+	 */
+	public void submit(final EncodedFrame frame) throws InterruptedException {
+		Objects.requireNonNull(frame, "argument frame cannot be null");
+		try {
+			toDecode.put(frame);
+		} catch (InterruptedException e) {
+			frame.release();
+			throw e;
+		}
+		updateMax(maxDecodeQueueSize, toDecode.size());
+	}
+
+	/**
+	 * is the loop of the decoding stage.
+	 */
+	private void decode() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				EncodedFrame frame = toDecode.take();
+				Serializable content;
+				try {
+					content = frame.decode();
+				} catch (IOException e) {
+					nbMalformed.incrementAndGet();
+					COMM.warn(name + ", malformed message of type " + frame.getType() + ": "
+							+ e.getLocalizedMessage());
+					continue;
+				} finally {
+					frame.release();
+				}
+				nbDecoded.incrementAndGet();
+				toDeliver.put(new Decoded(frame.getType(), content));
+				updateMax(maxDeliveryQueueSize, toDeliver.size());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		EncodedFrame frame;
+		while ((frame = toDecode.poll()) != null) {
+			frame.release();
+		}
+		if (LOG_ON && GEN.isDebugEnabled()) {
+			GEN.debug(name + ", decoding stage stopped");
+		}
+	}
+
+	/**
+	 * is the loop of the delivery stage. A failure of the delivery of a
+	 * message is logged and the stage continues with the next message: if the
+	 * thread died, the queues would fill up and the thread reading the network
+	 * would wait forever.
+	 */
+	private void deliver() {
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Decoded msg = toDeliver.take();
+				try {
+					delivery.deliver(msg.type, msg.content);
+				} catch (RuntimeException e) {
+					nbDeliveryFailures.incrementAndGet();
+					GEN.error(name + ", problem when delivering a message of type " + msg.type + ": " + e);
+					continue;
+				}
+				nbDelivered.incrementAndGet();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (LOG_ON && GEN.isDebugEnabled()) {
+			GEN.debug(name + ", delivery stage stopped");
+		}
+	}
+
+	/**
+	 * raises a high-water mark.
+	 *
+	 * @param max
+	 *            the high-water mark.
+	 * @param size
+	 *            the size just observed.
+	 */
+	private static void updateMax(final AtomicInteger max, final int size) {
+		int current = max.get();
+		while (size > current && !max.compareAndSet(current, size)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * gets the number of frames waiting to be decoded.
+	 *
+	 * @return the number of frames.
+	 */
+	public int getDecodeQueueSize() {
+		return toDecode.size();
+	}
+
+	/**
+	 * gets the number of messages waiting to be delivered.
+	 *
+	 * @return the number of messages.
+	 */
+	public int getDeliveryQueueSize() {
+		return toDeliver.size();
+	}
+
+	/**
+	 * gets the highest number of frames seen waiting to be decoded.
+	 *
+	 * @return the high-water mark.
+	 */
+	public int getMaxDecodeQueueSize() {
+		return maxDecodeQueueSize.get();
+	}
+
+	/**
+	 * gets the highest number of messages seen waiting to be delivered.
+	 *
+	 * @return the high-water mark.
+	 */
+	public int getMaxDeliveryQueueSize() {
+		return maxDeliveryQueueSize.get();
+	}
+
+	/**
+	 * gets the number of frames decoded.
+	 *
+	 * @return the number of frames.
+	 */
+	public long getNbDecoded() {
+		return nbDecoded.get();
+	}
+
+	/**
+	 * gets the number of frames that could not be decoded.
+	 *
+	 * @return the number of frames.
+	 */
+	public long getNbMalformed() {
+		return nbMalformed.get();
+	}
+
+	/**
+	 * gets the number of messages delivered.
+	 *
+	 * @return the number of messages.
+	 */
+	public long getNbDelivered() {
+		return nbDelivered.get();
+	}
+
+	/**
+	 * gets the number of messages whose delivery failed.
+	 *
+	 * @return the number of messages.
+	 */
+	public long getNbDeliveryFailures() {
+		return nbDeliveryFailures.get();
+	}
+
+	@Override
+	public String toString() {
+		return name + " [decode=" + getDecodeQueueSize() + "/max " + getMaxDecodeQueueSize() + ", deliver="
+				+ getDeliveryQueueSize() + "/max " + getMaxDeliveryQueueSize() + ", decoded=" + getNbDecoded()
+				+ ", delivered=" + getNbDelivered() + ", failed=" + getNbDeliveryFailures() + "]";
+	}
+}
@@ -21,13 +21,11 @@ Contributor(s):
  */
 package chat.client.algorithms;
 
-import java.util.Arrays;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Optional;
 
 import chat.client.Client;
 import chat.common.ActionOfAClient;
+import chat.common.MsgContent;
 
 /**
  * This Enumeration type declares the algorithms of the chat client. For now,
@@ -56,6 +54,42 @@ public enum Algorithm {
 	 * index of the first message type of the chat algorithm.
 	 */
 	public static final int OFFSET_CHAT_ALGORITHM = 0;
+	/**
+	 * the actions of all the algorithms indexed by message type, so that the
+	 * dispatch of a message is an array access. The table is built at class
+	 * loading from the collections of actions; the message types that are
+	 * negative or beyond the table have no action.
+	 */
+	private static final ActionOfAClient[] DISPATCH_TABLE;
+	/**
+	 * the content classes of the actions of {@link #DISPATCH_TABLE}, at the same
+	 * indices.
+	 */
+	private static final Class<?>[] CONTENT_CLASSES;
+
+	static {
+		int maxType = -1;
+		for (Algorithm algorithm : values()) {
+			for (Integer type : algorithm.getMapOfActions().keySet()) {
+				if (type < 0) {
+					throw new IllegalStateException("negative message type " + type + " in " + algorithm);
+				}
+				maxType = Math.max(maxType, type);
+			}
+		}
+		DISPATCH_TABLE = new ActionOfAClient[maxType + 1];
+		CONTENT_CLASSES = new Class<?>[maxType + 1];
+		for (Algorithm algorithm : values()) {
+			for (Map.Entry<Integer, ? extends ActionOfAClient> entry : algorithm.getMapOfActions().entrySet()) {
+				int type = entry.getKey();
+				if (DISPATCH_TABLE[type] != null) {
+					throw new IllegalStateException("two actions for the message type " + type);
+				}
+				DISPATCH_TABLE[type] = entry.getValue();
+				CONTENT_CLASSES[type] = entry.getValue().contentClass();
+			}
+		}
+	}
 
 	/**
 	 * constructs an enumerator by assigning the map of actions of this algorithm to
@@ -79,9 +113,10 @@ public enum Algorithm {
 	}
 
 	/**
-	 * searches for the action to execute in the collection of algorithms of the
-	 * algorithm of the client, each algorithm having a collection of actions. The
-	 * synchronisation is made into the client method that is going to be executed.
+	 * searches for the action to execute in the dispatch table of the actions of
+	 * the algorithms of the client, and executes it when the content is of the
+	 * expected class. The synchronisation is made into the client method that is
+	 * going to be executed.
 	 * 
 	 * @param client
 	 *            the reference to the client.
@@ -91,10 +126,16 @@ public enum Algorithm {
 	 *            content of the message just received.
 	 */
 	public static void execute(final Client client, final int actionIndex, final Object content) {
-		Arrays.asList(values()).stream().map(Algorithm::getMapOfActions).map(actions -> actions.get(actionIndex))
-				.filter(Objects::nonNull).filter(action -> action.contentClass().isInstance(content))
-				.forEach(action -> action.executeOrIntercept(
-						Optional.ofNullable(client).orElseThrow(IllegalArgumentException::new),
-						action.contentClass().cast(content)));
+		if (actionIndex < 0 || actionIndex >= DISPATCH_TABLE.length) {
+			return;
+		}
+		ActionOfAClient action = DISPATCH_TABLE[actionIndex];
+		if (action == null || !CONTENT_CLASSES[actionIndex].isInstance(content)) {
+			return;
+		}
+		if (client == null) {
+			throw new IllegalArgumentException();
+		}
+		action.executeOrIntercept(client, (MsgContent) content);
 	}
 }
@@ -24,8 +24,12 @@ package chat.client.algorithms.chat;
 import static chat.common.Log.CHAT;
 import static chat.common.Log.LOG_ON;
 
+import java.nio.ByteBuffer;
 import java.util.Objects;
 
+import chat.common.CausalMessage;
+import chat.common.MsgCodec;
+import chat.common.MsgCodecs;
 import chat.common.MsgContent;
 import chat.common.VectorClock;
 
@@ -35,11 +39,45 @@ import chat.common.VectorClock;
  * @author Denis Conan
  *
  */
-public class ChatMsgContent extends MsgContent {
+public class ChatMsgContent extends MsgContent implements CausalMessage {
 	/**
 	 * version number for serialization.
 	 */
-	private static final long serialVersionUID = 2L;
+	private static final long serialVersionUID = 3L;
+	/**
+	 * the codec of the chat messages: sender, sequence number, content, and the
+	 * vector clock when present, preceded by a byte stating whether it is absent
+	 * (<tt>0</tt>), complete (<tt>1</tt>) or differential (<tt>2</tt>).
+	 */
+	public static final MsgCodec<ChatMsgContent> CODEC = new MsgCodec<ChatMsgContent>() {
+		@Override
+		public Class<ChatMsgContent> contentClass() {
+			return ChatMsgContent.class;
+		}
+
+		@Override
+		public void encode(final ChatMsgContent msg, final ByteBuffer out) {
+			MsgCodecs.putVarInt(out, msg.getSender());
+			MsgCodecs.putVarInt(out, msg.seqNumber);
+			MsgCodecs.putString(out, msg.content);
+			if (msg.vectorClock == null) {
+				out.put((byte) 0);
+			} else {
+				out.put(msg.clockDelta ? (byte) 2 : (byte) 1);
+				msg.vectorClock.writeTo(out);
+			}
+		}
+
+		@Override
+		public ChatMsgContent decode(final ByteBuffer in) {
+			int sender = MsgCodecs.getVarInt(in);
+			int seqNumber = MsgCodecs.getVarInt(in);
+			String content = MsgCodecs.getString(in);
+			byte clockForm = in.get();
+			VectorClock v = (clockForm == 0) ? null : VectorClock.readFrom(in);
+			return new ChatMsgContent(sender, seqNumber, content, v, clockForm == 2);
+		}
+	};
 	/**
 	 * the sequence number.
 	 */
@@ -52,6 +90,11 @@ public class ChatMsgContent extends MsgContent {
 	 * the vector clock.
 	 */
 	private VectorClock vectorClock;
+	/**
+	 * states whether the vector clock only contains the entries that have changed
+	 * since the previous message of the sender.
+	 */
+	private final boolean clockDelta;
 
 	/**
 	 * constructs the message.
@@ -68,6 +111,7 @@ public class ChatMsgContent extends MsgContent {
 		this.seqNumber = seqNumber;
 		Objects.requireNonNull(content, "argument content cannot be null");
 		this.content = content;
+		this.clockDelta = false;
 		assert invariant();
 	}
 	
@@ -84,11 +128,33 @@ public class ChatMsgContent extends MsgContent {
 	 *            the vector clock.
 	 */
 	public ChatMsgContent(final int idSender, final int seqNumber, final String content, final VectorClock v) {
+		this(idSender, seqNumber, content, v, false);
+	}
+
+	/**
+	 * constructs the message.
+	 * 
+	 * @param idSender
+	 *            the identifier of the sender.
+	 * @param seqNumber
+	 *            the sequence number of the message.
+	 * @param content
+	 *            the content of the message.
+	 * @param v
+	 *            the vector clock.
+	 * @param clockDelta
+	 *            states whether the vector clock only contains the entries that
+	 *            have changed since the previous message of the sender (see
+	 *            {@link VectorClock#changedSince(VectorClock)}).
+	 */
+	public ChatMsgContent(final int idSender, final int seqNumber, final String content, final VectorClock v,
+			final boolean clockDelta) {
 		super(idSender);
 		this.seqNumber = seqNumber;
 		Objects.requireNonNull(content, "argument content cannot be null");
 		this.content = content;
 		this.vectorClock = v;
+		this.clockDelta = clockDelta;
 		assert invariant();
 	}
 
@@ -127,10 +193,22 @@ public class ChatMsgContent extends MsgContent {
 	 * 
 	 * @return the vector clock.
 	 */
+	@Override
 	public VectorClock getVectorClock() {
 		return vectorClock;
 	}
 
+	/**
+	 * states whether the vector clock only contains the entries that have changed
+	 * since the previous message of the sender.
+	 * 
+	 * @return {@code true} when the vector clock is differential.
+	 */
+	@Override
+	public boolean isClockDelta() {
+		return clockDelta;
+	}
+
 	@Override
 	public String toString() {
 		if (LOG_ON && CHAT.isInfoEnabled()) {
@@ -0,0 +1,51 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.common;
+
+import java.nio.channels.SelectionKey;
+
+import chat.server.Server;
+
+/**
+ * This interface defines the lambda expressions of the actions of the
+ * algorithms of the server (see {@link ActionOfAServer#actionFunction()}).
+ * Besides the server and the message, the action receives the selection key of
+ * the connection from which the message has been received, e.g. for answering
+ * the sender.
+ * 
+ * @author agent
+ */
+@FunctionalInterface
+public interface ActionFunctionOfAServer {
+	/**
+	 * executes the action.
+	 * 
+	 * @param server
+	 *            the reference to the server.
+	 * @param key
+	 *            the selection key of the connection from which the message has
+	 *            been received.
+	 * @param content
+	 *            the message in treatment.
+	 */
+	void accept(Server server, SelectionKey key, MsgContent content);
+}
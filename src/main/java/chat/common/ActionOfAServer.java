@@ -21,9 +21,9 @@ Contributor(s):
  */
 package chat.common;
 
+import java.nio.channels.SelectionKey;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.function.BiConsumer;
 
 import chat.server.Server;
 
@@ -33,7 +33,8 @@ import chat.server.Server;
  * {@link #identifier}. The identifiers are computed in the enumeration
  * {@link chat.server.algorithms.Algorithm}. The second method
  * ({@link #execute}) is called for executing the action. The context of the
- * call are the server and the message that has just been received.
+ * call are the server, the selection key of the connection from which the
+ * message has been received, and the message.
  * 
  * @author Denis Conan
  * 
@@ -64,7 +65,7 @@ public interface ActionOfAServer {
 	 * 
 	 * @return the lambda expression of the action.
 	 */
-	BiConsumer<Server, MsgContent> actionFunction();
+	ActionFunctionOfAServer actionFunction();
 
 	/**
 	 * executes the algorithmic part corresponding to this action. The
@@ -72,17 +73,21 @@ public interface ActionOfAServer {
 	 * 
 	 * @param server
 	 *            the reference to the server.
+	 * @param key
+	 *            the selection key of the connection from which the message has
+	 *            been received.
 	 * @param msg
 	 *            the message in treatment.
 	 */
-	default void execute(Server server, MsgContent msg) {
+	default void execute(Server server, SelectionKey key, MsgContent msg) {
 		Objects.requireNonNull(server, "argument client cannot be null");
+		Objects.requireNonNull(key, "argument key cannot be null");
 		Objects.requireNonNull(msg, "argument content cannot be null");
 		if (!contentClass().isInstance(msg)) {
 			throw new IllegalArgumentException("msg of type " + msg.getClass().getCanonicalName()
 					+ "() is not an instance of " + contentClass().getCanonicalName());
 		}
-		actionFunction().accept(server, msg);
+		actionFunction().accept(server, key, msg);
 	}
 
 	/**
@@ -95,16 +100,21 @@ public interface ActionOfAServer {
 	 * 
 	 * @param server
 	 *            the reference of the server.
+	 * @param key
+	 *            the selection key of the connection from which the message has
+	 *            been received; it is kept with the message when the message is
+	 *            delayed.
 	 * @param content
 	 *            the message to treat.
 	 */
-	default void executeOrIntercept(final Server server, final MsgContent content) {
+	default void executeOrIntercept(final Server server, final SelectionKey key, final MsgContent content) {
 		Objects.requireNonNull(server, "argument server cannot be null");
+		Objects.requireNonNull(key, "argument key cannot be null");
 		Objects.requireNonNull(content, "argument content cannot be null");
 		Optional<MsgContent> msg = Optional.of(content);
 		if (ServerInterceptors.isInterceptionEnabled()) {
-			msg = ServerInterceptors.intercept(server, msg);
+			msg = ServerInterceptors.intercept(server, key, msg);
 		}
-		msg.ifPresent(m -> execute(server, m));
+		msg.ifPresent(m -> execute(server, key, m));
 	}
 }
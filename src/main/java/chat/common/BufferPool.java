@@ -0,0 +1,150 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.common;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * This class defines a pool of direct byte buffers organised in size classes
+ * (powers of two). A buffer is leased with {@link #lease(int)}, and is given
+ * back with {@link #release(ByteBuffer)} when the frame that uses it is not
+ * needed anymore, so that the steady-state traffic reuses the same buffers
+ * instead of allocating new ones for every message. The requests that are
+ * larger than the biggest size class are served with heap buffers that are not
+ * pooled.
+ *
+ * The pool is shared by all the workers of a process (see {@link #SHARED}) and
+ * is thread-safe.
+ *
+ * @author agent
+ */
+public final class BufferPool {
+	/**
+	 * the pool shared by the workers.
+	 */
+	public static final BufferPool SHARED = new BufferPool();
+	/**
+	 * the logarithm of the size of the smallest size class.
+	 */
+	private static final int MIN_SIZE_SHIFT = 8;
+	/**
+	 * the logarithm of the size of the biggest size class.
+	 */
+	private static final int MAX_SIZE_SHIFT = 16;
+	/**
+	 * the maximum number of free buffers kept per size class.
+	 */
+	private static final int MAX_FREE_PER_CLASS = 256;
+	/**
+	 * the free buffers, one collection per size class. Each collection is
+	 * accessed into {@code synchronized} blocks on the collection.
+	 */
+	private final ArrayDeque<ByteBuffer>[] freeBuffers;
+
+	/**
+	 * constructs an empty pool.
+	 */
+	public BufferPool() {
+		// no generic array can be created: the raw array holds deques of buffers only
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		ArrayDeque<ByteBuffer>[] sizeClasses = new ArrayDeque[MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1];
+		freeBuffers = sizeClasses;
+		for (int i = 0; i < freeBuffers.length; i++) {
+			freeBuffers[i] = new ArrayDeque<>();
+		}
+	}
+
+	/**
+	 * gets the size of the biggest size class.
+	 *
+	 * @return the size in bytes.
+	 */
+	public static int maxPooledSize() {
+		return 1 << MAX_SIZE_SHIFT;
+	}
+
+	/**
+	 * computes the index of the size class of a size.
+	 *
+	 * @param size
+	 *            the size.
+	 * @return the index, or {@code -1} when the size is too big to be pooled.
+	 */
+	private static int sizeClass(final int size) {
+		if (size > maxPooledSize()) {
+			return -1;
+		}
+		int shift = Integer.SIZE - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1);
+		return Math.max(shift, MIN_SIZE_SHIFT) - MIN_SIZE_SHIFT;
+	}
+
+	/**
+	 * leases a buffer of at least the given size. The buffer is cleared and its
+	 * limit is set to the requested size.
+	 *
+	 * @param size
+	 *            the size.
+	 * @return the buffer.
+	 */
+	public ByteBuffer lease(final int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("invalid buffer size (" + size + ")");
+		}
+		int index = sizeClass(size);
+		if (index < 0) {
+			return ByteBuffer.allocate(size);
+		}
+		ByteBuffer buffer;
+		synchronized (freeBuffers[index]) {
+			buffer = freeBuffers[index].pollFirst();
+		}
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(1 << (index + MIN_SIZE_SHIFT));
+		}
+		buffer.clear();
+		buffer.limit(size);
+		return buffer;
+	}
+
+	/**
+	 * gives back a buffer obtained with {@link #lease(int)}. The buffer must not
+	 * be used anymore by the caller.
+	 *
+	 * @param buffer
+	 *            the buffer.
+	 */
+	public void release(final ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect()) {
+			return;
+		}
+		int index = sizeClass(buffer.capacity());
+		if (index < 0 || buffer.capacity() != 1 << (index + MIN_SIZE_SHIFT)) {
+			return;
+		}
+		synchronized (freeBuffers[index]) {
+			if (freeBuffers[index].size() < MAX_FREE_PER_CLASS) {
+				freeBuffers[index].addFirst(buffer);
+			}
+		}
+	}
+}
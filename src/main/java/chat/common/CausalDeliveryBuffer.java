@@ -0,0 +1,252 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * This class defines the causal delivery of messages, e.g. the chat messages
+ * delivered by a client, or the chat messages delivered by a server to its
+ * local clients with the vector clocks of the servers. A message sent
+ * by the process <tt>q</tt> with the vector clock <tt>W</tt>, which is the
+ * vector clock of <tt>q</tt> before the sending, is delivered when the vector
+ * clock <tt>V</tt> of the receiver satisfies <tt>V[q] = W[q]</tt> and
+ * <tt>V[k] &gt;= W[k]</tt> for the other processes <tt>k</tt>; then,
+ * <tt>V[q]</tt> is incremented.
+ * 
+ * The messages that are not deliverable yet are indexed by sender and by the
+ * value of the entry of their sender, that is the value <tt>V[q]</tt> with
+ * which they become the next message of <tt>q</tt>. When the next message of a
+ * sender is blocked by the entry of another process <tt>k</tt>, the sender
+ * waits for <tt>k</tt>: it is examined again only when a message of <tt>k</tt>
+ * is delivered. Therefore, a delivery only examines the senders whose next
+ * message may have become deliverable, and a burst of messages received out
+ * of order is delivered in a time that is linear in the number of messages.
+ * 
+ * A message may carry a differential vector clock, with the entries that have
+ * changed since the previous message of its sender (see
+ * {@link VectorClock#changedSince(VectorClock)}). Its complete vector clock is
+ * rebuilt when it becomes the next message of its sender, from the vector
+ * clock of the previous message of the sender, which has been delivered.
+ * 
+ * This class is not thread-safe: the callers use a monitor.
+ * 
+ * @param <T>
+ *            the type of the messages.
+ * 
+ * @author agent
+ */
+public class CausalDeliveryBuffer<T extends CausalMessage> {
+	/**
+	 * the vector clock of the receiver, which is incremented at each delivery.
+	 */
+	private final VectorClock v;
+	/**
+	 * the consumer of the delivered messages.
+	 */
+	private final Consumer<T> delivery;
+	/**
+	 * the messages waiting for their delivery, by sender, and then by the value
+	 * of the entry of their sender in their vector clock.
+	 */
+	private final Map<Integer, Map<Integer, T>> pendingBySender = new HashMap<>();
+	/**
+	 * the senders whose next message waits for the delivery of a message of
+	 * another process, by process.
+	 */
+	private final Map<Integer, List<Integer>> waitingSenders = new HashMap<>();
+	/**
+	 * the complete vector clock of the last message delivered, by sender.
+	 */
+	private final Map<Integer, VectorClock> lastClocks = new HashMap<>();
+	/**
+	 * the senders to examine, reused from a reception to the next.
+	 */
+	private final ArrayDeque<Integer> toExamine = new ArrayDeque<>();
+	/**
+	 * the number of messages waiting for their delivery.
+	 */
+	private int nbPending;
+	/**
+	 * the number of messages ignored because they had already been delivered.
+	 */
+	private long nbDuplicates;
+
+	/**
+	 * constructs the buffer.
+	 * 
+	 * @param v
+	 *            the vector clock of the receiver.
+	 * @param delivery
+	 *            the consumer of the delivered messages.
+	 */
+	public CausalDeliveryBuffer(final VectorClock v, final Consumer<T> delivery) {
+		Objects.requireNonNull(v, "argument v cannot be null");
+		Objects.requireNonNull(delivery, "argument delivery cannot be null");
+		this.v = v;
+		this.delivery = delivery;
+		assert invariant();
+	}
+
+	/**
+	 * checks the invariant of the class.
+	 * 
+	 * @return a boolean stating whether the invariant is maintained.
+	 */
+	public final boolean invariant() {
+		return v != null && delivery != null && nbPending >= 0 && nbDuplicates >= 0;
+	}
+
+	/**
+	 * receives a message: the message is delivered at once when it is
+	 * deliverable, together with the messages it unblocks, and is kept
+	 * otherwise. A message without vector clock is delivered at once.
+	 * 
+	 * @param content
+	 *            the message.
+	 */
+	public void receive(final T content) {
+		Objects.requireNonNull(content, "argument content cannot be null");
+		int q = content.getSender();
+		VectorClock w = content.getVectorClock();
+		if (w == null) {
+			deliver(content);
+			deliverExamined();
+			return;
+		}
+		int expected = w.getEntry(q);
+		if (expected < v.getEntry(q)) {
+			nbDuplicates++;
+			return;
+		}
+		if (pendingBySender.computeIfAbsent(q, k -> new HashMap<>()).putIfAbsent(expected, content) != null) {
+			nbDuplicates++;
+			return;
+		}
+		nbPending++;
+		if (expected == v.getEntry(q)) {
+			toExamine.add(q);
+			deliverExamined();
+		}
+		assert invariant();
+	}
+
+	/**
+	 * examines the senders to examine, until none is left: the next message of a
+	 * sender is either delivered, and then the sender and the senders waiting
+	 * for it are examined, or put waiting for the process that blocks it.
+	 */
+	private void deliverExamined() {
+		Integer q;
+		while ((q = toExamine.poll()) != null) {
+			Map<Integer, T> pending = pendingBySender.get(q);
+			if (pending == null) {
+				continue;
+			}
+			T next = pending.get(v.getEntry(q));
+			if (next == null) {
+				continue;
+			}
+			VectorClock w = completeClockOf(next);
+			int blocking = v.firstGreaterEntry(w, q);
+			if (blocking >= 0) {
+				waitingSenders.computeIfAbsent(blocking, k -> new ArrayList<>()).add(q);
+				continue;
+			}
+			pending.remove(v.getEntry(q));
+			if (pending.isEmpty()) {
+				pendingBySender.remove(q);
+			}
+			nbPending--;
+			lastClocks.put(q, w);
+			deliver(next);
+		}
+	}
+
+	/**
+	 * gets the complete vector clock of the next message of a sender. The entry
+	 * of the sender in a differential vector clock is always right, since the
+	 * entry changes at each message, except for the first message, whose entry
+	 * is <tt>0</tt>.
+	 * 
+	 * @param content
+	 *            the message.
+	 * @return the complete vector clock.
+	 */
+	private VectorClock completeClockOf(final T content) {
+		if (!content.isClockDelta()) {
+			return content.getVectorClock();
+		}
+		VectorClock previous = lastClocks.get(content.getSender());
+		VectorClock w = previous == null ? new VectorClock() : new VectorClock(previous);
+		w.max(content.getVectorClock());
+		return w;
+	}
+
+	/**
+	 * delivers a message and increments the entry of its sender. The next
+	 * message of the sender and the senders waiting for it are to be examined.
+	 * 
+	 * @param content
+	 *            the message.
+	 */
+	private void deliver(final T content) {
+		int q = content.getSender();
+		v.incrementEntry(q);
+		delivery.accept(content);
+		toExamine.add(q);
+		List<Integer> waiting = waitingSenders.remove(q);
+		if (waiting != null) {
+			toExamine.addAll(waiting);
+		}
+	}
+
+	/**
+	 * gets the number of messages waiting for their delivery.
+	 * 
+	 * @return the number of messages.
+	 */
+	public int getNbPending() {
+		return nbPending;
+	}
+
+	/**
+	 * gets the number of messages ignored because they had already been
+	 * received.
+	 * 
+	 * @return the number of messages.
+	 */
+	public long getNbDuplicates() {
+		return nbDuplicates;
+	}
+
+	@Override
+	public String toString() {
+		return "causal delivery: " + nbPending + " pending, " + nbDuplicates + " duplicates";
+	}
+}
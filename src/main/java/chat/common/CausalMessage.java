@@ -0,0 +1,55 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.common;
+
+/**
+ * This interface defines the messages that are delivered in the causal order
+ * (see {@link CausalDeliveryBuffer}): the messages carry the identity of their
+ * sender and the vector clock of their sender before the sending.
+ * 
+ * @author agent
+ */
+public interface CausalMessage {
+	/**
+	 * gets the identity of the sender.
+	 * 
+	 * @return the identity.
+	 */
+	int getSender();
+
+	/**
+	 * gets the vector clock of the sender before the sending.
+	 * 
+	 * @return the vector clock, or {@code null} when the message does not
+	 *         depend on the other messages.
+	 */
+	VectorClock getVectorClock();
+
+	/**
+	 * states whether the vector clock only contains the entries that have changed
+	 * since the previous message of the sender (see
+	 * {@link VectorClock#changedSince(VectorClock)}).
+	 * 
+	 * @return {@code true} when the vector clock is differential.
+	 */
+	boolean isClockDelta();
+}
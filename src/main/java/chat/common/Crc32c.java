@@ -0,0 +1,127 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.zip.Checksum;
+
+/**
+ * This class computes the CRC-32C (Castagnoli) checksum, which is used for the
+ * optional checksum of the frames (see {@link FrameHeader#FLAG_CHECKSUM}). The
+ * class {@code java.util.zip.CRC32C} only exists since Java 9, and this
+ * project is compiled for Java 8. The computation uses eight lookup tables
+ * (slicing-by-8), that is eight bytes per step.
+ *
+ * @author agent
+ */
+public final class Crc32c implements Checksum {
+	/**
+	 * the reversed Castagnoli polynomial.
+	 */
+	private static final int POLYNOMIAL = 0x82F63B78;
+	/**
+	 * the lookup tables: {@code TABLES[k][b]} is the CRC of the byte {@code b}
+	 * followed by {@code k} zero bytes.
+	 */
+	private static final int[][] TABLES = new int[8][256];
+	/**
+	 * the current value, complemented.
+	 */
+	private int crc = 0xFFFFFFFF;
+
+	static {
+		for (int b = 0; b < 256; b++) {
+			int c = b;
+			for (int i = 0; i < 8; i++) {
+				c = (c & 1) != 0 ? (c >>> 1) ^ POLYNOMIAL : c >>> 1;
+			}
+			TABLES[0][b] = c;
+		}
+		for (int b = 0; b < 256; b++) {
+			for (int k = 1; k < 8; k++) {
+				TABLES[k][b] = (TABLES[k - 1][b] >>> 8) ^ TABLES[0][TABLES[k - 1][b] & 0xFF];
+			}
+		}
+	}
+
+	@Override
+	public void update(final int b) {
+		crc = (crc >>> 8) ^ TABLES[0][(crc ^ b) & 0xFF];
+	}
+
+	@Override
+	public void update(final byte[] b, final int off, final int len) {
+		int c = crc;
+		int i = off;
+		int end = off + len;
+		for (; i + 8 <= end; i += 8) {
+			int low = c ^ ((b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24);
+			c = TABLES[7][low & 0xFF] ^ TABLES[6][(low >>> 8) & 0xFF] ^ TABLES[5][(low >>> 16) & 0xFF]
+					^ TABLES[4][low >>> 24] ^ TABLES[3][b[i + 4] & 0xFF] ^ TABLES[2][b[i + 5] & 0xFF]
+					^ TABLES[1][b[i + 6] & 0xFF] ^ TABLES[0][b[i + 7] & 0xFF];
+		}
+		for (; i < end; i++) {
+			c = (c >>> 8) ^ TABLES[0][(c ^ b[i]) & 0xFF];
+		}
+		crc = c;
+	}
+
+	/**
+	 * updates the checksum with the bytes of a buffer, from its position to its
+	 * limit. The position of the buffer is not modified.
+	 *
+	 * @param buffer
+	 *            the buffer.
+	 */
+	public void update(final ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			return;
+		}
+		ByteBuffer in = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int c = crc;
+		int i = in.position();
+		int end = in.limit();
+		for (; i + 8 <= end; i += 8) {
+			int low = c ^ in.getInt(i);
+			int high = in.getInt(i + 4);
+			c = TABLES[7][low & 0xFF] ^ TABLES[6][(low >>> 8) & 0xFF] ^ TABLES[5][(low >>> 16) & 0xFF]
+					^ TABLES[4][low >>> 24] ^ TABLES[3][high & 0xFF] ^ TABLES[2][(high >>> 8) & 0xFF]
+					^ TABLES[1][(high >>> 16) & 0xFF] ^ TABLES[0][high >>> 24];
+		}
+		for (; i < end; i++) {
+			c = (c >>> 8) ^ TABLES[0][(c ^ in.get(i)) & 0xFF];
+		}
+		crc = c;
+	}
+
+	@Override
+	public long getValue() {
+		return ~crc & 0xFFFFFFFFL;
+	}
+
+	@Override
+	public void reset() {
+		crc = 0xFFFFFFFF;
+	}
+}
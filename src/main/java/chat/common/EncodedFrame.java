@@ -0,0 +1,429 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.common;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class defines an immutable message that has already been encoded: the
+ * header and the body are computed once, and the frame can then be written to
+ * any number of channels. Each write uses its own duplicates of the read-only
+ * buffers (see {@link #buffersForWriting()}), so that the positions of the
+ * different channels do not interfere. This is used for forwarding a message to
+ * all the neighbouring servers and local clients, where the cost is then one
+ * encoding and N copies into the sockets instead of N encodings.
+ *
+ * The header and the body are stored in buffers leased from
+ * {@link BufferPool#SHARED}: one buffer for the usual messages, and chunks of
+ * {@link BufferPool#maxPooledSize()} bytes for the large ones, which are then
+ * written with gathering writes without ever being copied into one big buffer.
+ * The frame is reference counted: the creator owns one reference, each worker
+ * that queues the frame takes one with {@link #retain()}, and every owner calls
+ * {@link #release()} when done; the buffers go back to the pool when the last
+ * reference is released.
+ *
+ * @author agent
+ */
+public final class EncodedFrame {
+	/**
+	 * the size of the version 1 header: type, identity, sequence number, and body
+	 * size (see {@link FrameHeader}).
+	 */
+	public static final int HEADER_SIZE = FrameHeader.V1_SIZE;
+	/**
+	 * the message type.
+	 */
+	private final int type;
+	/**
+	 * the identity of the sender.
+	 */
+	private final int identity;
+	/**
+	 * the sequence number.
+	 */
+	private final int seqNumber;
+	/**
+	 * the buffers leased from the pool: the first one contains the header and the
+	 * beginning of the body, and the next ones the rest of the body.
+	 */
+	private final ByteBuffer[] pooled;
+	/**
+	 * the number of references to this frame.
+	 */
+	private final AtomicInteger references;
+	/**
+	 * the header, as a read-only buffer ready to be read.
+	 */
+	private final ByteBuffer header;
+	/**
+	 * the body, as read-only buffers ready to be read, one per pooled buffer.
+	 */
+	private final ByteBuffer[] body;
+	/**
+	 * the size of the body.
+	 */
+	private final int bodySize;
+	/**
+	 * states whether the message is relayed, and not emitted, by this process.
+	 */
+	private final boolean relayed;
+	/**
+	 * the version 2 headers, without and with checksum, computed when needed.
+	 * This attribute must be accessed into {@code synchronized} blocks.
+	 */
+	private final ByteBuffer[] headersV2 = new ByteBuffer[2];
+	/**
+	 * the same frame with the body compressed if this one is not, and
+	 * uncompressed otherwise, computed when needed; it may be this frame when the
+	 * compression does not reduce the size. The variant belongs to this frame and
+	 * is released with it. This attribute must be accessed into
+	 * {@code synchronized} blocks.
+	 */
+	private EncodedFrame variant;
+
+	/**
+	 * constructs a frame out of an encoded body.
+	 *
+	 * @param type
+	 *            the message type.
+	 * @param identity
+	 *            the identity of the sender.
+	 * @param seqNumber
+	 *            the sequence number.
+	 * @param relayed
+	 *            states whether the message is relayed.
+	 * @param bodyParts
+	 *            the parts of the body, which are copied from their position to
+	 *            their limit. Their positions are not modified.
+	 */
+	private EncodedFrame(final int type, final int identity, final int seqNumber, final boolean relayed,
+			final ByteBuffer... bodyParts) {
+		this.type = type;
+		this.relayed = relayed;
+		this.identity = identity;
+		this.seqNumber = seqNumber;
+		int size = 0;
+		for (ByteBuffer part : bodyParts) {
+			size += part.remaining();
+		}
+		bodySize = size;
+		int total = HEADER_SIZE + bodySize;
+		int chunkSize = BufferPool.maxPooledSize();
+		pooled = new ByteBuffer[Math.max(1, (total + chunkSize - 1) / chunkSize)];
+		for (int i = 0; i < pooled.length; i++) {
+			pooled[i] = BufferPool.SHARED.lease(Math.min(chunkSize, total - i * chunkSize));
+		}
+		pooled[0].putInt(type);
+		pooled[0].putInt(identity);
+		pooled[0].putInt(seqNumber);
+		pooled[0].putInt(bodySize);
+		int chunk = 0;
+		for (ByteBuffer part : bodyParts) {
+			ByteBuffer src = part.duplicate();
+			while (src.hasRemaining()) {
+				if (!pooled[chunk].hasRemaining()) {
+					chunk++;
+				}
+				ByteBuffer piece = src.duplicate();
+				piece.limit(piece.position() + Math.min(src.remaining(), pooled[chunk].remaining()));
+				pooled[chunk].put(piece);
+				src.position(piece.limit());
+			}
+		}
+		ByteBuffer view = pooled[0].asReadOnlyBuffer();
+		view.position(0).limit(HEADER_SIZE);
+		this.header = view.slice();
+		body = new ByteBuffer[pooled.length];
+		for (int i = 0; i < pooled.length; i++) {
+			view = pooled[i].asReadOnlyBuffer();
+			view.flip().position(i == 0 ? HEADER_SIZE : 0);
+			body[i] = view.slice();
+		}
+		references = new AtomicInteger(1);
+	}
+
+	/**
+	 * encodes a message into a frame. The content is encoded with
+	 * {@link MsgCodecs}.
+	 *
+	 * @param type
+	 *            the message type.
+	 * @param identity
+	 *            the identity of the sender.
+	 * @param seqNumber
+	 *            the sequence number.
+	 * @param content
+	 *            the content of the message.
+	 * @return the frame.
+	 * @throws IOException
+	 *             the exception thrown in case of encoding problem.
+	 */
+	public static EncodedFrame encode(final int type, final int identity, final int seqNumber,
+			final Serializable content) throws IOException {
+		Objects.requireNonNull(content, "argument content cannot be null");
+		return new EncodedFrame(type, identity, seqNumber, false, MsgCodecs.encode(type, content));
+	}
+
+	/**
+	 * builds a frame out of a body that is already encoded, e.g. the body of a
+	 * received message that is relayed to other end points (see
+	 * {@link FrameHeader#FLAG_RELAYED}). The body is neither
+	 * decoded nor modified: its bytes are copied once into the buffer of the
+	 * frame.
+	 *
+	 * @param type
+	 *            the message type.
+	 * @param identity
+	 *            the identity of the sender.
+	 * @param seqNumber
+	 *            the sequence number.
+	 * @param body
+	 *            the parts of the encoded body, from their position to their
+	 *            limit. Their positions are not modified.
+	 * @return the frame.
+	 */
+	public static EncodedFrame wrap(final int type, final int identity, final int seqNumber,
+			final ByteBuffer... body) {
+		Objects.requireNonNull(body, "argument body cannot be null");
+		return new EncodedFrame(type, identity, seqNumber, true, body);
+	}
+
+	/**
+	 * gets the message type.
+	 *
+	 * @return the message type.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * gets the identity of the sender.
+	 *
+	 * @return the identity.
+	 */
+	public int getIdentity() {
+		return identity;
+	}
+
+	/**
+	 * gets the sequence number.
+	 *
+	 * @return the sequence number.
+	 */
+	public int getSeqNumber() {
+		return seqNumber;
+	}
+
+	/**
+	 * gets the size of the body.
+	 *
+	 * @return the size of the body.
+	 */
+	public int getBodySize() {
+		return bodySize;
+	}
+
+	/**
+	 * states whether the body is compressed (see {@link FrameCompression}).
+	 *
+	 * @return {@code true} when the body is compressed.
+	 */
+	public boolean isCompressed() {
+		return FrameCompression.isCompressed(body[0]);
+	}
+
+	/**
+	 * gets this frame with a compressed body. The compression is done once, for
+	 * all the connections to which the frame is written. The returned frame is
+	 * valid as long as the caller holds a reference to this frame.
+	 *
+	 * @return the compressed frame, or this frame when it is already compressed or
+	 *         when the compression does not reduce its size.
+	 */
+	public synchronized EncodedFrame compressed() {
+		if (isCompressed()) {
+			return this;
+		}
+		if (variant == null) {
+			ByteBuffer compressedBody = FrameCompression.compress(contiguousBody());
+			variant = compressedBody == null ? this
+					: new EncodedFrame(type, identity, seqNumber, relayed, compressedBody);
+		}
+		return variant;
+	}
+
+	/**
+	 * gets this frame with an uncompressed body, e.g. for a connection that has
+	 * not negotiated the compression. The decompression is done once. The
+	 * returned frame is valid as long as the caller holds a reference to this
+	 * frame.
+	 *
+	 * @param maxSize
+	 *            the maximum size of the uncompressed body.
+	 * @return the uncompressed frame, or this frame when it is not compressed.
+	 * @throws IOException
+	 *             the exception thrown in case of malformed body, or when the
+	 *             uncompressed body is larger than the maximum size.
+	 */
+	public synchronized EncodedFrame uncompressed(final int maxSize) throws IOException {
+		if (!isCompressed()) {
+			return this;
+		}
+		if (variant == null) {
+			variant = new EncodedFrame(type, identity, seqNumber, relayed,
+					FrameCompression.decompress(contiguousBody(), maxSize));
+		}
+		return variant;
+	}
+
+	/**
+	 * decodes the body of the frame with the codec of its type (see
+	 * {@link MsgCodecs#decode(int, ByteBuffer)}).
+	 *
+	 * @return the content of the message.
+	 * @throws IOException
+	 *             the exception thrown in case of malformed body.
+	 */
+	public Serializable decode() throws IOException {
+		return MsgCodecs.decode(type, contiguousBody());
+	}
+
+	/**
+	 * gets the body in one buffer, which is a copy when the body is split into
+	 * several chunks.
+	 *
+	 * @return the body, ready to be read.
+	 */
+	private ByteBuffer contiguousBody() {
+		if (body.length == 1) {
+			return body[0].duplicate();
+		}
+		ByteBuffer copy = ByteBuffer.allocate(bodySize);
+		for (ByteBuffer chunk : body) {
+			copy.put(chunk.duplicate());
+		}
+		copy.flip();
+		return copy;
+	}
+
+	/**
+	 * takes a reference to this frame, e.g. when it is queued for writing.
+	 *
+	 * @return this frame.
+	 */
+	public EncodedFrame retain() {
+		if (references.getAndIncrement() <= 0) {
+			throw new IllegalStateException("frame already released");
+		}
+		return this;
+	}
+
+	/**
+	 * releases a reference to this frame. When no reference remains, the buffer
+	 * is given back to the pool.
+	 */
+	public void release() {
+		int remaining = references.decrementAndGet();
+		if (remaining == 0) {
+			EncodedFrame other;
+			synchronized (this) {
+				other = variant;
+				variant = null;
+			}
+			if (other != null && other != this) {
+				other.release();
+			}
+			for (ByteBuffer buffer : pooled) {
+				BufferPool.SHARED.release(buffer);
+			}
+		} else if (remaining < 0) {
+			throw new IllegalStateException("frame released too many times");
+		}
+	}
+
+	/**
+	 * gets new duplicates of the version 1 header and of the body for writing this
+	 * frame into one channel. The caller must hold a reference to the frame while
+	 * writing.
+	 *
+	 * @return the header followed by the chunks of the body, ready to be read.
+	 */
+	public ByteBuffer[] buffersForWriting() {
+		return buffersForWriting(header);
+	}
+
+	/**
+	 * gets new duplicates of a version 2 header and of the body for writing this
+	 * frame into one channel (see {@link FrameHeader}). The header is computed
+	 * once, with the checksum of the body if requested. The caller must hold a
+	 * reference to the frame while writing.
+	 *
+	 * @param checksum
+	 *            states whether the header contains the checksum of the body.
+	 * @return the header followed by the chunks of the body, ready to be read.
+	 */
+	public ByteBuffer[] buffersForWritingV2(final boolean checksum) {
+		int index = checksum ? 1 : 0;
+		ByteBuffer headerV2;
+		synchronized (this) {
+			if (headersV2[index] == null) {
+				int flags = (isCompressed() ? FrameHeader.FLAG_COMPRESSED : 0)
+						| (relayed ? FrameHeader.FLAG_RELAYED : 0) | (checksum ? FrameHeader.FLAG_CHECKSUM : 0);
+				int crc = 0;
+				if (checksum) {
+					Crc32c crc32c = new Crc32c();
+					for (ByteBuffer chunk : body) {
+						crc32c.update(chunk);
+					}
+					crc = (int) crc32c.getValue();
+				}
+				ByteBuffer h = ByteBuffer.allocate(FrameHeader.V2_MAX_SIZE);
+				FrameHeader.writeV2(h, flags, type, identity, seqNumber, bodySize, crc);
+				h.flip();
+				headersV2[index] = h.asReadOnlyBuffer();
+			}
+			headerV2 = headersV2[index];
+		}
+		return buffersForWriting(headerV2);
+	}
+
+	/**
+	 * gets new duplicates of a header and of the body.
+	 *
+	 * @param frameHeader
+	 *            the header.
+	 * @return the header followed by the chunks of the body, ready to be read.
+	 */
+	private ByteBuffer[] buffersForWriting(final ByteBuffer frameHeader) {
+		ByteBuffer[] buffers = new ByteBuffer[1 + body.length];
+		buffers[0] = frameHeader.duplicate();
+		for (int i = 0; i < body.length; i++) {
+			buffers[1 + i] = body[i].duplicate();
+		}
+		return buffers;
+	}
+}
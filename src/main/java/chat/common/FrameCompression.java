@@ -0,0 +1,219 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class contains the compression of the bodies of the messages. A
+ * compressed body starts with the tag byte of the uncompressed body (see
+ * {@link MsgCodecs}) in which the bit {@link #BODY_COMPRESSED} is set, followed
+ * by the size of the rest of the uncompressed body (variable length integer),
+ * and by the rest of the body compressed with the deflate algorithm. The
+ * deflater and the inflater are reused (one per thread) and are initialised
+ * with a preset dictionary of the strings that are frequent in the chat
+ * messages, so that short messages compress too.
+ *
+ * Bodies are only compressed between servers that have negotiated it (see
+ * {@link Handshake#CAPABILITY_COMPRESSION}), and the receiver detects the
+ * compression with the tag byte.
+ *
+ * @author agent
+ */
+public final class FrameCompression {
+	/**
+	 * the bit of the tag byte of a compressed body.
+	 */
+	public static final byte BODY_COMPRESSED = (byte) 0x80;
+	/**
+	 * the default minimum size of the bodies to compress.
+	 */
+	public static final int DEFAULT_THRESHOLD = 256;
+	/**
+	 * the preset dictionary: strings that are likely to appear in the bodies,
+	 * the most frequent ones at the end.
+	 */
+	private static final byte[] DICTIONARY = ("https://www. http://.com .org .fr .html"
+			+ " pourquoi parce que aujourd'hui demain rendez-vous réunion d'accord merci beaucoup"
+			+ " bonjour bonsoir salut à tout à l'heure est-ce que c'est il y a je suis nous sommes vous êtes"
+			+ " because tomorrow today meeting please thanks thank you hello everyone"
+			+ " what when where which would could should about there their this that with have"
+			+ " les des une est pas pour sur dans avec qui que the and you for are not")
+			.getBytes(StandardCharsets.UTF_8);
+	/**
+	 * the deflater of the thread.
+	 */
+	private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal
+			.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+	/**
+	 * the inflater of the thread.
+	 */
+	private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+	/**
+	 * the maximum size of an uncompressed body, which protects the receiver
+	 * against malformed bodies.
+	 */
+	public static final int MAX_UNCOMPRESSED_SIZE = 16 * 1024 * 1024;
+	/**
+	 * the maximum size of the header of a compressed body: tag byte and variable
+	 * length integer.
+	 */
+	private static final int MAX_HEADER_SIZE = 1 + 5;
+
+	/**
+	 * Utility classes must not have a default or public constructor.
+	 */
+	private FrameCompression() {
+	}
+
+	/**
+	 * states whether a body is compressed. The position of the buffer is not
+	 * modified.
+	 *
+	 * @param body
+	 *            the body.
+	 * @return {@code true} when the body is compressed.
+	 */
+	public static boolean isCompressed(final ByteBuffer body) {
+		Objects.requireNonNull(body, "argument body cannot be null");
+		return body.hasRemaining() && (body.get(body.position()) & BODY_COMPRESSED) != 0;
+	}
+
+	/**
+	 * compresses a body. The buffer is read from its position to its limit.
+	 *
+	 * @param body
+	 *            the uncompressed body.
+	 * @return the compressed body, or {@code null} when the compression does not
+	 *         reduce the size.
+	 */
+	public static ByteBuffer compress(final ByteBuffer body) {
+		Objects.requireNonNull(body, "argument body cannot be null");
+		if (body.remaining() <= 1 || isCompressed(body)) {
+			return null;
+		}
+		byte tag = body.get();
+		byte[] input = new byte[body.remaining()];
+		body.get(input);
+		ByteBuffer out = ByteBuffer.allocate(MAX_HEADER_SIZE + input.length);
+		out.put((byte) (tag | BODY_COMPRESSED));
+		MsgCodecs.putVarInt(out, input.length);
+		Deflater deflater = DEFLATER.get();
+		deflater.reset();
+		deflater.setDictionary(DICTIONARY);
+		deflater.setInput(input);
+		deflater.finish();
+		byte[] output = out.array();
+		int size = out.position();
+		while (!deflater.finished() && size < output.length) {
+			size += deflater.deflate(output, size, output.length - size);
+		}
+		if (!deflater.finished() || size >= 1 + input.length) {
+			return null;
+		}
+		out.position(0).limit(size);
+		return out;
+	}
+
+	/**
+	 * decompresses a body whose uncompressed size is at most
+	 * {@link #MAX_UNCOMPRESSED_SIZE}. The buffer is read from its position to its
+	 * limit.
+	 *
+	 * @param body
+	 *            the compressed body.
+	 * @return the uncompressed body.
+	 * @throws IOException
+	 *             the exception thrown in case of malformed body.
+	 */
+	public static ByteBuffer decompress(final ByteBuffer body) throws IOException {
+		return decompress(body, MAX_UNCOMPRESSED_SIZE);
+	}
+
+	/**
+	 * decompresses a body. The buffer is read from its position to its limit.
+	 * The size of the uncompressed body declared in the compressed body is
+	 * checked before allocating the uncompressed body, so that a malformed body
+	 * cannot make the receiver allocate more than the maximum size.
+	 *
+	 * @param body
+	 *            the compressed body.
+	 * @param maxSize
+	 *            the maximum size of the uncompressed body, e.g. the maximum size
+	 *            of the frames of the connection.
+	 * @return the uncompressed body.
+	 * @throws IOException
+	 *             the exception thrown in case of malformed body.
+	 */
+	public static ByteBuffer decompress(final ByteBuffer body, final int maxSize) throws IOException {
+		Objects.requireNonNull(body, "argument body cannot be null");
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("invalid maximum size (" + maxSize + ")");
+		}
+		if (!isCompressed(body)) {
+			throw new IOException("body is not compressed");
+		}
+		byte tag = (byte) (body.get() & ~BODY_COMPRESSED);
+		int size;
+		try {
+			size = MsgCodecs.getVarInt(body);
+		} catch (RuntimeException e) {
+			throw new IOException("malformed compressed body", e);
+		}
+		if (size < 0 || size >= Math.min(maxSize, MAX_UNCOMPRESSED_SIZE)) {
+			throw new IOException("invalid size of compressed body (" + size + ")");
+		}
+		byte[] input = new byte[body.remaining()];
+		body.get(input);
+		byte[] output = new byte[1 + size];
+		output[0] = tag;
+		Inflater inflater = INFLATER.get();
+		inflater.reset();
+		inflater.setInput(input);
+		int position = 1;
+		try {
+			while (position < output.length) {
+				int n = inflater.inflate(output, position, output.length - position);
+				if (n == 0) {
+					if (inflater.needsDictionary()) {
+						inflater.setDictionary(DICTIONARY);
+					} else if (inflater.finished() || inflater.needsInput()) {
+						break;
+					}
+				}
+				position += n;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("malformed compressed body", e);
+		}
+		if (position != output.length) {
+			throw new IOException("truncated compressed body");
+		}
+		return ByteBuffer.wrap(output);
+	}
+}
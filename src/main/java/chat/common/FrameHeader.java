@@ -0,0 +1,344 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * This class defines the headers of the frames. Two formats coexist on the
+ * wire, and the receiver detects the format of each frame with its first byte:
+ * <ul>
+ * <li>version 1: four integers of four bytes, namely the message type, the
+ * identity of the sender, the sequence number, and the size of the body. The
+ * first byte is {@code 0x00}, or {@code 0xFF} for the negative message types
+ * (see {@link Handshake#TYPE_HANDSHAKE}).</li>
+ * <li>version 2: the byte {@link #MAGIC_V2}, a byte of flags, the message type,
+ * the identity and the sequence number as zigzag variable length integers (see
+ * {@link MsgCodecs#putVarInt(ByteBuffer, int)}), the size of the body as a
+ * variable length integer, and, with the flag {@link #FLAG_CHECKSUM}, the
+ * CRC-32C of the body (see {@link Crc32c}). The typical header is then 8 bytes
+ * long instead of 16.</li>
+ * </ul>
+ * The version 2 is only sent to the servers that have negotiated it (see
+ * {@link Handshake#CAPABILITY_HEADER_V2}); the clients and the servers that do
+ * not know it keep receiving version 1 headers.
+ *
+ * An instance contains the fields of a header that has been parsed.
+ *
+ * @author agent
+ */
+public final class FrameHeader {
+	/**
+	 * the size of a version 1 header.
+	 */
+	public static final int V1_SIZE = 4 * Integer.BYTES;
+	/**
+	 * the first byte of a version 2 header.
+	 */
+	public static final byte MAGIC_V2 = (byte) 0xC2;
+	/**
+	 * the maximum size of a version 2 header.
+	 */
+	public static final int V2_MAX_SIZE = 2 + 4 * 5 + Integer.BYTES;
+	/**
+	 * the flag of a compressed body (see {@link FrameCompression}).
+	 */
+	public static final int FLAG_COMPRESSED = 0x01;
+	/**
+	 * the flag of a message that is relayed, and not emitted, by the sending
+	 * server.
+	 */
+	public static final int FLAG_RELAYED = 0x02;
+	/**
+	 * the flag of a body that contains several messages. It is reserved for a
+	 * future use.
+	 */
+	public static final int FLAG_BATCHED = 0x04;
+	/**
+	 * the flag of a header that contains the checksum of the body.
+	 */
+	public static final int FLAG_CHECKSUM = 0x08;
+	/**
+	 * the flags that are known by this version.
+	 */
+	private static final int KNOWN_FLAGS = FLAG_COMPRESSED | FLAG_RELAYED | FLAG_BATCHED | FLAG_CHECKSUM;
+	/**
+	 * the version of the header.
+	 */
+	private int version;
+	/**
+	 * the size of the header.
+	 */
+	private int size;
+	/**
+	 * the flags; always {@code 0} for a version 1 header.
+	 */
+	private int flags;
+	/**
+	 * the message type.
+	 */
+	private int type;
+	/**
+	 * the identity of the sender.
+	 */
+	private int identity;
+	/**
+	 * the sequence number.
+	 */
+	private int seqNumber;
+	/**
+	 * the size of the body.
+	 */
+	private int bodySize;
+	/**
+	 * the checksum of the body, when the flag {@link #FLAG_CHECKSUM} is set.
+	 */
+	private int checksum;
+	/**
+	 * the index of the next byte to parse.
+	 */
+	private int cursor;
+
+	/**
+	 * parses the header that starts at the given index of a buffer. The
+	 * position of the buffer is not modified.
+	 *
+	 * @param in
+	 *            the buffer.
+	 * @param start
+	 *            the index of the first byte of the header.
+	 * @return {@code true} when the header has been parsed, and {@code false}
+	 *         when the buffer does not contain the complete header yet.
+	 * @throws IOException
+	 *             the exception thrown in case of malformed header.
+	 */
+	public boolean parse(final ByteBuffer in, final int start) throws IOException {
+		if (start >= in.limit()) {
+			return false;
+		}
+		if (in.get(start) != MAGIC_V2) {
+			if (in.limit() - start < V1_SIZE) {
+				return false;
+			}
+			version = 1;
+			size = V1_SIZE;
+			flags = 0;
+			type = in.getInt(start);
+			identity = in.getInt(start + Integer.BYTES);
+			seqNumber = in.getInt(start + 2 * Integer.BYTES);
+			bodySize = in.getInt(start + 3 * Integer.BYTES);
+			checksum = 0;
+			return true;
+		}
+		if (in.limit() - start < 2) {
+			return false;
+		}
+		int f = in.get(start + 1) & 0xFF;
+		if ((f & ~KNOWN_FLAGS) != 0) {
+			throw new IOException("unknown header flags (" + Integer.toHexString(f) + ")");
+		}
+		cursor = start + 2;
+		long t = nextVarInt(in);
+		long i = nextVarInt(in);
+		long n = nextVarInt(in);
+		long b = nextVarInt(in);
+		if (b < 0) {
+			return false;
+		}
+		if ((f & FLAG_CHECKSUM) != 0) {
+			if (in.limit() - cursor < Integer.BYTES) {
+				return false;
+			}
+			checksum = in.getInt(cursor);
+			cursor += Integer.BYTES;
+		} else {
+			checksum = 0;
+		}
+		version = 2;
+		flags = f;
+		type = unzigzag((int) t);
+		identity = unzigzag((int) i);
+		seqNumber = unzigzag((int) n);
+		bodySize = (int) b;
+		size = cursor - start;
+		return true;
+	}
+
+	/**
+	 * reads the variable length integer at {@link #cursor}, unless a previous one
+	 * was incomplete.
+	 *
+	 * @param in
+	 *            the buffer.
+	 * @return the value as an unsigned integer, or {@code -1} when the buffer
+	 *         does not contain the complete integer.
+	 * @throws IOException
+	 *             the exception thrown when the integer is longer than 5 bytes.
+	 */
+	private long nextVarInt(final ByteBuffer in) throws IOException {
+		if (cursor < 0) {
+			return -1;
+		}
+		int value = 0;
+		for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+			if (cursor >= in.limit()) {
+				cursor = -1;
+				return -1;
+			}
+			byte b = in.get(cursor++);
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value & 0xFFFFFFFFL;
+			}
+		}
+		throw new IOException("malformed variable length integer in header");
+	}
+
+	/**
+	 * writes a version 2 header.
+	 *
+	 * @param out
+	 *            the buffer to write into, which must have at least
+	 *            {@link #V2_MAX_SIZE} bytes remaining.
+	 * @param flags
+	 *            the flags.
+	 * @param type
+	 *            the message type.
+	 * @param identity
+	 *            the identity of the sender.
+	 * @param seqNumber
+	 *            the sequence number.
+	 * @param bodySize
+	 *            the size of the body.
+	 * @param checksum
+	 *            the checksum of the body, written when the flag
+	 *            {@link #FLAG_CHECKSUM} is set.
+	 */
+	public static void writeV2(final ByteBuffer out, final int flags, final int type, final int identity,
+			final int seqNumber, final int bodySize, final int checksum) {
+		out.put(MAGIC_V2);
+		out.put((byte) flags);
+		MsgCodecs.putVarInt(out, zigzag(type));
+		MsgCodecs.putVarInt(out, zigzag(identity));
+		MsgCodecs.putVarInt(out, zigzag(seqNumber));
+		MsgCodecs.putVarInt(out, bodySize);
+		if ((flags & FLAG_CHECKSUM) != 0) {
+			out.putInt(checksum);
+		}
+	}
+
+	/**
+	 * maps a signed integer to an unsigned one so that the integers close to zero,
+	 * such as the sequence number {@code -1}, take one byte.
+	 *
+	 * @param value
+	 *            the signed integer.
+	 * @return the zigzag encoding.
+	 */
+	private static int zigzag(final int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	/**
+	 * reverses {@link #zigzag(int)}.
+	 *
+	 * @param value
+	 *            the zigzag encoding.
+	 * @return the signed integer.
+	 */
+	private static int unzigzag(final int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * gets the version.
+	 *
+	 * @return the version: 1 or 2.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * gets the size of the header.
+	 *
+	 * @return the size in bytes.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * gets the flags.
+	 *
+	 * @return the flags.
+	 */
+	public int getFlags() {
+		return flags;
+	}
+
+	/**
+	 * gets the message type.
+	 *
+	 * @return the message type.
+	 */
+	public int getType() {
+		return type;
+	}
+
+	/**
+	 * gets the identity of the sender.
+	 *
+	 * @return the identity.
+	 */
+	public int getIdentity() {
+		return identity;
+	}
+
+	/**
+	 * gets the sequence number.
+	 *
+	 * @return the sequence number.
+	 */
+	public int getSeqNumber() {
+		return seqNumber;
+	}
+
+	/**
+	 * gets the size of the body.
+	 *
+	 * @return the size in bytes.
+	 */
+	public int getBodySize() {
+		return bodySize;
+	}
+
+	/**
+	 * gets the checksum of the body.
+	 *
+	 * @return the checksum, when the flag {@link #FLAG_CHECKSUM} is set.
+	 */
+	public int getChecksum() {
+		return checksum;
+	}
+}
@@ -24,16 +24,23 @@ package chat.common;
 import static chat.common.Log.COMM;
 import static chat.common.Log.LOG_ON;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * This class defines a message as a set of byte buffers.
@@ -44,7 +51,8 @@ import java.util.Optional;
  * <li>the identity of the sender as an int</li>
  * <li>the sequence number of sender as an int</li>
  * <li>the message size as an int</li>
- * <li>the data as a serialised object</li>
+ * <li>the data, encoded with the codec of the message type or as a serialised
+ * object (see {@link MsgCodecs})</li>
  * </ul>
  * 
  * @author chris
@@ -53,19 +61,176 @@ import java.util.Optional;
  */
 public class FullDuplexMsgWorker {
 	/**
-	 * this arrays can contain message headers in the first buffer (fixed size)
-	 * and message body which size is described in the header. We need two
-	 * ByteBuffers due to asynchronism in input and output. Put and get
-	 * operations are not done at once.
+	 * the receive buffer of the connection, in read mode: the bytes between the
+	 * position and the limit have been received and not yet consumed. Each read
+	 * gets as many bytes as available, so that a burst of small messages is
+	 * received with one system call and then decoded frame by frame.
 	 */
-	private ByteBuffer[] inBuffers;
+	private final ByteBuffer inBuffer;
 	/**
-	 * this arrays can contain message headers in the first buffer (fixed size)
-	 * and message body which size is described in the header. We need two
-	 * ByteBuffers due to asynchronism in input and output. Put and get
-	 * operations are not done at once.
+	 * the view on the body of the last message received when it is in
+	 * {@link #inBuffer}: this duplicate is built once and its position and limit
+	 * are moved for each message.
 	 */
-	private ByteBuffer[] outBuffers;
+	private final ByteBuffer inBodyView;
+	/**
+	 * the chunks of the body of the last message received when it does not fit
+	 * into {@link #inBuffer}. The chunks are buffers of
+	 * {@link BufferPool#maxPooledSize()} bytes leased when the bytes arrive, so
+	 * that the memory used follows the bytes actually received and not the size
+	 * announced in the header. The collection is empty for the other messages.
+	 */
+	private final ArrayList<ByteBuffer> inChunks;
+	/**
+	 * the number of bytes of the body of the last message that are still to be
+	 * received into {@link #inChunks}.
+	 */
+	private int inChunksMissing;
+	/**
+	 * the body of the last message received when it is in {@link #inBuffer},
+	 * ready to be read.
+	 */
+	private ByteBuffer inBody;
+	/**
+	 * the maximum size of the body of the messages. A message that is larger
+	 * is not sent, and the connection from which it is received is closed.
+	 */
+	private volatile int maxFrameSize;
+	/**
+	 * the default maximum size of the body of the messages.
+	 */
+	public static final int DEFAULT_MAX_FRAME_SIZE = 16 * 1024 * 1024;
+	/**
+	 * the size of the receive buffer.
+	 */
+	public static final int RECEIVE_BUFFER_SIZE = 16 * 1024;
+	/**
+	 * the frames of the chat messages waiting to be written when the channel is
+	 * in non blocking mode. The first frame may have been partially written. This
+	 * queue is shared with the threads that send messages and must be accessed
+	 * into {@code synchronized} blocks.
+	 */
+	private final ArrayDeque<PendingFrame> outQueue;
+	/**
+	 * the frames of the control messages, i.e. the messages of the algorithms of
+	 * the servers and the handshake, waiting to be written when the channel is in
+	 * non blocking mode. They are written before the frames of {@link #outQueue},
+	 * except the frame of {@link #outQueue} that is partially written, so that
+	 * the latency of the algorithms does not depend on the chat traffic. This
+	 * queue is shared with the threads that send messages and must be accessed
+	 * into {@code synchronized} blocks.
+	 */
+	private final ArrayDeque<PendingFrame> controlQueue;
+	/**
+	 * the array used for the gathering writes of the frames of
+	 * {@link #controlQueue} and {@link #outQueue}.
+	 */
+	private final ByteBuffer[] gatherBuffers;
+	/**
+	 * the maximum number of frames waiting in each of {@link #controlQueue} and
+	 * {@link #outQueue}.
+	 */
+	private int maxOutboundFrames;
+	/**
+	 * the selection key of the channel when registered in a selector; it is used
+	 * to ask for {@link SelectionKey#OP_WRITE} when the frames of
+	 * {@link #outQueue} cannot be written at once.
+	 */
+	private SelectionKey selectionKey;
+	/**
+	 * the maximum number of frames coalesced before being written: the frames
+	 * sent in non blocking mode are written at the latest when this number of
+	 * frames are waiting. The value {@code 1} disables the coalescing.
+	 */
+	private int maxBatchFrames;
+	/**
+	 * the maximum delay in nanoseconds between the sending of a coalesced frame
+	 * and its writing.
+	 */
+	private long flushDeadlineNanos;
+	/**
+	 * the number of frames coalesced since the last write.
+	 */
+	private int nbCoalescedFrames;
+	/**
+	 * the time in nanoseconds of the sending of the first frame coalesced since
+	 * the last write.
+	 */
+	private long firstCoalescedNanos;
+	/**
+	 * the number of workers whose outbound queue holds back the reading of this
+	 * worker (see {@link #holdBack(FullDuplexMsgWorker, int)}). While it is
+	 * positive, the interest for {@link SelectionKey#OP_READ} is removed.
+	 */
+	private int readSuspensions;
+	/**
+	 * the workers whose reading is suspended until the outbound queue of this
+	 * worker is down to {@link #resumeThreshold} frames.
+	 */
+	private final ArrayList<FullDuplexMsgWorker> heldBackSources;
+	/**
+	 * the number of frames waiting to be written down to which the workers of
+	 * {@link #heldBackSources} read again.
+	 */
+	private int resumeThreshold;
+	/**
+	 * the time in nanoseconds of the last write that has made progress while
+	 * workers are held back, or of the first of them being held back.
+	 */
+	private long lastProgressNanos;
+	/**
+	 * the lock of the writes in blocking mode. The writes do not take the
+	 * monitor of the worker, so that a thread blocked on a slow connection does
+	 * not pin the carrier thread of a virtual thread, and the waiting for the
+	 * lock is bounded by {@link #writeTimeoutNanos}.
+	 */
+	private final ReentrantLock blockingWriteLock = new ReentrantLock();
+	/**
+	 * the maximum delay in nanoseconds during which a sender waits for the write
+	 * in blocking mode of another sender.
+	 */
+	private volatile long writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_WRITE_TIMEOUT_MILLIS);
+	/**
+	 * the time in nanoseconds of the start or of the last progress of the write
+	 * in blocking mode in progress, valid when {@link #blockingWriteInProgress}
+	 * is {@code true}.
+	 */
+	private volatile long blockingWriteStartNanos;
+	/**
+	 * states whether a write in blocking mode is in progress.
+	 */
+	private volatile boolean blockingWriteInProgress;
+	/**
+	 * the default maximum delay in milliseconds during which a sender waits for
+	 * the write in blocking mode of another sender.
+	 */
+	public static final long DEFAULT_WRITE_TIMEOUT_MILLIS = 10000;
+	/**
+	 * the capabilities of this end point, sent in the handshake (see
+	 * {@link Handshake}).
+	 */
+	private int localCapabilities;
+	/**
+	 * the capabilities of the remote end point, received in the handshake.
+	 */
+	private int peerCapabilities;
+	/**
+	 * states whether the handshake has been sent.
+	 */
+	private boolean handshakeSent;
+	/**
+	 * the minimum size of the bodies that are compressed when the compression has
+	 * been negotiated.
+	 */
+	private int compressionThreshold = FrameCompression.DEFAULT_THRESHOLD;
+	/**
+	 * the default maximum number of frames waiting to be written.
+	 */
+	public static final int DEFAULT_MAX_OUTBOUND_FRAMES = 1024;
+	/**
+	 * the maximum number of frames written in one gathering write.
+	 */
+	private static final int MAX_FRAMES_PER_WRITE = 64;
 	/**
 	 * read message status, to describe completeness of data reception.
 	 */
@@ -91,10 +256,23 @@ public class FullDuplexMsgWorker {
 	 */
 	private int inSeqNumber;
 	/**
-	 * the size of headers.
+	 * the size of the header of the last message received, which depends on the
+	 * version of the header (see {@link FrameHeader}).
 	 */
-	private static final int SIZE_HEADER = 4;
-
+	private int inHeaderSize;
+	/**
+	 * the flags of the header of the last message received.
+	 */
+	private int inFlags;
+	/**
+	 * the checksum of the body of the last message received, when the flag
+	 * {@link FrameHeader#FLAG_CHECKSUM} is set.
+	 */
+	private int inChecksum;
+	/**
+	 * the parser of the headers, reused for every message.
+	 */
+	private final FrameHeader headerParser = new FrameHeader();
 	/**
 	 * is the public constructor for an open channel---i.e., after accept.
 	 * 
@@ -103,14 +281,18 @@ public class FullDuplexMsgWorker {
 	 */
 	public FullDuplexMsgWorker(final SocketChannel channel) {
 		Objects.requireNonNull(channel, "argument channel cannot be null");
-		inBuffers = new ByteBuffer[2];
-		outBuffers = new ByteBuffer[2];
-		inBuffers[0] = ByteBuffer
-				.allocate(Integer.SIZE * SIZE_HEADER / Byte.SIZE);
-		outBuffers[0] = ByteBuffer
-				.allocate(Integer.SIZE * SIZE_HEADER / Byte.SIZE);
-		inBuffers[1] = null;
-		outBuffers[1] = null;
+		inBuffer = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+		inBuffer.flip();
+		inBodyView = inBuffer.duplicate();
+		inChunks = new ArrayList<>();
+		inBody = null;
+		maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+		outQueue = new ArrayDeque<>();
+		controlQueue = new ArrayDeque<>();
+		heldBackSources = new ArrayList<>();
+		gatherBuffers = new ByteBuffer[2 * MAX_FRAMES_PER_WRITE];
+		maxOutboundFrames = DEFAULT_MAX_OUTBOUND_FRAMES;
+		maxBatchFrames = 1;
 		readState = ReadMessageStatus.READ_UNSTARTED;
 		rwChan = channel;
 		assert invariant();
@@ -126,9 +308,10 @@ public class FullDuplexMsgWorker {
 	 * @return a boolean stating whether the invariant is maintained.
 	 */
 	private boolean invariant() {
-		return inBuffers != null && inBuffers.length == 2 && outBuffers != null && outBuffers.length == 2
-				&& (inBuffers[0].capacity() > 0)
-				&& (outBuffers[0].capacity() > 0) && rwChan != null;
+		return inBuffer != null && inBuffer.capacity() > FrameHeader.V2_MAX_SIZE && inBodyView != null
+				&& rwChan != null && outQueue != null && controlQueue != null && heldBackSources != null
+				&& readSuspensions >= 0
+				&& maxOutboundFrames > 0 && maxBatchFrames > 0 && flushDeadlineNanos >= 0;
 	}
 
 	/**
@@ -141,6 +324,372 @@ public class FullDuplexMsgWorker {
 		rwChan.configureBlocking(false);
 	}
 
+	/**
+	 * registers the channel in the selector for reading. The worker is attached
+	 * to the selection key.
+	 * 
+	 * @param selector
+	 *            the selector.
+	 * @return the selection key.
+	 * @throws ClosedChannelException
+	 *             the exception thrown when the channel is closed.
+	 */
+	public synchronized SelectionKey register(final Selector selector) throws ClosedChannelException {
+		Objects.requireNonNull(selector, "argument selector cannot be null");
+		selectionKey = rwChan.register(selector, SelectionKey.OP_READ, this);
+		return selectionKey;
+	}
+
+	/**
+	 * sets the maximum number of frames waiting to be written, for the control
+	 * messages and for the chat messages. When the limit is reached, sending a
+	 * message throws an {@link IOException}.
+	 * 
+	 * @param maxOutboundFrames
+	 *            the maximum number of frames.
+	 */
+	public synchronized void setMaxOutboundFrames(final int maxOutboundFrames) {
+		if (maxOutboundFrames <= 0) {
+			throw new IllegalArgumentException("invalid maximum number of frames (" + maxOutboundFrames + ")");
+		}
+		this.maxOutboundFrames = maxOutboundFrames;
+	}
+
+	/**
+	 * configures the coalescing of the frames sent in non blocking mode. Instead
+	 * of being written at once, the frames are queued and the channel is
+	 * registered for {@link SelectionKey#OP_WRITE}: the frames sent during an
+	 * iteration of the selector loop are then written together by one gathering
+	 * write when the selector thread calls {@link #flushOutbound()}. The frames
+	 * are written immediately when {@code maxBatchFrames} frames are waiting or
+	 * when the first of them waits for longer than the deadline.
+	 * 
+	 * @param maxBatchFrames
+	 *            the maximum number of frames coalesced; {@code 1} disables the
+	 *            coalescing.
+	 * @param flushDeadline
+	 *            the maximum delay before writing a coalesced frame.
+	 * @param unit
+	 *            the unit of the delay.
+	 */
+	public synchronized void setCoalescing(final int maxBatchFrames, final long flushDeadline, final TimeUnit unit) {
+		Objects.requireNonNull(unit, "argument unit cannot be null");
+		if (maxBatchFrames <= 0) {
+			throw new IllegalArgumentException("invalid maximum number of frames (" + maxBatchFrames + ")");
+		}
+		if (flushDeadline < 0) {
+			throw new IllegalArgumentException("invalid flush deadline (" + flushDeadline + ")");
+		}
+		this.maxBatchFrames = maxBatchFrames;
+		this.flushDeadlineNanos = unit.toNanos(flushDeadline);
+	}
+
+	/**
+	 * sets the maximum size of the body of the messages. A message that is larger
+	 * is not sent, and the connection from which it is received is closed.
+	 * 
+	 * @param maxFrameSize
+	 *            the size in bytes.
+	 */
+	public void setMaxFrameSize(final int maxFrameSize) {
+		if (maxFrameSize <= 0) {
+			throw new IllegalArgumentException("invalid maximum frame size (" + maxFrameSize + ")");
+		}
+		this.maxFrameSize = maxFrameSize;
+	}
+
+	/**
+	 * configures the maximum delay during which a sender waits for the write in
+	 * blocking mode of another sender, e.g. to a slow client, before giving up
+	 * its own write. The write in progress is not interrupted: it stops when the
+	 * connection is closed (see {@link #getStallNanos(long)}).
+	 * 
+	 * @param timeout
+	 *            the delay.
+	 * @param unit
+	 *            the unit of the delay.
+	 */
+	public void setWriteTimeout(final long timeout, final TimeUnit unit) {
+		Objects.requireNonNull(unit, "argument unit cannot be null");
+		if (timeout <= 0) {
+			throw new IllegalArgumentException("invalid write timeout (" + timeout + ")");
+		}
+		writeTimeoutNanos = unit.toNanos(timeout);
+	}
+
+	/**
+	 * sets the minimum size of the bodies that are compressed when the
+	 * compression has been negotiated in the handshake.
+	 * 
+	 * @param compressionThreshold
+	 *            the size in bytes.
+	 */
+	public synchronized void setCompressionThreshold(final int compressionThreshold) {
+		if (compressionThreshold < 0) {
+			throw new IllegalArgumentException("invalid compression threshold (" + compressionThreshold + ")");
+		}
+		this.compressionThreshold = compressionThreshold;
+	}
+
+	/**
+	 * sends the handshake with the capabilities of this end point. This is done
+	 * by the end point that opens the connection, or in answer to the handshake
+	 * of the remote end point.
+	 * 
+	 * @param capabilities
+	 *            the capabilities of this end point.
+	 * @throws IOException
+	 *             the exception thrown in case of IO problem.
+	 */
+	public synchronized void sendHandshake(final int capabilities) throws IOException {
+		localCapabilities = capabilities;
+		handshakeSent = true;
+		sendMsg(Handshake.TYPE_HANDSHAKE, 0, -1, Integer.valueOf(capabilities));
+	}
+
+	/**
+	 * treats the handshake received from the remote end point: the capabilities
+	 * supported by both end points are used from now on, and the handshake is
+	 * answered if this end point has not sent its own yet.
+	 * 
+	 * @param capabilities
+	 *            the capabilities of the remote end point.
+	 * @param myCapabilities
+	 *            the capabilities of this end point.
+	 * @throws IOException
+	 *             the exception thrown in case of IO problem.
+	 */
+	public synchronized void receiveHandshake(final int capabilities, final int myCapabilities)
+			throws IOException {
+		if (!handshakeSent) {
+			sendHandshake(myCapabilities);
+		}
+		peerCapabilities = capabilities;
+		if (LOG_ON && COMM.isDebugEnabled()) {
+			COMM.debug("Capabilities negotiated : " + getNegotiatedCapabilities());
+		}
+	}
+
+	/**
+	 * gets the capabilities supported by both end points.
+	 * 
+	 * @return the capabilities.
+	 */
+	public synchronized int getNegotiatedCapabilities() {
+		return localCapabilities & peerCapabilities;
+	}
+
+	/**
+	 * gets the number of frames waiting to be written.
+	 * 
+	 * @return the number of frames.
+	 */
+	public synchronized int getOutboundQueueSize() {
+		return controlQueue.size() + outQueue.size();
+	}
+
+	/**
+	 * gets the number of frames of control messages waiting to be written.
+	 * 
+	 * @return the number of frames.
+	 */
+	public synchronized int getControlQueueSize() {
+		return controlQueue.size();
+	}
+
+	/**
+	 * drops the oldest frames of chat messages waiting to be written, so that at
+	 * most the given number of them remain. The frame that is partially written
+	 * is kept, as well as the frames of the control messages.
+	 * 
+	 * @param remaining
+	 *            the maximum number of frames of chat messages that remain.
+	 * @return the number of frames dropped.
+	 */
+	public int dropOldestChatFrames(final int remaining) {
+		if (remaining < 0) {
+			throw new IllegalArgumentException("invalid number of frames (" + remaining + ")");
+		}
+		int nbDropped = 0;
+		List<FullDuplexMsgWorker> resumed;
+		synchronized (this) {
+			PendingFrame started = !outQueue.isEmpty() && outQueue.peekFirst().isStarted()
+					? outQueue.removeFirst()
+					: null;
+			int kept = started == null ? 0 : 1;
+			while (!outQueue.isEmpty() && outQueue.size() + kept > remaining) {
+				outQueue.removeFirst().frame.release();
+				nbDropped++;
+			}
+			if (started != null) {
+				outQueue.addFirst(started);
+			}
+			updateWriteInterest(controlQueue.isEmpty() && outQueue.isEmpty());
+			resumed = takeResumableSources(false);
+		}
+		resumeReading(resumed);
+		return nbDropped;
+	}
+
+	/**
+	 * holds back the reading of a source of frames for this worker: the reading
+	 * of the source is suspended until the number of frames waiting to be
+	 * written to this worker is down to the threshold. The selector thread of
+	 * the source then stops reading its channel, and the thread of the caller
+	 * is not blocked. The source is not held back when the number of frames is
+	 * already down to the threshold, or when it is already held back by this
+	 * worker.
+	 * 
+	 * @param source
+	 *            the worker of the source.
+	 * @param threshold
+	 *            the number of frames waiting to be written down to which the
+	 *            source reads again.
+	 * @return {@code true} when the source has been held back.
+	 */
+	public boolean holdBack(final FullDuplexMsgWorker source, final int threshold) {
+		Objects.requireNonNull(source, "argument source cannot be null");
+		if (threshold < 0) {
+			throw new IllegalArgumentException("invalid threshold (" + threshold + ")");
+		}
+		// the reading is suspended before the source is recorded, so that a write
+		// that empties the queue in the meantime cannot miss the resumption
+		source.suspendReading();
+		boolean held;
+		synchronized (this) {
+			held = source != this && rwChan.isOpen() && controlQueue.size() + outQueue.size() > threshold
+					&& !heldBackSources.contains(source);
+			if (held) {
+				if (heldBackSources.isEmpty()) {
+					lastProgressNanos = System.nanoTime();
+				}
+				heldBackSources.add(source);
+				resumeThreshold = threshold;
+			}
+		}
+		if (!held) {
+			source.resumeReading();
+		}
+		return held;
+	}
+
+	/**
+	 * states whether this worker holds back the reading of other workers (see
+	 * {@link #holdBack(FullDuplexMsgWorker, int)}).
+	 * 
+	 * @return {@code true} when at least one worker is held back.
+	 */
+	public synchronized boolean isHoldingBack() {
+		return !heldBackSources.isEmpty();
+	}
+
+	/**
+	 * gets the delay since the last write that has made progress while this
+	 * worker holds back the reading of other workers, or, in blocking mode, since
+	 * the last progress of the write in progress.
+	 * 
+	 * @param now
+	 *            the current time in nanoseconds.
+	 * @return the delay in nanoseconds, or {@code 0} when no worker is held back
+	 *         and no write is in progress.
+	 */
+	public synchronized long getStallNanos(final long now) {
+		if (blockingWriteInProgress) {
+			return now - blockingWriteStartNanos;
+		}
+		return heldBackSources.isEmpty() ? 0 : now - lastProgressNanos;
+	}
+
+	/**
+	 * states whether the reading of this worker is suspended because it is held
+	 * back by the outbound queue of at least one other worker.
+	 * 
+	 * @return {@code true} when the reading is suspended.
+	 */
+	public synchronized boolean isReadingSuspended() {
+		return readSuspensions > 0;
+	}
+
+	/**
+	 * suspends the reading of this worker: the interest for
+	 * {@link SelectionKey#OP_READ} is removed with the first suspension.
+	 */
+	private synchronized void suspendReading() {
+		readSuspensions++;
+		if (readSuspensions == 1 && selectionKey != null && selectionKey.isValid()) {
+			selectionKey.interestOps(selectionKey.interestOps() & ~SelectionKey.OP_READ);
+		}
+	}
+
+	/**
+	 * resumes the reading of this worker: the interest for
+	 * {@link SelectionKey#OP_READ} is set again with the last resumption, and the
+	 * selector is woken up so that the messages left in the receive buffer are
+	 * treated.
+	 */
+	private synchronized void resumeReading() {
+		if (readSuspensions == 0) {
+			return;
+		}
+		readSuspensions--;
+		if (readSuspensions == 0 && selectionKey != null && selectionKey.isValid()) {
+			selectionKey.interestOps(selectionKey.interestOps() | SelectionKey.OP_READ);
+			// the caller is not the selector thread of this worker
+			selectionKey.selector().wakeup();
+		}
+	}
+
+	/**
+	 * takes the workers held back by this worker when the number of frames
+	 * waiting to be written is down to the threshold. This method is called with
+	 * the lock of this worker, and the reading of the workers is resumed by the
+	 * caller after releasing it (see {@link #resumeReading(List)}): two workers
+	 * holding back each other and written by two selector threads would
+	 * otherwise take their locks in the opposite order.
+	 * 
+	 * @param all
+	 *            states whether the workers are taken whatever the number of
+	 *            frames, e.g. when the connection is closed.
+	 * @return the workers whose reading is to be resumed.
+	 */
+	private List<FullDuplexMsgWorker> takeResumableSources(final boolean all) {
+		assert Thread.holdsLock(this);
+		if (heldBackSources.isEmpty()
+				|| (!all && controlQueue.size() + outQueue.size() > resumeThreshold)) {
+			return Collections.emptyList();
+		}
+		List<FullDuplexMsgWorker> resumed = new ArrayList<>(heldBackSources);
+		heldBackSources.clear();
+		return resumed;
+	}
+
+	/**
+	 * resumes the reading of the workers taken from the held back workers (see
+	 * {@link #takeResumableSources(boolean)}), without holding the lock of this
+	 * worker.
+	 * 
+	 * @param resumed
+	 *            the workers whose reading is resumed.
+	 */
+	private void resumeReading(final List<FullDuplexMsgWorker> resumed) {
+		for (FullDuplexMsgWorker source : resumed) {
+			source.resumeReading();
+		}
+	}
+
+	/**
+	 * states whether the messages of a type are control messages, which are
+	 * written before the chat messages: the messages of the algorithms of the
+	 * servers and the handshake.
+	 * 
+	 * @param type
+	 *            the message type.
+	 * @return {@code true} for a control message.
+	 */
+	public static boolean isControlMessage(final int type) {
+		return type < ActionOfAClient.OFFSET_CLIENT_ALGORITHMS;
+	}
+
 	/**
 	 * gets the current channel of this worker.
 	 * 
@@ -160,7 +709,7 @@ public class FullDuplexMsgWorker {
 	 * @param seqNumber
 	 *            the sequence number of the message to send.
 	 * @param s
-	 *            the content of the message as a serialised object.
+	 *            the content of the message, encoded with {@link MsgCodecs}.
 	 * @return size of the data send.
 	 * @throws IOException
 	 *             the exception thrown in case of IO problem.
@@ -168,31 +717,307 @@ public class FullDuplexMsgWorker {
 	public long sendMsg(final int type, final int identity, final int seqNumber,
 			final Serializable s) throws IOException {
 		Objects.requireNonNull(s, "argument s cannot be null");
-		ByteArrayOutputStream bo = new ByteArrayOutputStream();
-		int size;
-		ObjectOutputStream oo = new ObjectOutputStream(bo);
-		oo.writeObject(s);
-		oo.close();
-		size = bo.size();
-		int outType = type;
-		int outSize = size;
-		int outIdentity = identity;
-		int outSeqNumber = seqNumber;
-		outBuffers[0].clear();
-		outBuffers[0].putInt(outType);
-		outBuffers[0].putInt(outIdentity);
-		outBuffers[0].putInt(outSeqNumber);
-		outBuffers[0].putInt(outSize);
-		outBuffers[0].flip();
-		outBuffers[1] = ByteBuffer.allocate(size);
-		outBuffers[1].put(bo.toByteArray());
-		bo.close();
-		outBuffers[1].flip();
-		rwChan.write(outBuffers);
-		assert invariant();
+		EncodedFrame frame = EncodedFrame.encode(type, identity, seqNumber, s);
+		try {
+			return sendFrame(frame);
+		} finally {
+			frame.release();
+		}
+	}
+
+	/**
+	 * sends a frame that has already been encoded. The same frame can be sent
+	 * using several workers, e.g. when forwarding a message. The caller keeps its
+	 * reference to the frame: the worker takes its own reference while the frame
+	 * is queued. In blocking mode, the frame is entirely written before
+	 * returning, with the lock of the writes and without the monitor of the
+	 * worker (see {@link #setWriteTimeout(long, TimeUnit)}). In non blocking mode, the frame
+	 * is appended to the outbound queue and the queue is written as much as the
+	 * channel accepts; the rest is written by the selector thread when the channel
+	 * becomes writable (see {@link #flushOutbound()}). The frames of the control
+	 * messages (see {@link #isControlMessage(int)}) are queued apart and are
+	 * written first. When the coalescing is enabled, the write of the chat
+	 * messages is postponed (see {@link #setCoalescing(int, long, TimeUnit)}).
+	 * The body is compressed when
+	 * the compression has been negotiated with the remote end point and is
+	 * uncompressed otherwise.
+	 * 
+	 * @param frame
+	 *            the frame to send.
+	 * @return size of the data send.
+	 * @throws IOException
+	 *             the exception thrown in case of IO problem, or when the outbound
+	 *             queue is full.
+	 */
+	public long sendFrame(final EncodedFrame frame) throws IOException {
+		Objects.requireNonNull(frame, "argument frame cannot be null");
+		if (rwChan.isBlocking()) {
+			return writeBlocking(frame);
+		}
+		long size;
+		List<FullDuplexMsgWorker> resumed;
+		synchronized (this) {
+			size = writeOrQueue(frame);
+			resumed = takeResumableSources(false);
+		}
+		resumeReading(resumed);
 		return size;
 	}
 
+	/**
+	 * writes a frame in blocking mode. The senders take the lock of the writes in
+	 * turn, and a sender that waits for the lock longer than the write timeout
+	 * gives up its frame.
+	 * 
+	 * @param frame
+	 *            the frame to send.
+	 * @return size of the data send.
+	 * @throws IOException
+	 *             the exception thrown in case of IO problem, or when the write
+	 *             timeout is reached.
+	 */
+	private long writeBlocking(final EncodedFrame frame) throws IOException {
+		EncodedFrame toSend = toSend(frame);
+		ByteBuffer[] buffers = buffersOf(toSend);
+		try {
+			if (!blockingWriteLock.tryLock(writeTimeoutNanos, TimeUnit.NANOSECONDS)) {
+				throw new IOException("write timeout (" + TimeUnit.NANOSECONDS.toMillis(writeTimeoutNanos)
+						+ " ms), message of type " + frame.getType() + " not sent");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted while waiting for a write");
+		}
+		try {
+			blockingWriteStartNanos = System.nanoTime();
+			blockingWriteInProgress = true;
+			// the gathering writes write the buffers in order
+			while (buffers[0].hasRemaining() || buffers[buffers.length - 1].hasRemaining()) {
+				rwChan.write(buffers);
+				blockingWriteStartNanos = System.nanoTime();
+			}
+		} finally {
+			blockingWriteInProgress = false;
+			blockingWriteLock.unlock();
+		}
+		return toSend.getBodySize();
+	}
+
+	/**
+	 * gets the frame to send for a frame: the body is compressed when the
+	 * compression has been negotiated with the remote end point and is
+	 * uncompressed otherwise.
+	 * 
+	 * @param frame
+	 *            the frame.
+	 * @return the frame to send.
+	 * @throws IOException
+	 *             the exception thrown when the frame is too large.
+	 */
+	private EncodedFrame toSend(final EncodedFrame frame) throws IOException {
+		EncodedFrame toSend = frame;
+		if ((getNegotiatedCapabilities() & Handshake.CAPABILITY_COMPRESSION) != 0) {
+			if (frame.getBodySize() >= compressionThreshold) {
+				toSend = frame.compressed();
+			}
+		} else if (frame.isCompressed()) {
+			toSend = frame.uncompressed(maxFrameSize);
+		}
+		if (toSend.getBodySize() > maxFrameSize) {
+			throw new IOException("message of type " + frame.getType() + " too large (" + toSend.getBodySize()
+					+ " bytes), not sent");
+		}
+		return toSend;
+	}
+
+	/**
+	 * gets the buffers for writing a frame with the header negotiated with the
+	 * remote end point.
+	 * 
+	 * @param toSend
+	 *            the frame to send.
+	 * @return the buffers.
+	 */
+	private ByteBuffer[] buffersOf(final EncodedFrame toSend) {
+		int capabilities = getNegotiatedCapabilities();
+		return (capabilities & Handshake.CAPABILITY_HEADER_V2) != 0
+				? toSend.buffersForWritingV2((capabilities & Handshake.CAPABILITY_CHECKSUM) != 0)
+				: toSend.buffersForWriting();
+	}
+
+	/**
+	 * queues a frame in non blocking mode and writes the queues as much as the
+	 * channel accepts, with the monitor of this worker (see
+	 * {@link #sendFrame(EncodedFrame)}).
+	 * 
+	 * @param frame
+	 *            the frame to send.
+	 * @return size of the data send.
+	 * @throws IOException
+	 *             the exception thrown in case of IO problem, or when the outbound
+	 *             queue is full.
+	 */
+	private long writeOrQueue(final EncodedFrame frame) throws IOException {
+		EncodedFrame toSend = toSend(frame);
+		ByteBuffer[] buffers = buffersOf(toSend);
+		ArrayDeque<PendingFrame> queue = isControlMessage(frame.getType()) ? controlQueue : outQueue;
+		if (queue.size() >= maxOutboundFrames) {
+			throw new IOException("outbound queue full (" + queue.size() + " frames), message of type "
+					+ frame.getType() + " not sent");
+		}
+		queue.addLast(new PendingFrame(toSend.retain(), buffers));
+		if (queue == controlQueue) {
+			// not coalesced, and written now when the channel accepts bytes
+			writeQueues();
+		} else if (maxBatchFrames <= 1 || selectionKey == null) {
+			if (outQueue.size() == 1 && controlQueue.isEmpty()) {
+				writeQueues();
+			}
+		} else {
+			long now = System.nanoTime();
+			if (nbCoalescedFrames == 0) {
+				firstCoalescedNanos = now;
+			}
+			nbCoalescedFrames++;
+			if (nbCoalescedFrames >= maxBatchFrames || now - firstCoalescedNanos >= flushDeadlineNanos) {
+				writeQueues();
+			} else {
+				updateWriteInterest(false);
+			}
+		}
+		assert invariant();
+		return toSend.getBodySize();
+	}
+
+	/**
+	 * writes the frames of the outbound queues with gathering writes, until the
+	 * queues are empty or the channel does not accept more bytes. The frames of
+	 * the control messages are written before the frames of the chat messages,
+	 * except a frame of a chat message that is partially written, which is
+	 * completed first so that the frames are not interleaved. A partially written
+	 * frame stays at the head of its queue and its buffers keep their positions,
+	 * so that the next write resumes where this one stopped. The interest for
+	 * {@link SelectionKey#OP_WRITE} is set when frames remain and is removed
+	 * otherwise. This method is called by the selector thread when the channel is
+	 * writable.
+	 * 
+	 * @return {@code true} when the outbound queues are empty.
+	 * @throws IOException
+	 *             the exception thrown in case of IO problem.
+	 */
+	public boolean flushOutbound() throws IOException {
+		boolean empty;
+		List<FullDuplexMsgWorker> resumed;
+		synchronized (this) {
+			empty = writeQueues();
+			resumed = takeResumableSources(false);
+		}
+		resumeReading(resumed);
+		return empty;
+	}
+
+	/**
+	 * writes the frames of the outbound queues, with the lock of this worker (see
+	 * {@link #flushOutbound()}).
+	 * 
+	 * @return {@code true} when the outbound queues are empty.
+	 * @throws IOException
+	 *             the exception thrown in case of IO problem.
+	 */
+	private boolean writeQueues() throws IOException {
+		while (!controlQueue.isEmpty() || !outQueue.isEmpty()) {
+			PendingFrame started = outQueue.isEmpty() || !outQueue.peekFirst().isStarted() ? null
+					: outQueue.peekFirst();
+			int nbBuffers = started == null ? 0 : gather(started, 0);
+			boolean full = false;
+			for (PendingFrame pending : controlQueue) {
+				int next = gather(pending, nbBuffers);
+				if (next < 0) {
+					full = true;
+					break;
+				}
+				nbBuffers = next;
+			}
+			if (!full) {
+				for (PendingFrame pending : outQueue) {
+					if (pending == started) {
+						continue;
+					}
+					int next = gather(pending, nbBuffers);
+					if (next < 0) {
+						break;
+					}
+					nbBuffers = next;
+				}
+			}
+			long written = rwChan.write(gatherBuffers, 0, nbBuffers);
+			while (!controlQueue.isEmpty() && controlQueue.peekFirst().isWritten()) {
+				controlQueue.removeFirst().frame.release();
+			}
+			while (!outQueue.isEmpty() && outQueue.peekFirst().isWritten()) {
+				outQueue.removeFirst().frame.release();
+			}
+			if (written == 0) {
+				break;
+			}
+			lastProgressNanos = System.nanoTime();
+		}
+		Arrays.fill(gatherBuffers, null);
+		nbCoalescedFrames = 0;
+		boolean empty = controlQueue.isEmpty() && outQueue.isEmpty();
+		updateWriteInterest(empty);
+		if (LOG_ON && COMM.isTraceEnabled()) {
+			COMM.trace("Outbound queue size : " + controlQueue.size() + " control, " + outQueue.size() + " chat");
+		}
+		return empty;
+	}
+
+	/**
+	 * appends the buffers of a pending frame that are not written yet to the
+	 * array of the gathering write. A frame is split only when it is the first
+	 * of the write.
+	 * 
+	 * @param pending
+	 *            the pending frame.
+	 * @param nbBuffers
+	 *            the number of buffers already in the array.
+	 * @return the number of buffers in the array, or {@code -1} when the frame
+	 *         does not fit and no more frame is to be appended.
+	 */
+	private int gather(final PendingFrame pending, final int nbBuffers) {
+		if (nbBuffers == gatherBuffers.length) {
+			return -1;
+		}
+		// the buffers already written of the first frame are skipped
+		int first = pending.firstUnwritten();
+		int n = Math.min(pending.buffers.length - first, gatherBuffers.length - nbBuffers);
+		if (n < pending.buffers.length - first && nbBuffers > 0) {
+			return -1;
+		}
+		System.arraycopy(pending.buffers, first, gatherBuffers, nbBuffers, n);
+		return nbBuffers + n;
+	}
+
+	/**
+	 * sets the interest for {@link SelectionKey#OP_WRITE} when frames are waiting
+	 * to be written, and removes it otherwise.
+	 * 
+	 * @param empty
+	 *            states whether the outbound queue is empty.
+	 */
+	private void updateWriteInterest(final boolean empty) {
+		if (selectionKey != null && selectionKey.isValid()) {
+			int ops = selectionKey.interestOps();
+			if (empty && (ops & SelectionKey.OP_WRITE) != 0) {
+				selectionKey.interestOps(ops & ~SelectionKey.OP_WRITE);
+			} else if (!empty && (ops & SelectionKey.OP_WRITE) == 0) {
+				selectionKey.interestOps(ops | SelectionKey.OP_WRITE);
+				// the sender may not be the selector thread
+				selectionKey.selector().wakeup();
+			}
+		}
+	}
+
 	/**
 	 * closes the channel.
 	 * 
@@ -200,166 +1025,349 @@ public class FullDuplexMsgWorker {
 	 *             the exception thrown in case of problem.
 	 */
 	public void close() throws IOException {
+		synchronized (this) {
+			while (!controlQueue.isEmpty()) {
+				controlQueue.removeFirst().frame.release();
+			}
+			while (!outQueue.isEmpty()) {
+				outQueue.removeFirst().frame.release();
+			}
+		}
 		rwChan.close();
+		// after the closing, no more worker can be held back by this one
+		List<FullDuplexMsgWorker> resumed;
+		synchronized (this) {
+			resumed = takeResumableSources(true);
+		}
+		resumeReading(resumed);
 	}
 
 	/**
-	 * reads a message.
+	 * reads a message. When the receive buffer already contains a complete
+	 * message, the message is returned without reading from the channel;
+	 * otherwise, the channel is read once, with as many bytes as available. When
+	 * the status is {@link ReadMessageStatus#READDATACOMPLETED}, the message
+	 * stays available until the next call, and {@link #hasBufferedMessage()}
+	 * states whether the next call can return a message without reading the
+	 * channel.
 	 * 
 	 * @return a ReadMessageStatus to specify read progress.
 	 */
 	public ReadMessageStatus readMessage() {
-		int recvSize;
-		if (readState == ReadMessageStatus.READ_UNSTARTED) {
-			inBuffers[0].clear();
-			readState = ReadMessageStatus.READHEADERSTARTED;
+		if (readState == ReadMessageStatus.CHANNELCLOSED) {
+			return readState;
 		}
 		if (readState == ReadMessageStatus.READDATACOMPLETED) {
-			inBuffers[0].clear();
-			inBuffers[1] = null;
-			readState = ReadMessageStatus.READHEADERSTARTED;
+			consumeMessage();
+		}
+		if (inChunks.isEmpty() && decodeBufferedMessage()) {
+			assert invariant();
+			return readState;
 		}
-		if (readState == ReadMessageStatus.READHEADERSTARTED) {
-			if (inBuffers[0].position() < inBuffers[0].capacity()) {
+		int recvSize;
+		try {
+			if (!inChunks.isEmpty()) {
+				recvSize = rwChan.read(currentChunk());
+			} else {
+				inBuffer.compact();
 				try {
-					recvSize = rwChan.read(inBuffers[0]);
-					if (LOG_ON && COMM.isTraceEnabled()) {
-						COMM.trace("	Received       : " + recvSize);
-					}
-					if (recvSize == 0) {
-						assert invariant();
-						return readState;
-					}
-					if (recvSize < 0) {
-						readState = ReadMessageStatus.CHANNELCLOSED;
-						close();
-						assert invariant();
-						return readState;
-					}
-					if (inBuffers[0].position() < inBuffers[0].capacity()) {
-						assert invariant();
-						return readState;
-					}
-				} catch (IOException e) {
-					if (Thread.interrupted()) {
-						return ReadMessageStatus.CHANNELCLOSED; 
-					}
-					COMM.warn(e.getLocalizedMessage());
-					readState = ReadMessageStatus.CHANNELCLOSED;
-					try {
-						if (LOG_ON && COMM.isTraceEnabled()) {
-							COMM.trace("Closing a connection");
-						}
-						close();
-					} catch (IOException closeException) {
-						if (LOG_ON && COMM.isTraceEnabled()) {
-							COMM.trace("problem when closing the connection");
-						}
-					}
-					assert invariant();
-					return readState;
+					recvSize = rwChan.read(inBuffer);
+				} finally {
+					inBuffer.flip();
 				}
 			}
-			inBuffers[0].flip();
-			if (LOG_ON && COMM.isTraceEnabled()) {
-				COMM.trace("Position and limit : " + inBuffers[0].position()
-						+ " " + inBuffers[0].limit());
+		} catch (IOException e) {
+			if (Thread.interrupted()) {
+				return ReadMessageStatus.CHANNELCLOSED;
 			}
-			inType = inBuffers[0].getInt();
-			inIdentity = inBuffers[0].getInt();
-			inSeqNumber = inBuffers[0].getInt();
-			inSize = inBuffers[0].getInt();
+			COMM.warn(e.getLocalizedMessage());
+			closeAfterReadProblem();
+			return readState;
+		}
+		if (LOG_ON && COMM.isTraceEnabled()) {
+			COMM.trace("	Received       : " + recvSize);
+		}
+		if (recvSize < 0) {
+			closeAfterReadProblem();
+			return readState;
+		}
+		if (!inChunks.isEmpty()) {
+			inChunksMissing -= recvSize;
+			if (inChunksMissing == 0) {
+				completeChunks();
+			}
+		} else {
+			decodeBufferedMessage();
+		}
+		assert invariant();
+		return readState;
+	}
+
+	/**
+	 * decodes the message at the position of the receive buffer, if complete. The
+	 * header is decoded as soon as it is received, and the connection is closed
+	 * when the size of the body is invalid or larger than the maximum size. When
+	 * the message is too big for the receive buffer, the part of the body already
+	 * received is moved into chunks, which are then filled by the next reads.
+	 * 
+	 * @return {@code true} when a message is complete.
+	 */
+	private boolean decodeBufferedMessage() {
+		int start = inBuffer.position();
+		if (readState != ReadMessageStatus.READDATASTARTED) {
+			boolean parsed;
+			try {
+				parsed = headerParser.parse(inBuffer, start);
+			} catch (IOException e) {
+				COMM.warn(e.getLocalizedMessage() + ", closing the connection");
+				closeAfterReadProblem();
+				return true;
+			}
+			if (!parsed) {
+				readState = inBuffer.hasRemaining() ? ReadMessageStatus.READHEADERSTARTED
+						: ReadMessageStatus.READ_UNSTARTED;
+				return false;
+			}
+			inType = headerParser.getType();
+			inIdentity = headerParser.getIdentity();
+			inSeqNumber = headerParser.getSeqNumber();
+			inSize = headerParser.getBodySize();
+			inHeaderSize = headerParser.getSize();
+			inFlags = headerParser.getFlags();
+			inChecksum = headerParser.getChecksum();
 			if (LOG_ON && COMM.isTraceEnabled()) {
 				COMM.trace("Message type and size : " + inType + " " + inSize);
 			}
-			inBuffers[0].rewind();
+			if (inSize < 0 || inSize > maxFrameSize) {
+				COMM.warn("invalid message size (" + inSize + "), closing the connection");
+				closeAfterReadProblem();
+				return true;
+			}
 			readState = ReadMessageStatus.READHEADERCOMPLETED;
-		}
-		if (readState == ReadMessageStatus.READHEADERCOMPLETED) {
-			if (inBuffers[1] == null || inBuffers[1].capacity() != inSize) {
-				inBuffers[1] = ByteBuffer.allocate(inSize);
+			if (inHeaderSize + inSize > inBuffer.capacity()) {
+				inBuffer.position(start + inHeaderSize);
+				inChunksMissing = inSize;
+				ByteBuffer received = inBuffer.duplicate();
+				received.limit(received.position() + Math.min(received.remaining(), inSize));
+				do {
+					ByteBuffer chunk = currentChunk();
+					ByteBuffer piece = received.duplicate();
+					piece.limit(piece.position() + Math.min(piece.remaining(), chunk.remaining()));
+					inChunksMissing -= piece.remaining();
+					chunk.put(piece);
+					received.position(piece.limit());
+				} while (received.hasRemaining());
+				inBuffer.position(received.limit());
+				readState = ReadMessageStatus.READDATASTARTED;
+				if (inChunksMissing > 0) {
+					return false;
+				}
+				completeChunks();
+				return readState == ReadMessageStatus.READDATACOMPLETED;
 			}
 			readState = ReadMessageStatus.READDATASTARTED;
 		}
-		if (readState == ReadMessageStatus.READDATASTARTED) {
-			if (inBuffers[1].position() < inBuffers[1].capacity()) {
-				try {
-					recvSize = rwChan.read(inBuffers[1]);
-					if (LOG_ON && COMM.isTraceEnabled()) {
-						COMM.trace("	Received       : " + recvSize);
-					}
-					if (recvSize == 0) {
-						assert invariant();
-						return readState;
-					}
-					if (recvSize < 0) {
-						close();
-						readState = ReadMessageStatus.CHANNELCLOSED;
-						assert invariant();
-						return readState;
-					}
-				} catch (IOException e) {
-					if (Thread.interrupted()) {
-						return ReadMessageStatus.CHANNELCLOSED; 
-					}
-					COMM.warn(e.getLocalizedMessage());
-					readState = ReadMessageStatus.CHANNELCLOSED;
-					try {
-						if (LOG_ON && COMM.isTraceEnabled()) {
-							COMM.trace("Closing a connection");
-						}
-						close();
-					} catch (IOException closeException) {
-						if (LOG_ON && COMM.isTraceEnabled()) {
-							COMM.trace("problem when closing the connection");
-						}
-					}
-					return readState;
-				}
+		if (inBuffer.remaining() < inHeaderSize + inSize) {
+			return false;
+		}
+		int bodyStart = start + inHeaderSize;
+		inBodyView.clear();
+		inBodyView.limit(bodyStart + inSize);
+		inBodyView.position(bodyStart);
+		inBody = inBodyView;
+		if (!checksumMatches(inBody) || !compressionAccepted(inBody)) {
+			return true;
+		}
+		readState = ReadMessageStatus.READDATACOMPLETED;
+		return true;
+	}
+
+	/**
+	 * gets the chunk into which the next bytes of the body are received, leasing
+	 * a new one when the last one is full.
+	 * 
+	 * @return the chunk.
+	 */
+	private ByteBuffer currentChunk() {
+		if (inChunks.isEmpty() || !inChunks.get(inChunks.size() - 1).hasRemaining()) {
+			inChunks.add(BufferPool.SHARED.lease(Math.min(BufferPool.maxPooledSize(), inChunksMissing)));
+		}
+		return inChunks.get(inChunks.size() - 1);
+	}
+
+	/**
+	 * makes the chunks of the body ready to be read.
+	 */
+	private void completeChunks() {
+		for (ByteBuffer chunk : inChunks) {
+			chunk.flip();
+		}
+		if (checksumMatches(inChunks.toArray(new ByteBuffer[inChunks.size()]))
+				&& compressionAccepted(inChunks.get(0))) {
+			readState = ReadMessageStatus.READDATACOMPLETED;
+		}
+	}
+
+	/**
+	 * checks that the body of the last message received is not compressed when
+	 * the compression has not been negotiated with the remote end point (see
+	 * {@link Handshake#CAPABILITY_COMPRESSION}), e.g. for a local client. In that
+	 * case, the connection is closed.
+	 * 
+	 * @param first
+	 *            the buffer or the first chunk of the body.
+	 * @return {@code false} when the body is compressed without negotiation.
+	 */
+	private boolean compressionAccepted(final ByteBuffer first) {
+		if (!FrameCompression.isCompressed(first)
+				|| (getNegotiatedCapabilities() & Handshake.CAPABILITY_COMPRESSION) != 0) {
+			return true;
+		}
+		COMM.warn("compressed body of message type " + inType + " without negotiated compression"
+				+ ", closing the connection");
+		closeAfterReadProblem();
+		return false;
+	}
+
+	/**
+	 * checks the checksum of the body of the last message received, when the
+	 * header contains one. In case of mismatch, the connection is closed.
+	 * 
+	 * @param body
+	 *            the chunks of the body.
+	 * @return {@code false} when the checksum does not match.
+	 */
+	private boolean checksumMatches(final ByteBuffer... body) {
+		if ((inFlags & FrameHeader.FLAG_CHECKSUM) == 0) {
+			return true;
+		}
+		Crc32c crc32c = new Crc32c();
+		for (ByteBuffer chunk : body) {
+			crc32c.update(chunk);
+		}
+		if ((int) crc32c.getValue() == inChecksum) {
+			return true;
+		}
+		COMM.warn("checksum mismatch for message type " + inType + ", closing the connection");
+		closeAfterReadProblem();
+		return false;
+	}
+
+	/**
+	 * consumes the last message received: its bytes are skipped in the receive
+	 * buffer or its chunks are given back to the pool.
+	 */
+	private void consumeMessage() {
+		if (!inChunks.isEmpty()) {
+			for (ByteBuffer chunk : inChunks) {
+				BufferPool.SHARED.release(chunk);
 			}
+			inChunks.clear();
+		} else {
+			inBuffer.position(inBuffer.position() + inHeaderSize + inSize);
+		}
+		inBody = null;
+		readState = ReadMessageStatus.READ_UNSTARTED;
+	}
+
+	/**
+	 * states whether the receive buffer contains another complete message, that
+	 * is whether the next call to {@link #readMessage()} returns a message without
+	 * reading the channel.
+	 * 
+	 * @return {@code true} when a complete message is buffered.
+	 */
+	public boolean hasBufferedMessage() {
+		if (readState == ReadMessageStatus.CHANNELCLOSED) {
+			return false;
+		}
+		int next = inBuffer.position();
+		if (readState == ReadMessageStatus.READDATACOMPLETED && inChunks.isEmpty()) {
+			next += inHeaderSize + inSize;
+		}
+		try {
+			if (!headerParser.parse(inBuffer, next)) {
+				return false;
+			}
+		} catch (IOException e) {
+			// the next call to readMessage closes the connection
+			return true;
+		}
+		int size = headerParser.getBodySize();
+		return size < 0 || inBuffer.limit() - next - headerParser.getSize() >= size;
+	}
+
+	/**
+	 * closes the channel after a problem when reading, and sets the status
+	 * accordingly.
+	 */
+	private void closeAfterReadProblem() {
+		readState = ReadMessageStatus.CHANNELCLOSED;
+		try {
 			if (LOG_ON && COMM.isTraceEnabled()) {
-				COMM.trace("Position and capacity : " + inBuffers[1].position()
-						+ " " + inBuffers[1].capacity());
+				COMM.trace("Closing a connection");
 			}
-			if (inBuffers[1].position() == inBuffers[1].capacity()) {
-				readState = ReadMessageStatus.READDATACOMPLETED;
+			close();
+		} catch (IOException closeException) {
+			if (LOG_ON && COMM.isTraceEnabled()) {
+				COMM.trace("problem when closing the connection");
 			}
 		}
-		return readState;
 	}
 
 	/**
 	 * returns the Serializable data build out of the data part of the received
-	 * message when the readState is ReadDataCompleted. This operation should be
-	 * stateless for the ByteBuffers, meaning that we can getData and after
-	 * write the ByteBuffer if necessary.
+	 * message when the readState is ReadDataCompleted. The data are decoded with
+	 * the codec of the message type (see {@link MsgCodecs}) directly from the
+	 * receive buffer. This operation is stateless for the ByteBuffers, meaning
+	 * that we can getData several times.
 	 * 
-	 * @return unserialised data.
+	 * @return decoded data.
 	 * @throws IOException
 	 *             the exception thrown in case of problem.
 	 */
 	public Optional<Serializable> getData() throws IOException {
 		Serializable res = null;
 		if (readState == ReadMessageStatus.READDATACOMPLETED) {
-			try {
-				inBuffers[1].flip();
-				byte[] cpBb = new byte[inBuffers[1].limit()];
-				inBuffers[1].get(cpBb);
-				ByteArrayInputStream bi = new ByteArrayInputStream(
-						inBuffers[1].array());
-				ObjectInputStream oi = new ObjectInputStream(bi);
-				res = (Serializable) oi.readObject();
-				oi.close();
-				bi.close();
-			} catch (ClassNotFoundException e) {
-				COMM.warn(e.getLocalizedMessage());
+			if (inChunks.isEmpty()) {
+				res = MsgCodecs.decode(inType, inBody.duplicate(), maxFrameSize);
+			} else if (inChunks.size() == 1) {
+				res = MsgCodecs.decode(inType, inChunks.get(0).duplicate(), maxFrameSize);
+			} else {
+				ByteBuffer body = ByteBuffer.allocate(inSize);
+				for (ByteBuffer chunk : inChunks) {
+					body.put(chunk.duplicate());
+				}
+				body.flip();
+				res = MsgCodecs.decode(inType, body, maxFrameSize);
 			}
 		}
-		inBuffers[1].rewind();
 		assert invariant();
 		return Optional.ofNullable(res);
 	}
 
+	/**
+	 * returns the encoded body of the received message when the readState is
+	 * ReadDataCompleted, without decoding it, e.g. to relay the message. The
+	 * buffers are read-only views, one per chunk of the body, that are valid
+	 * until the next call to {@link #readMessage()}.
+	 * 
+	 * @return the encoded body.
+	 */
+	public Optional<ByteBuffer[]> getRawData() {
+		if (readState != ReadMessageStatus.READDATACOMPLETED) {
+			return Optional.empty();
+		}
+		if (inChunks.isEmpty()) {
+			return Optional.of(new ByteBuffer[] {inBody.asReadOnlyBuffer()});
+		}
+		ByteBuffer[] chunks = new ByteBuffer[inChunks.size()];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i] = inChunks.get(i).asReadOnlyBuffer();
+		}
+		return Optional.of(chunks);
+	}
+
 	/**
 	 * gets the type (an integer) of the last message received.
 	 * 
@@ -386,4 +1394,70 @@ public class FullDuplexMsgWorker {
 	public int getInSeqNumber() {
 		return inSeqNumber;
 	}
+
+	/**
+	 * This class defines a frame waiting in the outbound queue: the reference to
+	 * the frame, which is released when written, and the buffers of this worker
+	 * for writing the frame.
+	 */
+	private static final class PendingFrame {
+		/**
+		 * the frame.
+		 */
+		private final EncodedFrame frame;
+		/**
+		 * the header and the chunks of the body of the frame.
+		 */
+		private final ByteBuffer[] buffers;
+		/**
+		 * the size of the header of the frame, which is the first buffer.
+		 */
+		private final int headerSize;
+
+		/**
+		 * constructs a pending frame.
+		 * 
+		 * @param frame
+		 *            the frame, with a reference taken for this worker.
+		 * @param buffers
+		 *            the buffers for writing the frame.
+		 */
+		PendingFrame(final EncodedFrame frame, final ByteBuffer[] buffers) {
+			this.frame = frame;
+			this.buffers = buffers;
+			this.headerSize = buffers[0].remaining();
+		}
+
+		/**
+		 * states whether a part of the frame has been written.
+		 * 
+		 * @return {@code true} when a part of the frame has been written.
+		 */
+		boolean isStarted() {
+			return buffers[0].remaining() != headerSize;
+		}
+
+		/**
+		 * states whether the frame has been entirely written.
+		 * 
+		 * @return {@code true} when entirely written.
+		 */
+		boolean isWritten() {
+			return firstUnwritten() == buffers.length;
+		}
+
+		/**
+		 * gets the index of the first buffer that has not been entirely written.
+		 * The buffers are written in order by the gathering writes.
+		 * 
+		 * @return the index, or the number of buffers when entirely written.
+		 */
+		int firstUnwritten() {
+			int i = 0;
+			while (i < buffers.length && !buffers[i].hasRemaining()) {
+				i++;
+			}
+			return i;
+		}
+	}
 }
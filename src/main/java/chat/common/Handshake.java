@@ -0,0 +1,92 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class defines the handshake of the connections between servers. The
+ * server that opens a connection sends a handshake message containing the
+ * capabilities it supports, as a bit set; the server that accepts the
+ * connection answers with its own capabilities, and both use the capabilities
+ * supported by both (see {@link FullDuplexMsgWorker#receiveHandshake(int, int)}).
+ * A server that supports no optional capability sends no handshake, so that it
+ * stays compatible with the servers that do not know the handshake. The same
+ * codec is used by the message with which a server that shuts down gracefully
+ * announces to its neighbours that it leaves (see {@link #TYPE_LEAVE}).
+ *
+ * @author agent
+ */
+public final class Handshake {
+	/**
+	 * the message type of the handshake. It is negative so that it does not
+	 * collide with the message types of the algorithms.
+	 */
+	public static final int TYPE_HANDSHAKE = -1;
+	/**
+	 * the message type of the announce of a server that leaves. The content is
+	 * the identity of the server. The neighbours stop forwarding messages to the
+	 * server, and go on reading the messages it still sends until it closes the
+	 * connection.
+	 */
+	public static final int TYPE_LEAVE = -2;
+	/**
+	 * the capability of receiving compressed bodies (see
+	 * {@link FrameCompression}).
+	 */
+	public static final int CAPABILITY_COMPRESSION = 1;
+	/**
+	 * the capability of receiving version 2 headers (see {@link FrameHeader}).
+	 */
+	public static final int CAPABILITY_HEADER_V2 = 2;
+	/**
+	 * the capability of receiving the checksum of the bodies in version 2
+	 * headers (see {@link FrameHeader#FLAG_CHECKSUM}).
+	 */
+	public static final int CAPABILITY_CHECKSUM = 4;
+	/**
+	 * the codec of the content of the handshake message, that is the
+	 * capabilities, and of the leave message, that is the identity.
+	 */
+	public static final MsgCodec<Integer> CODEC = new MsgCodec<Integer>() {
+		@Override
+		public Class<Integer> contentClass() {
+			return Integer.class;
+		}
+
+		@Override
+		public void encode(final Integer content, final ByteBuffer out) {
+			MsgCodecs.putVarInt(out, content);
+		}
+
+		@Override
+		public Integer decode(final ByteBuffer in) {
+			return MsgCodecs.getVarInt(in);
+		}
+	};
+
+	/**
+	 * Utility classes must not have a default or public constructor.
+	 */
+	private Handshake() {
+	}
+}
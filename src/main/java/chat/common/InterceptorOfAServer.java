@@ -24,24 +24,29 @@ package chat.common;
 import static chat.common.Log.INTERCEPT;
 import static chat.common.Log.LOG_ON;
 
+import java.nio.channels.SelectionKey;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.function.Consumer;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 import chat.server.Server;
 
 /**
  * This class contains the interceptor for a server. The method
- * {@link #doIntercept(Optional) #doIntercept(Optional&lt;MsgContent&gt;)} is
+ * {@link #doIntercept(SelectionKey, Optional) #doIntercept(SelectionKey,
+ * Optional&lt;MsgContent&gt;)} is
  * called before the message receipt, and more precisely from the method
- * {@link ServerInterceptors#intercept(Server, Optional)
- * ServerInterceptors#intercept(Server, Optional&lt;MsgContent&gt;)}. A message
+ * {@link ServerInterceptors#intercept(Server, SelectionKey, Optional)
+ * ServerInterceptors#intercept(Server, SelectionKey, Optional&lt;MsgContent&gt;)}. A message
  * is intercepted when the lambda expression of method reference
  * {@link #conditionForIntercepting} returns {@code true}. If so, a
  * {@link TreatDelayedMessageToAServer} thread is created and started that will
- * later run the lambda expression of the method reference
- * {@link #treatmentOfADelayedMsg} if the method reference returns {@code true}.
+ * later submit to the executor of the algorithms the lambda expression of the
+ * method reference {@link #treatmentOfADelayedMsg} if the method reference
+ * returns {@code true}. The methods of the interceptor are thus executed by
+ * the executor of the algorithms, which owns the state of the algorithms, and
+ * do not take the monitor of the server.
  * 
  * @param <C>
  *            the type of the message to intercept.
@@ -59,20 +64,20 @@ public class InterceptorOfAServer<C extends MsgContent> {
 	private final Server server;
 	/**
 	 * the function method reference for deciding whether a message must be delayed.
-	 * The synchronisation is made into the methods that call this function.
+	 * The function is applied by the executor of the algorithms.
 	 */
 	private final Function<C, Boolean> conditionForIntercepting;
 	/**
 	 * the function method reference for deciding when the treatment of the message
-	 * must be applied. The synchronisation is made into the methods that call this
-	 * function.
+	 * must be applied. The function is applied by the executor of the algorithms.
 	 */
 	private final Function<C, Boolean> conditionForExecuting;
 	/**
-	 * the consumer method reference for the treatment of the delayed messages. The
-	 * synchronisation is made into the methods that call this function.
+	 * the consumer method reference for the treatment of the delayed messages,
+	 * given the selection key of the connection from which the message has been
+	 * received. The consumer is applied by the executor of the algorithms.
 	 */
-	private final Consumer<C> treatmentOfADelayedMsg;
+	private final BiConsumer<SelectionKey, C> treatmentOfADelayedMsg;
 
 	/**
 	 * constructs an interceptor for the given server.
@@ -93,7 +98,7 @@ public class InterceptorOfAServer<C extends MsgContent> {
 	 */
 	public InterceptorOfAServer(final String name, final Server server,
 			final Function<C, Boolean> conditionForIntercepting, final Function<C, Boolean> conditionForExecuting,
-			final Consumer<C> treatmentOfADelayedMsg) {
+			final BiConsumer<SelectionKey, C> treatmentOfADelayedMsg) {
 		Objects.requireNonNull(name, "argument name cannot be null");
 		if ("".equals(name)) {
 			throw new IllegalArgumentException("argument name cannot be empty string");
@@ -144,63 +149,68 @@ public class InterceptorOfAServer<C extends MsgContent> {
 	 * the delivering/treatment of the message (return an empty {@code Optional}) or
 	 * return the same message.
 	 * 
+	 * @param key
+	 *            the selection key of the connection from which the message has
+	 *            been received, which is kept with the delayed message.
 	 * @param msg
 	 *            the message to intercept.
 	 * @return the message, if no intercepted.
 	 */
 	@SuppressWarnings("unchecked") // due to (unsafe) downcast in Function.apply
-	public Optional<C> doIntercept(final Optional<MsgContent> msg) {
+	public Optional<C> doIntercept(final SelectionKey key, final Optional<MsgContent> msg) {
+		Objects.requireNonNull(key, "argument key cannot be null");
 		Objects.requireNonNull(msg, "argument content cannot be null");
-		synchronized (server) {
-			// TODO avoid testing cast using exception
-			try {
-				if (msg.isPresent() && conditionForIntercepting.apply((C) msg.get())) {
-					new Thread(new TreatDelayedMessageToAServer<C>(this, server, (C) msg.get())).start();
-					if (LOG_ON && INTERCEPT.isInfoEnabled()) {
-						INTERCEPT.info("interceptor " + name + " at server " + server.getIdentity()
-								+ " intercepts message: " + msg.get());
-					}
-					return Optional.empty();
-				} else {
-					return Optional.ofNullable((C) msg.orElse(null));
+		// TODO avoid testing cast using exception
+		try {
+			if (msg.isPresent() && conditionForIntercepting.apply((C) msg.get())) {
+				new Thread(new TreatDelayedMessageToAServer<C>(this, server, key, (C) msg.get())).start();
+				if (LOG_ON && INTERCEPT.isInfoEnabled()) {
+					INTERCEPT.info("interceptor " + name + " at server " + server.getIdentity()
+							+ " intercepts message: " + msg.get());
 				}
-			} catch (Exception e) {
+				return Optional.empty();
+			} else {
 				return Optional.ofNullable((C) msg.orElse(null));
 			}
+		} catch (Exception e) {
+			return Optional.ofNullable((C) msg.orElse(null));
 		}
 	}
 
 	/**
-	 * launches the treatment of the delayed message. This method is a delegate from
-	 * method {@link TreatDelayedMessageToAServer#run()}.
+	 * launches the treatment of the delayed message. This method is submitted to
+	 * the executor of the algorithms by method
+	 * {@link TreatDelayedMessageToAServer#run()}.
 	 * 
+	 * @param key
+	 *            the selection key of the connection from which the delayed
+	 *            message has been received.
 	 * @param content
 	 *            the content of the delayed message.
 	 * @return {@code true} when the treatment has been applied and the calling
 	 *         thread can end its execution.
 	 */
-	public boolean doTreatDelayedMessage(final C content) {
+	public boolean doTreatDelayedMessage(final SelectionKey key, final C content) {
+		Objects.requireNonNull(key, "argument key cannot be null");
 		Objects.requireNonNull(content, "null content");
-		synchronized (server) {
-			if (this.conditionForExecuting.apply((C) content)) {
-				try {
-					treatmentOfADelayedMsg.accept((C) content);
-					if (LOG_ON && INTERCEPT.isInfoEnabled()) {
-						INTERCEPT.info("treatment by server interceptor " + name + ": " + content);
-					}
-				} catch (ClassCastException e) {
-					if (LOG_ON) {
-						INTERCEPT.warn(
-								"class cast exception when executing by client interceptor " + name + ": " + content);
-					}
+		if (this.conditionForExecuting.apply((C) content)) {
+			try {
+				treatmentOfADelayedMsg.accept(key, (C) content);
+				if (LOG_ON && INTERCEPT.isInfoEnabled()) {
+					INTERCEPT.info("treatment by server interceptor " + name + ": " + content);
 				}
-				return true;
-			} else {
-				if (LOG_ON && INTERCEPT.isDebugEnabled()) {
-					INTERCEPT.debug("bad condition for executing by server interceptor " + name + ": " + content);
+			} catch (ClassCastException e) {
+				if (LOG_ON) {
+					INTERCEPT.warn(
+							"class cast exception when executing by client interceptor " + name + ": " + content);
 				}
-				return false;
 			}
+			return true;
+		} else {
+			if (LOG_ON && INTERCEPT.isDebugEnabled()) {
+				INTERCEPT.debug("bad condition for executing by server interceptor " + name + ": " + content);
+			}
+			return false;
 		}
 	}
 
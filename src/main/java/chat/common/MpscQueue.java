@@ -0,0 +1,158 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.common;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class defines a bounded queue for several producers and one consumer,
+ * without lock. The elements are stored in a ring whose slots carry a sequence
+ * number: a producer reserves a slot by incrementing the tail with a
+ * compare-and-set and then publishes the element by advancing the sequence
+ * number of the slot; the consumer takes the element once the sequence number
+ * says that the slot is published. The capacity is rounded up to a power of
+ * two.
+ *
+ * The method {@link #offer(Object)} can be called by any thread, and the method
+ * {@link #poll()} must only be called by the consumer thread.
+ *
+ * @author agent
+ *
+ * @param <E>
+ *            the type of the elements.
+ */
+public final class MpscQueue<E> {
+	/**
+	 * the elements.
+	 */
+	private final AtomicReferenceArray<E> elements;
+	/**
+	 * the sequence numbers of the slots. A slot can be written by the producer
+	 * that has reserved the position {@code p} when its sequence number is
+	 * {@code p}, and can be read by the consumer when it is {@code p + 1}.
+	 */
+	private final AtomicLongArray sequences;
+	/**
+	 * the mask for computing the slot of a position.
+	 */
+	private final int mask;
+	/**
+	 * the next position to be reserved by a producer.
+	 */
+	private final AtomicLong tail = new AtomicLong();
+	/**
+	 * the next position to be read by the consumer. It is only written by the
+	 * consumer, and is volatile for {@link #size()}.
+	 */
+	private volatile long head = 0;
+
+	/**
+	 * constructs an empty queue.
+	 *
+	 * @param capacity
+	 *            the minimum capacity.
+	 */
+	public MpscQueue(final int capacity) {
+		if (capacity <= 0 || capacity > (1 << 30)) {
+			throw new IllegalArgumentException("invalid capacity (" + capacity + ")");
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		elements = new AtomicReferenceArray<>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * gets the capacity of the queue.
+	 *
+	 * @return the capacity.
+	 */
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * gets the number of elements in the queue. The value is approximate when the
+	 * queue is modified concurrently.
+	 *
+	 * @return the number of elements.
+	 */
+	public int size() {
+		long size = tail.get() - head;
+		return (int) Math.max(0, Math.min(size, capacity()));
+	}
+
+	/**
+	 * adds an element at the end of the queue, if the queue is not full.
+	 *
+	 * @param element
+	 *            the element.
+	 * @return {@code false} when the queue is full.
+	 */
+	public boolean offer(final E element) {
+		Objects.requireNonNull(element, "argument element cannot be null");
+		while (true) {
+			long position = tail.get();
+			int slot = (int) position & mask;
+			long difference = sequences.get(slot) - position;
+			if (difference == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					elements.lazySet(slot, element);
+					sequences.set(slot, position + 1);
+					return true;
+				}
+			} else if (difference < 0) {
+				// the slot has not been read yet since the previous round
+				return false;
+			}
+			// another producer has reserved the position, retry with the next one
+		}
+	}
+
+	/**
+	 * removes the first element of the queue. This method must only be called by
+	 * the consumer thread.
+	 *
+	 * @return the element, or {@code null} when the queue is empty.
+	 */
+	public E poll() {
+		long position = head;
+		int slot = (int) position & mask;
+		if (sequences.get(slot) != position + 1) {
+			return null;
+		}
+		E element = elements.get(slot);
+		elements.lazySet(slot, null);
+		sequences.set(slot, position + capacity());
+		head = position + 1;
+		return element;
+	}
+}
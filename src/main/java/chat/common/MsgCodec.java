@@ -0,0 +1,67 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.common;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+/**
+ * This interface defines a hand-written binary encoder/decoder for the content
+ * of a message type. Codecs are registered in {@link MsgCodecs} with the message
+ * type that is carried in the header of the messages; the message types for
+ * which no codec is registered are sent with the Java serialisation.
+ *
+ * @param <T>
+ *            the type of the content.
+ *
+ * @author agent
+ */
+public interface MsgCodec<T extends Serializable> {
+	/**
+	 * gets the type of the content that this codec encodes.
+	 *
+	 * @return the type of the content.
+	 */
+	Class<T> contentClass();
+
+	/**
+	 * encodes the content into the byte buffer. If the buffer is too small, a
+	 * {@link java.nio.BufferOverflowException} is thrown and the caller retries
+	 * with a bigger buffer.
+	 *
+	 * @param content
+	 *            the content to encode.
+	 * @param out
+	 *            the buffer to write into.
+	 */
+	void encode(T content, ByteBuffer out);
+
+	/**
+	 * decodes a content from the byte buffer, that is positioned at the beginning
+	 * of the content.
+	 *
+	 * @param in
+	 *            the buffer to read from.
+	 * @return the content.
+	 */
+	T decode(ByteBuffer in);
+}
@@ -0,0 +1,329 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import chat.client.algorithms.chat.ChatMsgContent;
+import chat.server.algorithms.election.ElectionLeaderContent;
+import chat.server.algorithms.election.ElectionTokenContent;
+import chat.server.algorithms.mutex.MutexRequestContent;
+import chat.server.algorithms.mutex.MutexTokenContent;
+
+/**
+ * This class contains the registry of the codecs of the message contents. The
+ * codecs are keyed by the message type that is carried in the header of the
+ * messages. The body of a message starts with a tag byte stating whether the
+ * content has been encoded with the codec of the message type or with the Java
+ * serialisation, the latter being used for the message types without codec
+ * and for the contents that are not instances of the class of the codec (e.g.
+ * the identity that is sent to a new client with the message type {@code 0}).
+ * The bodies may also be compressed (see {@link FrameCompression}).
+ *
+ * @author agent
+ */
+public final class MsgCodecs {
+	/**
+	 * tag of a body that contains a serialised object.
+	 */
+	public static final byte BODY_SERIALIZED = 0;
+	/**
+	 * tag of a body that has been encoded with the codec of the message type.
+	 */
+	public static final byte BODY_CODEC = 1;
+	/**
+	 * initial size of the buffers used for encoding.
+	 */
+	private static final int INITIAL_SCRATCH_SIZE = 1024;
+	/**
+	 * the collection of the codecs, keyed by message type.
+	 */
+	private static final Map<Integer, MsgCodec<?>> CODECS = new HashMap<>();
+	/**
+	 * the buffer used for encoding, one per thread so that several threads can
+	 * send messages concurrently.
+	 */
+	private static final ThreadLocal<ByteBuffer> SCRATCH = ThreadLocal
+			.withInitial(() -> ByteBuffer.allocate(INITIAL_SCRATCH_SIZE));
+
+	/**
+	 * static block to register the codecs of the contents of the algorithms.
+	 */
+	static {
+		register(chat.client.algorithms.chat.Action.CHAT_MESSAGE.identifier(), ChatMsgContent.CODEC);
+		register(chat.server.algorithms.election.Action.TOKEN_MESSAGE.identifier(), ElectionTokenContent.CODEC);
+		register(chat.server.algorithms.election.Action.LEADER_MESSAGE.identifier(), ElectionLeaderContent.CODEC);
+		register(chat.server.algorithms.mutex.Action.REQUEST_MESSAGE.identifier(), MutexRequestContent.CODEC);
+		register(chat.server.algorithms.mutex.Action.TOKEN_MESSAGE.identifier(), MutexTokenContent.CODEC);
+		register(Handshake.TYPE_HANDSHAKE, Handshake.CODEC);
+		register(Handshake.TYPE_LEAVE, Handshake.CODEC);
+		register(chat.server.StampedChatContent.TYPE_STAMPED_CHAT, chat.server.StampedChatContent.CODEC);
+	}
+
+	/**
+	 * Utility classes must not have a default or public constructor.
+	 */
+	private MsgCodecs() {
+	}
+
+	/**
+	 * registers the codec of a message type, replacing the existing one if any.
+	 *
+	 * @param type
+	 *            the message type.
+	 * @param codec
+	 *            the codec.
+	 */
+	public static synchronized void register(final int type, final MsgCodec<?> codec) {
+		Objects.requireNonNull(codec, "argument codec cannot be null");
+		CODECS.put(type, codec);
+	}
+
+	/**
+	 * gets the codec of a message type.
+	 *
+	 * @param type
+	 *            the message type.
+	 * @return the codec or {@code null} if none is registered.
+	 */
+	private static synchronized MsgCodec<?> codecOf(final int type) {
+		return CODECS.get(type);
+	}
+
+	/**
+	 * encodes the body of a message. The returned buffer is ready to be read and
+	 * is only valid until the next call to this method by the same thread.
+	 *
+	 * @param type
+	 *            the message type.
+	 * @param content
+	 *            the content of the message.
+	 * @return the buffer containing the body.
+	 * @throws IOException
+	 *             the exception thrown in case of serialisation problem.
+	 */
+	public static ByteBuffer encode(final int type, final Serializable content) throws IOException {
+		Objects.requireNonNull(content, "argument content cannot be null");
+		MsgCodec<?> codec = codecOf(type);
+		if (codec == null || !codec.contentClass().isInstance(content)) {
+			return encodeSerialized(content);
+		}
+		ByteBuffer scratch = SCRATCH.get();
+		while (true) {
+			scratch.clear();
+			try {
+				scratch.put(BODY_CODEC);
+				encodeWith(codec, content, scratch);
+				scratch.flip();
+				return scratch;
+			} catch (BufferOverflowException e) {
+				scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+				SCRATCH.set(scratch);
+			}
+		}
+	}
+
+	/**
+	 * encodes the content with the given codec. This method captures the type of
+	 * the codec.
+	 *
+	 * @param <T>
+	 *            the type of the content.
+	 * @param codec
+	 *            the codec.
+	 * @param content
+	 *            the content, which is an instance of the class of the codec.
+	 * @param out
+	 *            the buffer to write into.
+	 */
+	private static <T extends Serializable> void encodeWith(final MsgCodec<T> codec, final Serializable content,
+			final ByteBuffer out) {
+		codec.encode(codec.contentClass().cast(content), out);
+	}
+
+	/**
+	 * encodes the body of a message with the Java serialisation.
+	 *
+	 * @param content
+	 *            the content of the message.
+	 * @return the buffer containing the body.
+	 * @throws IOException
+	 *             the exception thrown in case of serialisation problem.
+	 */
+	private static ByteBuffer encodeSerialized(final Serializable content) throws IOException {
+		ByteArrayOutputStream bo = new ByteArrayOutputStream();
+		bo.write(BODY_SERIALIZED);
+		try (ObjectOutputStream oo = new ObjectOutputStream(bo)) {
+			oo.writeObject(content);
+		}
+		return ByteBuffer.wrap(bo.toByteArray());
+	}
+
+	/**
+	 * decodes the body of a message. The buffer is read from its position to its
+	 * limit.
+	 *
+	 * @param type
+	 *            the message type.
+	 * @param body
+	 *            the buffer containing the body.
+	 * @return the content of the message.
+	 * @throws IOException
+	 *             the exception thrown in case of malformed body.
+	 */
+	public static Serializable decode(final int type, final ByteBuffer body) throws IOException {
+		return decode(type, body, FrameCompression.MAX_UNCOMPRESSED_SIZE);
+	}
+
+	/**
+	 * decodes the body of a message whose uncompressed size is bounded, e.g. by
+	 * the maximum size of the frames of the connection from which it has been
+	 * received. The buffer is read from its position to its limit.
+	 *
+	 * @param type
+	 *            the message type.
+	 * @param body
+	 *            the buffer containing the body.
+	 * @param maxUncompressedSize
+	 *            the maximum size of the body once uncompressed.
+	 * @return the content of the message.
+	 * @throws IOException
+	 *             the exception thrown in case of malformed body.
+	 */
+	public static Serializable decode(final int type, final ByteBuffer body, final int maxUncompressedSize)
+			throws IOException {
+		Objects.requireNonNull(body, "argument body cannot be null");
+		if (!body.hasRemaining()) {
+			throw new IOException("empty body for message type " + type);
+		}
+		if (FrameCompression.isCompressed(body)) {
+			return decode(type, FrameCompression.decompress(body, maxUncompressedSize));
+		}
+		byte tag = body.get();
+		if (tag == BODY_CODEC) {
+			MsgCodec<?> codec = codecOf(type);
+			if (codec == null) {
+				throw new IOException("no codec for message type " + type);
+			}
+			try {
+				return codec.decode(body);
+			} catch (RuntimeException e) {
+				throw new IOException("malformed body for message type " + type, e);
+			}
+		}
+		if (tag != BODY_SERIALIZED) {
+			throw new IOException("unknown body tag " + tag);
+		}
+		byte[] bytes = new byte[body.remaining()];
+		body.get(bytes);
+		try (ObjectInputStream oi = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return (Serializable) oi.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException(e.getLocalizedMessage(), e);
+		}
+	}
+
+	/**
+	 * writes an integer with a variable length encoding: 7 bits per byte, the
+	 * high bit stating whether another byte follows. Small positive integers,
+	 * such as identities and sequence numbers, take one or two bytes.
+	 *
+	 * @param out
+	 *            the buffer to write into.
+	 * @param value
+	 *            the value to write.
+	 */
+	public static void putVarInt(final ByteBuffer out, final int value) {
+		int v = value;
+		while ((v & ~0x7F) != 0) {
+			out.put((byte) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.put((byte) v);
+	}
+
+	/**
+	 * reads an integer written with {@link #putVarInt(ByteBuffer, int)}.
+	 *
+	 * @param in
+	 *            the buffer to read from.
+	 * @return the value.
+	 */
+	public static int getVarInt(final ByteBuffer in) {
+		int value = 0;
+		for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+			byte b = in.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("malformed variable length integer");
+	}
+
+	/**
+	 * writes a string as its length followed by its UTF-8 bytes.
+	 *
+	 * @param out
+	 *            the buffer to write into.
+	 * @param value
+	 *            the string to write.
+	 */
+	public static void putString(final ByteBuffer out, final String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		putVarInt(out, bytes.length);
+		out.put(bytes);
+	}
+
+	/**
+	 * reads a string written with {@link #putString(ByteBuffer, String)}.
+	 *
+	 * @param in
+	 *            the buffer to read from.
+	 * @return the string.
+	 */
+	public static String getString(final ByteBuffer in) {
+		int length = getVarInt(in);
+		if (length < 0 || length > in.remaining()) {
+			throw new IllegalArgumentException("invalid string length (" + length + ")");
+		}
+		if (in.hasArray()) {
+			String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+			in.position(in.position() + length);
+			return value;
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -1,8 +1,10 @@
 package chat.common;
 
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.stream.Collectors;
@@ -151,6 +153,38 @@ public class RequestVector implements Serializable {
 		Set<Integer> map2 = infMap(toKey);
 		return Stream.concat(map1.stream(), map2.stream()).collect(Collectors.toSet());
 	}
+	/**
+	 * writes the request vector in its binary form: the number of entries
+	 * followed by the pairs (identity, clock value), see {@link MsgCodecs}.
+	 * 
+	 * @param out
+	 *            the buffer to write into.
+	 */
+	public void writeTo(final ByteBuffer out) {
+		MsgCodecs.putVarInt(out, sortedVector.size());
+		for (Map.Entry<Integer, Integer> entry : sortedVector.entrySet()) {
+			MsgCodecs.putVarInt(out, entry.getKey());
+			MsgCodecs.putVarInt(out, entry.getValue());
+		}
+	}
+
+	/**
+	 * reads a request vector written with {@link #writeTo(ByteBuffer)}.
+	 * 
+	 * @param in
+	 *            the buffer to read from.
+	 * @return the request vector.
+	 */
+	public static RequestVector readFrom(final ByteBuffer in) {
+		RequestVector result = new RequestVector();
+		int size = MsgCodecs.getVarInt(in);
+		for (int i = 0; i < size; i++) {
+			int key = MsgCodecs.getVarInt(in);
+			result.setEntry(key, MsgCodecs.getVarInt(in));
+		}
+		return result;
+	}
+
 	@Override
 	public String toString() {
 		return sortedVector.toString();
@@ -21,13 +21,14 @@ Contributor(s):
  */
 package chat.common;
 
+import java.nio.channels.SelectionKey;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.function.Consumer;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 
 import chat.server.Server;
@@ -36,10 +37,10 @@ import chat.server.Server;
  * This class contains the interception of the calls to the actions to receive
  * messages in the server. The behaviour is controlled by the boolean constant
  * {@link #interceptionEnabled}. When set, the default method
- * {@link chat.common.ActionOfAServer#executeOrIntercept(Server, MsgContent)}
+ * {@link chat.common.ActionOfAServer#executeOrIntercept(Server, SelectionKey, MsgContent)}
  * redirects the receipt of the message to the static method
- * {@link #intercept(Server, Optional) #intercept(Server,
- * Optional&lt;MsgContent&gt;)}. The latter method loops on all the
+ * {@link #intercept(Server, SelectionKey, Optional) #intercept(Server,
+ * SelectionKey, Optional&lt;MsgContent&gt;)}. The latter method loops on all the
  * interceptors, which are stored on the static collection
  * {@link #INTERCEPTORS}. Each interceptor may intercept the message, that is
  * may delay its receipt.
@@ -51,7 +52,7 @@ public final class ServerInterceptors {
 	/**
 	 * states whether some non-determinism is introduced to test distributed
 	 * algorithms. This is done by re-routing in the default method
-	 * {@link chat.common.ActionOfAServer#executeOrIntercept(Server, MsgContent)}.
+	 * {@link chat.common.ActionOfAServer#executeOrIntercept(Server, SelectionKey, MsgContent)}.
 	 */
 	private static boolean interceptionEnabled = false;
 
@@ -102,11 +103,12 @@ public final class ServerInterceptors {
 	 *            the message must be applied now.
 	 * @param treatmentOfADelayedMsg
 	 *            the consumer lambda that perform the treatment on delayed
-	 *            messages.
+	 *            messages, given the selection key of the connection from which
+	 *            the message has been received.
 	 */
 	public static <C extends MsgContent> void addAnInterceptor(final String name, final Server server,
 			final Function<C, Boolean> conditionForIntercepting, final Function<C, Boolean> conditionForExecuting,
-			final Consumer<C> treatmentOfADelayedMsg) {
+			final BiConsumer<SelectionKey, C> treatmentOfADelayedMsg) {
 		Objects.requireNonNull(name, "argument name cannot be null");
 		if ("".equals(name)) {
 			throw new IllegalArgumentException("argument name cannot be empty string");
@@ -124,27 +126,31 @@ public final class ServerInterceptors {
 
 	/**
 	 * This method is called by the default method
-	 * {@link chat.common.ActionOfAServer#executeOrIntercept(Server, MsgContent)}
+	 * {@link chat.common.ActionOfAServer#executeOrIntercept(Server, SelectionKey, MsgContent)}
 	 * when the interception mechanism is activated, that is
 	 * {@link #isInterceptionEnabled} is {@code true}. The method loops on the
 	 * collection of interceptors and apply the method
-	 * {@link InterceptorOfAServer#doIntercept(Optional)
-	 * InterceptorOfAServer#doIntercept(Optional&lt;MsgContent&gt;)} of
+	 * {@link InterceptorOfAServer#doIntercept(SelectionKey, Optional)
+	 * InterceptorOfAServer#doIntercept(SelectionKey, Optional&lt;MsgContent&gt;)} of
 	 * interceptors. The role of the latter method is to intercept the message, that
 	 * is to delay the delivering/treatment of the message.
 	 * 
 	 * @param server
 	 *            the reference to the server.
+	 * @param key
+	 *            the selection key of the connection from which the message has
+	 *            been received.
 	 * @param msg
 	 *            the message to treat.
 	 * @return the message, if no intercepted.
 	 */
-	public static Optional<MsgContent> intercept(final Server server, final Optional<MsgContent> msg) {
+	public static Optional<MsgContent> intercept(final Server server, final SelectionKey key,
+			final Optional<MsgContent> msg) {
 		Objects.requireNonNull(server, "argument server cannot be null");
 		List<InterceptorOfAServer<? extends MsgContent>> listOfInterceptors = INTERCEPTORS.getOrDefault(server,
 				Collections.emptyList());
 		for (InterceptorOfAServer<? extends MsgContent> interceptor : listOfInterceptors) {
-			if (msg.isPresent() && !interceptor.doIntercept(msg).isPresent()) {
+			if (msg.isPresent() && !interceptor.doIntercept(key, msg).isPresent()) {
 				return Optional.empty();
 			}
 		}
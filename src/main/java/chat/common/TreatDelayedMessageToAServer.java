@@ -25,13 +25,16 @@ import static chat.common.Log.LOG_ON;
 import static chat.common.Log.GEN;
 import static chat.common.Log.TEST;
 
+import java.nio.channels.SelectionKey;
 import java.util.Objects;
 
 import chat.server.Server;
 
 /**
  * This class is a runnable for the treatment of a message that has been delayed
- * by a server interceptor.
+ * by a server interceptor. The thread only waits: the treatment is submitted to
+ * the executor of the algorithms of the server, and is submitted again after
+ * the delay until it has been applied.
  * 
  * @author Denis Conan
  *
@@ -47,6 +50,11 @@ public class TreatDelayedMessageToAServer<C extends MsgContent> implements Runna
 	 * the entity that has to receive this delayed message.
 	 */
 	private final Server server;
+	/**
+	 * the selection key of the connection from which the message has been
+	 * received.
+	 */
+	private final SelectionKey key;
 	/**
 	 * the content of the message.
 	 */
@@ -55,6 +63,12 @@ public class TreatDelayedMessageToAServer<C extends MsgContent> implements Runna
 	 * the delay.
 	 */
 	private static final long DELAY = 100;
+	/**
+	 * states whether the treatment has been applied. The attribute is written by
+	 * the executor of the algorithms, so that a treatment submitted twice is
+	 * applied once.
+	 */
+	private volatile boolean treated = false;
 
 	/**
 	 * the constructor.
@@ -63,22 +77,26 @@ public class TreatDelayedMessageToAServer<C extends MsgContent> implements Runna
 	 *            the reference to the interceptor.
 	 * @param server
 	 *            the reference to the server.
+	 * @param key
+	 *            the selection key of the connection from which the message has
+	 *            been received.
 	 * @param content
 	 *            the content of the delayed message.
 	 */
 	public TreatDelayedMessageToAServer(final InterceptorOfAServer<C> interceptor, final Server server,
-			final C content) {
+			final SelectionKey key, final C content) {
 		Objects.requireNonNull(interceptor, "argument interceptor cannot be null");
 		Objects.requireNonNull(server, "argument client cannot be null");
+		Objects.requireNonNull(key, "argument key cannot be null");
 		Objects.requireNonNull(content, "argument content cannot be null");
 		this.interceptor = interceptor;
 		this.server = server;
+		this.key = key;
 		this.content = content;
 	}
 
 	@Override
 	public void run() {
-		boolean quit = false;
 		do {
 			try {
 				Thread.sleep(DELAY);
@@ -88,12 +106,22 @@ public class TreatDelayedMessageToAServer<C extends MsgContent> implements Runna
 			    Thread.currentThread().interrupt();
 				return;
 			}
-			synchronized (server) {
-				if (LOG_ON && TEST.isTraceEnabled()) {
-					TEST.trace("delayed message: " + content);
-				}
-				quit = interceptor.doTreatDelayedMessage(content);
+			if (!server.getAlgorithmExecutor().submit(this::treat)) {
+				return;
+			}
+		} while (!treated);
+	}
+
+	/**
+	 * treats the delayed message if not already done. This method is executed by
+	 * the executor of the algorithms.
+	 */
+	private void treat() {
+		if (!treated) {
+			if (LOG_ON && TEST.isTraceEnabled()) {
+				TEST.trace("delayed message: " + content);
 			}
-		} while (!quit);
+			treated = interceptor.doTreatDelayedMessage(key, content);
+		}
 	}
 }
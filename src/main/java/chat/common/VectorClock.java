@@ -21,15 +21,22 @@ Contributor(s):
  */
 package chat.common;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
 
 /**
- * This class defines a vector clock with a Map. A vector clock is serializable
- * to be inserted in messages and is cloneable for copying to/from messages.
+ * This class defines a vector clock with two arrays of integers: the identities
+ * of the processes, sorted in the increasing order, and the values of their
+ * clocks. The identities are mapped to the slots of the arrays, so that sparse
+ * identities, e.g. 100, 101 and 200, use three slots. The comparisons walk the
+ * two sorted arrays together and allocate no object. A vector clock is
+ * serializable to be inserted in messages and is cloneable for copying to/from
+ * messages.
  * 
  * NB: according to Fidge 1991, "each pair consists of a process instance
  * identifier and a numerical counter value representing the value of the
@@ -42,36 +49,53 @@ public class VectorClock implements Serializable {
 	/**
 	 * serial version unique identifier for serialization.
 	 */
-	private static final long serialVersionUID = 2L;
+	private static final long serialVersionUID = 3L;
 	/**
-	 * the map of the vector clock. The key is the identity (integer) of the process
-	 * and the object is the value (integer) of the clock of the process.
+	 * the initial number of slots of the arrays.
 	 */
-	private Map<Integer, Integer> vector;
+	private static final int INITIAL_CAPACITY = 4;
+	/**
+	 * the identities of the processes, sorted in the increasing order. Only the
+	 * first {@link #size} slots are used.
+	 */
+	private transient int[] ids;
+	/**
+	 * the values of the clocks of the processes, in the slots of their
+	 * identities.
+	 */
+	private transient int[] values;
+	/**
+	 * the number of used slots.
+	 */
+	private transient int size;
 
 	/**
-	 * the constructor with an empty {@link java.util.Map}.
+	 * the constructor with no entry.
 	 */
 	public VectorClock() {
-		vector = new HashMap<>();
+		ids = new int[INITIAL_CAPACITY];
+		values = new int[INITIAL_CAPACITY];
+		size = 0;
 		assert invariant();
 	}
 
 	/**
-	 * the constructor with a {@link java.util.Map} built as a clone of an existing
-	 * object.
+	 * the constructor with the entries copied from an existing object.
 	 * 
 	 * @param vectorClock
 	 *            the origin object to clone.
 	 */
 	public VectorClock(final VectorClock vectorClock) {
-		vector = new HashMap<>(vectorClock.vector);
+		int capacity = Math.max(INITIAL_CAPACITY, vectorClock.size);
+		ids = Arrays.copyOf(vectorClock.ids, capacity);
+		values = Arrays.copyOf(vectorClock.values, capacity);
+		size = vectorClock.size;
 		assert invariant();
 	}
 
 	/**
 	 * checks the invariant of the class: scalar clock are greater than or equal to
-	 * 0.
+	 * 0, and the identities are sorted in the strictly increasing order.
 	 * 
 	 * NB: the method is final so that the method is not overridden in potential
 	 * subclasses because it is called in the constructor.
@@ -79,13 +103,37 @@ public class VectorClock implements Serializable {
 	 * @return a boolean stating whether the invariant is maintained.
 	 */
 	public final boolean invariant() {
-		boolean result = true;
-		for (Integer value : vector.values()) {
-			if (value.intValue() < 0) {
+		if (ids == null || values == null || ids.length != values.length || size < 0 || size > ids.length) {
+			return false;
+		}
+		for (int i = 0; i < size; i++) {
+			if (ids[i] < 0 || values[i] < 0 || (i > 0 && ids[i - 1] >= ids[i])) {
 				return false;
 			}
 		}
-		return result;
+		return true;
+	}
+
+	/**
+	 * gets the slot of the identity of a process.
+	 * 
+	 * @param key
+	 *            the identifier (integer) of the process.
+	 * @return the slot, or {@code -(insertion point) - 1} when the identity has no
+	 *         slot, as {@link Arrays#binarySearch(int[], int, int, int)}.
+	 */
+	private int slotOf(final int key) {
+		return Arrays.binarySearch(ids, 0, size, key);
+	}
+
+	/**
+	 * gets the number of entries of the vector clock, including the entries
+	 * whose value is set to <tt>0</tt>.
+	 * 
+	 * @return the number of entries.
+	 */
+	public int size() {
+		return size;
 	}
 
 	/**
@@ -97,12 +145,13 @@ public class VectorClock implements Serializable {
 	 * @return the clock value.
 	 */
 	public int getEntry(final int key) {
-		return vector.getOrDefault(key, 0);
+		int slot = slotOf(key);
+		return slot >= 0 ? values[slot] : 0;
 	}
 
 	/**
 	 * sets the value (integer) of the clock of the process (integer key). If the
-	 * corresponding key does not already exists in the map, it is inserted.
+	 * corresponding key does not already exists, a slot is inserted.
 	 * 
 	 * @param key
 	 *            the identifier (integer) of the process. An
@@ -114,14 +163,19 @@ public class VectorClock implements Serializable {
 		if (key < 0) {
 			throw new IllegalArgumentException("identite de processus non valide (" + key + ")");
 		}
-		vector.put(key, value);
+		int slot = slotOf(key);
+		if (slot >= 0) {
+			values[slot] = value;
+		} else {
+			insert(-slot - 1, key, value);
+		}
 		assert invariant();
 	}
 
 	/**
 	 * increments the clock of a given process (integer). If the corresponding key
-	 * does not already exists in the map, it is inserted with the value 1, that is
-	 * to say as if it were 0 before the call.
+	 * does not already exists, a slot is inserted with the value 1, that is to
+	 * say as if it were 0 before the call.
 	 * 
 	 * @param key
 	 *            the identifier (integer) of the process.
@@ -130,10 +184,38 @@ public class VectorClock implements Serializable {
 		if (key < 0) {
 			throw new IllegalArgumentException("identite de processus non valide (" + key + ")");
 		}
-		vector.put(key, getEntry(key) + 1);
+		int slot = slotOf(key);
+		if (slot >= 0) {
+			values[slot]++;
+		} else {
+			insert(-slot - 1, key, 1);
+		}
 		assert invariant();
 	}
 
+	/**
+	 * inserts a slot, growing the arrays when they are full.
+	 * 
+	 * @param slot
+	 *            the slot of the new entry.
+	 * @param key
+	 *            the identifier (integer) of the process.
+	 * @param value
+	 *            the value of the clock.
+	 */
+	private void insert(final int slot, final int key, final int value) {
+		if (size == ids.length) {
+			int capacity = Math.max(INITIAL_CAPACITY, size * 2);
+			ids = Arrays.copyOf(ids, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		System.arraycopy(ids, slot, ids, slot + 1, size - slot);
+		System.arraycopy(values, slot, values, slot + 1, size - slot);
+		ids[slot] = key;
+		values[slot] = value;
+		size++;
+	}
+
 	/**
 	 * computes the maximum of the vector and the one provided in the argument. If a
 	 * given key exists in one of the vector but not in the other, the value is set
@@ -144,10 +226,18 @@ public class VectorClock implements Serializable {
 	 */
 	public void max(final VectorClock other) {
 		if (other != null) {
-			List<Integer> keys = new ArrayList<>(vector.keySet());
-			keys.addAll(other.vector.keySet());
-			for (Integer key : keys) {
-				setEntry(key, Math.max(vector.getOrDefault(key, 0), other.vector.getOrDefault(key, 0)));
+			int i = 0;
+			for (int j = 0; j < other.size; j++) {
+				int key = other.ids[j];
+				while (i < size && ids[i] < key) {
+					i++;
+				}
+				if (i < size && ids[i] == key) {
+					values[i] = Math.max(values[i], other.values[j]);
+				} else {
+					insert(i, key, other.values[j]);
+				}
+				i++;
 			}
 		}
 		assert invariant();
@@ -163,10 +253,16 @@ public class VectorClock implements Serializable {
 	 */
 	public boolean isGreaterOrEquals(final VectorClock other) {
 		if (other != null) {
-			List<Integer> keys = new ArrayList<>(vector.keySet());
-			keys.addAll(other.vector.keySet());
-			for (Integer key : keys) {
-				if (this.getEntry(key) < other.getEntry(key)) {
+			// the missing entries of this vector clock are 0, which is enough for
+			// the entries of the other vector clock that are 0
+			int i = 0;
+			for (int j = 0; j < other.size; j++) {
+				int key = other.ids[j];
+				while (i < size && ids[i] < key) {
+					i++;
+				}
+				int value = (i < size && ids[i] == key) ? values[i] : 0;
+				if (value < other.values[j]) {
 					return false;
 				}
 			}
@@ -176,6 +272,65 @@ public class VectorClock implements Serializable {
 		}
 	}
 
+	/**
+	 * computes the entries of this vector clock that differ from the ones of a
+	 * previous value of the vector clock. Since the entries only increase, the
+	 * previous value updated with {@link #max(VectorClock)} by the result equals
+	 * this vector clock: the result is the differential vector clock of
+	 * Singhal and Kshemkalyani, 1992.
+	 * 
+	 * @param previous
+	 *            the previous value of the vector clock.
+	 * @return the entries that have changed since the previous value.
+	 */
+	public VectorClock changedSince(final VectorClock previous) {
+		Objects.requireNonNull(previous, "argument previous cannot be null");
+		VectorClock result = new VectorClock();
+		int j = 0;
+		for (int i = 0; i < size; i++) {
+			int key = ids[i];
+			while (j < previous.size && previous.ids[j] < key) {
+				j++;
+			}
+			int value = (j < previous.size && previous.ids[j] == key) ? previous.values[j] : 0;
+			if (values[i] != value) {
+				// the entries are appended in the increasing order of the identities
+				result.insert(result.size, key, values[i]);
+			}
+		}
+		assert result.invariant();
+		return result;
+	}
+
+	/**
+	 * finds an entry of the vector clock provided in the argument <tt>other</tt>
+	 * that is greater than the entry of this vector clock, ignoring the entry of
+	 * one process. This is the entry that prevents this vector clock from being
+	 * greater or equal, e.g. a message that is not delivered yet.
+	 * 
+	 * @param other
+	 *            the vector clock to compare to.
+	 * @param except
+	 *            the identifier (integer) of the process whose entry is ignored.
+	 * @return the identifier of the process of the first such entry, or
+	 *         <tt>-1</tt> when there is none.
+	 */
+	public int firstGreaterEntry(final VectorClock other, final int except) {
+		Objects.requireNonNull(other, "argument other cannot be null");
+		int i = 0;
+		for (int j = 0; j < other.size; j++) {
+			int key = other.ids[j];
+			while (i < size && ids[i] < key) {
+				i++;
+			}
+			int value = (i < size && ids[i] == key) ? values[i] : 0;
+			if (key != except && value < other.values[j]) {
+				return key;
+			}
+		}
+		return -1;
+	}
+
 	/**
 	 * states whether this vector clock equals the vector clock provided in the
 	 * argument <tt>other</tt>. This method does not override
@@ -188,10 +343,18 @@ public class VectorClock implements Serializable {
 	 */
 	public boolean isEqualTo(final VectorClock other) {
 		if (other != null) {
-			List<Integer> keys = new ArrayList<>(vector.keySet());
-			keys.addAll(other.vector.keySet());
-			for (Integer key : keys) {
-				if (this.getEntry(key) != other.getEntry(key)) {
+			int i = 0;
+			int j = 0;
+			while (i < size || j < other.size) {
+				if (j == other.size || (i < size && ids[i] < other.ids[j])) {
+					if (values[i++] != 0) {
+						return false;
+					}
+				} else if (i == size || other.ids[j] < ids[i]) {
+					if (other.values[j++] != 0) {
+						return false;
+					}
+				} else if (values[i++] != other.values[j++]) {
 					return false;
 				}
 			}
@@ -201,8 +364,105 @@ public class VectorClock implements Serializable {
 		}
 	}
 
+	/**
+	 * writes the vector clock in its binary form: the number of entries followed
+	 * by the pairs (identity, clock value), see {@link MsgCodecs}. Since the
+	 * identities are sorted, each identity is written as the difference with the
+	 * previous one, which takes one byte for close identities.
+	 * 
+	 * @param out
+	 *            the buffer to write into.
+	 */
+	public void writeTo(final ByteBuffer out) {
+		MsgCodecs.putVarInt(out, size);
+		int previous = 0;
+		for (int i = 0; i < size; i++) {
+			MsgCodecs.putVarInt(out, ids[i] - previous);
+			MsgCodecs.putVarInt(out, values[i]);
+			previous = ids[i];
+		}
+	}
+
+	/**
+	 * reads a vector clock written with {@link #writeTo(ByteBuffer)}.
+	 * 
+	 * @param in
+	 *            the buffer to read from.
+	 * @return the vector clock.
+	 */
+	public static VectorClock readFrom(final ByteBuffer in) {
+		VectorClock result = new VectorClock();
+		int size = MsgCodecs.getVarInt(in);
+		if (size < 0) {
+			throw new IllegalArgumentException("invalid number of entries (" + size + ")");
+		}
+		int key = 0;
+		for (int i = 0; i < size; i++) {
+			key += MsgCodecs.getVarInt(in);
+			result.setEntry(key, MsgCodecs.getVarInt(in));
+		}
+		return result;
+	}
+
+	/**
+	 * writes the vector clock with the Java serialization, in the compact form of
+	 * {@link #writeTo(ByteBuffer)}: the number of entries followed by the pairs
+	 * (identity, clock value).
+	 * 
+	 * @param out
+	 *            the stream to write into.
+	 * @throws IOException
+	 *             the exception thrown in case of IO problem.
+	 */
+	private void writeObject(final ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeInt(size);
+		for (int i = 0; i < size; i++) {
+			out.writeInt(ids[i]);
+			out.writeInt(values[i]);
+		}
+	}
+
+	/**
+	 * reads a vector clock written with {@link #writeObject(ObjectOutputStream)}.
+	 * The arrays grow as the entries are read, as in
+	 * {@link #readFrom(ByteBuffer)}: the number of entries read from the stream
+	 * is not trusted to allocate them.
+	 * 
+	 * @param in
+	 *            the stream to read from.
+	 * @throws IOException
+	 *             the exception thrown in case of IO problem.
+	 * @throws ClassNotFoundException
+	 *             the exception thrown when the class of an object is not found.
+	 */
+	private void readObject(final ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		int n = in.readInt();
+		if (n < 0) {
+			throw new IOException("invalid number of entries (" + n + ")");
+		}
+		ids = new int[INITIAL_CAPACITY];
+		values = new int[INITIAL_CAPACITY];
+		size = 0;
+		for (int i = 0; i < n; i++) {
+			int key = in.readInt();
+			if (key < 0) {
+				throw new IOException("invalid process identity (" + key + ")");
+			}
+			setEntry(key, in.readInt());
+		}
+	}
+
 	@Override
 	public String toString() {
-		return vector.toString();
+		StringBuilder builder = new StringBuilder("{");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				builder.append(", ");
+			}
+			builder.append(ids[i]).append('=').append(values[i]);
+		}
+		return builder.append('}').toString();
 	}
 }
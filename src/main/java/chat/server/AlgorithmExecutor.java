@@ -0,0 +1,185 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.server;
+
+import static chat.common.Log.GEN;
+import static chat.common.Log.LOG_ON;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import chat.common.Log;
+import chat.common.MpscQueue;
+
+/**
+ * This class defines the thread that executes the algorithms of a server. The
+ * reactors only read and decode the messages: the actions of the algorithms and
+ * the commands of the console are submitted to this executor through a bounded
+ * queue (see {@link MpscQueue}), and are executed one at a time in the order of
+ * submission. A slow step of an algorithm thus does not delay the reads of the
+ * sockets. When the queue is full, the submitter waits, so that a reactor stops
+ * reading until the algorithms catch up. The executor is the only thread that
+ * accesses the state of the algorithms, which is thus not protected by the
+ * monitor of the server.
+ *
+ * @author agent
+ */
+public class AlgorithmExecutor implements Runnable {
+	/**
+	 * the default capacity of the queue.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+	/**
+	 * the delay in nanoseconds before trying again to submit a task when the queue
+	 * is full.
+	 */
+	private static final long SUBMIT_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	/**
+	 * the reference to the server.
+	 */
+	private final Server server;
+	/**
+	 * the tasks waiting to be executed.
+	 */
+	private final MpscQueue<Runnable> tasks;
+	/**
+	 * the thread of the executor, set when the thread starts.
+	 */
+	private volatile Thread thread;
+	/**
+	 * states whether the thread of the executor is waiting for tasks.
+	 */
+	private volatile boolean parked = false;
+	/**
+	 * states whether the executor has stopped.
+	 */
+	private volatile boolean stopped = false;
+	/**
+	 * the number of tasks submitted and not yet executed, including the task
+	 * being executed. A task is counted before being queued and until the end of
+	 * its execution, so that the executor is never seen idle between the poll
+	 * of a task and its execution.
+	 */
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	/**
+	 * constructs the executor.
+	 *
+	 * @param server
+	 *            the reference to the server.
+	 * @param capacity
+	 *            the capacity of the queue.
+	 */
+	public AlgorithmExecutor(final Server server, final int capacity) {
+		Objects.requireNonNull(server, "argument server cannot be null");
+		this.server = server;
+		this.tasks = new MpscQueue<>(capacity);
+	}
+
+	/**
+	 * submits a task. The method waits while the queue is full.
+	 *
+	 * @param task
+	 *            the task.
+	 * @return {@code false} when the executor has stopped and the task is not
+	 *         going to be executed.
+	 */
+	public boolean submit(final Runnable task) {
+		Objects.requireNonNull(task, "argument task cannot be null");
+		inFlight.incrementAndGet();
+		while (!tasks.offer(task)) {
+			if (stopped) {
+				inFlight.decrementAndGet();
+				return false;
+			}
+			LockSupport.parkNanos(SUBMIT_RETRY_NANOS);
+		}
+		if (parked) {
+			LockSupport.unpark(thread);
+		}
+		return !stopped;
+	}
+
+	/**
+	 * gets the number of tasks waiting to be executed.
+	 *
+	 * @return the number of tasks.
+	 */
+	public int getQueueSize() {
+		return tasks.size();
+	}
+
+	/**
+	 * states whether the executor has no task to execute: no task is waiting and
+	 * no task is being executed. The messages sent by the tasks are thus in the
+	 * outbound queues of the workers.
+	 *
+	 * @return {@code true} when the executor is idle.
+	 */
+	public boolean isIdle() {
+		return inFlight.get() == 0;
+	}
+
+	/**
+	 * states whether the caller is the thread of the executor.
+	 *
+	 * @return {@code true} when called by a task of the executor.
+	 */
+	public boolean isExecutorThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 * is the loop that executes the tasks until the thread is interrupted.
+	 */
+	@Override
+	public void run() {
+		thread = Thread.currentThread();
+		if (LOG_ON && GEN.isDebugEnabled()) {
+			GEN.debug(Log.computeServerLogMessage(server, ", thread for executing the algorithms started"));
+		}
+		while (!Thread.currentThread().isInterrupted()) {
+			Runnable task = tasks.poll();
+			if (task == null) {
+				parked = true;
+				// a task submitted before the flag was set is seen here
+				task = tasks.poll();
+				if (task == null) {
+					LockSupport.park(this);
+					parked = false;
+					continue;
+				}
+				parked = false;
+			}
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				GEN.error(Log.computeServerLogMessage(server, ", problem when executing an algorithm: " + e));
+			} finally {
+				inFlight.decrementAndGet();
+			}
+		}
+		stopped = true;
+	}
+}
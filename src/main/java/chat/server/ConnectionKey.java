@@ -0,0 +1,81 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.server;
+
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.spi.AbstractSelectionKey;
+import java.util.Objects;
+
+/**
+ * This class defines the key of a connection that is served by its own thread
+ * with blocking reads and writes (see
+ * {@link Server#setConnectionThreads(java.util.concurrent.ThreadFactory)}).
+ * The key is not registered with any selector: it only identifies the
+ * connection in the collections of workers of the server, like the selection
+ * keys of the connections that are served by the reactors.
+ *
+ * @author agent
+ */
+public final class ConnectionKey extends AbstractSelectionKey {
+	/**
+	 * the channel of the connection.
+	 */
+	private final SelectableChannel channel;
+
+	/**
+	 * constructs the key of a connection.
+	 *
+	 * @param channel
+	 *            the channel of the connection.
+	 */
+	public ConnectionKey(final SelectableChannel channel) {
+		Objects.requireNonNull(channel, "argument channel cannot be null");
+		this.channel = channel;
+	}
+
+	@Override
+	public SelectableChannel channel() {
+		return channel;
+	}
+
+	@Override
+	public Selector selector() {
+		throw new UnsupportedOperationException("the connection is not registered with a selector");
+	}
+
+	@Override
+	public int interestOps() {
+		return 0;
+	}
+
+	@Override
+	public SelectionKey interestOps(final int ops) {
+		throw new UnsupportedOperationException("the connection is not registered with a selector");
+	}
+
+	@Override
+	public int readyOps() {
+		return 0;
+	}
+}
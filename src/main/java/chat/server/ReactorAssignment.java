@@ -0,0 +1,39 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.server;
+
+/**
+ * This enumeration defines the policies for assigning the accepted connections
+ * to the reactors of a server (see {@link Server#setReactors(int, ReactorAssignment)}).
+ *
+ * @author agent
+ */
+public enum ReactorAssignment {
+	/**
+	 * the connections are assigned to the reactors in turn.
+	 */
+	ROUND_ROBIN,
+	/**
+	 * a connection is assigned to the reactor that serves the least connections.
+	 */
+	LEAST_LOADED
+}
@@ -27,16 +27,24 @@ import static chat.common.Log.LOG_ON;
 
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import chat.client.algorithms.chat.ChatMsgContent;
 import chat.common.FullDuplexMsgWorker;
+import chat.common.Handshake;
 import chat.common.Log;
 import chat.common.MsgContent;
 import chat.common.ReadMessageStatus;
@@ -51,11 +59,37 @@ import chat.common.ReadMessageStatus;
  * since the method <tt>forward</tt> is only called when the message to forward
  * has not already been received and forwarded.
  * 
+ * A server runs one or several instances of this class, each one with its own
+ * selector and thread (see {@link Server#setReactors(int, ReactorAssignment)}).
+ * The acceptor is the instance with the selection keys for accepting
+ * connections; the accepted connections are handed over to the reactor that
+ * serves them through the queues of pending registrations, and the reactor
+ * registers them with its selector in its own thread. The messages sent to a
+ * connection that is served by another reactor are put into the outbound queue
+ * of its worker, which wakes up the selector of that reactor when the frames
+ * cannot be written at once.
+ * 
+ * During an iteration of the selector loop, the ready server connections are
+ * served before the ready client connections, and each connection is served
+ * once, with a read budget (see {@link Server#setReadBudgets(int, int)}). A
+ * connection whose receive buffer still contains messages after having used
+ * its budget is served again at the next iteration, after the connections
+ * that have become ready in the meantime, and the selector does not wait for
+ * that iteration. A connection whose reading is held back by a slow client
+ * (see {@link SlowClientPolicy#BLOCK}) is not served until the client catches
+ * up, and the reactor goes on serving its other connections.
+ * 
  * @author chris
  * @author Denis Conan
  * 
  */
 public class ReadMessagesFromNetwork implements Runnable {
+	/**
+	 * the maximum number of connections accepted for one readiness event, so that
+	 * a burst of connections does not delay the other events.
+	 */
+	private static final int MAX_ACCEPTS_PER_EVENT = 64;
+
 	/**
 	 * backward reference to the server selector object in order to use its methods
 	 * to send messages.
@@ -87,6 +121,63 @@ public class ReadMessagesFromNetwork implements Runnable {
 	 */
 	private final ServerSocketChannel listenChanServer;
 
+	/**
+	 * the workers of the accepted server connections, waiting to be registered
+	 * with the selector of this reactor.
+	 */
+	private final Queue<FullDuplexMsgWorker> pendingServers = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * the workers of the accepted client connections, waiting to be registered
+	 * with the selector of this reactor.
+	 */
+	private final Queue<FullDuplexMsgWorker> pendingClients = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * the number of connections that are assigned to this reactor.
+	 */
+	private final AtomicInteger load = new AtomicInteger();
+
+	/**
+	 * the server connections to serve during the current iteration of the
+	 * selector loop. The collection is reused from an iteration to the next.
+	 */
+	private final Set<SelectionKey> readyServers = new LinkedHashSet<>();
+
+	/**
+	 * the client connections to serve during the current iteration of the
+	 * selector loop. The collection is reused from an iteration to the next.
+	 */
+	private final Set<SelectionKey> readyClients = new LinkedHashSet<>();
+
+	/**
+	 * the server connections that have used their read budget with messages left
+	 * in their receive buffer.
+	 */
+	private final List<SelectionKey> carriedServers = new ArrayList<>();
+
+	/**
+	 * the client connections that have used their read budget with messages left
+	 * in their receive buffer.
+	 */
+	private final List<SelectionKey> carriedClients = new ArrayList<>();
+
+	/**
+	 * the connections whose reading is suspended by a slow client with messages
+	 * left in their receive buffer (see {@link SlowClientPolicy#BLOCK}). They
+	 * are served again when their reading is resumed.
+	 */
+	private final List<SelectionKey> heldBackKeys = new ArrayList<>();
+	/**
+	 * states whether the channels accepting connections are to be closed (see
+	 * {@link #stopAccepting()}).
+	 */
+	private volatile boolean acceptStopped = false;
+	/**
+	 * states whether the selector loop goes on (see {@link #stop()}).
+	 */
+	private volatile boolean running = true;
+
 	/**
 	 * initialises the collection attributes and the state of the server, and
 	 * creates the channels that are accepting connections from clients and servers.
@@ -121,6 +212,180 @@ public class ReadMessagesFromNetwork implements Runnable {
 		this.server = server;
 	}
 
+	/**
+	 * initialises a reactor that only serves the connections that are assigned to
+	 * it, without accepting connections.
+	 * 
+	 * @param server
+	 *            the reference to the server.
+	 * @param selector
+	 *            the selector.
+	 */
+	public ReadMessagesFromNetwork(final Server server, final Selector selector) {
+		Objects.requireNonNull(server, "argument server cannot be null");
+		Objects.requireNonNull(selector, "argument selector cannot be null");
+		this.selector = selector;
+		this.acceptClientKey = null;
+		this.listenChanClient = null;
+		this.acceptServerKey = null;
+		this.listenChanServer = null;
+		this.server = server;
+	}
+
+	/**
+	 * gets the selector of this reactor.
+	 * 
+	 * @return the selector.
+	 */
+	Selector getSelector() {
+		return selector;
+	}
+
+	/**
+	 * gets the number of connections that are assigned to this reactor, including
+	 * the connections waiting to be registered.
+	 * 
+	 * @return the number of connections.
+	 */
+	int getLoad() {
+		return load.get();
+	}
+
+	/**
+	 * assigns a connection that is registered with the selector of this reactor
+	 * before the start of its thread.
+	 */
+	void connectionAssigned() {
+		load.incrementAndGet();
+	}
+
+	/**
+	 * takes into account a connection of this reactor that has been closed by
+	 * another thread.
+	 */
+	void connectionClosed() {
+		load.decrementAndGet();
+	}
+
+	/**
+	 * stops accepting connections. The channels accepting connections are closed
+	 * by the thread of the reactor, which is woken up, so that no accept is in
+	 * progress when they are closed.
+	 */
+	void stopAccepting() {
+		acceptStopped = true;
+		selector.wakeup();
+	}
+
+	/**
+	 * stops the selector loop. Unlike an interrupt of the thread of the reactor,
+	 * the stop does not close the channel that is being read, and the frames
+	 * waiting in the outbound queues can still be written afterwards.
+	 */
+	void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * closes the selector of this reactor, after the selector loop has stopped.
+	 */
+	void closeSelector() {
+		try {
+			selector.close();
+		} catch (IOException e) {
+			if (LOG_ON && COMM.isTraceEnabled()) {
+				COMM.trace("problem when closing the selector");
+			}
+		}
+	}
+
+	/**
+	 * closes the channels accepting connections, if any.
+	 */
+	private void closeListeningChannels() {
+		for (ServerSocketChannel listenChan : new ServerSocketChannel[] {listenChanClient, listenChanServer}) {
+			if (listenChan != null && listenChan.isOpen()) {
+				try {
+					listenChan.close();
+				} catch (IOException e) {
+					COMM.warn(e.getLocalizedMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * hands over an accepted connection to this reactor. The worker is registered
+	 * with the selector by the thread of the reactor, which is woken up.
+	 * 
+	 * @param worker
+	 *            the worker of the connection.
+	 * @param client
+	 *            states whether the connection is with a client or with a server.
+	 */
+	void handOver(final FullDuplexMsgWorker worker, final boolean client) {
+		Objects.requireNonNull(worker, "argument worker cannot be null");
+		load.incrementAndGet();
+		if (client) {
+			pendingClients.add(worker);
+		} else {
+			pendingServers.add(worker);
+		}
+		selector.wakeup();
+	}
+
+	/**
+	 * serves a connection with blocking reads in the calling thread, until the
+	 * connection is closed or the thread is interrupted. This method is the body
+	 * of the threads of the connections when the server serves each connection
+	 * with its own thread (see
+	 * {@link Server#setConnectionThreads(java.util.concurrent.ThreadFactory)}).
+	 * The messages are treated as the reactors treat them.
+	 * 
+	 * @param key
+	 *            the key of the connection.
+	 * @param worker
+	 *            the worker of the connection, whose channel is blocking.
+	 * @param client
+	 *            states whether the connection is with a client or with a server.
+	 */
+	void serve(final SelectionKey key, final FullDuplexMsgWorker worker, final boolean client) {
+		Objects.requireNonNull(key, "argument key cannot be null");
+		Objects.requireNonNull(worker, "argument worker cannot be null");
+		load.incrementAndGet();
+		while (!Thread.currentThread().isInterrupted() && worker.getChannel().isOpen()) {
+			if (client) {
+				treatMessageFromLocalClient(key, worker);
+			} else {
+				treatMessageFromNeighbouringServer(key, worker);
+			}
+		}
+	}
+
+	/**
+	 * registers the connections that have been handed over to this reactor.
+	 */
+	private void registerPendingConnections() {
+		FullDuplexMsgWorker worker;
+		while ((worker = pendingServers.poll()) != null) {
+			try {
+				server.addServerWorker(worker.register(selector), worker);
+			} catch (IOException e) {
+				COMM.error(e.getLocalizedMessage());
+				load.decrementAndGet();
+			}
+		}
+		while ((worker = pendingClients.poll()) != null) {
+			try {
+				server.addNewClient(worker.register(selector), worker);
+			} catch (IOException e) {
+				COMM.error(e.getLocalizedMessage());
+				load.decrementAndGet();
+			}
+		}
+	}
+
 	/**
 	 * is the infinite loop organised around the call to select.
 	 */
@@ -129,27 +394,49 @@ public class ReadMessagesFromNetwork implements Runnable {
 		if (LOG_ON && GEN.isDebugEnabled()) {
 			GEN.debug(Log.computeServerLogMessage(server, ", thread for rcving msgs from the network started"));
 		}
-		while (!Thread.interrupted()) {
+		while (running && !Thread.interrupted()) {
 			try {
-				selector.select();
+				if (!carriedServers.isEmpty() || !carriedClients.isEmpty()) {
+					// the messages left in the receive buffers are not signalled by the selector
+					selector.selectNow();
+				} else if (server.hasBlockingClients()) {
+					// the slow clients that do not catch up are disconnected in time
+					selector.select(Server.SLOW_CLIENT_CHECK_MILLIS);
+				} else {
+					selector.select();
+				}
 			} catch (IOException e) {
 				COMM.fatal(e.getLocalizedMessage());
 				return;
 			}
+			if (acceptStopped) {
+				closeListeningChannels();
+			}
+			registerPendingConnections();
+			if (server.hasBlockingClients()) {
+				server.disconnectStalledClients();
+			}
+			releaseHeldBackKeys();
 			Set<SelectionKey> readyKeys = selector.selectedKeys();
 			Iterator<SelectionKey> readyIter = readyKeys.iterator();
 			while (readyIter.hasNext()) {
 				SelectionKey key = readyIter.next();
 				readyIter.remove();
+				if (!key.isValid()) {
+					// e.g. the key of a channel accepting connections that has just been closed
+					continue;
+				}
 				if (key.isAcceptable()) {
 					try {
+						// the connections opened in a burst are accepted together
+						int nbAccepted = 0;
 						if (key.equals(acceptServerKey)) {
-							synchronized (server) {
-								server.acceptNewServer(listenChanServer);
+							while (nbAccepted < MAX_ACCEPTS_PER_EVENT && server.acceptNewServer(listenChanServer)) {
+								nbAccepted++;
 							}
 						} else if (key.equals(acceptClientKey)) {
-							synchronized (server) {
-								server.acceptNewClient(listenChanClient);
+							while (nbAccepted < MAX_ACCEPTS_PER_EVENT && server.acceptNewClient(listenChanClient)) {
+								nbAccepted++;
 							}
 						} else {
 							COMM.fatal("unknown accept");
@@ -159,24 +446,133 @@ public class ReadMessagesFromNetwork implements Runnable {
 						COMM.error(e.getLocalizedMessage());
 					}
 				}
-				if (key.isReadable()) {
-					Optional<FullDuplexMsgWorker> serverWorker = null;
-					synchronized (server) {
-						server.setSelectionKeyOfCurrentMsg(key);
-						serverWorker = server.getServerWorker(key);
-					}
-					if (serverWorker.isPresent()) {
-						treatMessageFromNeighbouringServer(key, serverWorker.get());
-					}
-					Optional<FullDuplexMsgWorker> clientWorker = null;
-					synchronized (server) {
-						clientWorker = server.getClientWorker(key);
-					}
-					if (clientWorker.isPresent()) {
-						treatMessageFromLocalClient(key, clientWorker.get());
+				if (key.isValid() && key.isWritable()) {
+					flushOutbound(key);
+				}
+				if (key.isValid() && key.isReadable()) {
+					if (server.getServerWorker(key).isPresent()) {
+						readyServers.add(key);
+					} else {
+						readyClients.add(key);
 					}
 				}
 			}
+			readyServers.addAll(carriedServers);
+			carriedServers.clear();
+			readyClients.addAll(carriedClients);
+			carriedClients.clear();
+			serveReadyConnections(readyServers, true, Server.getServerReadBudget(), carriedServers);
+			serveReadyConnections(readyClients, false, Server.getClientReadBudget(), carriedClients);
+		}
+	}
+
+	/**
+	 * serves once each ready connection of a kind, by treating at most the given
+	 * number of messages read with one read of the channel. The collection of
+	 * ready connections is emptied.
+	 * 
+	 * @param ready
+	 *            the ready connections, in the order in which they are served.
+	 * @param fromServers
+	 *            states whether the connections are with servers or with
+	 *            clients.
+	 * @param budget
+	 *            the maximum number of messages treated per connection.
+	 * @param carried
+	 *            the collection to which are added the connections with messages
+	 *            left in their receive buffer.
+	 */
+	private void serveReadyConnections(final Set<SelectionKey> ready, final boolean fromServers, final int budget,
+			final List<SelectionKey> carried) {
+		for (SelectionKey key : ready) {
+			if (!key.isValid()) {
+				continue;
+			}
+			Optional<FullDuplexMsgWorker> worker = fromServers ? server.getServerWorker(key)
+					: server.getClientWorker(key);
+			if (!worker.isPresent()) {
+				continue;
+			}
+			if (worker.get().isReadingSuspended()) {
+				// the connection was ready before being held back by a slow client
+				if (worker.get().hasBufferedMessage()) {
+					heldBackKeys.add(key);
+				}
+				continue;
+			}
+			int nbTreated = 0;
+			do {
+				if (fromServers) {
+					treatMessageFromNeighbouringServer(key, worker.get());
+				} else {
+					treatMessageFromLocalClient(key, worker.get());
+				}
+				nbTreated++;
+			} while (nbTreated < budget && worker.get().hasBufferedMessage()
+					&& !worker.get().isReadingSuspended());
+			if (worker.get().hasBufferedMessage()) {
+				if (worker.get().isReadingSuspended()) {
+					heldBackKeys.add(key);
+				} else {
+					carried.add(key);
+				}
+			}
+		}
+		ready.clear();
+	}
+
+	/**
+	 * moves the held back connections whose reading has been resumed to the
+	 * ready connections. The resumption wakes up the selector, and these
+	 * connections are served during the next iteration of the selector loop.
+	 */
+	private void releaseHeldBackKeys() {
+		for (Iterator<SelectionKey> iter = heldBackKeys.iterator(); iter.hasNext();) {
+			SelectionKey key = iter.next();
+			if (!key.isValid()) {
+				iter.remove();
+				continue;
+			}
+			FullDuplexMsgWorker worker = (FullDuplexMsgWorker) key.attachment();
+			if (worker == null || !worker.isReadingSuspended()) {
+				iter.remove();
+				if (server.getServerWorker(key).isPresent()) {
+					carriedServers.add(key);
+				} else if (server.getClientWorker(key).isPresent()) {
+					carriedClients.add(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * writes the frames waiting in the outbound queue of the worker attached to
+	 * the selection key. In case of problem, the connection is closed and the
+	 * worker is removed.
+	 * 
+	 * @param key
+	 *            the selection key, which is writable.
+	 */
+	private void flushOutbound(final SelectionKey key) {
+		FullDuplexMsgWorker worker = (FullDuplexMsgWorker) key.attachment();
+		if (worker == null) {
+			return;
+		}
+		try {
+			worker.flushOutbound();
+		} catch (IOException e) {
+			COMM.warn(e.getLocalizedMessage());
+			try {
+				worker.close();
+			} catch (IOException closeException) {
+				if (LOG_ON && COMM.isTraceEnabled()) {
+					COMM.trace("problem when closing the connection");
+				}
+			}
+			// the connection may have been closed by another thread, e.g. for a slow client
+			if (server.removeServerWorker(key) | server.removeClientWorker(key)) {
+				load.decrementAndGet();
+			}
 		}
 	}
 
@@ -198,43 +594,55 @@ public class ReadMessagesFromNetwork implements Runnable {
 			if (status == ReadMessageStatus.CHANNELCLOSED) {
 				// remote end point has been closed
 				readWorker.close();
-				synchronized (server) {
-					server.removeServerWorker(key);
-					if (LOG_ON && COMM.isInfoEnabled()) {
-						COMM.info("Closing a channel");
-					}
+				if (server.removeServerWorker(key)) {
+					load.decrementAndGet();
+				}
+				if (LOG_ON && COMM.isInfoEnabled()) {
+					COMM.info("Closing a channel");
 				}
 			}
 			if (status == ReadMessageStatus.READDATACOMPLETED) {
 				int messType = readWorker.getInType();
-				Serializable msg = readWorker.getData().orElseThrow(() -> new IllegalStateException("no data"));
-				if (LOG_ON && COMM.isInfoEnabled()) {
-					COMM.info("Message received of type " + messType + ", seq. number" + readWorker.getInSeqNumber()
-							+ ", " + msg + ", " + msg.getClass().getName());
-				}
-				 if (messType < chat.common.ActionOfAClient.OFFSET_CLIENT_ALGORITHMS) {
+				if (messType < chat.common.ActionOfAClient.OFFSET_CLIENT_ALGORITHMS) {
+					Serializable msg = readWorker.getData().orElseThrow(() -> new IllegalStateException("no data"));
+					if (LOG_ON && COMM.isInfoEnabled()) {
+						COMM.info("Message received of type " + messType + ", seq. number" + readWorker.getInSeqNumber()
+								+ ", " + msg + ", " + msg.getClass().getName());
+					}
 					// message for server
 					if (LOG_ON && COMM.isTraceEnabled()) {
 						COMM.trace("Going to execute action" + " for message type #" + messType + " on content " + msg.toString());
 					}
 					
-					// synchronisation made in the server method that is going to be executed
-					chat.server.algorithms.Algorithm.execute(server, messType, msg);
-					server.getSortedMapOfServerSelectionKeys().put(((MsgContent) msg).getSender(), key);
+					if (messType == Handshake.TYPE_HANDSHAKE) {
+						readWorker.receiveHandshake((Integer) msg, Server.capabilities());
+					} else if (messType == Handshake.TYPE_LEAVE) {
+						server.neighbourLeaves(key, (Integer) msg);
+					} else {
+						// the action is executed by the executor of the algorithms with the
+						// selection key of the connection of the message, and the reactor goes
+						// on reading
+						if (!server.isLeaving(key)) {
+							server.getSortedMapOfServerSelectionKeys().put(((MsgContent) msg).getSender(), key);
+						}
+						server.getAlgorithmExecutor().submit(
+								() -> chat.server.algorithms.Algorithm.execute(server, key, messType, msg));
+					}
 				} else {
-					// client message to forward
+					// client message to forward: the header is sufficient for deciding
+					// whether it has already been forwarded, and the body is relayed as
+					// is, without being decoded
 					int identity = readWorker.getInIdentity();
 					int seqNumber = readWorker.getInSeqNumber();
-					synchronized (server) {
-						if (!server.getClientSeqNumbers(identity).isPresent()) {
-							server.setClientSeqNumbers(identity, seqNumber);
-							server.forward(key, messType, identity, seqNumber, msg);
-						} else {
-							if (seqNumber > server.getClientSeqNumbers(identity).orElse(0)) {
-								// not already forwarded
-								server.setClientSeqNumbers(identity, seqNumber);
-								server.forward(key, messType, identity, seqNumber, msg);
-							}
+					if (LOG_ON && COMM.isInfoEnabled()) {
+						COMM.info("Message received of type " + messType + ", identity " + identity
+								+ ", seq. number " + seqNumber);
+					}
+					ByteBuffer[] body = readWorker.getRawData().orElseThrow(() -> new IllegalStateException("no data"));
+					synchronized (server.clientStripe(identity)) {
+						if (server.acceptClientSeqNumber(identity, seqNumber)) {
+							// not already forwarded
+							server.relay(key, messType, identity, seqNumber, body);
 						}
 					}
 				}
@@ -258,11 +666,11 @@ public class ReadMessagesFromNetwork implements Runnable {
 			status = readWorker.readMessage();
 			if (status == ReadMessageStatus.CHANNELCLOSED) {
 				readWorker.close();
-				synchronized (server) {
-					server.removeClientWorker(key);
-					if (LOG_ON && COMM.isInfoEnabled()) {
-						COMM.info("Closing a channel");
-					}
+				if (server.removeClientWorker(key)) {
+					load.decrementAndGet();
+				}
+				if (LOG_ON && COMM.isInfoEnabled()) {
+					COMM.info("Closing a channel");
 				}
 			}
 			if (status == ReadMessageStatus.READDATACOMPLETED) {
@@ -272,12 +680,12 @@ public class ReadMessagesFromNetwork implements Runnable {
 					COMM.info("Message received " + msg + " " + msg.getClass().getName());
 				}
 				int identity = readWorker.getInIdentity();
-				synchronized (server) {
+				synchronized (server.clientStripe(identity)) {
 					if (!(msg instanceof ChatMsgContent)) {
 						throw new IllegalStateException("only ChatMessageContent can be received from local client");
 					}
 					int seqNumberOfClient = ((ChatMsgContent) msg).getSeqNumber();
-					server.setClientSeqNumbers(identity, seqNumberOfClient);
+					server.acceptClientSeqNumber(identity, seqNumberOfClient);
 					server.forward(key, messType, identity, seqNumberOfClient, msg);
 				}
 			}
@@ -0,0 +1,315 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.server;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines the detection of the duplicates of the messages of the
+ * clients, which the servers receive through several paths in a cyclic
+ * topology. For each origin, it keeps the highest sequence number received
+ * and a bitmap of the sequence numbers received in a window below it, stored in
+ * a ring of bits: a message that arrives out of order through a path is
+ * accepted once, even if a message with a greater sequence number has been
+ * received before through another path. A sequence number below the window is
+ * considered as received.
+ * 
+ * The origins are distributed among stripes. A stripe is a table of origins
+ * with open addressing on primitive integers, and is manipulated with its
+ * monitor, so that the origins of different stripes are treated in parallel.
+ * 
+ * @author agent
+ */
+public class SeqNumberWindows {
+	/**
+	 * the default number of sequence numbers of the window.
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 1024;
+	/**
+	 * the value of the slots without origin. The identities are not negative.
+	 */
+	private static final int NO_ORIGIN = -1;
+	/**
+	 * the initial number of slots of a stripe, which is a power of 2.
+	 */
+	private static final int INITIAL_CAPACITY = 16;
+	/**
+	 * the stripes.
+	 */
+	private final Stripe[] stripes;
+	/**
+	 * the number of words of 64 bits of the bitmap of an origin.
+	 */
+	private final int nbWords;
+	/**
+	 * the number of messages detected as duplicates.
+	 */
+	private final AtomicLong nbDuplicates = new AtomicLong();
+	/**
+	 * the number of messages with a sequence number below the window, which are
+	 * considered as duplicates.
+	 */
+	private final AtomicLong nbBelowWindow = new AtomicLong();
+
+	/**
+	 * This class defines a stripe: a table of origins with open addressing and
+	 * linear probing. The slot of an origin gives its highest sequence number and
+	 * the words of its bitmap.
+	 */
+	private final class Stripe {
+		/**
+		 * the origins, or {@link #NO_ORIGIN} for the free slots.
+		 */
+		private int[] origins;
+		/**
+		 * the highest sequence numbers received, by slot.
+		 */
+		private int[] highest;
+		/**
+		 * the bitmaps, {@link SeqNumberWindows#nbWords} words per slot. The bit of
+		 * the sequence number <tt>s</tt> is the bit <tt>s % windowSize</tt>.
+		 */
+		private long[] bitmaps;
+		/**
+		 * the number of origins.
+		 */
+		private int size;
+
+		/**
+		 * constructs an empty stripe.
+		 */
+		Stripe() {
+			allocate(INITIAL_CAPACITY);
+		}
+
+		/**
+		 * allocates the arrays for a number of slots.
+		 * 
+		 * @param capacity
+		 *            the number of slots.
+		 */
+		private void allocate(final int capacity) {
+			origins = new int[capacity];
+			Arrays.fill(origins, NO_ORIGIN);
+			highest = new int[capacity];
+			bitmaps = new long[capacity * nbWords];
+			size = 0;
+		}
+
+		/**
+		 * gets the slot of an origin, inserting the origin when it is absent. A
+		 * new origin has received no sequence number.
+		 * 
+		 * @param origin
+		 *            the origin.
+		 * @return the slot.
+		 */
+		private int slotOf(final int origin) {
+			int mask = origins.length - 1;
+			int slot = hash(origin) & mask;
+			while (origins[slot] != NO_ORIGIN) {
+				if (origins[slot] == origin) {
+					return slot;
+				}
+				slot = (slot + 1) & mask;
+			}
+			if ((size + 1) * 2 > origins.length) {
+				grow();
+				return slotOf(origin);
+			}
+			origins[slot] = origin;
+			highest[slot] = -1;
+			size++;
+			return slot;
+		}
+
+		/**
+		 * doubles the number of slots, moving the origins.
+		 */
+		private void grow() {
+			int[] oldOrigins = origins;
+			int[] oldHighest = highest;
+			long[] oldBitmaps = bitmaps;
+			allocate(oldOrigins.length * 2);
+			int mask = origins.length - 1;
+			for (int i = 0; i < oldOrigins.length; i++) {
+				if (oldOrigins[i] != NO_ORIGIN) {
+					int slot = hash(oldOrigins[i]) & mask;
+					while (origins[slot] != NO_ORIGIN) {
+						slot = (slot + 1) & mask;
+					}
+					origins[slot] = oldOrigins[i];
+					highest[slot] = oldHighest[i];
+					System.arraycopy(oldBitmaps, i * nbWords, bitmaps, slot * nbWords, nbWords);
+					size++;
+				}
+			}
+		}
+	}
+
+	/**
+	 * constructs the windows.
+	 * 
+	 * @param nbStripes
+	 *            the number of stripes.
+	 * @param windowSize
+	 *            the number of sequence numbers of the window, which is a
+	 *            multiple of 64.
+	 */
+	public SeqNumberWindows(final int nbStripes, final int windowSize) {
+		if (nbStripes <= 0) {
+			throw new IllegalArgumentException("invalid number of stripes (" + nbStripes + ")");
+		}
+		if (windowSize <= 0 || windowSize % Long.SIZE != 0) {
+			throw new IllegalArgumentException("invalid window size (" + windowSize + ")");
+		}
+		nbWords = windowSize / Long.SIZE;
+		stripes = new Stripe[nbStripes];
+		for (int i = 0; i < nbStripes; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * mixes the bits of an origin, since the identities of the clients are
+	 * close to each other.
+	 * 
+	 * @param origin
+	 *            the origin.
+	 * @return the hash.
+	 */
+	private static int hash(final int origin) {
+		int h = origin * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * gets the stripe of an origin. Its monitor can be held by the caller, e.g.
+	 * to forward the messages of the origin in the order in which they are
+	 * accepted.
+	 * 
+	 * @param origin
+	 *            the origin.
+	 * @return the stripe.
+	 */
+	Object stripeOf(final int origin) {
+		return stripes[Math.floorMod(origin, stripes.length)];
+	}
+
+	/**
+	 * accepts a message when its sequence number has not been received yet from
+	 * its origin, and records the sequence number. This method is thread-safe.
+	 * 
+	 * @param origin
+	 *            the origin of the message.
+	 * @param seqNumber
+	 *            the sequence number of the message.
+	 * @return {@code true} when the message is received for the first time.
+	 */
+	public boolean accept(final int origin, final int seqNumber) {
+		if (origin < 0) {
+			throw new IllegalArgumentException("invalid origin (" + origin + ")");
+		}
+		if (seqNumber < 0) {
+			throw new IllegalArgumentException("invalid sequence number (" + seqNumber + ")");
+		}
+		Stripe stripe = stripes[Math.floorMod(origin, stripes.length)];
+		synchronized (stripe) {
+			int slot = stripe.slotOf(origin);
+			int high = stripe.highest[slot];
+			int windowSize = nbWords * Long.SIZE;
+			int base = slot * nbWords;
+			if (seqNumber > high) {
+				// the bits of the sequence numbers that leave the window are cleared
+				if (high < 0 || seqNumber - high >= windowSize) {
+					Arrays.fill(stripe.bitmaps, base, base + nbWords, 0L);
+				} else {
+					for (int s = high + 1; s < seqNumber; s++) {
+						int bit = s % windowSize;
+						stripe.bitmaps[base + bit / Long.SIZE] &= ~(1L << (bit % Long.SIZE));
+					}
+				}
+				int bit = seqNumber % windowSize;
+				stripe.bitmaps[base + bit / Long.SIZE] |= 1L << (bit % Long.SIZE);
+				stripe.highest[slot] = seqNumber;
+				return true;
+			}
+			if (high - seqNumber >= windowSize) {
+				nbBelowWindow.incrementAndGet();
+				nbDuplicates.incrementAndGet();
+				return false;
+			}
+			int bit = seqNumber % windowSize;
+			long mask = 1L << (bit % Long.SIZE);
+			if ((stripe.bitmaps[base + bit / Long.SIZE] & mask) != 0) {
+				nbDuplicates.incrementAndGet();
+				return false;
+			}
+			stripe.bitmaps[base + bit / Long.SIZE] |= mask;
+			return true;
+		}
+	}
+
+	/**
+	 * gets the highest sequence number received from an origin. This method is
+	 * thread-safe.
+	 * 
+	 * @param origin
+	 *            the origin.
+	 * @return the sequence number, or <tt>-1</tt> when no message has been
+	 *         received.
+	 */
+	public int getHighest(final int origin) {
+		Stripe stripe = stripes[Math.floorMod(origin, stripes.length)];
+		synchronized (stripe) {
+			int mask = stripe.origins.length - 1;
+			int slot = hash(origin) & mask;
+			while (stripe.origins[slot] != NO_ORIGIN) {
+				if (stripe.origins[slot] == origin) {
+					return stripe.highest[slot];
+				}
+				slot = (slot + 1) & mask;
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * gets the number of messages detected as duplicates.
+	 * 
+	 * @return the number of messages.
+	 */
+	public long getNbDuplicates() {
+		return nbDuplicates.get();
+	}
+
+	/**
+	 * gets the number of messages with a sequence number below the window, which
+	 * are counted as duplicates.
+	 * 
+	 * @return the number of messages.
+	 */
+	public long getNbBelowWindow() {
+		return nbBelowWindow.get();
+	}
+}
@@ -39,22 +39,43 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.TreeMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.log4j.Level;
 
+import chat.client.algorithms.chat.ChatMsgContent;
+import chat.common.CausalDeliveryBuffer;
+import chat.common.EncodedFrame;
+import chat.common.FrameCompression;
 import chat.common.FullDuplexMsgWorker;
+import chat.common.Handshake;
 import chat.common.Log;
 import chat.common.RequestVector;
+import chat.common.VectorClock;
 import chat.server.algorithms.election.Action;
 import chat.server.algorithms.election.ElectionLeaderContent;
 import chat.server.algorithms.election.ElectionTokenContent;
@@ -86,75 +107,285 @@ public class Server {
 	 * the offset of the port number for connecting to servers.
 	 */
 	private static final int OFFSET_PORTNB_LISTEN_SERVER = 100;
+	/**
+	 * the maximum number of connections waiting to be accepted. With a small
+	 * value, the connections that are opened in a burst wait for the
+	 * retransmission of their SYN packet.
+	 */
+	private static final int ACCEPT_BACKLOG = 1024;
+	/**
+	 * the maximum delay in milliseconds during which a slow client may accept no
+	 * byte when the policy is {@link SlowClientPolicy#BLOCK}, before being
+	 * disconnected.
+	 */
+	public static final long SLOW_CLIENT_BLOCK_TIMEOUT_MILLIS = 10000;
+	/**
+	 * the maximum delay in milliseconds between two checks of the slow clients
+	 * that hold back the reading of their sources when the policy is
+	 * {@link SlowClientPolicy#BLOCK} (see {@link #disconnectStalledClients()}).
+	 */
+	static final long SLOW_CLIENT_CHECK_MILLIS = 500;
+	/**
+	 * the maximum delay in milliseconds of the graceful shutdown triggered by the
+	 * command {@code shutdown} of the console (see {@link #shutdown(long, TimeUnit)}).
+	 */
+	public static final long DEFAULT_SHUTDOWN_TIMEOUT_MILLIS = 5000;
+	/**
+	 * the delay in nanoseconds between two attempts to drain the outbound queues
+	 * during a graceful shutdown.
+	 */
+	private static final long SHUTDOWN_RETRY_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+	/**
+	 * the maximum number of outbound frames coalesced per connection (see
+	 * {@link FullDuplexMsgWorker#setCoalescing(int, long, TimeUnit)}). The value
+	 * {@code 1} disables the coalescing.
+	 */
+	private static volatile int coalescingMaxBatchFrames = 1;
+	/**
+	 * the maximum delay in microseconds before writing a coalesced frame.
+	 */
+	private static volatile long coalescingFlushDeadlineMicros = 0;
+	/**
+	 * states whether the compression of the bodies is proposed to the other
+	 * servers (see {@link Handshake#CAPABILITY_COMPRESSION}).
+	 */
+	private static volatile boolean compressionEnabled = false;
+	/**
+	 * the minimum size of the bodies that are compressed.
+	 */
+	private static volatile int compressionThreshold = FrameCompression.DEFAULT_THRESHOLD;
+	/**
+	 * states whether the version 2 headers are proposed to the other servers (see
+	 * {@link Handshake#CAPABILITY_HEADER_V2}).
+	 */
+	private static volatile boolean headerV2Enabled = true;
+	/**
+	 * states whether the checksum of the bodies is proposed to the other servers
+	 * (see {@link Handshake#CAPABILITY_CHECKSUM}).
+	 */
+	private static volatile boolean checksumEnabled = false;
+	/**
+	 * the maximum size of the body of the messages exchanged with the servers and
+	 * the clients.
+	 */
+	private static volatile int maxFrameSize = FullDuplexMsgWorker.DEFAULT_MAX_FRAME_SIZE;
+	/**
+	 * the number of reactors that serve the connections, in addition to the
+	 * acceptor. With the value {@code 0}, the acceptor also serves the
+	 * connections.
+	 */
+	private static volatile int nbReactors = 0;
+	/**
+	 * the policy for assigning the connections to the reactors.
+	 */
+	private static volatile ReactorAssignment reactorAssignment = ReactorAssignment.ROUND_ROBIN;
+	/**
+	 * the factory of the threads that serve the connections one by one, or
+	 * {@code null} when the connections are served by the reactors.
+	 */
+	private static volatile ThreadFactory connectionThreads = null;
+	/**
+	 * the maximum number of messages read from a server connection during an
+	 * iteration of the selector loop.
+	 */
+	private static volatile int serverReadBudget = 64;
+	/**
+	 * the maximum number of messages read from a client connection during an
+	 * iteration of the selector loop.
+	 */
+	private static volatile int clientReadBudget = 16;
+	/**
+	 * the policy applied to the local clients whose outbound queue reaches the
+	 * high watermark.
+	 */
+	private static volatile SlowClientPolicy slowClientPolicy = SlowClientPolicy.DISCONNECT;
+	/**
+	 * the number of frames waiting to be written to a local client from which the
+	 * client is considered slow.
+	 */
+	private static volatile int slowClientHighWatermark = 512;
+	/**
+	 * the number of frames waiting to be written to a slow client down to which
+	 * the policies {@link SlowClientPolicy#BLOCK} and
+	 * {@link SlowClientPolicy#DROP_OLDEST} reduce its queue.
+	 */
+	private static volatile int slowClientLowWatermark = 128;
+	/**
+	 * states whether the servers deliver the chat messages to their local clients
+	 * in the causal order (see {@link #setCausalOrdering(boolean)}).
+	 */
+	private static volatile boolean causalOrdering = false;
 	/**
 	 * the number of clients that have opened a connection to this server till the
 	 * beginning of its execution. Each client is assigned an identity in the form
 	 * of an integer and this identity is provided by the server it is connected to:
 	 * it is the current value of this integer.
 	 */
-	private int numberOfClients = 0;
+	private final AtomicInteger numberOfClients = new AtomicInteger();
 	/**
-	 * the selector.
-	 */
-	private final Selector selector;
-	/**
-	 * the runnable object of the server that receives the messages from the chat
-	 * clients and the other chat servers.
+	 * the runnable object of the server that accepts the connections, and that
+	 * receives the messages from the chat clients and the other chat servers when
+	 * there is no reactor.
 	 */
 	private final ReadMessagesFromNetwork runnableToRcvMsgs;
 	/**
-	 * the thread of the server that receives the messages from the chat clients and
-	 * the other chat servers.
+	 * the thread of the acceptor.
 	 */
 	private final Thread threadToRcvMsgs;
+	/**
+	 * the reactors that receive the messages from the chat clients and the other
+	 * chat servers. The array is empty when the acceptor serves the connections.
+	 */
+	private final ReadMessagesFromNetwork[] reactors;
+	/**
+	 * the threads of the reactors.
+	 */
+	private final Thread[] threadsOfReactors;
+	/**
+	 * the index of the reactor to which the next connection is assigned with the
+	 * policy {@link ReactorAssignment#ROUND_ROBIN}.
+	 */
+	private final AtomicInteger nextReactor = new AtomicInteger();
+	/**
+	 * the factory of the threads of the connections of this server, or
+	 * {@code null} when the connections are served by the reactors.
+	 */
+	private final ThreadFactory threadsFactory;
+	/**
+	 * the threads that serve a connection each. This data structure is
+	 * concurrent.
+	 */
+	private final Set<Thread> threadsOfConnections = ConcurrentHashMap.newKeySet();
+	/**
+	 * states whether the threads of the server have been started.
+	 */
+	private volatile boolean started = false;
+	/**
+	 * the executor of the algorithms, which owns the state of the election and
+	 * mutex algorithms.
+	 */
+	private final AlgorithmExecutor algorithmExecutor;
+	/**
+	 * the number of times the reading of the source of a message has been
+	 * suspended because of a slow client (see {@link SlowClientPolicy#BLOCK}).
+	 */
+	private final AtomicLong nbBlockedForwards = new AtomicLong();
+	/**
+	 * the selection keys of the local clients that have held back the reading of
+	 * the sources of their messages (see {@link SlowClientPolicy#BLOCK}), and of
+	 * the local clients served by their own thread, whose writes are blocking.
+	 * This data structure is concurrent.
+	 */
+	private final Set<SelectionKey> blockingClients = ConcurrentHashMap.newKeySet();
+	/**
+	 * the number of frames dropped from the queues of slow clients (see
+	 * {@link SlowClientPolicy#DROP_OLDEST}).
+	 */
+	private final AtomicLong nbDroppedFrames = new AtomicLong();
+	/**
+	 * the number of slow clients that have been disconnected.
+	 */
+	private final AtomicLong nbDisconnectedClients = new AtomicLong();
+	/**
+	 * the number of neighbouring servers that have announced that they leave (see
+	 * {@link Handshake#TYPE_LEAVE}).
+	 */
+	private final AtomicLong nbLeftNeighbours = new AtomicLong();
+	/**
+	 * the selection keys of the neighbouring servers that have announced that
+	 * they leave. No message is forwarded to them, and their workers are removed
+	 * when they close the connection.
+	 */
+	private final Set<SelectionKey> leavingServerKeys = ConcurrentHashMap.newKeySet();
+	/**
+	 * the vector clock of the servers when the servers order the chat messages
+	 * causally: the entry of a server is the number of chat messages of its local
+	 * clients delivered by this server. It is manipulated with the monitor of
+	 * {@link #causalDelivery}.
+	 */
+	private final VectorClock serverClock = new VectorClock();
+	/**
+	 * the chat messages stamped by the other servers that wait for their delivery
+	 * to the local clients. It is manipulated with its monitor.
+	 */
+	private final CausalDeliveryBuffer<StampedChatContent> causalDelivery = new CausalDeliveryBuffer<>(serverClock,
+			this::collectDeliverable);
+	/**
+	 * the stamped chat messages that have become deliverable during a call to
+	 * {@link #causalDelivery}, in the causal order. It is manipulated with the
+	 * monitor of {@link #causalDelivery}.
+	 */
+	private final List<StampedChatContent> deliverable = new ArrayList<>();
+	/**
+	 * the chat messages to write to the local clients when the servers order the
+	 * chat messages causally, in the order of their delivery. They are appended
+	 * with the monitor of {@link #causalDelivery}, and are written without it by
+	 * one thread at a time (see {@link #writeLocalDeliveries()}). This data
+	 * structure is concurrent.
+	 */
+	private final Queue<LocalDelivery> localDeliveries = new ConcurrentLinkedQueue<>();
+	/**
+	 * states whether a thread is writing the chat messages of
+	 * {@link #localDeliveries}.
+	 */
+	private final AtomicBoolean writingLocalDeliveries = new AtomicBoolean();
+	/**
+	 * the thread of the executor of the algorithms.
+	 */
+	private final Thread threadOfAlgorithms;
 	/**
 	 * identity of this server.
 	 */
 	private final int identity;
-	// The following attributes are shared through getters and setters, and must be
-	// accessed into synchronized blocks. We apply the idiom Self Encapsulate Field,
-	// that is we use methods to manipulate these attributes, in order to make
-	// explicit their manipulation (into synchronized blocks).
-	/**
-	 * selection key of the connection from which the last message was received.
-	 * This data structure is shared and must be accessed into {@code synchronized}
-	 * blocks. <br>
-	 * Be careful: use methods to manipulate this attribute (idiom Self Encapsulate
-	 * Field).
-	 */
-	private SelectionKey selectionKeyOfCurrentMsg;
+	// The following attributes are shared by the reactors and the executor of the
+	// algorithms through getters and setters. They are concurrent collections, so
+	// that the reactors do not contend on the monitor of the server. We apply the
+	// idiom Self Encapsulate Field, that is we use methods to manipulate these
+	// attributes, in order to make explicit their manipulation.
 	/**
-	 * selection keys of the server message workers. This data structure is shared
-	 * and must be accessed into {@code synchronized} blocks. <br>
+	 * selection keys of the server message workers. This data structure is
+	 * concurrent. <br>
 	 * Be careful: use methods to manipulate this attribute (idiom Self Encapsulate
 	 * Field).
 	 */
 	private final Map<SelectionKey, FullDuplexMsgWorker> allServerWorkers;
 	/**
-	 * selection keys of the client message workers. This data structure is shared
-	 * and must be accessed into {@code synchronized} blocks. <br>
+	 * selection keys of the client message workers. This data structure is
+	 * concurrent. <br>
 	 * Be careful: use methods to manipulate this attribute (idiom Self Encapsulate
 	 * Field).
 	 */
 	private final Map<SelectionKey, FullDuplexMsgWorker> allClientWorkers;
 	/**
-	 * one counter per client in order to control the propagation of client
-	 * messages: stop forward to remote servers when the message has already been
-	 * forwarded ; the counter is set by the server receiving the message from the
-	 * client. This data structure is shared and must be accessed into
-	 * {@code synchronized} blocks. <br>
+	 * one window of sequence numbers per client in order to control the
+	 * propagation of client messages: stop forward to remote servers when the
+	 * message has already been forwarded; the sequence number is recorded by the
+	 * server receiving the message from the client. This data structure is
+	 * thread-safe, and its stripes are the locks of the clients: the messages of a
+	 * client are deduplicated and forwarded while holding the lock of its stripe
+	 * (see {@link #clientStripe(int)}), and the messages of the clients of
+	 * different stripes are forwarded in parallel. <br>
 	 * Be careful: use methods to manipulate this attribute (idiom Self Encapsulate
 	 * Field).
 	 */
-	private final Map<Integer, Integer> clientSeqNumbers;
+	private final SeqNumberWindows clientSeqNumbers;
 	/**
-	 * selection keys of the server neighbors.
+	 * the number of stripes of the locks of the clients.
 	 */
-	private TreeMap<Integer, SelectionKey> sortedMapOfServerSelectionKeys;
+	private static final int NB_CLIENT_STRIPES = 64;
 	/**
-	 * indicates if the server is in critical area.
+	 * selection keys of the server neighbors, by identity of the neighbours. The
+	 * entry of a neighbour is set by the reactor when a message of an algorithm is
+	 * received from it, before the action is executed, so that the actions find
+	 * the connection of the sender of the message they treat.
 	 */
-	private Boolean critical;
+	private ConcurrentNavigableMap<Integer, SelectionKey> sortedMapOfServerSelectionKeys;
+	/**
+	 * indicates if the server is in critical area. The state of the algorithms is
+	 * written by the executor of the algorithms only, and is read by other
+	 * threads.
+	 */
+	private volatile Boolean critical;
 
 	
 	/**
@@ -178,7 +409,7 @@ public class Server {
 	 * State of the server.
 	 */
 
-	private State state;
+	private volatile State state;
 	/**
 	 * selection key of the parent.
 	 */
@@ -210,7 +441,7 @@ public class Server {
 	 * @return sorted map of selection keys.
 	 */
 
-	public TreeMap<Integer, SelectionKey> getSortedMapOfServerSelectionKeys() {
+	public ConcurrentNavigableMap<Integer, SelectionKey> getSortedMapOfServerSelectionKeys() {
 		return sortedMapOfServerSelectionKeys;
 	}
 
@@ -224,7 +455,7 @@ public class Server {
 		vector = new RequestVector();
 		critical = false;
 		ns = 0;
-		sortedMapOfServerSelectionKeys = new TreeMap<Integer, SelectionKey>();
+		sortedMapOfServerSelectionKeys = new ConcurrentSkipListMap<Integer, SelectionKey>();
 		
 	}
 
@@ -273,12 +504,13 @@ public class Server {
 		Objects.requireNonNull(args, "args cannot be null");
 		identity = Integer.parseInt(args[0]);
 		int portnum = BASE_PORTNB_LISTEN_CLIENT + Integer.parseInt(args[0]);
-		allServerWorkers = new HashMap<>();
-		allClientWorkers = new HashMap<>();
-		clientSeqNumbers = new HashMap<>();
-		sortedMapOfServerSelectionKeys = new TreeMap<>();
+		allServerWorkers = new ConcurrentHashMap<>();
+		allClientWorkers = new ConcurrentHashMap<>();
+		clientSeqNumbers = new SeqNumberWindows(NB_CLIENT_STRIPES, SeqNumberWindows.DEFAULT_WINDOW_SIZE);
+		sortedMapOfServerSelectionKeys = new ConcurrentSkipListMap<>();
 		InetSocketAddress rcvAddressClient;
 		InetSocketAddress rcvAddressServer;
+		Selector selector;
 		try {
 			selector = Selector.open();
 		} catch (IOException e) {
@@ -306,8 +538,8 @@ public class Server {
 			throw new IllegalStateException("cannot set the SO_REUSEADDR option");
 		}
 		try {
-			listenChanClient.bind(rcvAddressClient);
-			listenChanServer.bind(rcvAddressServer);
+			listenChanClient.bind(rcvAddressClient, ACCEPT_BACKLOG);
+			listenChanServer.bind(rcvAddressServer, ACCEPT_BACKLOG);
 		} catch (IOException e) {
 			throw new IllegalStateException("cannot bind to a server socket");
 		}
@@ -332,6 +564,20 @@ public class Server {
 		runnableToRcvMsgs = new ReadMessagesFromNetwork(this, selector, acceptClientKey, listenChanClient,
 				acceptServerKey, listenChanServer);
 		threadToRcvMsgs = new Thread(runnableToRcvMsgs);
+		threadsFactory = connectionThreads;
+		algorithmExecutor = new AlgorithmExecutor(this, AlgorithmExecutor.DEFAULT_CAPACITY);
+		threadOfAlgorithms = new Thread(algorithmExecutor);
+		int nbThreads = nbReactors;
+		reactors = new ReadMessagesFromNetwork[nbThreads];
+		threadsOfReactors = new Thread[nbThreads];
+		for (int i = 0; i < nbThreads; i++) {
+			try {
+				reactors[i] = new ReadMessagesFromNetwork(this, Selector.open());
+			} catch (IOException e) {
+				throw new IllegalStateException("cannot create the selector of a reactor");
+			}
+			threadsOfReactors[i] = new Thread(reactors[i]);
+		}
 		for (int i = 1; i < args.length; i = i + 2) {
 			try {
 				addServer(args[i],
@@ -402,78 +648,402 @@ public class Server {
 		// connect sending socket to remote port
 		rwSock.connect(rcvAddress);
 		FullDuplexMsgWorker worker = new FullDuplexMsgWorker(rwChan);
-		worker.configureNonBlocking();
-		SelectionKey serverKey = rwChan.register(selector, SelectionKey.OP_READ);
-		synchronized (this) {
+		worker.setCompressionThreshold(compressionThreshold);
+		worker.setMaxFrameSize(maxFrameSize);
+		if (threadsFactory != null) {
+			ConnectionKey serverKey = new ConnectionKey(rwChan);
+			if (capabilities() != 0) {
+				worker.sendHandshake(capabilities());
+			}
 			addServerWorker(serverKey, worker);
-			if (LOG_ON && COMM.isDebugEnabled()) {
-				COMM.debug("getAllServerWorkersSize() = " + getAllServerWorkersSize());
+			serveWithAThread(serverKey, worker, false);
+			return;
+		}
+		worker.configureNonBlocking();
+		worker.setCoalescing(coalescingMaxBatchFrames, coalescingFlushDeadlineMicros, TimeUnit.MICROSECONDS);
+		// the threads of the reactors are not started yet
+		ReadMessagesFromNetwork reactor = chooseReactor();
+		SelectionKey serverKey = worker.register(reactor.getSelector());
+		reactor.connectionAssigned();
+		if (capabilities() != 0) {
+			worker.sendHandshake(capabilities());
+		}
+		addServerWorker(serverKey, worker);
+		if (LOG_ON && COMM.isDebugEnabled()) {
+			COMM.debug("getAllServerWorkersSize() = " + getAllServerWorkersSize());
+		}
+	}
+
+	/**
+	 * configures the coalescing of the outbound frames of the connections that
+	 * are opened afterwards. When forwarding bursts of messages, the frames sent
+	 * to a connection during an iteration of the selector loop are then written
+	 * with one gathering write.
+	 * 
+	 * @param maxBatchFrames
+	 *            the maximum number of frames coalesced; {@code 1} disables the
+	 *            coalescing.
+	 * @param flushDeadlineMicros
+	 *            the maximum delay in microseconds before writing a coalesced
+	 *            frame.
+	 */
+	public static void setWriteCoalescing(final int maxBatchFrames, final long flushDeadlineMicros) {
+		if (maxBatchFrames <= 0) {
+			throw new IllegalArgumentException("invalid maximum number of frames (" + maxBatchFrames + ")");
+		}
+		if (flushDeadlineMicros < 0) {
+			throw new IllegalArgumentException("invalid flush deadline (" + flushDeadlineMicros + ")");
+		}
+		coalescingMaxBatchFrames = maxBatchFrames;
+		coalescingFlushDeadlineMicros = flushDeadlineMicros;
+	}
+
+	/**
+	 * configures the compression of the bodies sent to the other servers, for the
+	 * connections that are opened afterwards. The compression is used on a
+	 * connection only when both servers have enabled it.
+	 * 
+	 * @param enabled
+	 *            states whether the compression is proposed.
+	 * @param threshold
+	 *            the minimum size in bytes of the bodies that are compressed.
+	 */
+	public static void setCompression(final boolean enabled, final int threshold) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("invalid compression threshold (" + threshold + ")");
+		}
+		compressionEnabled = enabled;
+		compressionThreshold = threshold;
+	}
+
+	/**
+	 * sets the maximum size of the body of the messages, for the connections that
+	 * are opened afterwards. A connection from which a larger message is received
+	 * is closed, so that the memory used by the server stays bounded.
+	 * 
+	 * @param size
+	 *            the size in bytes.
+	 */
+	public static void setMaxFrameSize(final int size) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("invalid maximum frame size (" + size + ")");
+		}
+		maxFrameSize = size;
+	}
+
+	/**
+	 * configures the number of reactors of the servers that are created
+	 * afterwards. A reactor is a thread with its own selector that serves a part
+	 * of the connections: it reads the messages, executes the algorithms and
+	 * writes the frames to its connections, so that a server with many clients
+	 * uses several cores. The acceptor hands over every accepted connection to a
+	 * reactor. With no reactor, the acceptor serves all the connections.
+	 * 
+	 * @param number
+	 *            the number of reactors; {@code 0} for no reactor.
+	 * @param assignment
+	 *            the policy for assigning the connections to the reactors.
+	 */
+	public static void setReactors(final int number, final ReactorAssignment assignment) {
+		if (number < 0) {
+			throw new IllegalArgumentException("invalid number of reactors (" + number + ")");
+		}
+		Objects.requireNonNull(assignment, "argument assignment cannot be null");
+		nbReactors = number;
+		reactorAssignment = assignment;
+	}
+
+	/**
+	 * configures the servers that are created afterwards so that each connection
+	 * is served by its own thread with blocking reads and writes, instead of the
+	 * reactors. The acceptor still accepts the connections, and the messages are
+	 * framed and treated as with the reactors. The threads are created with the
+	 * given factory, for instance a factory of virtual threads (see
+	 * {@code chat.server.VirtualThreadMain}, built with the profile
+	 * {@code jdk21}). A thread that writes to a slow connection waits until the
+	 * frame is written; a local client to which a write makes no progress during
+	 * {@link #SLOW_CLIENT_BLOCK_TIMEOUT_MILLIS} is disconnected, whatever the
+	 * policy for slow clients.
+	 * 
+	 * @param factory
+	 *            the factory of the threads; {@code null} for serving the
+	 *            connections with the reactors.
+	 */
+	public static void setConnectionThreads(final ThreadFactory factory) {
+		connectionThreads = factory;
+	}
+
+	/**
+	 * configures the read budgets of the connections served by the reactors.
+	 * During an iteration of its selector loop, a reactor serves all the ready
+	 * server connections, then all the ready client connections, and reads at
+	 * most the budget of messages from each connection; the messages that are
+	 * left wait for the next iteration. A client that floods the server thus
+	 * does not delay the other clients, nor the control messages of the
+	 * algorithms, which come from the servers.
+	 * 
+	 * @param serverFrames
+	 *            the maximum number of messages read from a server connection
+	 *            during an iteration.
+	 * @param clientFrames
+	 *            the maximum number of messages read from a client connection
+	 *            during an iteration.
+	 */
+	public static void setReadBudgets(final int serverFrames, final int clientFrames) {
+		if (serverFrames <= 0) {
+			throw new IllegalArgumentException("invalid server read budget (" + serverFrames + ")");
+		}
+		if (clientFrames <= 0) {
+			throw new IllegalArgumentException("invalid client read budget (" + clientFrames + ")");
+		}
+		serverReadBudget = serverFrames;
+		clientReadBudget = clientFrames;
+	}
+
+	/**
+	 * configures the treatment of the slow local clients, which applies at once
+	 * to all the servers. A client is slow when the number of frames waiting to
+	 * be written to it reaches the high watermark; the policy then decides
+	 * whether the source of the messages stops being read until the client
+	 * catches up, the oldest chat messages of the client are dropped, or the
+	 * client is disconnected. The counters of the actions taken are given by
+	 * {@link #getNbBlockedForwards()}, {@link #getNbDroppedFrames()} and
+	 * {@link #getNbDisconnectedClients()}.
+	 * 
+	 * @param policy
+	 *            the policy.
+	 * @param highWatermark
+	 *            the number of waiting frames from which a client is slow. It is
+	 *            at most {@link FullDuplexMsgWorker#DEFAULT_MAX_OUTBOUND_FRAMES}.
+	 * @param lowWatermark
+	 *            the number of waiting frames down to which the queue of a slow
+	 *            client is reduced.
+	 */
+	public static void setSlowClientPolicy(final SlowClientPolicy policy, final int highWatermark,
+			final int lowWatermark) {
+		Objects.requireNonNull(policy, "argument policy cannot be null");
+		if (highWatermark <= 0 || highWatermark > FullDuplexMsgWorker.DEFAULT_MAX_OUTBOUND_FRAMES) {
+			throw new IllegalArgumentException("invalid high watermark (" + highWatermark + ")");
+		}
+		if (lowWatermark < 0 || lowWatermark >= highWatermark) {
+			throw new IllegalArgumentException("invalid low watermark (" + lowWatermark + ")");
+		}
+		slowClientPolicy = policy;
+		slowClientHighWatermark = highWatermark;
+		slowClientLowWatermark = lowWatermark;
+	}
+
+	/**
+	 * gets the number of times the reading of the source of a message has been
+	 * suspended because of a slow client.
+	 * 
+	 * @return the number of suspensions.
+	 */
+	public long getNbBlockedForwards() {
+		return nbBlockedForwards.get();
+	}
+
+	/**
+	 * gets the number of frames dropped from the queues of slow clients.
+	 * 
+	 * @return the number of frames.
+	 */
+	public long getNbDroppedFrames() {
+		return nbDroppedFrames.get();
+	}
+
+	/**
+	 * gets the number of slow clients that have been disconnected.
+	 * 
+	 * @return the number of clients.
+	 */
+	public long getNbDisconnectedClients() {
+		return nbDisconnectedClients.get();
+	}
+
+	/**
+	 * gets the number of neighbouring servers that have announced that they
+	 * leave.
+	 * 
+	 * @return the number of servers.
+	 */
+	public long getNbLeftNeighbours() {
+		return nbLeftNeighbours.get();
+	}
+
+	/**
+	 * gets the maximum number of messages read from a server connection during
+	 * an iteration of the selector loop.
+	 * 
+	 * @return the budget.
+	 */
+	static int getServerReadBudget() {
+		return serverReadBudget;
+	}
+
+	/**
+	 * configures the causal ordering of the chat messages by the servers, which
+	 * applies to the messages received afterwards. The server of the client that
+	 * sends a chat message stamps it with the vector clock of the servers, which
+	 * has one entry per server, and the servers deliver the chat messages to their
+	 * local clients in the causal order. The clients can then send their chat
+	 * messages without vector clocks (see
+	 * {@link chat.client.Client#setVectorClocks(boolean)}). All the servers must
+	 * be configured alike.
+	 * 
+	 * @param enabled
+	 *            {@code true} for the causal ordering by the servers.
+	 */
+	public static void setCausalOrdering(final boolean enabled) {
+		causalOrdering = enabled;
+	}
+
+	/**
+	 * gets the maximum number of messages read from a client connection during
+	 * an iteration of the selector loop.
+	 * 
+	 * @return the budget.
+	 */
+	static int getClientReadBudget() {
+		return clientReadBudget;
+	}
+
+	/**
+	 * creates the thread that serves a connection, and starts it if the server is
+	 * started.
+	 * 
+	 * @param key
+	 *            the key of the connection.
+	 * @param worker
+	 *            the worker of the connection, whose channel is blocking.
+	 * @param client
+	 *            states whether the connection is with a client or with a server.
+	 */
+	private void serveWithAThread(final ConnectionKey key, final FullDuplexMsgWorker worker, final boolean client) {
+		Thread thread = threadsFactory.newThread(() -> {
+			try {
+				runnableToRcvMsgs.serve(key, worker, client);
+			} finally {
+				threadsOfConnections.remove(Thread.currentThread());
 			}
+		});
+		threadsOfConnections.add(thread);
+		if (started) {
+			thread.start();
 		}
 	}
 
 	/**
-	 * gets the identity of the server.
+	 * chooses the reactor to which a new connection is assigned. This method is
+	 * called by the constructor and by the acceptor.
 	 * 
-	 * @return the identity of the server.
+	 * @return the reactor.
 	 */
-	public int getIdentity() {
-		return identity;
+	private ReadMessagesFromNetwork chooseReactor() {
+		if (reactors.length == 0) {
+			return runnableToRcvMsgs;
+		}
+		if (reactorAssignment == ReactorAssignment.LEAST_LOADED) {
+			ReadMessagesFromNetwork chosen = reactors[0];
+			for (ReadMessagesFromNetwork reactor : reactors) {
+				if (reactor.getLoad() < chosen.getLoad()) {
+					chosen = reactor;
+				}
+			}
+			return chosen;
+		}
+		return reactors[Math.floorMod(nextReactor.getAndIncrement(), reactors.length)];
+	}
+
+	/**
+	 * configures the headers of the messages sent to the other servers, for the
+	 * connections that are opened afterwards. The version 2 headers are smaller
+	 * and may contain the checksum of the body (see {@link chat.common.FrameHeader}); they
+	 * are used on a connection only when both servers have enabled them.
+	 * 
+	 * @param enabled
+	 *            states whether the version 2 headers are proposed.
+	 * @param checksum
+	 *            states whether the checksum of the bodies is proposed.
+	 */
+	public static void setHeaderV2(final boolean enabled, final boolean checksum) {
+		headerV2Enabled = enabled;
+		checksumEnabled = checksum;
 	}
 
 	/**
-	 * gets the key of the SelectionKey that receives the current message. This
-	 * method that manipulates a shared attribute must be accessed into
-	 * {@code synchronized} blocks.
+	 * gets the capabilities of this server, which are sent in the handshake of
+	 * the connections with the other servers.
 	 * 
-	 * @return the current selection key.
+	 * @return the capabilities.
 	 */
-	protected Optional<SelectionKey> getSelectionKeyOfCurrentMsg() {
-		return Optional.ofNullable(selectionKeyOfCurrentMsg);
+	public static int capabilities() {
+		int capabilities = 0;
+		if (compressionEnabled) {
+			capabilities |= Handshake.CAPABILITY_COMPRESSION;
+		}
+		if (headerV2Enabled) {
+			capabilities |= Handshake.CAPABILITY_HEADER_V2;
+			if (checksumEnabled) {
+				capabilities |= Handshake.CAPABILITY_CHECKSUM;
+			}
+		}
+		return capabilities;
 	}
 
 	/**
-	 * sets the key of the SelectionKey that receives the current message. This
-	 * selection key can be {@code null}. This method that manipulates a shared
-	 * attribute must be accessed into {@code synchronized} blocks.
+	 * gets the identity of the server.
 	 * 
-	 * @param selectionKeyOfCurrentMsg
-	 *            the current key.
+	 * @return the identity of the server.
 	 */
-	public void setSelectionKeyOfCurrentMsg(final SelectionKey selectionKeyOfCurrentMsg) {
-		this.selectionKeyOfCurrentMsg = selectionKeyOfCurrentMsg;
+	public int getIdentity() {
+		return identity;
 	}
 
 	/**
-	 * gets the client sequence number of the given client. The sequence number is
-	 * accessed by the thread that read messages from the network into
-	 * {@code synchronized} blocks.
+	 * gets the lock of the stripe of a client. The sequence number of the client
+	 * is checked and recorded, and its messages are forwarded, into a
+	 * {@code synchronized} block on this lock.
 	 * 
 	 * @param clientId
 	 *            the identifier of the client.
-	 * @return the sequence number of the client.
+	 * @return the lock.
 	 */
-	protected Optional<Integer> getClientSeqNumbers(final int clientId) {
-		return Optional.ofNullable(clientSeqNumbers.get(clientId));
+	Object clientStripe(final int clientId) {
+		return clientSeqNumbers.stripeOf(clientId);
 	}
 
 	/**
-	 * sets the client sequence number of the given client. The sequence number is
-	 * accessed by the thread that read messages from the network (class
-	 * {@link ReadMessagesFromNetwork}) into {@code synchronized} blocks.
+	 * records the sequence number of a message of the given client, and states
+	 * whether the message is received for the first time. The messages that are
+	 * received out of order through different paths are accepted once. The
+	 * sequence number is accessed by the reactors (class
+	 * {@link ReadMessagesFromNetwork}) into {@code synchronized} blocks on the
+	 * stripe of the client.
 	 * 
 	 * @param clientId
 	 *            the identifier of the client.
 	 * @param sequenceNumber
-	 *            the new sequence number.
+	 *            the sequence number of the message.
+	 * @return {@code true} when the message has not been received before.
+	 */
+	protected boolean acceptClientSeqNumber(final int clientId, final int sequenceNumber) {
+		return clientSeqNumbers.accept(clientId, sequenceNumber);
+	}
+
+	/**
+	 * gets the number of messages of the clients that have been received again
+	 * and have not been forwarded.
+	 * 
+	 * @return the number of messages.
 	 */
-	protected void setClientSeqNumbers(final int clientId, final int sequenceNumber) {
-		clientSeqNumbers.put(clientId, sequenceNumber);
+	public long getNbDuplicateMessages() {
+		return clientSeqNumbers.getNbDuplicates();
 	}
 
 	/**
-	 * add a worker that correspond to a given neighbouring server. This method that
-	 * manipulates the collection must be accessed into {@code synchronized} blocks.
+	 * add a worker that correspond to a given neighbouring server. This method is
+	 * thread-safe.
 	 * 
 	 * @param key
 	 *            the SelectionKey of the server worker to add.
@@ -485,8 +1055,7 @@ public class Server {
 	}
 
 	/**
-	 * gets the size of the collection. This method that manipulates the collection
-	 * must be accessed into {@code synchronized} blocks.
+	 * gets the size of the collection. This method is thread-safe.
 	 * 
 	 * @return the size of the collection.
 	 */
@@ -495,9 +1064,8 @@ public class Server {
 	}
 
 	/**
-	 * gets the worker to communicate with a given neighbouring servers. This method
-	 * that manipulates the collection must be accessed into {@code synchronized}
-	 * blocks.
+	 * gets the worker to communicate with a given neighbouring servers. This method is
+	 * thread-safe.
 	 * 
 	 * @param key
 	 *            the selection key to get the worker.
@@ -508,19 +1076,56 @@ public class Server {
 	}
 
 	/**
-	 * remove a worker to a given neighbouring server. This method that manipulates
-	 * the collection must be accessed into {@code synchronized} blocks.
+	 * remove a worker to a given neighbouring server. This method is
+	 * thread-safe.
 	 * 
 	 * @param key
 	 *            the SelectionKey of the server worker to remove.
+	 * @return {@code true} when the worker was present.
 	 */
-	protected void removeServerWorker(final SelectionKey key) {
-		allServerWorkers.remove(key);
+	protected boolean removeServerWorker(final SelectionKey key) {
+		leavingServerKeys.remove(key);
+		return allServerWorkers.remove(key) != null;
 	}
 
 	/**
-	 * add a worker that correspond to a given local client. This method that
-	 * manipulates the collection must be accessed into {@code synchronized} blocks.
+	 * takes into account the announce of a neighbouring server that leaves: the
+	 * messages are not forwarded to it anymore, and the algorithms do not find its
+	 * connection with its identity anymore. Its worker stays registered, so that
+	 * the messages it still sends are read until it closes the connection. This
+	 * method is thread-safe.
+	 * 
+	 * @param key
+	 *            the SelectionKey of the server that leaves.
+	 * @param id
+	 *            the identity of the server that leaves.
+	 */
+	void neighbourLeaves(final SelectionKey key, final int id) {
+		Objects.requireNonNull(key, "argument key cannot be null");
+		if (leavingServerKeys.add(key)) {
+			nbLeftNeighbours.incrementAndGet();
+		}
+		sortedMapOfServerSelectionKeys.remove(id, key);
+		if (LOG_ON && COMM.isInfoEnabled()) {
+			COMM.info(Log.computeServerLogMessage(this, ", neighbour " + id + " leaves"));
+		}
+	}
+
+	/**
+	 * states whether a neighbouring server has announced that it leaves. This
+	 * method is thread-safe.
+	 * 
+	 * @param key
+	 *            the SelectionKey of the server.
+	 * @return {@code true} when the server leaves.
+	 */
+	boolean isLeaving(final SelectionKey key) {
+		return leavingServerKeys.contains(key);
+	}
+
+	/**
+	 * add a worker that correspond to a given local client. This method is
+	 * thread-safe.
 	 * 
 	 * @param key
 	 *            the SelectionKey of the client worker to add.
@@ -532,8 +1137,7 @@ public class Server {
 	}
 
 	/**
-	 * gets the size of the collection. This method that manipulates the collection
-	 * must be accessed into {@code synchronized} blocks.
+	 * gets the size of the collection. This method is thread-safe.
 	 * 
 	 * @return the size of the collection.
 	 */
@@ -542,8 +1146,8 @@ public class Server {
 	}
 
 	/**
-	 * gets the worker to communicate with an attached client. This method that
-	 * manipulates the collection must be accessed into {@code synchronized} blocks.
+	 * gets the worker to communicate with an attached client. This method is
+	 * thread-safe.
 	 * 
 	 * @param key
 	 *            the selection key to get the worker.
@@ -554,14 +1158,14 @@ public class Server {
 	}
 
 	/**
-	 * remove a worker to a local client. This method that manipulates the
-	 * collection must be accessed into {@code synchronized} blocks.
+	 * remove a worker to a local client. This method is thread-safe.
 	 * 
 	 * @param key
 	 *            the SelectionKey of the client worker to remove.
+	 * @return {@code true} when the worker was present.
 	 */
-	protected void removeClientWorker(final SelectionKey key) {
-		allClientWorkers.remove(key);
+	protected boolean removeClientWorker(final SelectionKey key) {
+		return allClientWorkers.remove(key) != null;
 	}
 
 	/**
@@ -571,20 +1175,43 @@ public class Server {
 	 * @return a boolean stating whether the invariant is maintained.
 	 */
 	public synchronized boolean invariant() {
-		return numberOfClients >= 0 && runnableToRcvMsgs != null && threadToRcvMsgs != null && allServerWorkers != null
+		return numberOfClients.get() >= 0 && runnableToRcvMsgs != null && threadToRcvMsgs != null && reactors != null
+				&& threadsOfReactors != null && reactors.length == threadsOfReactors.length && algorithmExecutor != null
+				&& threadOfAlgorithms != null && allServerWorkers != null
 				&& allClientWorkers != null && clientSeqNumbers != null;
 	}
 
 	/**
-	 * starts the thread that is responible for reading messages from the clients
-	 * and the other servers.
+	 * starts the threads that are responible for accepting the connections and
+	 * reading messages from the clients and the other servers.
 	 */
 	public void startThreadReadMessagesFromNetwork() {
+		started = true;
+		threadOfAlgorithms.start();
+		for (Thread thread : threadsOfConnections) {
+			// the threads of the connections opened by the constructor
+			if (thread.getState() == Thread.State.NEW) {
+				thread.start();
+			}
+		}
+		for (Thread thread : threadsOfReactors) {
+			thread.start();
+		}
 		threadToRcvMsgs.start();
 	}
 
 	/**
-	 * treats an input line from the console.
+	 * gets the executor of the algorithms.
+	 * 
+	 * @return the executor.
+	 */
+	public AlgorithmExecutor getAlgorithmExecutor() {
+		return algorithmExecutor;
+	}
+
+	/**
+	 * treats an input line from the console. The commands of the algorithms are
+	 * submitted to the executor of the algorithms.
 	 * 
 	 * @param line
 	 *            the content of the message
@@ -598,9 +1225,171 @@ public class Server {
 		}
 		if (line.equals("quit")) {
 			threadToRcvMsgs.interrupt();
+			for (Thread thread : threadsOfReactors) {
+				thread.interrupt();
+			}
+			threadOfAlgorithms.interrupt();
+			for (Thread thread : threadsOfConnections) {
+				thread.interrupt();
+			}
+			Thread.currentThread().interrupt();
+			return;
+		}
+		if (line.equals("shutdown")) {
+			shutdown(DEFAULT_SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
 			Thread.currentThread().interrupt();
 			return;
 		}
+		algorithmExecutor.submit(() -> {
+			try {
+				treatAlgorithmCommand(line);
+			} catch (IOException e) {
+				COMM.error(e.getLocalizedMessage());
+			}
+		});
+	}
+
+	/**
+	 * shuts down this server gracefully, unlike the command {@code quit} of the
+	 * console, which interrupts the threads at once. The server stops accepting
+	 * connections and announces to its neighbours that it leaves (see
+	 * {@link Handshake#TYPE_LEAVE}), so that they stop forwarding messages to it.
+	 * Then, the reactors go on serving the connections until the tasks of the
+	 * executor of the algorithms are executed and the outbound queues are
+	 * written, or until the timeout. Finally, the threads are stopped, and the
+	 * connections and the selectors are closed.
+	 * 
+	 * @param timeout
+	 *            the maximum delay for draining the outbound queues.
+	 * @param unit
+	 *            the unit of the timeout.
+	 */
+	public void shutdown(final long timeout, final TimeUnit unit) {
+		Objects.requireNonNull(unit, "argument unit cannot be null");
+		if (timeout < 0) {
+			throw new IllegalArgumentException("invalid timeout (" + timeout + ")");
+		}
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		runnableToRcvMsgs.stopAccepting();
+		// the announce is a control message: it overtakes the chat messages waiting
+		try {
+			EncodedFrame leave = EncodedFrame.encode(Handshake.TYPE_LEAVE, identity, -1, Integer.valueOf(identity));
+			try {
+				forwardServers(null, leave);
+			} finally {
+				leave.release();
+			}
+		} catch (IOException e) {
+			COMM.warn(Log.computeServerLogMessage(this, ", " + e.getLocalizedMessage()));
+		}
+		boolean drained = isDrained();
+		while (!drained && System.nanoTime() < deadline) {
+			LockSupport.parkNanos(SHUTDOWN_RETRY_NANOS);
+			drained = isDrained();
+		}
+		if (!drained) {
+			COMM.warn(Log.computeServerLogMessage(this, ", shutdown timeout with messages not sent"));
+		}
+		runnableToRcvMsgs.stop();
+		for (ReadMessagesFromNetwork reactor : reactors) {
+			reactor.stop();
+		}
+		threadOfAlgorithms.interrupt();
+		for (Thread thread : threadsOfConnections) {
+			thread.interrupt();
+		}
+		try {
+			// the threads are given at least one millisecond, since 0 means no timeout
+			threadToRcvMsgs.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+			for (Thread thread : threadsOfReactors) {
+				thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+			}
+			threadOfAlgorithms.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		for (FullDuplexMsgWorker worker : allServerWorkers.values()) {
+			closeQuietly(worker);
+		}
+		for (FullDuplexMsgWorker worker : allClientWorkers.values()) {
+			closeQuietly(worker);
+		}
+		runnableToRcvMsgs.closeSelector();
+		for (ReadMessagesFromNetwork reactor : reactors) {
+			reactor.closeSelector();
+		}
+		if (LOG_ON && GEN.isInfoEnabled()) {
+			GEN.info(Log.computeServerLogMessage(this, ", shutdown " + (drained ? "completed" : "timed out")));
+		}
+	}
+
+	/**
+	 * states whether the tasks of the executor of the algorithms are executed and
+	 * the outbound queues are written. The executor must be idle before the
+	 * outbound queues are flushed, since the task being executed may still send
+	 * messages. The outbound queues are flushed, e.g. for the coalesced frames
+	 * waiting for their deadline.
+	 * 
+	 * @return {@code true} when nothing is left to send.
+	 */
+	private boolean isDrained() {
+		if (algorithmExecutor.getQueueSize() != 0 || !algorithmExecutor.isIdle()) {
+			return false;
+		}
+		boolean drained = flushAll(allServerWorkers.values());
+		drained &= flushAll(allClientWorkers.values());
+		return drained;
+	}
+
+	/**
+	 * flushes the outbound queues of workers.
+	 * 
+	 * @param workers
+	 *            the workers.
+	 * @return {@code true} when the outbound queues are empty.
+	 */
+	private boolean flushAll(final Collection<FullDuplexMsgWorker> workers) {
+		boolean empty = true;
+		for (FullDuplexMsgWorker worker : workers) {
+			try {
+				empty &= worker.flushOutbound();
+			} catch (IOException e) {
+				// a broken connection has nothing more to send
+				if (LOG_ON && COMM.isTraceEnabled()) {
+					COMM.trace("problem when flushing the connection");
+				}
+			}
+		}
+		return empty;
+	}
+
+	/**
+	 * closes the connection of a worker, ignoring the problems.
+	 * 
+	 * @param worker
+	 *            the worker.
+	 */
+	private void closeQuietly(final FullDuplexMsgWorker worker) {
+		try {
+			worker.close();
+		} catch (IOException e) {
+			if (LOG_ON && COMM.isTraceEnabled()) {
+				COMM.trace("problem when closing the connection");
+			}
+		}
+	}
+
+	/**
+	 * treats a command of the algorithms that has been input on the console. This
+	 * method is executed by the executor of the algorithms.
+	 * 
+	 * @param line
+	 *            the command.
+	 * @throws IOException
+	 *             the exception thrown in case of communication problem.
+	 */
+	private void treatAlgorithmCommand(final String line) throws IOException {
+		assert algorithmExecutor.isExecutorThread();
 		if (line.equals("election")) {
 			ElectionTokenContent token = new ElectionTokenContent(this.getIdentity(), this.getIdentity());
 			this.state = State.initiator;
@@ -624,35 +1413,38 @@ public class Server {
 	}
 
 	/**
-	 * accepts connection (socket level), creates MsgWorker, and registers selection
-	 * key of the remote server. This method is called when accepting a connection
-	 * from a remote server. This method must be accessed into {@code synchronized}
-	 * blocks.
+	 * accepts connection (socket level), creates MsgWorker, and hands it over to a
+	 * reactor, which registers its selection key. This method is called when
+	 * accepting a connection from a remote server.
 	 * 
 	 * @param sc
 	 *            server socket channel.
+	 * @return {@code true} when a connection has been accepted.
 	 * @throws IOException
 	 *             the exception thrown in case of communication problem.
 	 */
-	public void acceptNewServer(final ServerSocketChannel sc) throws IOException {
+	public boolean acceptNewServer(final ServerSocketChannel sc) throws IOException {
 		SocketChannel rwChan;
-		SelectionKey newKey;
 		rwChan = sc.accept();
 		if (rwChan != null) {
 			try {
 				FullDuplexMsgWorker worker = new FullDuplexMsgWorker(rwChan);
-				worker.configureNonBlocking();
-				newKey = rwChan.register(selector, SelectionKey.OP_READ);
-				synchronized (this) {
-					addServerWorker(newKey, worker);
-					if (LOG_ON && COMM.isDebugEnabled()) {
-						COMM.debug("getAllServerWorkersSize() = " + getAllServerWorkersSize());
-					}
+				worker.setCompressionThreshold(compressionThreshold);
+				worker.setMaxFrameSize(maxFrameSize);
+				if (threadsFactory != null) {
+					ConnectionKey key = new ConnectionKey(rwChan);
+					addServerWorker(key, worker);
+					serveWithAThread(key, worker, false);
+					return true;
 				}
+				worker.configureNonBlocking();
+				worker.setCoalescing(coalescingMaxBatchFrames, coalescingFlushDeadlineMicros, TimeUnit.MICROSECONDS);
+				chooseReactor().handOver(worker, false);
 			} catch (ClosedChannelException e) {
 				COMM.error(e.getLocalizedMessage());
 			}
 		}
+		return rwChan != null;
 	}
 
 	/**
@@ -662,44 +1454,68 @@ public class Server {
 	public static final int OFFSET_ID_CLIENT = 100;
 
 	/**
-	 * accepts connection (socket level), creates MsgWorker, and registers selection
-	 * key of the local client. This method is called when accepting a connection
-	 * from a local client.
+	 * accepts connection (socket level), creates MsgWorker, and hands it over to a
+	 * reactor, which registers its selection key. This method is called when
+	 * accepting a connection from a local client.
 	 * 
 	 * @param sc
 	 *            server socket channel.
+	 * @return {@code true} when a connection has been accepted.
 	 * @throws IOException
 	 *             the exception thrown in case of communication problem.
 	 */
-	public void acceptNewClient(final ServerSocketChannel sc) throws IOException {
+	public boolean acceptNewClient(final ServerSocketChannel sc) throws IOException {
 		SocketChannel rwChan;
-		SelectionKey newKey;
 		rwChan = sc.accept();
 		if (rwChan != null) {
 			try {
 				FullDuplexMsgWorker worker = new FullDuplexMsgWorker(rwChan);
-				worker.configureNonBlocking();
-				newKey = rwChan.register(selector, SelectionKey.OP_READ);
-				synchronized (this) {
-					this.addClientWorker(newKey, worker);
-					worker.sendMsg(0, identity, -1, Integer.valueOf(identity * OFFSET_ID_CLIENT + numberOfClients));
-					numberOfClients++;
-					if (LOG_ON && COMM.isDebugEnabled()) {
-						COMM.debug("getAllClientWorkersSize() = " + getAllClientWorkersSize());
-					}
+				worker.setMaxFrameSize(maxFrameSize);
+				if (threadsFactory != null) {
+					ConnectionKey key = new ConnectionKey(rwChan);
+					// the slow clients are disconnected whatever the policy, since the
+					// writes are blocking and nothing is queued
+					worker.setWriteTimeout(SLOW_CLIENT_BLOCK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+					blockingClients.add(key);
+					addNewClient(key, worker);
+					serveWithAThread(key, worker, true);
+					return true;
 				}
+				worker.configureNonBlocking();
+				worker.setCoalescing(coalescingMaxBatchFrames, coalescingFlushDeadlineMicros, TimeUnit.MICROSECONDS);
+				chooseReactor().handOver(worker, true);
 			} catch (ClosedChannelException e) {
 				COMM.error(e.getLocalizedMessage());
 			}
 		}
+		return rwChan != null;
+	}
+
+	/**
+	 * adds the worker of a new local client, once registered by its reactor, and
+	 * sends its identity to the client.
+	 * 
+	 * @param key
+	 *            the selection key of the client worker.
+	 * @param worker
+	 *            the worker.
+	 * @throws IOException
+	 *             the exception thrown in case of communication problem.
+	 */
+	void addNewClient(final SelectionKey key, final FullDuplexMsgWorker worker) throws IOException {
+		addClientWorker(key, worker);
+		worker.sendMsg(0, identity, -1,
+				Integer.valueOf(identity * OFFSET_ID_CLIENT + numberOfClients.getAndIncrement()));
+		if (LOG_ON && COMM.isDebugEnabled()) {
+			COMM.debug("getAllClientWorkersSize() = " + getAllClientWorkersSize());
+		}
 	}
 
 	/**
 	 * sends a message to all the remote servers / neighbours connected to this
 	 * server. This is a utility method for implementing distributed algorithms in
 	 * the servers' state machine: use this method when this server needs sending
-	 * messages to its neighbours. This method must be accessed into
-	 * {@code synchronized} blocks.
+	 * messages to its neighbours. This method is thread-safe.
 	 * 
 	 * @param type
 	 *            message's type.
@@ -715,14 +1531,14 @@ public class Server {
 	public void sendToAllServers(final int type, final int identity, final int seqN, final Serializable msg)
 			throws IOException {
 		// send to all the servers, thus first argument is null
-		forwardServers(null, type, identity, seqN, msg);
+		sendToAllServersExceptOne(null, type, identity, seqN, msg);
 	}
 
 	/**
 	 * sends a message to a particular remote server / neighbour. This is a utility
 	 * method for implementing distributed algorithms in the servers' state machine:
 	 * use this method when this server needs sending messages to a given neighbour.
-	 * This method must be accessed into {@code synchronized} blocks.
+	 * This method is thread-safe.
 	 * 
 	 * @param targetKey
 	 *            selection key of the neighbour.
@@ -754,8 +1570,8 @@ public class Server {
 	 * sends a message to all the remote servers / neighbours connected to this
 	 * server, except one. This is a utility method for implementing distributed
 	 * algorithms in the servers' state machine: use this method when this server
-	 * needs sending messages to all its neighbours, except one. This method must be
-	 * accessed into {@code synchronized} blocks.
+	 * needs sending messages to all its neighbours, except one. This method is
+	 * thread-safe.
 	 * 
 	 * @param exceptKey
 	 *            the selection key of the server to exclude in the forwarding.
@@ -772,13 +1588,22 @@ public class Server {
 	 */
 	public void sendToAllServersExceptOne(final SelectionKey exceptKey, final int type, final int identity,
 			final int seqN, final Serializable s) throws IOException {
-		forwardServers(exceptKey, type, identity, seqN, s);
+		EncodedFrame frame = EncodedFrame.encode(type, identity, seqN, s);
+		try {
+			forwardServers(exceptKey, frame);
+		} finally {
+			frame.release();
+		}
 	}
 
 	/**
 	 * forwards a message to all the clients and the servers, except the entity
-	 * (client or server) from which the message has just been received. This method
-	 * must be accessed into {@code synchronized} blocks.
+	 * (client or server) from which the message has just been received. The
+	 * message is encoded once and the same frame is written to all the targets.
+	 * When the servers order the chat messages causally, the chat message is
+	 * stamped first (see {@link #setCausalOrdering(boolean)}). This method must
+	 * be accessed into {@code synchronized} blocks on the stripe of the client
+	 * (see {@link #clientStripe(int)}).
 	 * 
 	 * @param exceptKey
 	 *            selection key to exclude from the set of target connections, e.g.,
@@ -797,14 +1622,25 @@ public class Server {
 	 */
 	void forward(final SelectionKey exceptKey, final int type, final int identity, final int seqNumber,
 			final Serializable msg) throws IOException {
-		forwardServers(exceptKey, type, identity, seqNumber, msg);
-		forwardClients(exceptKey, type, identity, seqNumber, msg);
+		if (causalOrdering && msg instanceof ChatMsgContent) {
+			stampAndForward(exceptKey, type, identity, seqNumber, (ChatMsgContent) msg);
+			return;
+		}
+		EncodedFrame frame = EncodedFrame.encode(type, identity, seqNumber, msg);
+		try {
+			forwardServers(exceptKey, frame);
+			forwardClients(exceptKey, exceptKey, frame);
+		} finally {
+			frame.release();
+		}
 	}
 
 	/**
-	 * forwards a message to all the servers, except the server from which the
-	 * message has just been received. This method must be accessed into
-	 * {@code synchronized} blocks.
+	 * relays a message to all the clients and the servers, except the entity from
+	 * which the message has just been received. The body is the one of the
+	 * received message: it is forwarded as is, without being decoded and encoded
+	 * again. This method must be accessed into {@code synchronized} blocks on the
+	 * stripe of the client (see {@link #clientStripe(int)}).
 	 * 
 	 * @param exceptKey
 	 *            selection key to exclude from the set of target connections, e.g.,
@@ -816,13 +1652,138 @@ public class Server {
 	 *            sender's identity.
 	 * @param seqNumber
 	 *            message's sequence number.
+	 * @param body
+	 *            the chunks of the encoded body of the message.
+	 * @throws IOException
+	 *             the communication exception thrown when sending the message.
+	 */
+	void relay(final SelectionKey exceptKey, final int type, final int identity, final int seqNumber,
+			final ByteBuffer[] body) throws IOException {
+		EncodedFrame frame = EncodedFrame.wrap(type, identity, seqNumber, body);
+		try {
+			forwardServers(exceptKey, frame);
+			if (type == StampedChatContent.TYPE_STAMPED_CHAT) {
+				// the stamp is removed before the delivery to the local clients
+				StampedChatContent stamped = (StampedChatContent) frame.decode();
+				synchronized (causalDelivery) {
+					causalDelivery.receive(stamped);
+					for (StampedChatContent delivered : deliverable) {
+						ChatMsgContent msg = delivered.getChatMsg();
+						localDeliveries.add(new LocalDelivery(exceptKey, null,
+								chat.client.algorithms.chat.Action.CHAT_MESSAGE.identifier(), msg));
+					}
+					deliverable.clear();
+				}
+				writeLocalDeliveries();
+			} else {
+				forwardClients(exceptKey, exceptKey, frame);
+			}
+		} finally {
+			frame.release();
+		}
+	}
+
+	/**
+	 * stamps the chat message of a local client with the vector clock of the
+	 * servers, delivers it to the other local clients, and forwards the stamped
+	 * message to the servers. The message is delivered at once since it only
+	 * depends on messages that this server has delivered. This method must be
+	 * accessed into {@code synchronized} blocks on the stripe of the client (see
+	 * {@link #clientStripe(int)}).
+	 * 
+	 * @param exceptKey
+	 *            selection key of the local client that has sent the message.
+	 * @param type
+	 *            message's type.
+	 * @param identity
+	 *            sender's identity.
+	 * @param seqNumber
+	 *            message's sequence number.
 	 * @param msg
-	 *            message as a serializable object.
+	 *            the chat message.
 	 * @throws IOException
 	 *             the communication exception thrown when sending the message.
 	 */
-	private void forwardServers(final SelectionKey exceptKey, final int type, final int identity, final int seqNumber,
-			final Serializable msg) throws IOException {
+	private void stampAndForward(final SelectionKey exceptKey, final int type, final int identity,
+			final int seqNumber, final ChatMsgContent msg) throws IOException {
+		StampedChatContent stamped;
+		synchronized (causalDelivery) {
+			stamped = new StampedChatContent(this.identity, new VectorClock(serverClock), msg);
+			serverClock.incrementEntry(this.identity);
+			localDeliveries.add(new LocalDelivery(exceptKey, exceptKey, type, msg));
+		}
+		writeLocalDeliveries();
+		// the identity and the sequence number of the client are kept, so that the
+		// servers deduplicate the stamped message as the chat message; the servers
+		// receiving it order it with its stamp, whatever the order of the writes
+		EncodedFrame frame = EncodedFrame.encode(StampedChatContent.TYPE_STAMPED_CHAT, identity, seqNumber,
+				stamped);
+		try {
+			forwardServers(exceptKey, frame);
+		} finally {
+			frame.release();
+		}
+	}
+
+	/**
+	 * collects a chat message stamped by another server that has become
+	 * deliverable. This method is called with the monitor of
+	 * {@link #causalDelivery}: the message is written to the local clients after
+	 * the monitor is released.
+	 * 
+	 * @param stamped
+	 *            the stamped chat message.
+	 */
+	private void collectDeliverable(final StampedChatContent stamped) {
+		deliverable.add(stamped);
+	}
+
+	/**
+	 * writes the chat messages delivered causally to the local clients, in the
+	 * order of their delivery. This method is called without the monitor of
+	 * {@link #causalDelivery}, so that the writes of a thread do not hold back
+	 * the deliveries of the other threads. One thread at a time writes the
+	 * messages: a thread that finds another one writing leaves it the messages
+	 * it has appended.
+	 */
+	private void writeLocalDeliveries() {
+		while (!localDeliveries.isEmpty() && writingLocalDeliveries.compareAndSet(false, true)) {
+			try {
+				LocalDelivery delivery;
+				while ((delivery = localDeliveries.poll()) != null) {
+					ChatMsgContent msg = delivery.msg;
+					try {
+						EncodedFrame frame = EncodedFrame.encode(delivery.type, msg.getSender(),
+								msg.getSeqNumber(), msg);
+						try {
+							forwardClients(delivery.sourceKey, delivery.exceptKey, frame);
+						} finally {
+							frame.release();
+						}
+					} catch (IOException e) {
+						COMM.warn(Log.computeServerLogMessage(this, ", " + e.getLocalizedMessage()));
+					}
+				}
+			} finally {
+				writingLocalDeliveries.set(false);
+			}
+		}
+	}
+
+	/**
+	 * forwards an encoded message to all the servers, except the server from which
+	 * the message has just been received. This method is thread-safe.
+	 * 
+	 * @param exceptKey
+	 *            selection key to exclude from the set of target connections, e.g.,
+	 *            selection key of the entity from which the message has been
+	 *            received.
+	 * @param frame
+	 *            the encoded message.
+	 * @throws IOException
+	 *             the communication exception thrown when sending the message.
+	 */
+	private void forwardServers(final SelectionKey exceptKey, final EncodedFrame frame) throws IOException {
 		int nbServers = 0;
 		for (Map.Entry<SelectionKey, FullDuplexMsgWorker> entry : allServerWorkers.entrySet()) {
 			if (entry.getKey() == exceptKey) {
@@ -830,12 +1791,22 @@ public class Server {
 					COMM.debug("do not send to a server " + "because (target == exceptKey)");
 				}
 				continue;
+			} else if (leavingServerKeys.contains(entry.getKey())) {
+				if (LOG_ON && COMM.isDebugEnabled()) {
+					COMM.debug("do not send to a server " + "because it leaves");
+				}
+				continue;
 			} else {
 				if (entry.getValue() == null) {
 					COMM.warn("Bad worker for server key " + entry.getKey());
 				} else {
-					entry.getValue().sendMsg(type, identity, seqNumber, msg);
-					nbServers++;
+					try {
+						entry.getValue().sendFrame(frame);
+						nbServers++;
+					} catch (IOException e) {
+						// a slow or broken end point must not prevent the others from receiving
+						COMM.warn(Log.computeServerLogMessage(this, ", " + e.getLocalizedMessage()));
+					}
 				}
 			}
 		}
@@ -845,27 +1816,25 @@ public class Server {
 	}
 
 	/**
-	 * forwards a message to all the clients, except the client from which the
-	 * message has just been received. This method must be accessed into
-	 * {@code synchronized} blocks.
+	 * forwards an encoded message to all the clients, except the client from which
+	 * the message has just been received. This method is thread-safe.
 	 * 
+	 * @param sourceKey
+	 *            selection key of the entity (client or server) from which the
+	 *            message has been received, whose reading is held back by the
+	 *            slow clients (see {@link SlowClientPolicy#BLOCK}), or
+	 *            {@code null} when there is none.
 	 * @param exceptKey
 	 *            selection key to exclude from the set of target connections, e.g.,
 	 *            selection key of the entity from which the message has been
 	 *            received.
-	 * @param type
-	 *            message's type.
-	 * @param identity
-	 *            sender's identity.
-	 * @param seqNumber
-	 *            message's sequence number.
-	 * @param msg
-	 *            message as an serializable object.
+	 * @param frame
+	 *            the encoded message.
 	 * @throws IOException
 	 *             the communication exception thrown when sending the message.
 	 */
-	private void forwardClients(final SelectionKey exceptKey, final int type, final int identity, final int seqNumber,
-			final Serializable msg) throws IOException {
+	private void forwardClients(final SelectionKey sourceKey, final SelectionKey exceptKey,
+			final EncodedFrame frame) throws IOException {
 		int nbClients = 0;
 		for (Map.Entry<SelectionKey, FullDuplexMsgWorker> entry : allClientWorkers.entrySet()) {
 			if (entry.getKey() == exceptKey) {
@@ -877,8 +1846,17 @@ public class Server {
 				if (entry.getValue() == null) {
 					COMM.warn("Bad client for key " + entry);
 				} else {
-					entry.getValue().sendMsg(type, identity, seqNumber, msg);
-					nbClients++;
+					try {
+						if (entry.getValue().getOutboundQueueSize() >= slowClientHighWatermark
+								&& !treatSlowClient(entry.getKey(), entry.getValue(), sourceKey)) {
+							continue;
+						}
+						entry.getValue().sendFrame(frame);
+						nbClients++;
+					} catch (IOException e) {
+						// a slow or broken end point must not prevent the others from receiving
+						COMM.warn(Log.computeServerLogMessage(this, ", " + e.getLocalizedMessage()));
+					}
 				}
 			}
 		}
@@ -887,50 +1865,177 @@ public class Server {
 		}
 	}
 
+	/**
+	 * applies the policy for slow clients to a local client whose outbound queue
+	 * has reached the high watermark. With the policy
+	 * {@link SlowClientPolicy#BLOCK}, the frame is queued and the reading of the
+	 * source of the message is suspended until the queue of the client is down
+	 * to the low watermark: the calling thread is never blocked, and the other
+	 * connections of its reactor are still served. The clients that do not
+	 * catch up are disconnected by {@link #disconnectStalledClients()}.
+	 * 
+	 * @param key
+	 *            the selection key of the client.
+	 * @param worker
+	 *            the worker of the client.
+	 * @param sourceKey
+	 *            the selection key of the source of the message, or {@code null}
+	 *            when there is none.
+	 * @return {@code false} when the client has been disconnected.
+	 */
+	private boolean treatSlowClient(final SelectionKey key, final FullDuplexMsgWorker worker,
+			final SelectionKey sourceKey) {
+		int low = slowClientLowWatermark;
+		switch (slowClientPolicy) {
+		case BLOCK:
+			if (sourceKey != null) {
+				Optional<FullDuplexMsgWorker> source = getClientWorker(sourceKey);
+				if (!source.isPresent()) {
+					source = getServerWorker(sourceKey);
+				}
+				if (source.isPresent() && worker.holdBack(source.get(), low)) {
+					nbBlockedForwards.incrementAndGet();
+					blockingClients.add(key);
+				}
+			}
+			return true;
+		case DROP_OLDEST:
+			nbDroppedFrames.addAndGet(worker.dropOldestChatFrames(low));
+			return true;
+		default:
+			disconnectSlowClient(key, worker);
+			return false;
+		}
+	}
+
+	/**
+	 * states whether local clients hold back the reading of the sources of their
+	 * messages (see {@link SlowClientPolicy#BLOCK}).
+	 * 
+	 * @return {@code true} when the reactors must check the slow clients
+	 *         periodically (see {@link #disconnectStalledClients()}).
+	 */
+	boolean hasBlockingClients() {
+		return !blockingClients.isEmpty();
+	}
+
+	/**
+	 * disconnects the local clients that hold back the reading of the sources of
+	 * their messages and that have accepted no byte during
+	 * {@link #SLOW_CLIENT_BLOCK_TIMEOUT_MILLIS}. The closing of their connection
+	 * resumes the reading of the sources. The local clients served by their own
+	 * thread are disconnected when a blocking write to them makes no progress
+	 * during the same delay: the closing stops the write, and releases the thread
+	 * of the source. This method is called periodically by the reactors, or by
+	 * the acceptor, and is thread-safe.
+	 */
+	void disconnectStalledClients() {
+		long now = System.nanoTime();
+		long timeout = TimeUnit.MILLISECONDS.toNanos(SLOW_CLIENT_BLOCK_TIMEOUT_MILLIS);
+		for (Iterator<SelectionKey> iter = blockingClients.iterator(); iter.hasNext();) {
+			SelectionKey key = iter.next();
+			FullDuplexMsgWorker worker = allClientWorkers.get(key);
+			if (worker == null) {
+				iter.remove();
+			} else if (worker.getStallNanos(now) > timeout) {
+				iter.remove();
+				disconnectSlowClient(key, worker);
+			} else if (!(key instanceof ConnectionKey) && !worker.isHoldingBack()) {
+				iter.remove();
+				// a source may have been held back in the meantime
+				if (worker.isHoldingBack()) {
+					blockingClients.add(key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * closes the connection of a slow client and removes its worker.
+	 * 
+	 * @param key
+	 *            the selection key of the client.
+	 * @param worker
+	 *            the worker of the client.
+	 */
+	private void disconnectSlowClient(final SelectionKey key, final FullDuplexMsgWorker worker) {
+		COMM.warn(Log.computeServerLogMessage(this, ", disconnecting a slow client ("
+				+ worker.getOutboundQueueSize() + " frames waiting)"));
+		try {
+			worker.close();
+		} catch (IOException e) {
+			if (LOG_ON && COMM.isTraceEnabled()) {
+				COMM.trace("problem when closing the connection");
+			}
+		}
+		if (removeClientWorker(key)) {
+			nbDisconnectedClients.incrementAndGet();
+			if (!(key instanceof ConnectionKey)) {
+				reactorOf(key).connectionClosed();
+			}
+		}
+	}
+
+	/**
+	 * gets the reactor with the selector of a selection key.
+	 * 
+	 * @param key
+	 *            the selection key.
+	 * @return the reactor.
+	 */
+	private ReadMessagesFromNetwork reactorOf(final SelectionKey key) {
+		for (ReadMessagesFromNetwork reactor : reactors) {
+			if (reactor.getSelector() == key.selector()) {
+				return reactor;
+			}
+		}
+		return runnableToRcvMsgs;
+	}
+
 	/**
 	 * treats a token message of the election algorithm.
 	 * 
-	 * NB1: do not forget to synchronise with {@code synchronized (this)}. <br>
-	 * NB2: at the end of the action, do not forget to set the attribute
-	 * {@link #selectionKeyOfCurrentMsg} to {@code null}.
+	 * This method is executed by the executor of the algorithms.
 	 * 
+	 * @param key
+	 *            the selection key of the connection from which the message has
+	 *            been received, which becomes the parent connection.
 	 * @param content
 	 *            the content of the message to treat.
 	 * @throws IOException
 	 *            IOExeption.
 	 */
-	public void receiveTokenContent(final ElectionTokenContent content) throws IOException {
-		synchronized (this) {
-			if (caw == -1 || content.getInitiator() < caw) {
-				caw = content.getInitiator();
-				rec = 0;
-				parent = content.getSender();
-				this.setElectionParentKey(this.getSelectionKeyOfCurrentMsg().get());
-				ElectionTokenContent token = new ElectionTokenContent(this.getIdentity(), content.getInitiator());
+	public void receiveTokenContent(final SelectionKey key, final ElectionTokenContent content)
+			throws IOException {
+		assert algorithmExecutor.isExecutorThread();
+		if (caw == -1 || content.getInitiator() < caw) {
+			caw = content.getInitiator();
+			rec = 0;
+			parent = content.getSender();
+			this.setElectionParentKey(key);
+			ElectionTokenContent token = new ElectionTokenContent(this.getIdentity(), content.getInitiator());
 
-				this.sendToAllServersExceptOne(getElectionParentKey(), Action.TOKEN_MESSAGE.identifier(),
-						identity, -1, token);	
+			this.sendToAllServersExceptOne(getElectionParentKey(), Action.TOKEN_MESSAGE.identifier(),
+					identity, -1, token);	
 
 
-			}
-			if (caw == content.getInitiator()) {
-				rec++;
-				if (rec == this.getAllServerWorkersSize()) {
-					ElectionLeaderContent leader = new ElectionLeaderContent(this.getIdentity(), this.getIdentity());
-					if (caw == identity) {
-
-						this.sendToAllServers(Action.LEADER_MESSAGE.identifier(), identity, -1, leader);	
-					} else {
-						ElectionTokenContent token = new ElectionTokenContent(this.getIdentity(), content.getInitiator());
-						this.sendToAServer(getElectionParentKey(), Action.TOKEN_MESSAGE.identifier(), identity, -1, token);
-					}
+		}
+		if (caw == content.getInitiator()) {
+			rec++;
+			if (rec == this.getAllServerWorkersSize()) {
+				ElectionLeaderContent leader = new ElectionLeaderContent(this.getIdentity(), this.getIdentity());
+				if (caw == identity) {
+
+					this.sendToAllServers(Action.LEADER_MESSAGE.identifier(), identity, -1, leader);	
+				} else {
+					ElectionTokenContent token = new ElectionTokenContent(this.getIdentity(), content.getInitiator());
+					this.sendToAServer(getElectionParentKey(), Action.TOKEN_MESSAGE.identifier(), identity, -1, token);
+				}
 
-				
-				} 
 			
-			}
+			} 
+		
 		}
-		setSelectionKeyOfCurrentMsg(null);
 	}
 
 		
@@ -939,9 +2044,7 @@ public class Server {
 	/**
 	 * treats a leader message of the election algorithm.
 	 * 
-	 * NB1: do not forget to synchronise with {@code synchronized (this)}. <br>
-	 * NB2: at the end of the action, do not forget to set the attribute
-	 * {@link #selectionKeyOfCurrentMsg} to {@code null}.
+	 * This method is executed by the executor of the algorithms.
 	 * 
 	 * @param content
 	 *            the content of the message to treat.
@@ -950,38 +2053,36 @@ public class Server {
 	 */
 	public void receiveLeaderContent(final ElectionLeaderContent content) throws IOException {
 
-		synchronized (this) {
-			if (lrec == 0 && identity != content.getInitiator()) {
-				ElectionLeaderContent leader = new ElectionLeaderContent(this.getIdentity(), content.getInitiator());
+		assert algorithmExecutor.isExecutorThread();
+		if (lrec == 0 && identity != content.getInitiator()) {
+			ElectionLeaderContent leader = new ElectionLeaderContent(this.getIdentity(), content.getInitiator());
 
-				this.sendToAllServers(Action.LEADER_MESSAGE.identifier(), identity, -1, leader);	
+			this.sendToAllServers(Action.LEADER_MESSAGE.identifier(), identity, -1, leader);	
 
-			}
-			lrec++;
-			win = content.getInitiator();
-			if (lrec == this.getAllServerWorkersSize()) {
-				if (win == identity) {
-					this.state = State.leader;
-					this.critical = true;
-					if (LOG_ON && ELECTION.isInfoEnabled()) {
-						ELECTION.info("status = " + this.getState());
-					}
-					
-					if (LOG_ON && MUTEX.isInfoEnabled()) {
-						MUTEX.info("critical = " + this.getCritical());
-					}
-					jet = new RequestVector();
-				} else {
-
-					this.state = State.nonleader;
-					if (LOG_ON && ELECTION.isInfoEnabled()) {
-						ELECTION.info("status = " + this.getState());
-					}
+		}
+		lrec++;
+		win = content.getInitiator();
+		if (lrec == this.getAllServerWorkersSize()) {
+			if (win == identity) {
+				this.state = State.leader;
+				this.critical = true;
+				if (LOG_ON && ELECTION.isInfoEnabled()) {
+					ELECTION.info("status = " + this.getState());
+				}
+				
+				if (LOG_ON && MUTEX.isInfoEnabled()) {
+					MUTEX.info("critical = " + this.getCritical());
+				}
+				jet = new RequestVector();
+			} else {
 
+				this.state = State.nonleader;
+				if (LOG_ON && ELECTION.isInfoEnabled()) {
+					ELECTION.info("status = " + this.getState());
 				}
+
 			}
 		}
-		setSelectionKeyOfCurrentMsg(null);
 	}
 	/**
 	 * treats a request message of the mutex algorithm.
@@ -1013,7 +2114,8 @@ public class Server {
 	 * @param sortedMapOfServerSelectionKeys
 	 *           servers keys.
 	 */
-	public void setSortedMapOfServerSelectionKeys(final TreeMap<Integer, SelectionKey> sortedMapOfServerSelectionKeys) {
+	public void setSortedMapOfServerSelectionKeys(
+			final ConcurrentNavigableMap<Integer, SelectionKey> sortedMapOfServerSelectionKeys) {
 		this.sortedMapOfServerSelectionKeys = sortedMapOfServerSelectionKeys;
 	}
 
@@ -1031,9 +2133,51 @@ public class Server {
 		jet = content.getJeton();
 	}
 	
-}
-
-			
-		
-	
 
+	/**
+	 * This class defines a chat message to write to the local clients when the
+	 * servers order the chat messages causally.
+	 */
+	private static final class LocalDelivery {
+		/**
+		 * the selection key of the entity from which the message has been
+		 * received, or {@code null}.
+		 */
+		private final SelectionKey sourceKey;
+		/**
+		 * the selection key of the local client to which the message is not
+		 * written, or {@code null}.
+		 */
+		private final SelectionKey exceptKey;
+		/**
+		 * the message type.
+		 */
+		private final int type;
+		/**
+		 * the chat message.
+		 */
+		private final ChatMsgContent msg;
+
+		/**
+		 * constructs a chat message to write to the local clients.
+		 * 
+		 * @param sourceKey
+		 *            the selection key of the source of the message, or
+		 *            {@code null}.
+		 * @param exceptKey
+		 *            the selection key of the local client to exclude, or
+		 *            {@code null}.
+		 * @param type
+		 *            the message type.
+		 * @param msg
+		 *            the chat message.
+		 */
+		private LocalDelivery(final SelectionKey sourceKey, final SelectionKey exceptKey, final int type,
+				final ChatMsgContent msg) {
+			this.sourceKey = sourceKey;
+			this.exceptKey = exceptKey;
+			this.type = type;
+			this.msg = msg;
+		}
+	}
+}
@@ -0,0 +1,52 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.server;
+
+/**
+ * This enumeration defines the policies applied to a local client whose
+ * outbound queue has reached the high watermark (see
+ * {@link Server#setSlowClientPolicy(SlowClientPolicy, int, int)}).
+ *
+ * @author agent
+ */
+public enum SlowClientPolicy {
+	/**
+	 * the message is queued and the connection of the source of the message
+	 * stops being read until the queue of the client is down to the low
+	 * watermark, so that the source is slowed down in turn. The thread that
+	 * forwards the message is not blocked and goes on serving its other
+	 * connections. A client that accepts no byte during
+	 * {@link Server#SLOW_CLIENT_BLOCK_TIMEOUT_MILLIS} is disconnected, which
+	 * resumes the reading of the sources.
+	 */
+	BLOCK,
+	/**
+	 * the oldest frames of chat messages of the queue of the client are dropped
+	 * until the queue is down to the low watermark. The client then misses these
+	 * messages.
+	 */
+	DROP_OLDEST,
+	/**
+	 * the connection of the client is closed.
+	 */
+	DISCONNECT
+}
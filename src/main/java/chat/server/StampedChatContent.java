@@ -0,0 +1,131 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.server;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import chat.client.algorithms.chat.ChatMsgContent;
+import chat.common.CausalMessage;
+import chat.common.MsgCodec;
+import chat.common.MsgCodecs;
+import chat.common.MsgContent;
+import chat.common.VectorClock;
+
+/**
+ * This class defines the chat messages exchanged between the servers when the
+ * servers order the chat messages causally (see
+ * {@link Server#setCausalOrdering(boolean)}). The server of the client that has
+ * sent the chat message stamps it with the vector clock of the servers, which
+ * has one entry per server: the entry of a server is the number of chat
+ * messages of its local clients. The sender of the message is this server.
+ * 
+ * @author agent
+ */
+public class StampedChatContent extends MsgContent implements CausalMessage {
+	/**
+	 * version number for serialization.
+	 */
+	private static final long serialVersionUID = 1L;
+	/**
+	 * the message type of the stamped chat messages. It is in the range of the
+	 * client algorithms so that the stamped chat messages are queued as chat
+	 * messages (see {@link chat.common.FullDuplexMsgWorker#isControlMessage(int)}),
+	 * and it is never sent to the clients: the servers deliver the chat message
+	 * without its stamp.
+	 */
+	public static final int TYPE_STAMPED_CHAT = chat.common.ActionOfAClient.OFFSET_CLIENT_ALGORITHMS + 999;
+	/**
+	 * the codec of the stamped chat messages: the server, the vector clock of the
+	 * servers, and the chat message (see {@link ChatMsgContent#CODEC}).
+	 */
+	public static final MsgCodec<StampedChatContent> CODEC = new MsgCodec<StampedChatContent>() {
+		@Override
+		public Class<StampedChatContent> contentClass() {
+			return StampedChatContent.class;
+		}
+
+		@Override
+		public void encode(final StampedChatContent msg, final ByteBuffer out) {
+			MsgCodecs.putVarInt(out, msg.getSender());
+			msg.serverClock.writeTo(out);
+			ChatMsgContent.CODEC.encode(msg.chatMsg, out);
+		}
+
+		@Override
+		public StampedChatContent decode(final ByteBuffer in) {
+			int server = MsgCodecs.getVarInt(in);
+			VectorClock serverClock = VectorClock.readFrom(in);
+			return new StampedChatContent(server, serverClock, ChatMsgContent.CODEC.decode(in));
+		}
+	};
+	/**
+	 * the vector clock of the servers, before the stamping.
+	 */
+	private final VectorClock serverClock;
+	/**
+	 * the chat message.
+	 */
+	private final ChatMsgContent chatMsg;
+
+	/**
+	 * constructs the message.
+	 * 
+	 * @param server
+	 *            the identity of the server that stamps the message.
+	 * @param serverClock
+	 *            the vector clock of the servers.
+	 * @param chatMsg
+	 *            the chat message.
+	 */
+	public StampedChatContent(final int server, final VectorClock serverClock, final ChatMsgContent chatMsg) {
+		super(server);
+		Objects.requireNonNull(serverClock, "argument serverClock cannot be null");
+		Objects.requireNonNull(chatMsg, "argument chatMsg cannot be null");
+		this.serverClock = serverClock;
+		this.chatMsg = chatMsg;
+	}
+
+	/**
+	 * gets the chat message.
+	 * 
+	 * @return the chat message.
+	 */
+	public ChatMsgContent getChatMsg() {
+		return chatMsg;
+	}
+
+	@Override
+	public VectorClock getVectorClock() {
+		return serverClock;
+	}
+
+	@Override
+	public boolean isClockDelta() {
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "server = " + getSender() + ", server clock = " + serverClock + ", " + chatMsg;
+	}
+}
@@ -21,12 +21,11 @@ Contributor(s):
  */
 package chat.server.algorithms;
 
-import java.util.Arrays;
+import java.nio.channels.SelectionKey;
 import java.util.Map;
-import java.util.Objects;
-import java.util.Optional;
 
 import chat.common.ActionOfAServer;
+import chat.common.MsgContent;
 import chat.server.Server;
 
 /**
@@ -66,6 +65,42 @@ public enum Algorithm {
 	 * index of the first message type of the mutex algorithm.
 	 */
 	public static final int OFFSET_MUTEX_ALGORITHM = 10;
+	/**
+	 * the actions of all the algorithms indexed by message type, so that the
+	 * dispatch of a message is an array access. The table is built at class
+	 * loading from the collections of actions; the message types that are
+	 * negative or beyond the table have no action.
+	 */
+	private static final ActionOfAServer[] DISPATCH_TABLE;
+	/**
+	 * the content classes of the actions of {@link #DISPATCH_TABLE}, at the same
+	 * indices.
+	 */
+	private static final Class<?>[] CONTENT_CLASSES;
+
+	static {
+		int maxType = -1;
+		for (Algorithm algorithm : values()) {
+			for (Integer type : algorithm.getMapOfActions().keySet()) {
+				if (type < 0) {
+					throw new IllegalStateException("negative message type " + type + " in " + algorithm);
+				}
+				maxType = Math.max(maxType, type);
+			}
+		}
+		DISPATCH_TABLE = new ActionOfAServer[maxType + 1];
+		CONTENT_CLASSES = new Class<?>[maxType + 1];
+		for (Algorithm algorithm : values()) {
+			for (Map.Entry<Integer, ? extends ActionOfAServer> entry : algorithm.getMapOfActions().entrySet()) {
+				int type = entry.getKey();
+				if (DISPATCH_TABLE[type] != null) {
+					throw new IllegalStateException("two actions for the message type " + type);
+				}
+				DISPATCH_TABLE[type] = entry.getValue();
+				CONTENT_CLASSES[type] = entry.getValue().contentClass();
+			}
+		}
+	}
 
 	/**
 	 * is the constructor of this algorithm object.
@@ -87,22 +122,33 @@ public enum Algorithm {
 	}
 
 	/**
-	 * searches for the action to execute in the collection of actions of the
-	 * algorithm of the server. The synchronisation is made into the server method
-	 * that is going to be executed.
+	 * searches for the action to execute in the dispatch table of the actions of
+	 * the algorithms of the server, and executes it when the content is of the
+	 * expected class. The synchronisation is made into the server method that is
+	 * going to be executed.
 	 * 
 	 * @param server
 	 *            the reference to the server.
+	 * @param key
+	 *            the selection key of the connection from which the message has
+	 *            been received.
 	 * @param actionIndex
 	 *            index of the action to execute.
 	 * @param content
 	 *            content of the message just received.
 	 */
-	public static void execute(final Server server, final int actionIndex, final Object content) {
-		Arrays.asList(values()).stream().map(Algorithm::getMapOfActions).map(actions -> actions.get(actionIndex))
-				.filter(Objects::nonNull).filter(action -> action.contentClass().isInstance(content))
-				.forEach(action -> action.executeOrIntercept(
-						Optional.ofNullable(server).orElseThrow(IllegalArgumentException::new),
-						action.contentClass().cast(content)));
+	public static void execute(final Server server, final SelectionKey key, final int actionIndex,
+			final Object content) {
+		if (actionIndex < 0 || actionIndex >= DISPATCH_TABLE.length) {
+			return;
+		}
+		ActionOfAServer action = DISPATCH_TABLE[actionIndex];
+		if (action == null || !CONTENT_CLASSES[actionIndex].isInstance(content)) {
+			return;
+		}
+		if (server == null) {
+			throw new IllegalArgumentException();
+		}
+		action.executeOrIntercept(server, key, (MsgContent) content);
 	}
 }
@@ -22,12 +22,13 @@ Contributor(s):
 package chat.server.algorithms.election;
 
 import java.io.IOException;
+import java.nio.channels.SelectionKey;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
-import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
+import chat.common.ActionFunctionOfAServer;
 import chat.common.ActionOfAServer;
 import chat.common.MsgContent;
 import chat.server.Server;
@@ -44,9 +45,9 @@ public enum Action implements ActionOfAServer {
 	 * the enumerator for the action of the token message of the election algorithm.
 	 */
 	TOKEN_MESSAGE(ElectionTokenContent.class,
-			(Server server, MsgContent content) -> {
+			(Server server, SelectionKey key, MsgContent content) -> {
 				try {
-					server.receiveTokenContent((ElectionTokenContent) content);
+					server.receiveTokenContent(key, (ElectionTokenContent) content);
 				} catch (IOException e) {
 					// TODO Auto-generated catch block
 					e.printStackTrace();
@@ -57,7 +58,7 @@ public enum Action implements ActionOfAServer {
 	 * algorithm.
 	 */
 	LEADER_MESSAGE(ElectionLeaderContent.class,
-			(Server server, MsgContent content) -> {
+			(Server server, SelectionKey key, MsgContent content) -> {
 				try {
 					server.receiveLeaderContent((ElectionLeaderContent) content);
 				} catch (IOException e) {
@@ -89,7 +90,7 @@ public enum Action implements ActionOfAServer {
 	/**
 	 * the lambda expression of the action.
 	 */
-	private final BiConsumer<Server, MsgContent> actionFunction;
+	private final ActionFunctionOfAServer actionFunction;
 
 	/**
 	 * static block to build collections of actions.
@@ -107,7 +108,7 @@ public enum Action implements ActionOfAServer {
 	 * @param actionFunction
 	 *            the lambda expression of the action.
 	 */
-	Action(final Class<? extends MsgContent> contentClass, final BiConsumer<Server, MsgContent> actionFunction) {
+	Action(final Class<? extends MsgContent> contentClass, final ActionFunctionOfAServer actionFunction) {
 		this.actionIndex = chat.common.ActionOfAServer.OFFSET_SERVER_ALGORITHMS
 				+ chat.server.algorithms.Algorithm.OFFSET_ELECTION_ALGORITHM + ordinal();
 		this.contentClass = contentClass;
@@ -137,7 +138,7 @@ public enum Action implements ActionOfAServer {
 	 * 
 	 * @return the lambda expression.
 	 */
-	public BiConsumer<Server, MsgContent> actionFunction() {
+	public ActionFunctionOfAServer actionFunction() {
 		return actionFunction;
 	}
 
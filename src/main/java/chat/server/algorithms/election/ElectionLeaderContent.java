@@ -21,6 +21,10 @@ Contributor(s):
  */
 package chat.server.algorithms.election;
 
+import java.nio.ByteBuffer;
+
+import chat.common.MsgCodec;
+import chat.common.MsgCodecs;
 import chat.common.MsgContent;
 
 /**
@@ -38,6 +42,27 @@ public class ElectionLeaderContent extends MsgContent {
 	 * version number for serialisation.
 	 */
 	private static final long serialVersionUID = 1L;
+	/**
+	 * the codec of the leader messages: sender and initiator.
+	 */
+	public static final MsgCodec<ElectionLeaderContent> CODEC = new MsgCodec<ElectionLeaderContent>() {
+		@Override
+		public Class<ElectionLeaderContent> contentClass() {
+			return ElectionLeaderContent.class;
+		}
+
+		@Override
+		public void encode(final ElectionLeaderContent msg, final ByteBuffer out) {
+			MsgCodecs.putVarInt(out, msg.getSender());
+			MsgCodecs.putVarInt(out, msg.initiator);
+		}
+
+		@Override
+		public ElectionLeaderContent decode(final ByteBuffer in) {
+			int sender = MsgCodecs.getVarInt(in);
+			return new ElectionLeaderContent(sender, MsgCodecs.getVarInt(in));
+		}
+	};
 	/**
 	 * content initiator.
 	 */
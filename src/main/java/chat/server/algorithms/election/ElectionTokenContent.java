@@ -21,6 +21,10 @@ Contributor(s):
  */
 package chat.server.algorithms.election;
 
+import java.nio.ByteBuffer;
+
+import chat.common.MsgCodec;
+import chat.common.MsgCodecs;
 import chat.common.MsgContent;
 
 /**
@@ -43,6 +47,27 @@ public class ElectionTokenContent extends MsgContent {
 	 */
 	
 	private static final long serialVersionUID = 1L;
+	/**
+	 * the codec of the token messages: sender and initiator.
+	 */
+	public static final MsgCodec<ElectionTokenContent> CODEC = new MsgCodec<ElectionTokenContent>() {
+		@Override
+		public Class<ElectionTokenContent> contentClass() {
+			return ElectionTokenContent.class;
+		}
+
+		@Override
+		public void encode(final ElectionTokenContent msg, final ByteBuffer out) {
+			MsgCodecs.putVarInt(out, msg.getSender());
+			MsgCodecs.putVarInt(out, msg.initiator);
+		}
+
+		@Override
+		public ElectionTokenContent decode(final ByteBuffer in) {
+			int sender = MsgCodecs.getVarInt(in);
+			return new ElectionTokenContent(sender, MsgCodecs.getVarInt(in));
+		}
+	};
 	/**
 	 * content initiator.
 	 */
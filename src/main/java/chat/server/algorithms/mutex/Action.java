@@ -2,12 +2,13 @@
 package chat.server.algorithms.mutex;
 
 import java.io.IOException;
+import java.nio.channels.SelectionKey;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Map;
-import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
+import chat.common.ActionFunctionOfAServer;
 import chat.common.ActionOfAServer;
 import chat.common.MsgContent;
 import chat.server.Server;
@@ -24,7 +25,7 @@ public enum Action implements ActionOfAServer {
 	 * the enumerator for the action of the request message of the mutex algorithm.
 	 */
 	REQUEST_MESSAGE(MutexRequestContent.class,
-			(Server server, MsgContent content) -> {
+			(Server server, SelectionKey key, MsgContent content) -> {
 				try {
 					server.receiveRequestContent((MutexRequestContent) content);
 				} catch (IOException e) {
@@ -36,7 +37,7 @@ public enum Action implements ActionOfAServer {
 	 * algorithm.
 	 */
 	TOKEN_MESSAGE(MutexTokenContent.class,
-			(Server server, MsgContent content) -> {
+			(Server server, SelectionKey key, MsgContent content) -> {
 				try {
 					server.receiveTokenMutexContent((MutexTokenContent) content);
 				} catch (IOException e) {
@@ -67,7 +68,7 @@ public enum Action implements ActionOfAServer {
 	/**
 	 * the lambda expression of the action.
 	 */
-	private final BiConsumer<Server, MsgContent> actionFunction;
+	private final ActionFunctionOfAServer actionFunction;
 
 	/**
 	 * static block to build collections of actions.
@@ -85,7 +86,7 @@ public enum Action implements ActionOfAServer {
 	 * @param actionFunction
 	 *            the lambda expression of the action.
 	 */
-	Action(final Class<? extends MsgContent> contentClass, final BiConsumer<Server, MsgContent> actionFunction) {
+	Action(final Class<? extends MsgContent> contentClass, final ActionFunctionOfAServer actionFunction) {
 		this.actionIndex = chat.common.ActionOfAServer.OFFSET_SERVER_ALGORITHMS
 				+ chat.server.algorithms.Algorithm.OFFSET_MUTEX_ALGORITHM + ordinal();
 		this.contentClass = contentClass;
@@ -115,7 +116,7 @@ public enum Action implements ActionOfAServer {
 	 * 
 	 * @return the lambda expression.
 	 */
-	public BiConsumer<Server, MsgContent> actionFunction() {
+	public ActionFunctionOfAServer actionFunction() {
 		return actionFunction;
 	}
 
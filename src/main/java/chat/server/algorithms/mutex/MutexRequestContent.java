@@ -1,6 +1,10 @@
 
 package chat.server.algorithms.mutex;
 
+import java.nio.ByteBuffer;
+
+import chat.common.MsgCodec;
+import chat.common.MsgCodecs;
 import chat.common.MsgContent;
 
 /**
@@ -23,6 +27,27 @@ public class MutexRequestContent extends MsgContent {
 	 */
 	
 	private static final long serialVersionUID = 1L;
+	/**
+	 * the codec of the request messages: sender and local clock.
+	 */
+	public static final MsgCodec<MutexRequestContent> CODEC = new MsgCodec<MutexRequestContent>() {
+		@Override
+		public Class<MutexRequestContent> contentClass() {
+			return MutexRequestContent.class;
+		}
+
+		@Override
+		public void encode(final MutexRequestContent msg, final ByteBuffer out) {
+			MsgCodecs.putVarInt(out, msg.getSender());
+			MsgCodecs.putVarInt(out, msg.ns);
+		}
+
+		@Override
+		public MutexRequestContent decode(final ByteBuffer in) {
+			int sender = MsgCodecs.getVarInt(in);
+			return new MutexRequestContent(sender, MsgCodecs.getVarInt(in));
+		}
+	};
 	/**
 	 * horloge locale.
 	 */
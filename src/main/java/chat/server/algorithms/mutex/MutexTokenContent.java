@@ -1,6 +1,10 @@
 
 package chat.server.algorithms.mutex;
 
+import java.nio.ByteBuffer;
+
+import chat.common.MsgCodec;
+import chat.common.MsgCodecs;
 import chat.common.MsgContent;
 import chat.common.RequestVector;
 
@@ -24,6 +28,33 @@ public class MutexTokenContent extends MsgContent {
 	 */
 	
 	private static final long serialVersionUID = 1L;
+	/**
+	 * the codec of the token messages: sender and the token when present.
+	 */
+	public static final MsgCodec<MutexTokenContent> CODEC = new MsgCodec<MutexTokenContent>() {
+		@Override
+		public Class<MutexTokenContent> contentClass() {
+			return MutexTokenContent.class;
+		}
+
+		@Override
+		public void encode(final MutexTokenContent msg, final ByteBuffer out) {
+			MsgCodecs.putVarInt(out, msg.getSender());
+			if (msg.jeton == null) {
+				out.put((byte) 0);
+			} else {
+				out.put((byte) 1);
+				msg.jeton.writeTo(out);
+			}
+		}
+
+		@Override
+		public MutexTokenContent decode(final ByteBuffer in) {
+			int sender = MsgCodecs.getVarInt(in);
+			RequestVector jeton = (in.get() == 0) ? null : RequestVector.readFrom(in);
+			return new MutexTokenContent(sender, jeton);
+		}
+	};
     /**
      * token.
      */
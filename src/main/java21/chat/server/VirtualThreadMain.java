@@ -0,0 +1,67 @@
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat.server;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * This class defines the main of a chat server whose connections are served
+ * by virtual threads: each connection with a client or another server is read
+ * and written with blocking calls in its own virtual thread (see
+ * {@link Server#setConnectionThreads(ThreadFactory)}). The arguments and the
+ * commands of the console are the ones of {@link Main}.
+ * 
+ * This class needs Java 21; it is compiled with the profile {@code jdk21}.
+ * 
+ * @author agent
+ * 
+ */
+public final class VirtualThreadMain {
+	/**
+	 * private constructor to avoid creating instances.
+	 */
+	private VirtualThreadMain() {
+	}
+
+	/**
+	 * gets a factory of virtual threads for the connections.
+	 * 
+	 * @return the factory.
+	 */
+	public static ThreadFactory factory() {
+		return Thread.ofVirtual().name("chat-connection-", 0).factory();
+	}
+
+	/**
+	 * configures the virtual threads and starts the server.
+	 * 
+	 * @param args
+	 *            the command line arguments.
+	 * @throws IOException
+	 *             the exception thrown when reading a command in the console.
+	 */
+	public static void main(final String[] args) throws IOException {
+		Server.setConnectionThreads(factory());
+		Main.main(args);
+	}
+}
@@ -0,0 +1,76 @@
+// CHECKSTYLE:OFF
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import chat.client.algorithms.chat.ChatMsgContent;
+import chat.common.BufferPool;
+import chat.common.EncodedFrame;
+
+/**
+ * This class contains the unit tests of the class <tt>BufferPool</tt> and of
+ * the reference counting of the class <tt>EncodedFrame</tt>.
+ *
+ * @author agent
+ */
+public class BufferPoolTest {
+
+	@Test
+	public void testSizeClasses() throws Exception {
+		BufferPool pool = new BufferPool();
+		ByteBuffer small = pool.lease(10);
+		Assert.assertTrue(small.isDirect());
+		Assert.assertEquals(256, small.capacity());
+		Assert.assertEquals(10, small.limit());
+		ByteBuffer medium = pool.lease(257);
+		Assert.assertEquals(512, medium.capacity());
+		ByteBuffer big = pool.lease(BufferPool.maxPooledSize() + 1);
+		Assert.assertFalse(big.isDirect());
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		BufferPool pool = new BufferPool();
+		ByteBuffer first = pool.lease(100);
+		pool.release(first);
+		ByteBuffer second = pool.lease(200);
+		Assert.assertSame(first, second);
+		Assert.assertEquals(0, second.position());
+		Assert.assertEquals(200, second.limit());
+		Assert.assertNotSame(second, pool.lease(200));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testFrameReferences() throws Exception {
+		EncodedFrame frame = EncodedFrame.encode(chat.client.algorithms.chat.Action.CHAT_MESSAGE.identifier(), 1, 0,
+				new ChatMsgContent(1, 0, "hello"));
+		frame.retain();
+		frame.release();
+		frame.release();
+		frame.retain();
+	}
+}
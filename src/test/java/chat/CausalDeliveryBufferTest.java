@@ -0,0 +1,121 @@
+// CHECKSTYLE:OFF
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import chat.client.algorithms.chat.ChatMsgContent;
+import chat.common.CausalDeliveryBuffer;
+import chat.common.VectorClock;
+
+public class CausalDeliveryBufferTest {
+
+	private static ChatMsgContent message(final int sender, final int seqNumber, final VectorClock w) {
+		return new ChatMsgContent(sender, seqNumber, sender + ":" + seqNumber, new VectorClock(w));
+	}
+
+	@Test
+	public void testDeliveryWaitsForDependencies() throws Exception {
+		VectorClock v = new VectorClock();
+		List<String> delivered = new ArrayList<>();
+		CausalDeliveryBuffer<ChatMsgContent> buffer = new CausalDeliveryBuffer<>(v, m -> delivered.add(m.getContent()));
+		// 100 sends a message, then 200 answers after having delivered it
+		VectorClock w100 = new VectorClock();
+		ChatMsgContent m1 = message(100, 0, w100);
+		VectorClock w200 = new VectorClock();
+		w200.incrementEntry(100);
+		ChatMsgContent m2 = message(200, 0, w200);
+		// another message from 300 that depends on nothing
+		ChatMsgContent m3 = message(300, 0, new VectorClock());
+		buffer.receive(m2);
+		Assert.assertEquals(1, buffer.getNbPending());
+		buffer.receive(m3);
+		Assert.assertEquals(1, buffer.getNbPending());
+		Assert.assertEquals("[300:0]", delivered.toString());
+		buffer.receive(m1);
+		Assert.assertEquals(0, buffer.getNbPending());
+		Assert.assertEquals("[300:0, 100:0, 200:0]", delivered.toString());
+		buffer.receive(m1);
+		Assert.assertEquals(1, buffer.getNbDuplicates());
+		Assert.assertEquals(1, v.getEntry(100));
+		Assert.assertEquals(1, v.getEntry(200));
+		Assert.assertEquals(1, v.getEntry(300));
+	}
+
+	@Test
+	public void testManyMessagesReceivedInReverseOrder() throws Exception {
+		final int nbSenders = 10;
+		final int nbMsgs = 5000;
+		// a conversation in which each message depends on all the previous ones
+		VectorClock clock = new VectorClock();
+		List<ChatMsgContent> sent = new ArrayList<>();
+		for (int i = 0; i < nbMsgs; i++) {
+			int sender = 100 + i % nbSenders;
+			sent.add(message(sender, clock.getEntry(sender), clock));
+			clock.incrementEntry(sender);
+		}
+		VectorClock v = new VectorClock();
+		List<ChatMsgContent> delivered = new ArrayList<>();
+		CausalDeliveryBuffer<ChatMsgContent> buffer = new CausalDeliveryBuffer<>(v, delivered::add);
+		for (int i = nbMsgs - 1; i >= 0; i--) {
+			buffer.receive(sent.get(i));
+		}
+		Assert.assertEquals(0, buffer.getNbPending());
+		Assert.assertEquals(sent, delivered);
+		Assert.assertTrue(v.isEqualTo(clock));
+	}
+
+	@Test
+	public void testDifferentialClocksReceivedInReverseOrder() throws Exception {
+		final int nbSenders = 10;
+		final int nbMsgs = 2000;
+		VectorClock clock = new VectorClock();
+		VectorClock[] lastSent = new VectorClock[nbSenders];
+		List<ChatMsgContent> sent = new ArrayList<>();
+		for (int i = 0; i < nbMsgs; i++) {
+			// the senders send bursts of 5 messages
+			int s = (i / 5) % nbSenders;
+			int sender = 100 + s;
+			VectorClock previous = lastSent[s] == null ? new VectorClock() : lastSent[s];
+			sent.add(new ChatMsgContent(sender, clock.getEntry(sender), sender + ":" + i,
+					clock.changedSince(previous), true));
+			lastSent[s] = new VectorClock(clock);
+			clock.incrementEntry(sender);
+		}
+		// in a burst, only the entry of the sender changes
+		Assert.assertEquals(1, sent.get(nbMsgs - 1).getVectorClock().size());
+		VectorClock v = new VectorClock();
+		List<ChatMsgContent> delivered = new ArrayList<>();
+		CausalDeliveryBuffer<ChatMsgContent> buffer = new CausalDeliveryBuffer<>(v, delivered::add);
+		for (int i = nbMsgs - 1; i >= 0; i--) {
+			buffer.receive(sent.get(i));
+		}
+		Assert.assertEquals(0, buffer.getNbPending());
+		Assert.assertEquals(sent, delivered);
+		Assert.assertTrue(v.isEqualTo(clock));
+	}
+}
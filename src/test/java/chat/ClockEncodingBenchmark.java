@@ -0,0 +1,98 @@
+// CHECKSTYLE:OFF
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat;
+
+import java.util.Random;
+
+import chat.client.algorithms.chat.ChatMsgContent;
+import chat.common.MsgCodecs;
+import chat.common.VectorClock;
+
+/**
+ * This class is a micro-benchmark of the encoding of the vector clocks of the
+ * chat messages: for conversations between 10, 100 and 1000 clients, it prints
+ * the average size of the body of the chat messages with complete vector
+ * clocks and with differential vector clocks (see
+ * <tt>VectorClock#changedSince</tt>). Every client is supposed to deliver the
+ * messages as they are sent, so that the vector clock of the sender is the
+ * vector clock of the conversation. The senders are drawn uniformly, or
+ * with 80% of the messages sent by 10% of the clients. It is not a unit test;
+ * run it with
+ * <tt>java -cp target/classes:target/test-classes chat.ClockEncodingBenchmark</tt>.
+ *
+ * @author agent
+ */
+public class ClockEncodingBenchmark {
+
+	private static final int NB_MSGS = 20000;
+
+	private static final String LINE = "on se retrouve vers midi pour la réunion";
+
+	private static int identityOf(final int client) {
+		// the identities computed by the servers: 100 clients per server
+		return chat.server.Server.OFFSET_ID_CLIENT * (client / chat.server.Server.OFFSET_ID_CLIENT + 1)
+				+ client % chat.server.Server.OFFSET_ID_CLIENT;
+	}
+
+	private static void measure(final int nbClients, final boolean skewed, final Random random)
+			throws Exception {
+		int chatType = chat.client.algorithms.chat.Action.CHAT_MESSAGE.identifier();
+		VectorClock conversation = new VectorClock();
+		VectorClock[] lastSent = new VectorClock[nbClients];
+		// every client sends a first message, so that the complete vector clocks
+		// have one entry per client
+		for (int client = 0; client < nbClients; client++) {
+			lastSent[client] = new VectorClock(conversation);
+			conversation.incrementEntry(identityOf(client));
+		}
+		long fullBytes = 0;
+		long deltaBytes = 0;
+		long deltaEntries = 0;
+		for (int i = 0; i < NB_MSGS; i++) {
+			int active = Math.max(1, nbClients / 10);
+			int client = (skewed && random.nextInt(10) < 8) ? random.nextInt(active) : random.nextInt(nbClients);
+			int sender = identityOf(client);
+			int seqNumber = conversation.getEntry(sender);
+			// the encoded body is only valid until the next encoding of the thread
+			fullBytes += MsgCodecs.encode(chatType, new ChatMsgContent(sender, seqNumber, LINE, conversation))
+					.remaining();
+			VectorClock delta = conversation.changedSince(lastSent[client]);
+			deltaBytes += MsgCodecs.encode(chatType, new ChatMsgContent(sender, seqNumber, LINE, delta, true))
+					.remaining();
+			deltaEntries += delta.size();
+			lastSent[client] = new VectorClock(conversation);
+			conversation.incrementEntry(sender);
+		}
+		System.out.printf("%5d clients, %-8s complete %7.1f bytes/msg  differential %7.1f bytes/msg (%5.1f%%, %6.1f entries)%n",
+				nbClients, skewed ? "skewed" : "uniform", (double) fullBytes / NB_MSGS, (double) deltaBytes / NB_MSGS,
+				100.0 * deltaBytes / fullBytes, (double) deltaEntries / NB_MSGS);
+	}
+
+	public static void main(final String[] args) throws Exception {
+		Random random = new Random(4509);
+		for (int nbClients : new int[] { 10, 100, 1000 }) {
+			measure(nbClients, false, random);
+			measure(nbClients, true, random);
+		}
+	}
+}
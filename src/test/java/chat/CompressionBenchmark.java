@@ -0,0 +1,116 @@
+// CHECKSTYLE:OFF
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import chat.client.algorithms.chat.ChatMsgContent;
+import chat.common.FrameCompression;
+import chat.common.MsgCodecs;
+import chat.common.RequestVector;
+import chat.common.VectorClock;
+import chat.server.algorithms.mutex.MutexTokenContent;
+
+/**
+ * This class is a micro-benchmark of the compression of the bodies (see
+ * <tt>FrameCompression</tt>): for chat messages of several lengths and for a
+ * token of the mutual exclusion algorithm, it prints the size of the body
+ * without and with compression, and the time spent compressing and
+ * decompressing. It is not a unit test; run it with
+ * <tt>java -cp target/classes:target/test-classes chat.CompressionBenchmark</tt>.
+ *
+ * @author agent
+ */
+public class CompressionBenchmark {
+
+	private static final String[] WORDS = { "bonjour", "salut", "merci", "demain", "réunion", "rendez-vous",
+			"est-ce", "que", "tu", "viens", "à", "la", "le", "les", "on", "se", "retrouve", "vers", "midi", "ok",
+			"d'accord", "je", "suis", "en", "retard", "the", "meeting", "is", "moved", "to", "tomorrow", "please",
+			"check", "https://www.example.org/agenda.html", "thanks", "see", "you", "there", "pour", "avec" };
+
+	private static final int ITERATIONS = 20000;
+
+	private static String chatLine(final Random random, final int length) {
+		StringBuilder line = new StringBuilder();
+		while (line.length() < length) {
+			line.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+		}
+		return line.substring(0, length);
+	}
+
+	private static void measure(final String name, final int type, final java.io.Serializable content)
+			throws Exception {
+		ByteBuffer encoded = MsgCodecs.encode(type, content);
+		byte[] raw = new byte[encoded.remaining()];
+		encoded.get(raw);
+		ByteBuffer compressed = null;
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			compressed = FrameCompression.compress(ByteBuffer.wrap(raw));
+		}
+		long compressNanos = (System.nanoTime() - start) / ITERATIONS;
+		if (compressed == null) {
+			System.out.printf("%-28s %7d bytes  not compressible (%6d ns)%n", name, raw.length, compressNanos);
+			return;
+		}
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			MsgCodecs.decode(type, compressed.duplicate());
+		}
+		long decodeCompressedNanos = (System.nanoTime() - start) / ITERATIONS;
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			MsgCodecs.decode(type, ByteBuffer.wrap(raw));
+		}
+		long decodeNanos = (System.nanoTime() - start) / ITERATIONS;
+		System.out.printf("%-28s %7d -> %6d bytes (%5.1f%%)  compress %6d ns  decode %6d ns (uncompressed %6d ns)%n",
+				name, raw.length, compressed.remaining(), 100.0 * compressed.remaining() / raw.length, compressNanos,
+				decodeCompressedNanos, decodeNanos);
+	}
+
+	public static void main(final String[] args) throws Exception {
+		Random random = new Random(4509);
+		int chatType = chat.client.algorithms.chat.Action.CHAT_MESSAGE.identifier();
+		for (int round = 0; round < 2; round++) {
+			// the first round warms up the JIT compiler
+			System.out.println(round == 0 ? "warm-up" : "measures");
+			for (int length : new int[] { 40, 120, 300, 1000, 4000, 16000 }) {
+				VectorClock clock = new VectorClock();
+				for (int c = 0; c < 8; c++) {
+					clock.setEntry(100 * (c + 1) + c, random.nextInt(1000));
+				}
+				measure("chat line of " + length + " chars", chatType,
+						new ChatMsgContent(101, random.nextInt(1000), chatLine(random, length), clock));
+			}
+			for (int nbServers : new int[] { 5, 50, 500 }) {
+				RequestVector jeton = new RequestVector();
+				for (int s = 0; s < nbServers; s++) {
+					jeton.setEntry(s, random.nextInt(100));
+				}
+				measure("mutex token of " + nbServers + " servers",
+						chat.server.algorithms.mutex.Action.TOKEN_MESSAGE.identifier(), new MutexTokenContent(1, jeton));
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+// CHECKSTYLE:OFF
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat;
+
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import chat.client.algorithms.chat.ChatMsgContent;
+import chat.common.EncodedFrame;
+import chat.server.Server;
+
+/**
+ * This class is a benchmark of the models for serving the connections of a
+ * server: the reactor with a selector ({@code selector}), one platform thread
+ * per connection ({@code platform}), and one virtual thread per connection
+ * ({@code virtual}, which needs the classes of the profile {@code jdk21} and
+ * Java 21). A server is started in the same process, and the benchmark opens
+ * idle clients that only receive, and active clients that each send chat
+ * messages, which the server forwards to all the other clients. It prints the
+ * time for connecting the clients, the threads and the heap used by the idle
+ * connections, and the throughput of the forwarded frames. It is not a unit
+ * test; run it with
+ * <tt>java -Xmx2g -cp target/classes:target/test-classes chat.ConnectionModelBenchmark
+ * &lt;selector|platform|virtual&gt; [idle] [active] [messages]</tt>; the
+ * default values are 10000 idle clients, 1000 active clients and 1 message
+ * per active client, which need about 25000 file descriptors.
+ *
+ * @author agent
+ */
+public class ConnectionModelBenchmark {
+
+	private static final int SERVER_IDENTITY = 9;
+
+	private static final int PORT = 2050 + SERVER_IDENTITY;
+
+	private static final long TIMEOUT_SECONDS = 300;
+
+	private static ThreadFactory virtualThreads() throws Exception {
+		return (ThreadFactory) Class.forName("chat.server.VirtualThreadMain").getMethod("factory").invoke(null);
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	public static void main(final String[] args) throws Exception {
+		String mode = args.length > 0 ? args[0] : "selector";
+		int nbIdle = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+		int nbActive = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		int nbMessages = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+		switch (mode) {
+		case "selector":
+			Server.setConnectionThreads(null);
+			break;
+		case "platform":
+			Server.setConnectionThreads(Thread::new);
+			break;
+		case "virtual":
+			Server.setConnectionThreads(virtualThreads());
+			break;
+		default:
+			throw new IllegalArgumentException("unknown mode " + mode);
+		}
+		int nbClients = nbIdle + nbActive;
+		long heapBefore = usedHeap();
+		int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+		Server server = new Server(new String[] { String.valueOf(SERVER_IDENTITY) });
+		server.startThreadReadMessagesFromNetwork();
+		// the clients: the active clients are the last ones
+		SocketChannel[] clients = new SocketChannel[nbClients];
+		Selector selector = Selector.open();
+		InetSocketAddress address = new InetSocketAddress("localhost", PORT);
+		long start = System.nanoTime();
+		for (int i = 0; i < nbClients; i++) {
+			clients[i] = SocketChannel.open(address);
+			clients[i].configureBlocking(false);
+			clients[i].register(selector, SelectionKey.OP_READ);
+		}
+		long connectNanos = System.nanoTime() - start;
+		AtomicLong received = new AtomicLong();
+		Thread reader = new Thread(() -> {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+			try {
+				while (!Thread.currentThread().isInterrupted()) {
+					selector.select(100);
+					for (SelectionKey key : selector.selectedKeys()) {
+						int n;
+						do {
+							buffer.clear();
+							n = ((SocketChannel) key.channel()).read(buffer);
+							if (n > 0) {
+								received.addAndGet(n);
+							}
+						} while (n > 0);
+					}
+					selector.selectedKeys().clear();
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		});
+		reader.start();
+		// waits for the identities sent to the clients
+		long previous = -1;
+		while (received.get() != previous) {
+			previous = received.get();
+			TimeUnit.MILLISECONDS.sleep(1000);
+		}
+		long heapIdle = usedHeap();
+		int threadsIdle = ManagementFactory.getThreadMXBean().getThreadCount();
+		System.out.printf("%-8s %6d clients connected in %6d ms, +%5d platform threads, +%7d KiB of heap%n", mode,
+				nbClients, TimeUnit.NANOSECONDS.toMillis(connectNanos), threadsIdle - threadsBefore,
+				(heapIdle - heapBefore) / 1024);
+		// the active clients send their messages, which are forwarded to all the
+		// other clients
+		int type = chat.client.algorithms.chat.Action.CHAT_MESSAGE.identifier();
+		ChatMsgContent content = new ChatMsgContent(1, 1, "hello from an active client");
+		EncodedFrame sample = EncodedFrame.encode(type, 1, 1, content);
+		long frameSize = sample.buffersForWriting()[0].remaining() + sample.getBodySize();
+		sample.release();
+		long expected = received.get() + (long) nbActive * nbMessages * (nbClients - 1) * frameSize;
+		start = System.nanoTime();
+		for (int m = 0; m < nbMessages; m++) {
+			for (int i = nbIdle; i < nbClients; i++) {
+				EncodedFrame frame = EncodedFrame.encode(type, i, 1, content);
+				ByteBuffer[] buffers = frame.buffersForWriting();
+				while (buffers[0].hasRemaining() || buffers[buffers.length - 1].hasRemaining()) {
+					clients[i].write(buffers);
+				}
+				frame.release();
+			}
+		}
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+		while (received.get() < expected && System.nanoTime() < deadline) {
+			TimeUnit.MILLISECONDS.sleep(10);
+		}
+		long forwardNanos = System.nanoTime() - start;
+		long nbFrames = (long) nbActive * nbMessages * (nbClients - 1);
+		System.out.printf("%-8s %6d active clients: %9d frames forwarded in %6d ms, %9.0f frames/s%s%n", mode,
+				nbActive, nbFrames, TimeUnit.NANOSECONDS.toMillis(forwardNanos),
+				nbFrames * 1e9 / forwardNanos, received.get() < expected ? " (timeout)" : "");
+		reader.interrupt();
+		reader.join();
+		for (SocketChannel client : clients) {
+			client.close();
+		}
+		server.treatConsoleInput("quit");
+		System.exit(0);
+	}
+}
@@ -0,0 +1,118 @@
+// CHECKSTYLE:OFF
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import chat.client.algorithms.chat.ChatMsgContent;
+import chat.common.Crc32c;
+import chat.common.EncodedFrame;
+import chat.common.FrameHeader;
+
+/**
+ * This class contains the unit tests of the classes <tt>FrameHeader</tt> and
+ * <tt>Crc32c</tt>: the two versions of the headers are detected with their
+ * first byte.
+ *
+ * @author agent
+ */
+public class FrameHeaderTest {
+
+	private static final int CHAT_TYPE = chat.client.algorithms.chat.Action.CHAT_MESSAGE.identifier();
+
+	private static ByteBuffer concat(final ByteBuffer[] buffers) {
+		int size = 0;
+		for (ByteBuffer b : buffers) {
+			size += b.remaining();
+		}
+		ByteBuffer all = ByteBuffer.allocate(size);
+		for (ByteBuffer b : buffers) {
+			all.put(b);
+		}
+		all.flip();
+		return all;
+	}
+
+	@Test
+	public void testCrc32c() throws Exception {
+		byte[] check = "123456789".getBytes(StandardCharsets.US_ASCII);
+		Crc32c crc = new Crc32c();
+		crc.update(check, 0, check.length);
+		Assert.assertEquals(0xE3069283L, crc.getValue());
+		crc.reset();
+		ByteBuffer direct = ByteBuffer.allocateDirect(check.length);
+		direct.put(check).flip();
+		crc.update(direct);
+		Assert.assertEquals(0xE3069283L, crc.getValue());
+		Assert.assertEquals(0, direct.position());
+	}
+
+	@Test
+	public void testBothVersions() throws Exception {
+		EncodedFrame frame = EncodedFrame.encode(CHAT_TYPE, 201, -1, new ChatMsgContent(201, 7, "hello"));
+		try {
+			FrameHeader header = new FrameHeader();
+			ByteBuffer v1 = concat(frame.buffersForWriting());
+			Assert.assertTrue(header.parse(v1, 0));
+			Assert.assertEquals(1, header.getVersion());
+			Assert.assertEquals(FrameHeader.V1_SIZE, header.getSize());
+			Assert.assertEquals(CHAT_TYPE, header.getType());
+			Assert.assertEquals(-1, header.getSeqNumber());
+			ByteBuffer v2 = concat(frame.buffersForWritingV2(true));
+			Assert.assertTrue(header.parse(v2, 0));
+			Assert.assertEquals(2, header.getVersion());
+			Assert.assertEquals(CHAT_TYPE, header.getType());
+			Assert.assertEquals(201, header.getIdentity());
+			Assert.assertEquals(-1, header.getSeqNumber());
+			Assert.assertEquals(frame.getBodySize(), header.getBodySize());
+			Assert.assertEquals(FrameHeader.FLAG_CHECKSUM, header.getFlags());
+			Assert.assertEquals(v2.limit() - frame.getBodySize(), header.getSize());
+			Assert.assertTrue(header.getSize() < FrameHeader.V1_SIZE);
+			Crc32c crc = new Crc32c();
+			v2.position(header.getSize());
+			crc.update(v2);
+			Assert.assertEquals((int) crc.getValue(), header.getChecksum());
+			// incomplete headers
+			for (int i = 0; i < header.getSize(); i++) {
+				ByteBuffer part = v2.duplicate();
+				part.limit(i);
+				Assert.assertFalse(header.parse(part, 0));
+			}
+		} finally {
+			frame.release();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownFlags() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(16);
+		buffer.put(FrameHeader.MAGIC_V2).put((byte) 0x40).put((byte) 0).put((byte) 0).put((byte) 0).put((byte) 0);
+		buffer.flip();
+		new FrameHeader().parse(buffer, 0);
+	}
+}
@@ -0,0 +1,585 @@
+// CHECKSTYLE:OFF
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import chat.client.algorithms.chat.ChatMsgContent;
+import chat.common.BufferPool;
+import chat.common.EncodedFrame;
+import chat.common.FrameCompression;
+import chat.common.FullDuplexMsgWorker;
+import chat.common.Handshake;
+import chat.common.MsgCodecs;
+import chat.common.ReadMessageStatus;
+import chat.common.VectorClock;
+
+/**
+ * This class contains the unit tests of the class
+ * <tt>FullDuplexMsgWorker</tt>, using a connection on the loopback interface.
+ * The sending side is in non blocking mode and the receiving side is in
+ * blocking mode, as between a server and a client.
+ *
+ * @author agent
+ */
+public class FullDuplexMsgWorkerTest {
+
+	private static final int CHAT_TYPE = chat.client.algorithms.chat.Action.CHAT_MESSAGE.identifier();
+
+	private ServerSocketChannel listen;
+	private Selector selector;
+	private FullDuplexMsgWorker sender;
+	private FullDuplexMsgWorker receiver;
+
+	@Before
+	public void setUp() throws Exception {
+		listen = ServerSocketChannel.open();
+		listen.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		SocketChannel out = SocketChannel.open(listen.getLocalAddress());
+		out.setOption(StandardSocketOptions.SO_SNDBUF, 4096);
+		SocketChannel in = listen.accept();
+		in.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+		selector = Selector.open();
+		sender = new FullDuplexMsgWorker(out);
+		sender.configureNonBlocking();
+		sender.register(selector);
+		receiver = new FullDuplexMsgWorker(in);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		sender.close();
+		receiver.close();
+		selector.close();
+		listen.close();
+	}
+
+	private ChatMsgContent receive() throws Exception {
+		ReadMessageStatus status;
+		do {
+			status = receiver.readMessage();
+			Assert.assertNotSame(ReadMessageStatus.CHANNELCLOSED, status);
+		} while (status != ReadMessageStatus.READDATACOMPLETED);
+		return (ChatMsgContent) receiver.getData().get();
+	}
+
+	private void flushWhenWritable() throws Exception {
+		while (sender.getOutboundQueueSize() > 0) {
+			selector.select(1000);
+			for (SelectionKey key : selector.selectedKeys()) {
+				if (key.isWritable()) {
+					sender.flushOutbound();
+				}
+			}
+			selector.selectedKeys().clear();
+		}
+	}
+
+	@Test
+	public void testPartialWritesAreResumed() throws Exception {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			line.append('x');
+		}
+		int nbMsgs = 200;
+		AtomicInteger nbReceived = new AtomicInteger();
+		Thread reader = new Thread(() -> {
+			try {
+				Thread.sleep(200);
+				for (int i = 0; i < nbMsgs; i++) {
+					ChatMsgContent msg = receive();
+					Assert.assertEquals(i, msg.getSeqNumber());
+					Assert.assertEquals(1000, msg.getContent().length());
+					nbReceived.incrementAndGet();
+				}
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		reader.start();
+		for (int i = 0; i < nbMsgs; i++) {
+			sender.sendMsg(CHAT_TYPE, 1, i, new ChatMsgContent(1, i, line.toString()));
+		}
+		Assert.assertTrue(sender.getOutboundQueueSize() > 0);
+		flushWhenWritable();
+		reader.join(10000);
+		Assert.assertEquals(nbMsgs, nbReceived.get());
+	}
+
+	@Test
+	public void testControlMessagesOvertakeChatMessages() throws Exception {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			line.append('x');
+		}
+		int nbMsgs = 200;
+		for (int i = 0; i < nbMsgs; i++) {
+			sender.sendMsg(CHAT_TYPE, 1, i, new ChatMsgContent(1, i, line.toString()));
+		}
+		int nbWaiting = sender.getOutboundQueueSize();
+		Assert.assertTrue(nbWaiting > 1);
+		Assert.assertTrue(FullDuplexMsgWorker.isControlMessage(0));
+		sender.sendMsg(0, 1, 0, Integer.valueOf(42));
+		// the control frame is written at once when the send buffer has room
+		Assert.assertTrue(sender.getControlQueueSize() <= 1);
+		int[] positionOfControl = {-1};
+		Thread reader = new Thread(() -> {
+			try {
+				int nbChat = 0;
+				for (int i = 0; i <= nbMsgs; i++) {
+					ReadMessageStatus status;
+					do {
+						status = receiver.readMessage();
+						Assert.assertNotSame(ReadMessageStatus.CHANNELCLOSED, status);
+					} while (status != ReadMessageStatus.READDATACOMPLETED);
+					if (receiver.getInType() == 0) {
+						Assert.assertEquals(Integer.valueOf(42), receiver.getData().get());
+						positionOfControl[0] = i;
+					} else {
+						Assert.assertEquals(nbChat++, ((ChatMsgContent) receiver.getData().get()).getSeqNumber());
+					}
+				}
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		reader.start();
+		flushWhenWritable();
+		reader.join(10000);
+		// the frames already written and the partially written frame come first
+		Assert.assertTrue(positionOfControl[0] >= 0);
+		Assert.assertTrue(positionOfControl[0] <= nbMsgs - nbWaiting + 1);
+	}
+
+	@Test
+	public void testHoldBackSuspendsTheReadingOfTheSource() throws Exception {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			line.append('x');
+		}
+		int nbMsgs = 200;
+		for (int i = 0; i < nbMsgs; i++) {
+			sender.sendMsg(CHAT_TYPE, 1, i, new ChatMsgContent(1, i, line.toString()));
+		}
+		Assert.assertTrue(sender.getOutboundQueueSize() > 4);
+		SocketChannel sourceChannel = SocketChannel.open(listen.getLocalAddress());
+		SocketChannel peer = listen.accept();
+		FullDuplexMsgWorker source = new FullDuplexMsgWorker(sourceChannel);
+		try {
+			source.configureNonBlocking();
+			SelectionKey sourceKey = source.register(selector);
+			Assert.assertTrue(sender.holdBack(source, 4));
+			// a source is held back once by the same worker
+			Assert.assertFalse(sender.holdBack(source, 4));
+			Assert.assertTrue(sender.isHoldingBack());
+			Assert.assertTrue(source.isReadingSuspended());
+			Assert.assertEquals(0, sourceKey.interestOps() & SelectionKey.OP_READ);
+			Thread reader = new Thread(() -> {
+				try {
+					for (int i = 0; i < nbMsgs; i++) {
+						receive();
+					}
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			reader.start();
+			flushWhenWritable();
+			reader.join(10000);
+			Assert.assertFalse(sender.isHoldingBack());
+			Assert.assertFalse(source.isReadingSuspended());
+			Assert.assertEquals(SelectionKey.OP_READ, sourceKey.interestOps() & SelectionKey.OP_READ);
+			// the queue is empty: the source is not held back
+			Assert.assertFalse(sender.holdBack(source, 4));
+			Assert.assertFalse(source.isReadingSuspended());
+		} finally {
+			source.close();
+			peer.close();
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void testWorkersHoldingBackEachOtherDoNotDeadlock() throws Exception {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			line.append('x');
+		}
+		// two slow clients, each holding back the reading of the other
+		FullDuplexMsgWorker[] workers = new FullDuplexMsgWorker[2];
+		SocketChannel[] peers = new SocketChannel[2];
+		Selector[] selectors = new Selector[2];
+		try {
+			for (int i = 0; i < 2; i++) {
+				SocketChannel out = SocketChannel.open(listen.getLocalAddress());
+				out.setOption(StandardSocketOptions.SO_SNDBUF, 4096);
+				peers[i] = listen.accept();
+				peers[i].setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+				workers[i] = new FullDuplexMsgWorker(out);
+				workers[i].configureNonBlocking();
+				selectors[i] = Selector.open();
+				workers[i].register(selectors[i]);
+				for (int j = 0; j < 100; j++) {
+					workers[i].sendMsg(CHAT_TYPE, i, j, new ChatMsgContent(i, j, line.toString()));
+				}
+			}
+			Assert.assertTrue(workers[0].holdBack(workers[1], 0));
+			Assert.assertTrue(workers[1].holdBack(workers[0], 0));
+			for (SocketChannel peer : peers) {
+				Thread drain = new Thread(() -> {
+					ByteBuffer buffer = ByteBuffer.allocate(65536);
+					try {
+						while (peer.read(buffer) >= 0) {
+							buffer.clear();
+						}
+					} catch (java.io.IOException e) {
+						// closed at the end of the test
+					}
+				});
+				drain.setDaemon(true);
+				drain.start();
+			}
+			// the reactor of the first client empties its queue and resumes the second
+			// client while the reactor of the second client is in the middle of a
+			// write to the second client, which then resumes the first client
+			Thread reactor0 = new Thread(() -> flushAll(workers[0], selectors[0]));
+			reactor0.setDaemon(true);
+			Thread reactor1 = new Thread(() -> {
+				synchronized (workers[1]) {
+					reactor0.start();
+					long end = System.currentTimeMillis() + 10000;
+					while (reactor0.getState() != Thread.State.BLOCKED && reactor0.isAlive()
+							&& System.currentTimeMillis() < end) {
+						Thread.yield();
+					}
+					flushAll(workers[1], selectors[1]);
+				}
+			});
+			reactor1.setDaemon(true);
+			reactor1.start();
+			reactor1.join(10000);
+			reactor0.join(10000);
+			Assert.assertFalse("reactors deadlocked", reactor0.isAlive() || reactor1.isAlive());
+			Assert.assertFalse(workers[0].isHoldingBack() || workers[1].isHoldingBack());
+			Assert.assertFalse(workers[0].isReadingSuspended() || workers[1].isReadingSuspended());
+		} finally {
+			for (int i = 0; i < 2; i++) {
+				if (workers[i] != null) {
+					workers[i].close();
+					peers[i].close();
+					selectors[i].close();
+				}
+			}
+		}
+	}
+
+	private static void flushAll(final FullDuplexMsgWorker worker, final Selector reactorSelector) {
+		try {
+			while (!worker.flushOutbound()) {
+				reactorSelector.select(1000);
+				reactorSelector.selectedKeys().clear();
+			}
+		} catch (java.io.IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Test
+	public void testBlockingWritesAreBoundedByTheWriteTimeout() throws Exception {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			line.append('x');
+		}
+		// the receiving side writes in blocking mode to the sending side, which never reads
+		receiver.setWriteTimeout(200, TimeUnit.MILLISECONDS);
+		AtomicReference<Exception> failure = new AtomicReference<>();
+		Thread writer = new Thread(() -> {
+			try {
+				for (int i = 0;; i++) {
+					receiver.sendMsg(CHAT_TYPE, 1, i, new ChatMsgContent(1, i, line.toString()));
+				}
+			} catch (java.io.IOException e) {
+				failure.set(e);
+			}
+		});
+		writer.start();
+		long stall = TimeUnit.MILLISECONDS.toNanos(300);
+		long end = System.currentTimeMillis() + 10000;
+		while (receiver.getStallNanos(System.nanoTime()) < stall && System.currentTimeMillis() < end) {
+			Thread.sleep(10);
+		}
+		Assert.assertTrue(receiver.getStallNanos(System.nanoTime()) >= stall);
+		// the blocked write does not hold the monitor of the worker
+		Assert.assertEquals(0, receiver.getOutboundQueueSize());
+		try {
+			receiver.sendMsg(CHAT_TYPE, 2, 0, new ChatMsgContent(2, 0, "short"));
+			Assert.fail("the write timeout is not applied");
+		} catch (java.io.IOException e) {
+			Assert.assertTrue(e.getMessage().startsWith("write timeout"));
+		}
+		// the closing stops the blocked write
+		receiver.close();
+		writer.join(10000);
+		Assert.assertFalse(writer.isAlive());
+		Assert.assertNotNull(failure.get());
+		Assert.assertEquals(0, receiver.getStallNanos(System.nanoTime()));
+	}
+
+	@Test(expected = java.io.IOException.class)
+	public void testBoundedOutboundQueue() throws Exception {
+		sender.setMaxOutboundFrames(2);
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 100000; i++) {
+			line.append('x');
+		}
+		for (int i = 0; i < 10; i++) {
+			sender.sendMsg(CHAT_TYPE, 1, i, new ChatMsgContent(1, i, line.toString()));
+		}
+	}
+
+	@Test
+	public void testBurstIsDecodedFromOneRead() throws Exception {
+		int nbMsgs = 100;
+		for (int i = 0; i < nbMsgs; i++) {
+			sender.sendMsg(CHAT_TYPE, 1, i, new ChatMsgContent(1, i, "m" + i));
+		}
+		flushWhenWritable();
+		Thread.sleep(100);
+		ChatMsgContent first = receive();
+		Assert.assertEquals(0, first.getSeqNumber());
+		Assert.assertTrue(receiver.hasBufferedMessage());
+		for (int i = 1; i < nbMsgs; i++) {
+			ChatMsgContent msg = receive();
+			Assert.assertEquals(i, msg.getSeqNumber());
+			Assert.assertEquals("m" + i, msg.getContent());
+			Assert.assertEquals(1, receiver.getInIdentity());
+			Assert.assertEquals(i, receiver.getInSeqNumber());
+		}
+		Assert.assertFalse(receiver.hasBufferedMessage());
+	}
+
+	@Test
+	public void testMessageLargerThanReceiveBuffer() throws Exception {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 3 * FullDuplexMsgWorker.RECEIVE_BUFFER_SIZE; i++) {
+			line.append((char) ('a' + i % 26));
+		}
+		AtomicInteger nbReceived = new AtomicInteger();
+		Thread reader = new Thread(() -> {
+			try {
+				for (int i = 0; i < 3; i++) {
+					ChatMsgContent msg = receive();
+					Assert.assertEquals(i, msg.getSeqNumber());
+					Assert.assertEquals(i == 1 ? line.toString() : "small", msg.getContent());
+					nbReceived.incrementAndGet();
+				}
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		reader.start();
+		sender.sendMsg(CHAT_TYPE, 1, 0, new ChatMsgContent(1, 0, "small"));
+		sender.sendMsg(CHAT_TYPE, 1, 1, new ChatMsgContent(1, 1, line.toString()));
+		sender.sendMsg(CHAT_TYPE, 1, 2, new ChatMsgContent(1, 2, "small"));
+		flushWhenWritable();
+		reader.join(10000);
+		Assert.assertEquals(3, nbReceived.get());
+	}
+
+	@Test
+	public void testCoalescing() throws Exception {
+		sender.setCoalescing(8, 1, TimeUnit.SECONDS);
+		for (int i = 0; i < 5; i++) {
+			sender.sendMsg(CHAT_TYPE, 1, i, new ChatMsgContent(1, i, "m" + i));
+		}
+		// nothing written before the selector thread flushes the frames
+		Assert.assertEquals(5, sender.getOutboundQueueSize());
+		flushWhenWritable();
+		for (int i = 5; i < 12; i++) {
+			sender.sendMsg(CHAT_TYPE, 1, i, new ChatMsgContent(1, i, "m" + i));
+		}
+		Assert.assertEquals(7, sender.getOutboundQueueSize());
+		sender.sendMsg(CHAT_TYPE, 1, 12, new ChatMsgContent(1, 12, "m12"));
+		// the batch is full: written at once
+		Assert.assertEquals(0, sender.getOutboundQueueSize());
+		for (int i = 0; i < 13; i++) {
+			Assert.assertEquals("m" + i, receive().getContent());
+		}
+		sender.setCoalescing(8, 0, TimeUnit.SECONDS);
+		sender.sendMsg(CHAT_TYPE, 1, 13, new ChatMsgContent(1, 13, "m13"));
+		// the deadline is reached: written at once
+		Assert.assertEquals(0, sender.getOutboundQueueSize());
+		Assert.assertEquals("m13", receive().getContent());
+	}
+
+	@Test
+	public void testRelayOfRawBody() throws Exception {
+		VectorClock v = new VectorClock();
+		v.setEntry(100, 2);
+		sender.sendMsg(CHAT_TYPE, 100, 2, new ChatMsgContent(100, 2, "relayed", v));
+		flushWhenWritable();
+		receive();
+		ByteBuffer body = receiver.getRawData().get()[0];
+		int position = body.position();
+		EncodedFrame frame = EncodedFrame.wrap(receiver.getInType(), receiver.getInIdentity(),
+				receiver.getInSeqNumber(), body);
+		try {
+			Assert.assertEquals(position, body.position());
+			Assert.assertEquals(body.remaining(), frame.getBodySize());
+			ByteBuffer relayed = frame.buffersForWriting()[1];
+			ChatMsgContent msg = (ChatMsgContent) MsgCodecs.decode(frame.getType(), relayed);
+			Assert.assertEquals("relayed", msg.getContent());
+			Assert.assertTrue(msg.getVectorClock().isEqualTo(v));
+		} finally {
+			frame.release();
+		}
+	}
+
+	@Test
+	public void testCompressionNegotiatedInHandshake() throws Exception {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			line.append("bonjour à tous, la réunion est demain ");
+		}
+		sender.setCompressionThreshold(100);
+		sender.sendHandshake(Handshake.CAPABILITY_COMPRESSION);
+		flushWhenWritable();
+		// not negotiated yet: sent uncompressed
+		sender.sendMsg(CHAT_TYPE, 1, 0, new ChatMsgContent(1, 0, line.toString()));
+		flushWhenWritable();
+		ReadMessageStatus status;
+		do {
+			status = receiver.readMessage();
+		} while (status != ReadMessageStatus.READDATACOMPLETED);
+		Assert.assertEquals(Handshake.TYPE_HANDSHAKE, receiver.getInType());
+		receiver.receiveHandshake((Integer) receiver.getData().get(), Handshake.CAPABILITY_COMPRESSION);
+		Assert.assertEquals(Handshake.CAPABILITY_COMPRESSION, receiver.getNegotiatedCapabilities());
+		Assert.assertEquals(line.toString(), receive().getContent());
+		Assert.assertFalse(FrameCompression.isCompressed(receiver.getRawData().get()[0]));
+		long end = System.currentTimeMillis() + 10000;
+		do {
+			status = sender.readMessage();
+		} while (status != ReadMessageStatus.READDATACOMPLETED && System.currentTimeMillis() < end);
+		sender.receiveHandshake((Integer) sender.getData().get(), Handshake.CAPABILITY_COMPRESSION);
+		Assert.assertEquals(Handshake.CAPABILITY_COMPRESSION, sender.getNegotiatedCapabilities());
+		sender.sendMsg(CHAT_TYPE, 1, 1, new ChatMsgContent(1, 1, line.toString()));
+		sender.sendMsg(CHAT_TYPE, 1, 2, new ChatMsgContent(1, 2, "short"));
+		flushWhenWritable();
+		Assert.assertEquals(line.toString(), receive().getContent());
+		Assert.assertTrue(FrameCompression.isCompressed(receiver.getRawData().get()[0]));
+		Assert.assertTrue(receiver.getRawData().get()[0].remaining() * 5 < line.length());
+		Assert.assertEquals("short", receive().getContent());
+		Assert.assertFalse(FrameCompression.isCompressed(receiver.getRawData().get()[0]));
+	}
+
+	@Test
+	public void testCompressedBodyWithoutNegotiationClosesTheConnection() throws Exception {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 50; i++) {
+			line.append("bonjour à tous, la réunion est demain ");
+		}
+		// only the sender believes that the compression is negotiated
+		sender.setCompressionThreshold(100);
+		sender.sendHandshake(Handshake.CAPABILITY_COMPRESSION);
+		sender.receiveHandshake(Handshake.CAPABILITY_COMPRESSION, Handshake.CAPABILITY_COMPRESSION);
+		sender.sendMsg(CHAT_TYPE, 1, 0, new ChatMsgContent(1, 0, line.toString()));
+		flushWhenWritable();
+		ReadMessageStatus status;
+		do {
+			status = receiver.readMessage();
+		} while (status != ReadMessageStatus.READDATACOMPLETED);
+		Assert.assertEquals(Handshake.TYPE_HANDSHAKE, receiver.getInType());
+		do {
+			status = receiver.readMessage();
+		} while (status != ReadMessageStatus.CHANNELCLOSED && status != ReadMessageStatus.READDATACOMPLETED);
+		Assert.assertEquals(ReadMessageStatus.CHANNELCLOSED, status);
+		Assert.assertFalse(receiver.getChannel().isOpen());
+	}
+
+	@Test
+	public void testLargeMessageIsStreamedThroughChunks() throws Exception {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 3 * BufferPool.maxPooledSize(); i++) {
+			line.append((char) ('a' + i % 26));
+		}
+		AtomicInteger nbReceived = new AtomicInteger();
+		Thread reader = new Thread(() -> {
+			try {
+				ChatMsgContent msg = receive();
+				Assert.assertEquals(line.toString(), msg.getContent());
+				Assert.assertEquals(4, receiver.getRawData().get().length);
+				Assert.assertEquals("after", receive().getContent());
+				nbReceived.incrementAndGet();
+			} catch (Exception e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		reader.start();
+		sender.sendMsg(CHAT_TYPE, 1, 0, new ChatMsgContent(1, 0, line.toString()));
+		sender.sendMsg(CHAT_TYPE, 1, 1, new ChatMsgContent(1, 1, "after"));
+		flushWhenWritable();
+		reader.join(10000);
+		Assert.assertEquals(1, nbReceived.get());
+	}
+
+	@Test
+	public void testMaximumFrameSize() throws Exception {
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 2000; i++) {
+			line.append('x');
+		}
+		sender.setMaxFrameSize(1000);
+		try {
+			sender.sendMsg(CHAT_TYPE, 1, 0, new ChatMsgContent(1, 0, line.toString()));
+			Assert.fail("message too large sent");
+		} catch (java.io.IOException e) {
+			Assert.assertEquals(0, sender.getOutboundQueueSize());
+		}
+		receiver.setMaxFrameSize(1000);
+		sender.setMaxFrameSize(FullDuplexMsgWorker.DEFAULT_MAX_FRAME_SIZE);
+		sender.sendMsg(CHAT_TYPE, 1, 0, new ChatMsgContent(1, 0, "small"));
+		sender.sendMsg(CHAT_TYPE, 1, 1, new ChatMsgContent(1, 1, line.toString()));
+		flushWhenWritable();
+		Assert.assertEquals("small", receive().getContent());
+		ReadMessageStatus status;
+		do {
+			status = receiver.readMessage();
+		} while (status != ReadMessageStatus.CHANNELCLOSED && status != ReadMessageStatus.READDATACOMPLETED);
+		Assert.assertEquals(ReadMessageStatus.CHANNELCLOSED, status);
+		Assert.assertFalse(receiver.getChannel().isOpen());
+	}
+}
@@ -0,0 +1,91 @@
+// CHECKSTYLE:OFF
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import chat.common.MpscQueue;
+
+/**
+ * This class contains the unit tests of the class <tt>MpscQueue</tt>.
+ *
+ * @author agent
+ */
+public class MpscQueueTest {
+
+	@Test
+	public void testBounded() throws Exception {
+		MpscQueue<Integer> queue = new MpscQueue<>(3);
+		Assert.assertEquals(4, queue.capacity());
+		Assert.assertNull(queue.poll());
+		for (int i = 0; i < 4; i++) {
+			Assert.assertTrue(queue.offer(i));
+		}
+		Assert.assertFalse(queue.offer(4));
+		Assert.assertEquals(4, queue.size());
+		Assert.assertEquals(Integer.valueOf(0), queue.poll());
+		Assert.assertTrue(queue.offer(4));
+		for (int i = 1; i <= 4; i++) {
+			Assert.assertEquals(Integer.valueOf(i), queue.poll());
+		}
+		Assert.assertNull(queue.poll());
+		Assert.assertEquals(0, queue.size());
+	}
+
+	@Test
+	public void testProducersKeepTheirOrder() throws Exception {
+		final int nbProducers = 4;
+		final int nbElements = 100000;
+		MpscQueue<int[]> queue = new MpscQueue<>(64);
+		Thread[] producers = new Thread[nbProducers];
+		for (int p = 0; p < nbProducers; p++) {
+			final int producer = p;
+			producers[p] = new Thread(() -> {
+				for (int i = 0; i < nbElements; i++) {
+					int[] element = { producer, i };
+					while (!queue.offer(element)) {
+						Thread.yield();
+					}
+				}
+			});
+			producers[p].start();
+		}
+		int[] next = new int[nbProducers];
+		int received = 0;
+		while (received < nbProducers * nbElements) {
+			int[] element = queue.poll();
+			if (element == null) {
+				Thread.yield();
+				continue;
+			}
+			Assert.assertEquals(next[element[0]], element[1]);
+			next[element[0]]++;
+			received++;
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+		Assert.assertNull(queue.poll());
+	}
+}
@@ -0,0 +1,207 @@
+// CHECKSTYLE:OFF
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import chat.client.algorithms.chat.ChatMsgContent;
+import chat.common.FrameCompression;
+import chat.common.MsgCodecs;
+import chat.common.RequestVector;
+import chat.common.VectorClock;
+import chat.server.StampedChatContent;
+import chat.server.algorithms.election.ElectionLeaderContent;
+import chat.server.algorithms.election.ElectionTokenContent;
+import chat.server.algorithms.mutex.MutexRequestContent;
+import chat.server.algorithms.mutex.MutexTokenContent;
+
+/**
+ * This class contains the unit tests of the class <tt>MsgCodecs</tt>: the
+ * contents of the algorithms are encoded with their codec, the other contents
+ * with the Java serialisation.
+ *
+ * @author agent
+ */
+public class MsgCodecsTest {
+
+	private static Serializable roundTrip(final int type, final Serializable content) throws Exception {
+		ByteBuffer body = MsgCodecs.encode(type, content);
+		ByteBuffer copy = ByteBuffer.allocate(body.remaining());
+		copy.put(body).flip();
+		return MsgCodecs.decode(type, copy);
+	}
+
+	@Test
+	public void testChatMsgContent() throws Exception {
+		VectorClock v = new VectorClock();
+		v.setEntry(100, 3);
+		v.setEntry(201, 1000);
+		ChatMsgContent msg = new ChatMsgContent(100, 3, "bonjour été", v);
+		int type = chat.client.algorithms.chat.Action.CHAT_MESSAGE.identifier();
+		ByteBuffer body = MsgCodecs.encode(type, msg);
+		Assert.assertEquals(MsgCodecs.BODY_CODEC, body.get(0));
+		ChatMsgContent decoded = (ChatMsgContent) roundTrip(type, msg);
+		Assert.assertEquals(100, decoded.getSender());
+		Assert.assertEquals(3, decoded.getSeqNumber());
+		Assert.assertEquals("bonjour été", decoded.getContent());
+		Assert.assertTrue(decoded.getVectorClock().isEqualTo(v));
+		Assert.assertFalse(decoded.isClockDelta());
+		ChatMsgContent withDelta = (ChatMsgContent) roundTrip(type, new ChatMsgContent(100, 4, "x", v, true));
+		Assert.assertTrue(withDelta.isClockDelta());
+		Assert.assertTrue(withDelta.getVectorClock().isEqualTo(v));
+		ChatMsgContent withoutClock = (ChatMsgContent) roundTrip(type, new ChatMsgContent(1, 0, "x"));
+		Assert.assertEquals(null, withoutClock.getVectorClock());
+	}
+
+	@Test
+	public void testStampedChatContent() throws Exception {
+		VectorClock serverClock = new VectorClock();
+		serverClock.setEntry(0, 12);
+		serverClock.setEntry(2, 3);
+		ChatMsgContent msg = new ChatMsgContent(201, 7, "salut", null);
+		StampedChatContent decoded = (StampedChatContent) roundTrip(StampedChatContent.TYPE_STAMPED_CHAT,
+				new StampedChatContent(2, serverClock, msg));
+		Assert.assertEquals(2, decoded.getSender());
+		Assert.assertTrue(decoded.getVectorClock().isEqualTo(serverClock));
+		Assert.assertEquals(201, decoded.getChatMsg().getSender());
+		Assert.assertEquals(7, decoded.getChatMsg().getSeqNumber());
+		Assert.assertEquals("salut", decoded.getChatMsg().getContent());
+		Assert.assertEquals(null, decoded.getChatMsg().getVectorClock());
+	}
+
+	@Test
+	public void testChatMsgContentIsSmallerThanSerialisation() throws Exception {
+		VectorClock v = new VectorClock();
+		v.setEntry(100, 3);
+		ChatMsgContent msg = new ChatMsgContent(100, 3, "hello", v);
+		ByteArrayOutputStream bo = new ByteArrayOutputStream();
+		try (ObjectOutputStream oo = new ObjectOutputStream(bo)) {
+			oo.writeObject(msg);
+		}
+		int size = MsgCodecs.encode(chat.client.algorithms.chat.Action.CHAT_MESSAGE.identifier(), msg).remaining();
+		Assert.assertTrue(size * 10 < bo.size());
+	}
+
+	@Test
+	public void testServerContents() throws Exception {
+		ElectionTokenContent token = (ElectionTokenContent) roundTrip(
+				chat.server.algorithms.election.Action.TOKEN_MESSAGE.identifier(), new ElectionTokenContent(2, 1));
+		Assert.assertEquals(2, token.getSender());
+		Assert.assertEquals(1, token.getInitiator());
+		ElectionLeaderContent leader = (ElectionLeaderContent) roundTrip(
+				chat.server.algorithms.election.Action.LEADER_MESSAGE.identifier(), new ElectionLeaderContent(3, 1));
+		Assert.assertEquals(3, leader.getSender());
+		Assert.assertEquals(1, leader.getInitiator());
+		MutexRequestContent request = (MutexRequestContent) roundTrip(
+				chat.server.algorithms.mutex.Action.REQUEST_MESSAGE.identifier(), new MutexRequestContent(2, 7));
+		Assert.assertEquals(2, request.getSender());
+		Assert.assertEquals(7, request.getNs());
+		RequestVector jeton = new RequestVector();
+		jeton.setEntry(1, 4);
+		jeton.setEntry(3, 2);
+		MutexTokenContent mutexToken = (MutexTokenContent) roundTrip(
+				chat.server.algorithms.mutex.Action.TOKEN_MESSAGE.identifier(), new MutexTokenContent(1, jeton));
+		Assert.assertEquals(1, mutexToken.getSender());
+		Assert.assertEquals(4, mutexToken.getJeton().getEntry(1));
+		Assert.assertEquals(2, mutexToken.getJeton().getEntry(3));
+	}
+
+	@Test
+	public void testFallbackToSerialisation() throws Exception {
+		// the identity of a new client is sent with the message type 0, which is
+		// also the type of the token message of the election algorithm
+		ByteBuffer body = MsgCodecs.encode(0, Integer.valueOf(201));
+		Assert.assertEquals(MsgCodecs.BODY_SERIALIZED, body.get(0));
+		Assert.assertEquals(Integer.valueOf(201), roundTrip(0, Integer.valueOf(201)));
+		Assert.assertEquals("unknown", roundTrip(12345, "unknown"));
+	}
+
+	@Test
+	public void testVarInt() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		int[] values = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE };
+		for (int value : values) {
+			MsgCodecs.putVarInt(buffer, value);
+		}
+		Assert.assertEquals(1 + 1 + 1 + 2 + 2 + 3 + 5 + 5 + 5, buffer.position());
+		buffer.flip();
+		for (int value : values) {
+			Assert.assertEquals(value, MsgCodecs.getVarInt(buffer));
+		}
+	}
+
+	@Test
+	public void testCompression() throws Exception {
+		int type = chat.client.algorithms.chat.Action.CHAT_MESSAGE.identifier();
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			line.append("merci beaucoup pour le rendez-vous de demain ");
+		}
+		ByteBuffer body = MsgCodecs.encode(type, new ChatMsgContent(100, 3, line.toString()));
+		int size = body.remaining();
+		ByteBuffer compressed = FrameCompression.compress(body);
+		Assert.assertTrue(FrameCompression.isCompressed(compressed));
+		Assert.assertTrue(compressed.remaining() * 4 < size);
+		ChatMsgContent decoded = (ChatMsgContent) MsgCodecs.decode(type, compressed);
+		Assert.assertEquals(line.toString(), decoded.getContent());
+		Assert.assertEquals(3, decoded.getSeqNumber());
+		// nothing to gain on a tiny body
+		Assert.assertNull(FrameCompression.compress(MsgCodecs.encode(type, new ChatMsgContent(1, 0, "x"))));
+	}
+
+	@Test
+	public void testDeclaredUncompressedSizeIsBounded() throws Exception {
+		int type = chat.client.algorithms.chat.Action.CHAT_MESSAGE.identifier();
+		StringBuilder line = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			line.append("merci beaucoup pour le rendez-vous de demain ");
+		}
+		ByteBuffer body = MsgCodecs.encode(type, new ChatMsgContent(100, 3, line.toString()));
+		int size = body.remaining();
+		ByteBuffer compressed = FrameCompression.compress(body);
+		Assert.assertNotNull(MsgCodecs.decode(type, compressed.duplicate(), size));
+		try {
+			MsgCodecs.decode(type, compressed.duplicate(), size - 1);
+			Assert.fail("body larger than the maximum size decompressed");
+		} catch (java.io.IOException e) {
+			// expected
+		}
+		// a body declaring a huge uncompressed size is rejected before the allocation
+		ByteBuffer forged = ByteBuffer.allocate(16);
+		forged.put(FrameCompression.BODY_COMPRESSED);
+		MsgCodecs.putVarInt(forged, FrameCompression.MAX_UNCOMPRESSED_SIZE - 1);
+		forged.put((byte) 0).flip();
+		try {
+			FrameCompression.decompress(forged, 1024);
+			Assert.fail("forged size accepted");
+		} catch (java.io.IOException e) {
+			Assert.assertTrue(e.getMessage().startsWith("invalid size"));
+		}
+	}
+}
@@ -0,0 +1,142 @@
+// CHECKSTYLE:OFF
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import chat.client.ReceivePipeline;
+import chat.common.EncodedFrame;
+
+/**
+ * This class contains the unit tests of the class <tt>ReceivePipeline</tt>.
+ *
+ * @author agent
+ */
+public class ReceivePipelineTest {
+
+	private static final int TYPE = 0;
+
+	@Test
+	public void testOrderAndCounters() throws Exception {
+		final int nbMsgs = 1000;
+		List<Serializable> delivered = Collections.synchronizedList(new ArrayList<>());
+		CountDownLatch done = new CountDownLatch(nbMsgs);
+		ReceivePipeline pipeline = new ReceivePipeline("test", 8, (type, content) -> {
+			Assert.assertEquals(TYPE, type);
+			delivered.add(content);
+			done.countDown();
+		});
+		pipeline.start();
+		for (int i = 0; i < nbMsgs; i++) {
+			pipeline.submit(EncodedFrame.encode(TYPE, 1, i, Integer.valueOf(i)));
+		}
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		for (int i = 0; i < nbMsgs; i++) {
+			Assert.assertEquals(Integer.valueOf(i), delivered.get(i));
+		}
+		Assert.assertEquals(nbMsgs, pipeline.getNbDecoded());
+		Assert.assertEquals(0, pipeline.getNbMalformed());
+		Assert.assertTrue(pipeline.getMaxDecodeQueueSize() <= 8);
+		Assert.assertTrue(pipeline.getMaxDeliveryQueueSize() <= 8);
+		pipeline.stop();
+	}
+
+	@Test
+	public void testSlowDeliveryBlocksTheReader() throws Exception {
+		final int capacity = 4;
+		CountDownLatch unblock = new CountDownLatch(1);
+		ReceivePipeline pipeline = new ReceivePipeline("test", capacity, (type, content) -> {
+			try {
+				unblock.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		pipeline.start();
+		// one message in delivery, one waiting in the decoding stage, and two full queues
+		final int nbAccepted = 2 + 2 * capacity;
+		Thread reader = new Thread(() -> {
+			try {
+				for (int i = 0; i < nbAccepted + 1; i++) {
+					pipeline.submit(EncodedFrame.encode(TYPE, 1, i, Integer.valueOf(i)));
+				}
+			} catch (Exception e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		reader.start();
+		long deadline = System.currentTimeMillis() + 10000;
+		while ((pipeline.getDecodeQueueSize() < capacity || pipeline.getDeliveryQueueSize() < capacity)
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Thread.sleep(100);
+		Assert.assertTrue(reader.isAlive());
+		Assert.assertEquals(capacity, pipeline.getDecodeQueueSize());
+		Assert.assertEquals(capacity, pipeline.getDeliveryQueueSize());
+		Assert.assertEquals(capacity, pipeline.getMaxDeliveryQueueSize());
+		Assert.assertEquals(0, pipeline.getNbDelivered());
+		unblock.countDown();
+		reader.join(10000);
+		Assert.assertFalse(reader.isAlive());
+		deadline = System.currentTimeMillis() + 10000;
+		while (pipeline.getNbDelivered() < nbAccepted + 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(nbAccepted + 1, pipeline.getNbDelivered());
+		pipeline.stop();
+	}
+
+	@Test(timeout = 30000)
+	public void testFailedDeliveryDoesNotStopTheStage() throws Exception {
+		final int nbMsgs = 100;
+		CountDownLatch done = new CountDownLatch(nbMsgs / 2);
+		ReceivePipeline pipeline = new ReceivePipeline("test", 4, (type, content) -> {
+			if ((Integer) content % 2 == 0) {
+				throw new IllegalStateException("failure of the delivery of " + content);
+			}
+			done.countDown();
+		});
+		pipeline.start();
+		// the reader would wait forever in submit if the delivery thread died
+		for (int i = 0; i < nbMsgs; i++) {
+			pipeline.submit(EncodedFrame.encode(TYPE, 1, i, Integer.valueOf(i)));
+		}
+		Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+		long deadline = System.currentTimeMillis() + 10000;
+		while (pipeline.getNbDeliveryFailures() < nbMsgs / 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals(nbMsgs / 2, pipeline.getNbDelivered());
+		Assert.assertEquals(nbMsgs / 2, pipeline.getNbDeliveryFailures());
+		pipeline.stop();
+	}
+}
@@ -0,0 +1,98 @@
+// CHECKSTYLE:OFF
+/**
+This file is part of the CSC4509 teaching unit.
+
+Copyright (C) 2012-2018 Télécom SudParis
+
+This is free software: you can redistribute it and/or modify
+it under the terms of the GNU Lesser General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This software platform is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU Lesser General Public License for more details.
+
+You should have received a copy of the GNU Lesser General Public License
+along with the CSC4509 teaching unit. If not, see <http://www.gnu.org/licenses/>.
+
+Initial developer(s): agent
+Contributor(s):
+ */
+package chat;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import chat.server.SeqNumberWindows;
+
+public class SeqNumberWindowsTest {
+
+	@Test
+	public void testOutOfOrderMessagesAreAcceptedOnce() throws Exception {
+		SeqNumberWindows windows = new SeqNumberWindows(4, 128);
+		Assert.assertEquals(-1, windows.getHighest(101));
+		Assert.assertTrue(windows.accept(101, 0));
+		// the message 1 is overtaken by the message 2 through another path
+		Assert.assertTrue(windows.accept(101, 2));
+		Assert.assertTrue(windows.accept(101, 1));
+		Assert.assertFalse(windows.accept(101, 1));
+		Assert.assertFalse(windows.accept(101, 2));
+		Assert.assertFalse(windows.accept(101, 0));
+		Assert.assertEquals(2, windows.getHighest(101));
+		Assert.assertEquals(3, windows.getNbDuplicates());
+		// the origins are independent
+		Assert.assertTrue(windows.accept(102, 1));
+		Assert.assertEquals(-1, windows.getHighest(103));
+	}
+
+	@Test
+	public void testWindowSlides() throws Exception {
+		SeqNumberWindows windows = new SeqNumberWindows(1, 64);
+		Assert.assertTrue(windows.accept(100, 10));
+		// the bit of 74 is the bit of 10: it is cleared when the window slides
+		Assert.assertTrue(windows.accept(100, 74));
+		Assert.assertTrue(windows.accept(100, 73));
+		Assert.assertFalse(windows.accept(100, 73));
+		// below the window, the messages are considered as received
+		Assert.assertFalse(windows.accept(100, 10));
+		Assert.assertFalse(windows.accept(100, 9));
+		Assert.assertEquals(2, windows.getNbBelowWindow());
+		Assert.assertTrue(windows.accept(100, 1000));
+		Assert.assertTrue(windows.accept(100, 999));
+		Assert.assertFalse(windows.accept(100, 74));
+	}
+
+	@Test
+	public void testManyOriginsAndThreads() throws Exception {
+		SeqNumberWindows windows = new SeqNumberWindows(8, 1024);
+		final int nbOrigins = 1000;
+		final int nbMsgs = 200;
+		long[] nbAccepted = new long[4];
+		Thread[] threads = new Thread[nbAccepted.length];
+		for (int t = 0; t < threads.length; t++) {
+			final int index = t;
+			// each thread receives all the messages, as the paths of a mesh
+			threads[t] = new Thread(() -> {
+				for (int s = 0; s < nbMsgs; s++) {
+					for (int o = 0; o < nbOrigins; o++) {
+						int seqNumber = (index % 2 == 0) ? s : nbMsgs - 1 - s;
+						if (windows.accept(100 + o * 7, seqNumber)) {
+							nbAccepted[index]++;
+						}
+					}
+				}
+			});
+			threads[t].start();
+		}
+		long total = 0;
+		for (int t = 0; t < threads.length; t++) {
+			threads[t].join();
+			total += nbAccepted[t];
+		}
+		Assert.assertEquals((long) nbOrigins * nbMsgs, total);
+		Assert.assertEquals(nbMsgs - 1, windows.getHighest(100));
+		Assert.assertEquals(0, windows.getNbBelowWindow());
+	}
+}
@@ -0,0 +1,90 @@
+// CHECKSTYLE:OFF
+
+package chat;
+
+import static chat.common.Log.LOGGER_NAME_TEST;
+import static chat.common.Log.LOG_ON;
+import static chat.common.Log.TEST;
+
+import org.apache.log4j.Level;
+import org.junit.Assert;
+import org.junit.Test;
+
+import chat.client.Client;
+import chat.common.Log;
+import chat.common.Scenario;
+import chat.server.Server;
+
+public class TestCausalOrderingByServers extends Scenario {
+	@Test
+	@Override
+	public void constructAndRun() throws Exception {
+		Log.configureALogger(LOGGER_NAME_TEST, Level.WARN);
+		if (LOG_ON && TEST.isInfoEnabled()) {
+			TEST.info("starting the servers...");
+		}
+		// the clients send no vector clock: the servers deliver in the causal order
+		Server.setCausalOrdering(true);
+		Client.setVectorClocks(false);
+		try {
+			Server s0 = instanciateAServer("0");
+			sleep(500);
+			Server s1 = instanciateAServer("1 localhost 0");
+			sleep(500);
+			Server s2 = instanciateAServer("2 localhost 0 localhost 1");
+			sleep(500);
+			if (LOG_ON && TEST.isInfoEnabled()) {
+				TEST.info("starting the clients...");
+			}
+			Client c0 = instanciateAClient(2050);
+			sleep(500);
+			Client c1 = instanciateAClient(2051);
+			sleep(500);
+			Client c2 = instanciateAClient(2052);
+			sleep(500);
+			final int nbMsgs = 100;
+			for (int i = 0; i < nbMsgs; i++) {
+				emulateAnInputLineFromTheConsoleForAClient(c0, "message " + i + " from c0");
+			}
+			// c1 answers once it has received all the messages of c0
+			long deadline = System.currentTimeMillis() + 5000;
+			while (c1.getV().getEntry(c0.getIdentity()) < nbMsgs && System.currentTimeMillis() < deadline) {
+				sleep(10);
+			}
+			Assert.assertEquals(nbMsgs, c1.getV().getEntry(c0.getIdentity()));
+			emulateAnInputLineFromTheConsoleForAClient(c1, "answer from c1");
+			// c2 never receives the answer before the messages it answers
+			deadline = System.currentTimeMillis() + 5000;
+			boolean answered = false;
+			while (!answered && System.currentTimeMillis() < deadline) {
+				synchronized (c2) {
+					answered = c2.getV().getEntry(c1.getIdentity()) == 1;
+					if (answered) {
+						Assert.assertEquals(nbMsgs, c2.getV().getEntry(c0.getIdentity()));
+					}
+				}
+			}
+			Assert.assertTrue(answered);
+			deadline = System.currentTimeMillis() + 5000;
+			while (c0.getV().getEntry(c1.getIdentity()) < 1 && System.currentTimeMillis() < deadline) {
+				sleep(10);
+			}
+			Assert.assertEquals(1, c0.getV().getEntry(c1.getIdentity()));
+			emulateAnInputLineFromTheConsoleForAClient(c0, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAClient(c1, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAClient(c2, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAServer(s0, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAServer(s1, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAServer(s2, "quit");
+			sleep(100);
+		} finally {
+			Server.setCausalOrdering(false);
+			Client.setVectorClocks(true);
+		}
+	}
+}
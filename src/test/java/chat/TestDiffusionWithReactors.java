@@ -0,0 +1,74 @@
+// CHECKSTYLE:OFF
+
+package chat;
+
+import static chat.common.Log.LOGGER_NAME_TEST;
+import static chat.common.Log.LOG_ON;
+import static chat.common.Log.TEST;
+
+import org.apache.log4j.Level;
+import org.junit.Assert;
+import org.junit.Test;
+
+import chat.client.Client;
+import chat.common.Log;
+import chat.common.Scenario;
+import chat.server.ReactorAssignment;
+import chat.server.Server;
+
+public class TestDiffusionWithReactors extends Scenario {
+	@Test
+	@Override
+	public void constructAndRun() throws Exception {
+		Log.configureALogger(LOGGER_NAME_TEST, Level.WARN);
+		if (LOG_ON && TEST.isInfoEnabled()) {
+			TEST.info("starting the servers...");
+		}
+		// the clients of a server are served by different reactors
+		Server.setReactors(2, ReactorAssignment.LEAST_LOADED);
+		try {
+			Server s0 = instanciateAServer("0");
+			sleep(500);
+			Server s1 = instanciateAServer("1 localhost 0");
+			sleep(500);
+			Server s2 = instanciateAServer("2 localhost 0 localhost 1");
+			sleep(500);
+			if (LOG_ON && TEST.isInfoEnabled()) {
+				TEST.info("starting the clients...");
+			}
+			Client c0 = instanciateAClient(2050);
+			sleep(500);
+			Client c1 = instanciateAClient(2050);
+			sleep(500);
+			Client c2 = instanciateAClient(2050);
+			sleep(500);
+			Client c3 = instanciateAClient(2052);
+			sleep(500);
+			emulateAnInputLineFromTheConsoleForAClient(c0, "message 0 from c0");
+			emulateAnInputLineFromTheConsoleForAClient(c0, "message 1 from c0");
+			emulateAnInputLineFromTheConsoleForAClient(c3, "message 0 from c3");
+			sleep(2000);
+			Assert.assertEquals(2, c1.getV().getEntry(c0.getIdentity()));
+			Assert.assertEquals(2, c2.getV().getEntry(c0.getIdentity()));
+			Assert.assertEquals(2, c3.getV().getEntry(c0.getIdentity()));
+			Assert.assertEquals(1, c0.getV().getEntry(c3.getIdentity()));
+			Assert.assertEquals(1, c1.getV().getEntry(c3.getIdentity()));
+			emulateAnInputLineFromTheConsoleForAClient(c0, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAClient(c1, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAClient(c2, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAClient(c3, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAServer(s0, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAServer(s1, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAServer(s2, "quit");
+			sleep(100);
+		} finally {
+			Server.setReactors(0, ReactorAssignment.ROUND_ROBIN);
+		}
+	}
+}
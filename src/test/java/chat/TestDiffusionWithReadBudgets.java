@@ -0,0 +1,67 @@
+// CHECKSTYLE:OFF
+
+package chat;
+
+import static chat.common.Log.LOGGER_NAME_TEST;
+import static chat.common.Log.LOG_ON;
+import static chat.common.Log.TEST;
+
+import org.apache.log4j.Level;
+import org.junit.Assert;
+import org.junit.Test;
+
+import chat.client.Client;
+import chat.common.Log;
+import chat.common.Scenario;
+import chat.server.Server;
+
+public class TestDiffusionWithReadBudgets extends Scenario {
+	@Test
+	@Override
+	public void constructAndRun() throws Exception {
+		Log.configureALogger(LOGGER_NAME_TEST, Level.WARN);
+		if (LOG_ON && TEST.isInfoEnabled()) {
+			TEST.info("starting the servers...");
+		}
+		// one message per connection and per iteration: the messages left in the
+		// receive buffers are treated during the next iterations
+		Server.setReadBudgets(1, 1);
+		try {
+			Server s0 = instanciateAServer("0");
+			sleep(500);
+			Server s1 = instanciateAServer("1 localhost 0");
+			sleep(500);
+			if (LOG_ON && TEST.isInfoEnabled()) {
+				TEST.info("starting the clients...");
+			}
+			Client c0 = instanciateAClient(2050);
+			sleep(500);
+			Client c1 = instanciateAClient(2050);
+			sleep(500);
+			Client c2 = instanciateAClient(2051);
+			sleep(500);
+			final int nbMsgs = 200;
+			for (int i = 0; i < nbMsgs; i++) {
+				emulateAnInputLineFromTheConsoleForAClient(c0, "message " + i + " from c0");
+			}
+			emulateAnInputLineFromTheConsoleForAClient(c2, "message 0 from c2");
+			sleep(3000);
+			Assert.assertEquals(nbMsgs, c1.getV().getEntry(c0.getIdentity()));
+			Assert.assertEquals(nbMsgs, c2.getV().getEntry(c0.getIdentity()));
+			Assert.assertEquals(1, c0.getV().getEntry(c2.getIdentity()));
+			Assert.assertEquals(1, c1.getV().getEntry(c2.getIdentity()));
+			emulateAnInputLineFromTheConsoleForAClient(c0, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAClient(c1, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAClient(c2, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAServer(s0, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAServer(s1, "quit");
+			sleep(100);
+		} finally {
+			Server.setReadBudgets(64, 16);
+		}
+	}
+}
@@ -0,0 +1,71 @@
+// CHECKSTYLE:OFF
+
+package chat;
+
+import static chat.common.Log.LOGGER_NAME_TEST;
+import static chat.common.Log.LOG_ON;
+import static chat.common.Log.TEST;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Level;
+import org.junit.Assert;
+import org.junit.Test;
+
+import chat.client.Client;
+import chat.common.Log;
+import chat.common.Scenario;
+import chat.server.Server;
+
+public class TestGracefulShutdown extends Scenario {
+	@Test
+	@Override
+	public void constructAndRun() throws Exception {
+		Log.configureALogger(LOGGER_NAME_TEST, Level.WARN);
+		if (LOG_ON && TEST.isInfoEnabled()) {
+			TEST.info("starting the servers...");
+		}
+		Server s0 = instanciateAServer("0");
+		sleep(500);
+		Server s1 = instanciateAServer("1 localhost 0");
+		sleep(500);
+		Server s2 = instanciateAServer("2 localhost 0 localhost 1");
+		sleep(500);
+		if (LOG_ON && TEST.isInfoEnabled()) {
+			TEST.info("starting the clients...");
+		}
+		Client c0 = instanciateAClient(2050);
+		sleep(500);
+		Client c1 = instanciateAClient(2051);
+		sleep(500);
+		Client c2 = instanciateAClient(2052);
+		sleep(500);
+		final int nbMsgs = 100;
+		for (int i = 0; i < nbMsgs; i++) {
+			emulateAnInputLineFromTheConsoleForAClient(c2, "message " + i + " from c2");
+		}
+		sleep(500);
+		// the shutdown is called directly: the command of the console interrupts
+		// the calling thread, which is the thread of the test
+		s2.shutdown(Server.DEFAULT_SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		sleep(1000);
+		Assert.assertEquals(nbMsgs, c0.getV().getEntry(c2.getIdentity()));
+		Assert.assertEquals(nbMsgs, c1.getV().getEntry(c2.getIdentity()));
+		Assert.assertEquals(1, s0.getNbLeftNeighbours());
+		Assert.assertEquals(1, s1.getNbLeftNeighbours());
+		// the other servers go on without the server that has left
+		emulateAnInputLineFromTheConsoleForAClient(c0, "message 0 from c0");
+		sleep(1000);
+		Assert.assertEquals(1, c1.getV().getEntry(c0.getIdentity()));
+		emulateAnInputLineFromTheConsoleForAClient(c0, "quit");
+		sleep(100);
+		emulateAnInputLineFromTheConsoleForAClient(c1, "quit");
+		sleep(100);
+		emulateAnInputLineFromTheConsoleForAClient(c2, "quit");
+		sleep(100);
+		emulateAnInputLineFromTheConsoleForAServer(s0, "quit");
+		sleep(100);
+		emulateAnInputLineFromTheConsoleForAServer(s1, "quit");
+		sleep(100);
+	}
+}
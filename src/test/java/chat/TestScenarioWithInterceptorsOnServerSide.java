@@ -5,7 +5,8 @@ package chat;
 import static chat.common.Log.LOGGER_NAME_TEST;
 import static chat.common.Log.LOG_ON;
 import static chat.common.Log.TEST;
-import java.util.function.Consumer;
+import java.nio.channels.SelectionKey;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 import org.apache.log4j.Level;
 import org.junit.Assert;
@@ -41,8 +42,8 @@ public class TestScenarioWithInterceptorsOnServerSide extends Scenario {
 		ServerInterceptors.setInterceptionEnabled(true);
 		Function<ElectionTokenContent, Boolean> conditionForInterceptingI1OnS2 = msg -> msg.getSender() == 1;
 		Function<ElectionTokenContent, Boolean> conditionForExecutingI1OnS2 = msg -> true;
-		Consumer<ElectionTokenContent> treatmentI1OnS2 = msg -> chat.server.algorithms.election.Action.TOKEN_MESSAGE
-				.execute(s2, msg);
+		BiConsumer<SelectionKey, ElectionTokenContent> treatmentI1OnS2 = (key,
+				msg) -> chat.server.algorithms.election.Action.TOKEN_MESSAGE.execute(s2, key, msg);
 		ServerInterceptors.addAnInterceptor("i1", s2, conditionForInterceptingI1OnS2, conditionForExecutingI1OnS2,
 				treatmentI1OnS2);
 
@@ -0,0 +1,126 @@
+// CHECKSTYLE:OFF
+
+package chat;
+
+import static chat.common.Log.LOGGER_NAME_TEST;
+import static chat.common.Log.LOG_ON;
+import static chat.common.Log.TEST;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.log4j.Level;
+import org.junit.Assert;
+import org.junit.Test;
+
+import chat.client.Client;
+import chat.common.Log;
+import chat.common.Scenario;
+import chat.server.Server;
+import chat.server.SlowClientPolicy;
+
+public class TestSlowClientPolicies extends Scenario {
+
+	private static final int NB_MSGS = 300;
+
+	private SocketChannel openStalledClient() throws IOException {
+		SocketChannel stalled = SocketChannel.open();
+		stalled.setOption(StandardSocketOptions.SO_RCVBUF, 4096);
+		stalled.connect(new InetSocketAddress(InetAddress.getLocalHost(), 2050));
+		sleep(500);
+		return stalled;
+	}
+
+	private void sendMessages(final Client client, final String line) throws IOException {
+		for (int i = 0; i < NB_MSGS; i++) {
+			emulateAnInputLineFromTheConsoleForAClient(client, line);
+		}
+	}
+
+	@Test
+	@Override
+	public void constructAndRun() throws Exception {
+		Log.configureALogger(LOGGER_NAME_TEST, Level.WARN);
+		if (LOG_ON && TEST.isInfoEnabled()) {
+			TEST.info("starting the server...");
+		}
+		SocketChannel stalled = null;
+		SocketChannel slow = null;
+		try {
+			Server s0 = instanciateAServer("0");
+			sleep(500);
+			Client c0 = instanciateAClient(2050);
+			sleep(500);
+			Client c1 = instanciateAClient(2050);
+			sleep(500);
+			StringBuilder line = new StringBuilder();
+			for (int i = 0; i < 10000; i++) {
+				line.append('x');
+			}
+			// a client that never reads
+			stalled = openStalledClient();
+			Server.setSlowClientPolicy(SlowClientPolicy.DROP_OLDEST, 16, 4);
+			sendMessages(c0, line.toString());
+			sleep(2000);
+			// the other clients are not affected by the stalled client
+			Assert.assertEquals(NB_MSGS, c1.getV().getEntry(c0.getIdentity()));
+			Assert.assertTrue(s0.getNbDroppedFrames() > 0);
+			Assert.assertEquals(0, s0.getNbDisconnectedClients());
+			Server.setSlowClientPolicy(SlowClientPolicy.DISCONNECT, 16, 4);
+			sendMessages(c0, line.toString());
+			sleep(2000);
+			Assert.assertEquals(2 * NB_MSGS, c1.getV().getEntry(c0.getIdentity()));
+			Assert.assertEquals(1, s0.getNbDisconnectedClients());
+			Assert.assertEquals(0, s0.getNbBlockedForwards());
+			// a client that starts reading after a while: the source is held back until it catches up
+			slow = openStalledClient();
+			slow.configureBlocking(false);
+			final SocketChannel slowChannel = slow;
+			AtomicBoolean reading = new AtomicBoolean(true);
+			Thread slowReader = new Thread(() -> {
+				ByteBuffer buffer = ByteBuffer.allocate(4096);
+				try {
+					Thread.sleep(1000);
+					while (reading.get()) {
+						buffer.clear();
+						if (slowChannel.read(buffer) == 0) {
+							Thread.sleep(1);
+						}
+					}
+				} catch (Exception e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			slowReader.start();
+			Server.setSlowClientPolicy(SlowClientPolicy.BLOCK, 16, 4);
+			sendMessages(c0, line.toString());
+			for (int i = 0; i < 100 && c1.getV().getEntry(c0.getIdentity()) < 3 * NB_MSGS; i++) {
+				sleep(100);
+			}
+			reading.set(false);
+			slowReader.join();
+			Assert.assertEquals(3 * NB_MSGS, c1.getV().getEntry(c0.getIdentity()));
+			Assert.assertTrue(s0.getNbBlockedForwards() > 0);
+			Assert.assertEquals(1, s0.getNbDisconnectedClients());
+			emulateAnInputLineFromTheConsoleForAClient(c0, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAClient(c1, "quit");
+			sleep(100);
+			emulateAnInputLineFromTheConsoleForAServer(s0, "quit");
+			sleep(100);
+		} finally {
+			if (stalled != null) {
+				stalled.close();
+			}
+			if (slow != null) {
+				slow.close();
+			}
+			Server.setSlowClientPolicy(SlowClientPolicy.DISCONNECT, 512, 128);
+		}
+	}
+}
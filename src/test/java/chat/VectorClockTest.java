@@ -22,6 +22,13 @@ Contributor(s):
  */
 package chat;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -168,4 +175,111 @@ public class VectorClockTest {
 		vc3.incrementEntry(6);
 		Assert.assertFalse(vc1.isEqualTo(vc3));
 	}
+
+	@Test
+	public void testSparseIdentities() throws Exception {
+		vc1.incrementEntry(200);
+		vc1.incrementEntry(100);
+		vc1.setEntry(101, 5);
+		vc1.incrementEntry(3);
+		vc1.incrementEntry(7);
+		Assert.assertEquals(5, vc1.size());
+		Assert.assertEquals(1, vc1.getEntry(100));
+		Assert.assertEquals(5, vc1.getEntry(101));
+		Assert.assertEquals(1, vc1.getEntry(200));
+		Assert.assertEquals(0, vc1.getEntry(150));
+		Assert.assertEquals("{3=1, 7=1, 100=1, 101=5, 200=1}", vc1.toString());
+		VectorClock vc2 = new VectorClock();
+		vc2.setEntry(150, 2);
+		vc2.setEntry(101, 7);
+		vc1.max(vc2);
+		Assert.assertEquals(6, vc1.size());
+		Assert.assertEquals(7, vc1.getEntry(101));
+		Assert.assertEquals(2, vc1.getEntry(150));
+		Assert.assertTrue(vc1.isGreaterOrEquals(vc2));
+		Assert.assertFalse(vc2.isGreaterOrEquals(vc1));
+		VectorClock copy = new VectorClock(vc1);
+		Assert.assertTrue(copy.isEqualTo(vc1));
+		copy.incrementEntry(1000);
+		Assert.assertFalse(copy.isEqualTo(vc1));
+		Assert.assertEquals(0, vc1.getEntry(1000));
+	}
+
+	@Test
+	public void testEqualsWithZeroEntries() throws Exception {
+		VectorClock vc2 = new VectorClock();
+		vc1.setEntry(4, 0);
+		vc2.setEntry(9, 0);
+		Assert.assertTrue(vc1.isEqualTo(vc2));
+		Assert.assertTrue(vc2.isEqualTo(vc1));
+		Assert.assertTrue(vc1.isGreaterOrEquals(vc2));
+		vc2.incrementEntry(9);
+		Assert.assertFalse(vc1.isEqualTo(vc2));
+		Assert.assertFalse(vc1.isGreaterOrEquals(vc2));
+	}
+
+	@Test
+	public void testSerializedForms() throws Exception {
+		vc1.setEntry(100, 3);
+		vc1.setEntry(101, 1);
+		vc1.setEntry(200, 128);
+		ByteBuffer buffer = ByteBuffer.allocate(64);
+		vc1.writeTo(buffer);
+		buffer.flip();
+		// the identities are written as differences (100, 1 and 99): one byte each,
+		// plus the number of entries and the values, the last one on two bytes
+		Assert.assertEquals(8, buffer.remaining());
+		VectorClock read = VectorClock.readFrom(buffer);
+		Assert.assertTrue(read.isEqualTo(vc1));
+		Assert.assertEquals(3, read.size());
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(vc1);
+		}
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+			VectorClock deserialized = (VectorClock) in.readObject();
+			Assert.assertTrue(deserialized.isEqualTo(vc1));
+			Assert.assertEquals("{100=3, 101=1, 200=128}", deserialized.toString());
+			deserialized.incrementEntry(150);
+			Assert.assertEquals(1, deserialized.getEntry(150));
+		}
+	}
+
+	@Test
+	public void testSerializedNumberOfEntriesIsNotTrusted() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+			out.writeObject(new VectorClock());
+		}
+		byte[] crafted = bytes.toByteArray();
+		// the number of entries is the last int of the block data, before the end marker
+		int last = crafted.length - 1;
+		Assert.assertEquals(0x78, crafted[last]);
+		crafted[last - 4] = 0x7f;
+		crafted[last - 3] = (byte) 0xff;
+		crafted[last - 2] = (byte) 0xff;
+		crafted[last - 1] = (byte) 0xff;
+		try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(crafted))) {
+			in.readObject();
+			Assert.fail("the entries announced are missing");
+		} catch (IOException e) {
+			// the stream ends before the entries announced, without allocating them
+		}
+	}
+
+	@Test
+	public void testChangedSince() throws Exception {
+		vc1.setEntry(3, 1);
+		vc1.setEntry(100, 5);
+		vc1.setEntry(200, 2);
+		VectorClock previous = new VectorClock(vc1);
+		vc1.incrementEntry(100);
+		vc1.incrementEntry(150);
+		VectorClock delta = vc1.changedSince(previous);
+		Assert.assertEquals("{100=6, 150=1}", delta.toString());
+		previous.max(delta);
+		Assert.assertTrue(previous.isEqualTo(vc1));
+		Assert.assertEquals(0, vc1.changedSince(vc1).size());
+		Assert.assertTrue(vc1.changedSince(new VectorClock()).isEqualTo(vc1));
+	}
 }
@@ -0,0 +1,134 @@
+// CHECKSTYLE:OFF
+
+package chat.server;
+
+import static chat.common.Log.LOGGER_NAME_TEST;
+import static chat.common.Log.LOG_ON;
+import static chat.common.Log.TEST;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import org.apache.log4j.Level;
+import org.junit.Assert;
+import org.junit.Test;
+
+import chat.client.algorithms.chat.ChatMsgContent;
+import chat.common.EncodedFrame;
+import chat.common.FullDuplexMsgWorker;
+import chat.common.Log;
+import chat.common.ReadMessageStatus;
+import chat.common.Scenario;
+import chat.server.algorithms.election.Action;
+import chat.server.algorithms.election.ElectionTokenContent;
+
+/**
+ * A client floods the server while a neighbouring server sends a control
+ * message. The burst of the client is in the receive buffer of the server
+ * when the control message arrives: the reactor treats at most the read budget
+ * of the client before serving the server connection, instead of the whole
+ * burst. The reactor is paused in the middle of the burst with the lock of the
+ * stripe of the client, so that the control message arrives at a known point.
+ * The messages of the client are counted by the neighbouring server, to which
+ * they are forwarded before the answer to the control message.
+ */
+public class TestReadBudgetFairness extends Scenario {
+
+	private static final int CHAT_TYPE = chat.client.algorithms.chat.Action.CHAT_MESSAGE.identifier();
+
+	private static final int CLIENT_BUDGET = 4;
+
+	private static final int NB_MSGS = 300;
+
+	private static final int NEIGHBOUR = 9;
+
+	private static FullDuplexMsgWorker connect(final int port) throws Exception {
+		return new FullDuplexMsgWorker(
+				SocketChannel.open(new InetSocketAddress(InetAddress.getLocalHost(), port)));
+	}
+
+	private static ReadMessageStatus readFully(final FullDuplexMsgWorker worker) {
+		ReadMessageStatus status;
+		do {
+			status = worker.readMessage();
+		} while (status != ReadMessageStatus.READDATACOMPLETED && status != ReadMessageStatus.CHANNELCLOSED);
+		return status;
+	}
+
+	@Test(timeout = 30000)
+	@Override
+	public void constructAndRun() throws Exception {
+		Log.configureALogger(LOGGER_NAME_TEST, Level.WARN);
+		if (LOG_ON && TEST.isInfoEnabled()) {
+			TEST.info("starting the server...");
+		}
+		Server.setReadBudgets(64, CLIENT_BUDGET);
+		FullDuplexMsgWorker client = null;
+		FullDuplexMsgWorker neighbour = null;
+		try {
+			Server s0 = instanciateAServer("0");
+			sleep(500);
+			client = connect(2050);
+			Assert.assertEquals(ReadMessageStatus.READDATACOMPLETED, readFully(client));
+			int identity = (Integer) client.getData().get();
+			neighbour = connect(2150);
+			sleep(500);
+			// the burst is written at once, so that it is read at once by the reactor
+			ByteBuffer burst = ByteBuffer.allocate(FullDuplexMsgWorker.RECEIVE_BUFFER_SIZE);
+			for (int i = 0; i < NB_MSGS; i++) {
+				EncodedFrame frame = EncodedFrame.encode(CHAT_TYPE, identity, i, new ChatMsgContent(identity, i, "m" + i));
+				try {
+					for (ByteBuffer buffer : frame.buffersForWriting()) {
+						burst.put(buffer);
+					}
+				} finally {
+					frame.release();
+				}
+			}
+			burst.flip();
+			synchronized (s0.clientStripe(identity)) {
+				while (burst.hasRemaining()) {
+					client.getChannel().write(burst);
+				}
+				// the reactor is blocked on the first message of the burst
+				sleep(500);
+				neighbour.sendMsg(Action.TOKEN_MESSAGE.identifier(), NEIGHBOUR, -1,
+						new ElectionTokenContent(NEIGHBOUR, NEIGHBOUR));
+				sleep(500);
+			}
+			int nbForwarded = 0;
+			while (readFully(neighbour) == ReadMessageStatus.READDATACOMPLETED
+					&& neighbour.getInType() != Action.TOKEN_MESSAGE.identifier()) {
+				Assert.assertEquals(CHAT_TYPE, neighbour.getInType());
+				nbForwarded++;
+			}
+			Assert.assertEquals(Action.TOKEN_MESSAGE.identifier(), neighbour.getInType());
+			if (LOG_ON && TEST.isInfoEnabled()) {
+				TEST.info(nbForwarded + " messages of the client forwarded before the answer");
+			}
+			// the first budget is treated before the control message, and more while
+			// the executor of the algorithms answers, depending on the scheduling;
+			// without the budget, the whole burst is treated before
+			Assert.assertTrue(nbForwarded >= CLIENT_BUDGET);
+			Assert.assertTrue("control message starved: " + nbForwarded + " messages before it",
+					nbForwarded < NB_MSGS / 2);
+			// the burst is not lost
+			while (nbForwarded < NB_MSGS && readFully(neighbour) == ReadMessageStatus.READDATACOMPLETED) {
+				nbForwarded++;
+			}
+			Assert.assertEquals(NB_MSGS, nbForwarded);
+			emulateAnInputLineFromTheConsoleForAServer(s0, "quit");
+			sleep(100);
+		} finally {
+			Server.setReadBudgets(64, 16);
+			if (client != null) {
+				client.close();
+			}
+			if (neighbour != null) {
+				neighbour.close();
+			}
+		}
+	}
+}